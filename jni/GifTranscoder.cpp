@@ -17,8 +17,8 @@
 #include <jni.h>
 #include <time.h>
 #include <stdio.h>
+#include <algorithm>
 #include <memory>
-#include <vector>
 
 #include <android/log.h>
 
@@ -39,6 +39,9 @@ static const ColorARGB TRANSPARENT = 0x0;
 
 #define MAX_COLOR_DISTANCE (255 * 255 * 255)
 
+// Rows of the output image below which splitting an image between threads is not worth it.
+#define MIN_ROWS_PER_THREAD 16
+
 #define TAG "GifTranscoder.cpp"
 #define LOGD_ENABLED 0
 #if LOGD_ENABLED
@@ -73,18 +76,40 @@ T* getPixel(T* buffer, int width, int x, int y) {
     return buffer + (y * width + x);
 }
 
+// The input file of a GIF being decoded, counting the bytes read to report progress.
+struct InputFile {
+    FILE* file;
+    long bytesRead;
+};
+
+int readInputFile(GifFileType* gifIn, GifByteType* bytes, int size) {
+    InputFile* input = static_cast<InputFile*>(gifIn->UserData);
+    const size_t bytesRead = fread(bytes, 1, size, input->file);
+    input->bytesRead += bytesRead;
+    return bytesRead;
+}
+
 } // namespace
 
-int GifTranscoder::transcode(const char* pathIn, const char* pathOut) {
+int GifTranscoder::transcode(const char* pathIn, const char* pathOut, int threadCount,
+                             ProgressListener* listener) {
     int error;
     double t0;
     GifFileType* gifIn;
     GifFileType* gifOut;
 
+    // Closes the input file when this method returns, after the GIF files
+    std::unique_ptr<FILE, int (*)(FILE*)> fileIn(fopen(pathIn, "rb"), fclose);
+    if (!fileIn) {
+        LOGE("Could not open input file: %s", pathIn);
+        return GIF_ERROR;
+    }
+    InputFile input = { fileIn.get(), 0 };
+
     // Automatically closes the GIF files when this method returns
     GifFilesCloser closer;
 
-    gifIn = DGifOpenFileName(pathIn, &error);
+    gifIn = DGifOpen(&input, readInputFile, &error);
     if (gifIn) {
         closer.setGifIn(gifIn);
         LOGD("Opened input GIF: %s", pathIn);
@@ -103,7 +128,7 @@ int GifTranscoder::transcode(const char* pathIn, const char* pathOut) {
     }
 
     t0 = now();
-    if (resizeBoxFilter(gifIn, gifOut)) {
+    if (resizeBoxFilter(gifIn, gifOut, threadCount, listener)) {
         LOGD("Resized GIF in %.2f ms", now() - t0);
     } else {
         LOGE("Could not resize GIF");
@@ -113,7 +138,8 @@ int GifTranscoder::transcode(const char* pathIn, const char* pathOut) {
     return GIF_OK;
 }
 
-bool GifTranscoder::resizeBoxFilter(GifFileType* gifIn, GifFileType* gifOut) {
+bool GifTranscoder::resizeBoxFilter(GifFileType* gifIn, GifFileType* gifOut, int threadCount,
+                                    ProgressListener* listener) {
     ASSERT(gifIn != NULL, "gifIn cannot be NULL");
     ASSERT(gifOut != NULL, "gifOut cannot be NULL");
 
@@ -146,8 +172,17 @@ bool GifTranscoder::resizeBoxFilter(GifFileType* gifIn, GifFileType* gifOut) {
     // Buffer for rendering images from the input GIF.
     std::unique_ptr<ColorARGB[]> renderBuffer(new ColorARGB[gifIn->SWidth * gifIn->SHeight]);
 
-    // Buffer for writing new images to output GIF (one row at a time).
-    std::unique_ptr<GifByteType[]> dstRowBuffer(new GifByteType[gifOut->SWidth]);
+    // Buffer for writing new images to output GIF.
+    std::unique_ptr<GifByteType[]> dstBuffer(new GifByteType[gifOut->SWidth * gifOut->SHeight]);
+
+    // Split the rows of each output image between the threads, each with its own color cache.
+    threadCount = std::max(1, std::min(threadCount, gifOut->SHeight / MIN_ROWS_PER_THREAD));
+    std::vector<ColorLookupCache> colorCaches(threadCount);
+    WorkerPool workers(threadCount);
+
+    // The color map and transparent color the color caches were filled with.
+    ColorMapObject* cachedColorMap = NULL;
+    int cachedTransparentColor = NO_TRANSPARENT_COLOR;
 
     // Many GIFs use DISPOSE_DO_NOT to make images draw on top of previous images. They can also
     // use DISPOSE_BACKGROUND to clear the last image region before drawing the next one. We need
@@ -217,17 +252,35 @@ bool GifTranscoder::resizeBoxFilter(GifFileType* gifIn, GifFileType* gifOut) {
                 }
                 LOGD("Rendered image (%d)", imageIndex);
 
-                // Generate the image in the output GIF.
-                for (int y = 0; y < gifOut->SHeight; y++) {
-                    for (int x = 0; x < gifOut->SWidth; x++) {
-                      const GifByteType dstColorIndex = computeNewColorIndex(
-                          gifIn, transparentColor, renderBuffer.get(), x, y);
-                      *(dstRowBuffer.get() + x) = dstColorIndex;
-                    }
-                    if (EGifPutLine(gifOut, dstRowBuffer.get(), gifOut->SWidth) == GIF_ERROR) {
-                        LOGE("Could not write raster data (%d)", imageIndex);
-                        return false;
+                // A local color map is freshly allocated for each image, so its address can't
+                // tell whether it changed.
+                ColorMapObject* colorMap = getColorMap(gifIn);
+                if (gifIn->Image.ColorMap != NULL || colorMap != cachedColorMap ||
+                        transparentColor != cachedTransparentColor) {
+                    for (ColorLookupCache& colorCache : colorCaches) {
+                        colorCache.clear();
                     }
+                    cachedColorMap = gifIn->Image.ColorMap != NULL ? NULL : colorMap;
+                    cachedTransparentColor = transparentColor;
+                }
+
+                // Generate the image in the output GIF. Rendering depends on the previous image,
+                // but each output row only depends on the rendered image, so rows are split
+                // between threads.
+                workers.run([&](int part) {
+                    computeNewColorIndices(gifIn,
+                                           transparentColor,
+                                           renderBuffer.get(),
+                                           gifOut->SWidth,
+                                           gifOut->SHeight * part / threadCount,
+                                           gifOut->SHeight * (part + 1) / threadCount,
+                                           dstBuffer.get(),
+                                           &colorCaches[part]);
+                });
+                if (EGifPutLine(gifOut, dstBuffer.get(),
+                                gifOut->SWidth * gifOut->SHeight) == GIF_ERROR) {
+                    LOGE("Could not write raster data (%d)", imageIndex);
+                    return false;
                 }
                 LOGD("Wrote raster data (%d)", imageIndex);
 
@@ -252,6 +305,12 @@ bool GifTranscoder::resizeBoxFilter(GifFileType* gifIn, GifFileType* gifOut) {
                 }
 
                 imageIndex++;
+
+                if (listener != NULL && !listener->onImageTranscoded(
+                        static_cast<InputFile*>(gifIn->UserData)->bytesRead)) {
+                    LOGI("Cancelled after %d images", imageIndex);
+                    return false;
+                }
             } break;
             case EXTENSION_RECORD_TYPE: {
                 int extCode;
@@ -426,11 +485,28 @@ void GifTranscoder::fillRect(ColorARGB* renderBuffer,
     }
 }
 
+void GifTranscoder::computeNewColorIndices(GifFileType* gifIn,
+                                           int transparentColorIndex,
+                                           ColorARGB* renderBuffer,
+                                           int outWidth,
+                                           int firstRow,
+                                           int lastRow,
+                                           GifByteType* dstBuffer,
+                                           ColorLookupCache* cache) {
+    for (int y = firstRow; y < lastRow; y++) {
+        for (int x = 0; x < outWidth; x++) {
+            *getPixel(dstBuffer, outWidth, x, y) = computeNewColorIndex(
+                    gifIn, transparentColorIndex, renderBuffer, x, y, cache);
+        }
+    }
+}
+
 GifByteType GifTranscoder::computeNewColorIndex(GifFileType* gifIn,
                                                 int transparentColorIndex,
                                                 ColorARGB* renderBuffer,
                                                 int x,
-                                                int y) {
+                                                int y,
+                                                ColorLookupCache* cache) {
     ColorMapObject* colorMap = getColorMap(gifIn);
 
     // Compute the average color of 4 adjacent pixels from the input image.
@@ -440,8 +516,18 @@ GifByteType GifTranscoder::computeNewColorIndex(GifFileType* gifIn,
     ColorARGB c4 = *getPixel(renderBuffer, gifIn->SWidth, x * 2 + 1, y * 2 + 1);
     ColorARGB avgColor = computeAverage(c1, c2, c3, c4);
 
-    // Search the color map for the best match.
-    return findBestColor(colorMap, transparentColorIndex, avgColor);
+    // Return the transparent color if the average alpha is zero.
+    if (ALPHA(avgColor) == 0 && transparentColorIndex != NO_TRANSPARENT_COLOR) {
+        return transparentColorIndex;
+    }
+
+    // Search the color map for the best match, unless this color was seen before.
+    GifByteType colorIndex;
+    if (!cache->get(avgColor, &colorIndex)) {
+        colorIndex = findBestColor(colorMap, transparentColorIndex, avgColor);
+        cache->put(avgColor, colorIndex);
+    }
+    return colorIndex;
 }
 
 ColorARGB GifTranscoder::computeAverage(ColorARGB c1, ColorARGB c2, ColorARGB c3, ColorARGB c4) {
@@ -506,6 +592,92 @@ ColorARGB GifTranscoder::gifColorToColorARGB(const GifColorType& color) {
     return MAKE_COLOR_ARGB(0xff, color.Red, color.Green, color.Blue);
 }
 
+ColorLookupCache::ColorLookupCache() {
+    clear();
+}
+
+void ColorLookupCache::clear() {
+    std::fill(mKeys, mKeys + kSize, 0);
+}
+
+bool ColorLookupCache::get(ColorARGB color, GifByteType* colorIndex) const {
+    // Alpha doesn't affect the best color
+    const ColorARGB key = color | 0xff000000;
+    const int slot = getSlot(key);
+    if (mKeys[slot] != key) {
+        return false;
+    }
+    *colorIndex = mColorIndices[slot];
+    return true;
+}
+
+void ColorLookupCache::put(ColorARGB color, GifByteType colorIndex) {
+    const ColorARGB key = color | 0xff000000;
+    const int slot = getSlot(key);
+    mKeys[slot] = key;
+    mColorIndices[slot] = colorIndex;
+}
+
+int ColorLookupCache::getSlot(ColorARGB key) {
+    // Fibonacci hashing spreads nearby colors over the table
+    return ((key & 0xffffff) * 2654435761u) >> (32 - kSizeBits);
+}
+
+WorkerPool::WorkerPool(int threadCount) {
+    for (int part = 1; part < threadCount; part++) {
+        mThreads.push_back(std::thread(&WorkerPool::runWorker, this, part));
+    }
+}
+
+WorkerPool::~WorkerPool() {
+    {
+        std::lock_guard<std::mutex> lock(mMutex);
+        mStopping = true;
+    }
+    mTaskReady.notify_all();
+    for (std::thread& thread : mThreads) {
+        thread.join();
+    }
+}
+
+void WorkerPool::run(const std::function<void(int)>& task) {
+    {
+        std::lock_guard<std::mutex> lock(mMutex);
+        mTask = &task;
+        mTaskCount++;
+        mPendingParts = mThreads.size();
+    }
+    mTaskReady.notify_all();
+    task(0);
+
+    std::unique_lock<std::mutex> lock(mMutex);
+    mTaskDone.wait(lock, [this] { return mPendingParts == 0; });
+    mTask = NULL;
+}
+
+void WorkerPool::runWorker(int part) {
+    int tasksRun = 0;
+    while (true) {
+        const std::function<void(int)>* task;
+        {
+            std::unique_lock<std::mutex> lock(mMutex);
+            mTaskReady.wait(lock, [&] { return mStopping || mTaskCount != tasksRun; });
+            if (mStopping) {
+                return;
+            }
+            task = mTask;
+            tasksRun = mTaskCount;
+        }
+        (*task)(part);
+        {
+            std::lock_guard<std::mutex> lock(mMutex);
+            if (--mPendingParts == 0) {
+                mTaskDone.notify_one();
+            }
+        }
+    }
+}
+
 GifFilesCloser::~GifFilesCloser() {
     if (mGifIn) {
         DGifCloseFile(mGifIn, NULL);
@@ -539,12 +711,42 @@ void GifFilesCloser::releaseGifOut() {
 
 // JNI stuff
 
-jboolean transcode(JNIEnv* env, jobject clazz, jstring filePath, jstring outFilePath) {
+// Forwards progress to the Java callback, which returns false to cancel.
+class JniProgressListener : public GifTranscoder::ProgressListener {
+public:
+    JniProgressListener(JNIEnv* env, jobject callback, jmethodID method)
+            : mEnv(env), mCallback(callback), mMethod(method) {}
+
+    bool onImageTranscoded(long bytesRead) override {
+        const jboolean keepGoing =
+                mEnv->CallBooleanMethod(mCallback, mMethod, static_cast<jlong>(bytesRead));
+        // Stop if the callback threw, the exception is thrown once back in Java
+        return !mEnv->ExceptionCheck() && keepGoing;
+    }
+
+private:
+    JNIEnv* mEnv;
+    jobject mCallback;
+    jmethodID mMethod;
+};
+
+jboolean transcode(JNIEnv* env, jobject clazz, jstring filePath, jstring outFilePath,
+                   jint threadCount, jobject callback) {
+    std::unique_ptr<JniProgressListener> listener;
+    if (callback != NULL) {
+        jmethodID method = env->GetMethodID(env->GetObjectClass(callback),
+                                            "onImageTranscoded", "(J)Z");
+        if (method == NULL) {
+            return JNI_FALSE;
+        }
+        listener.reset(new JniProgressListener(env, callback, method));
+    }
+
     const char* pathIn = env->GetStringUTFChars(filePath, JNI_FALSE);
     const char* pathOut = env->GetStringUTFChars(outFilePath, JNI_FALSE);
 
     GifTranscoder transcoder;
-    int gifCode = transcoder.transcode(pathIn, pathOut);
+    int gifCode = transcoder.transcode(pathIn, pathOut, threadCount, listener.get());
 
     env->ReleaseStringUTFChars(filePath, pathIn);
     env->ReleaseStringUTFChars(outFilePath, pathOut);
@@ -555,7 +757,10 @@ jboolean transcode(JNIEnv* env, jobject clazz, jstring filePath, jstring outFile
 const char *kClassPathName = "com/android/messaging/util/GifTranscoder";
 
 JNINativeMethod kMethods[] = {
-        { "transcodeInternal", "(Ljava/lang/String;Ljava/lang/String;)Z", (void*)transcode },
+        { "transcodeInternal",
+          "(Ljava/lang/String;Ljava/lang/String;I"
+          "Lcom/android/messaging/util/GifTranscoder$NativeCallback;)Z",
+          (void*)transcode },
 };
 
 int registerNativeMethods(JNIEnv* env, const char* className,
@@ -19,6 +19,12 @@
 
 #include <sys/types.h>
 
+#include <condition_variable>
+#include <functional>
+#include <mutex>
+#include <thread>
+#include <vector>
+
 #include "gif_lib.h"
 
 // 24-bit color with alpha, stored in order: A, R, G, B.
@@ -33,8 +39,20 @@ typedef uint32_t ColorARGB;
 // GIF89A spec: http://www.w3.org/Graphics/GIF/spec-gif89a.txt
 // What's in a GIF: http://giflib.sourceforge.net/whatsinagif/index.html
 //
+class ColorLookupCache;
+
 class GifTranscoder {
 public:
+    // Receives the progress of a transcode, and can cancel it.
+    class ProgressListener {
+    public:
+        virtual ~ProgressListener() {}
+
+        // Called after each image of the GIF is written, with the number of bytes of the input
+        // file read so far. Returns false to cancel the transcode.
+        virtual bool onImageTranscoded(long bytesRead) = 0;
+    };
+
     GifTranscoder() {}
     ~GifTranscoder() {}
 
@@ -42,14 +60,27 @@ public:
     // written to pathOut.
     //
     // The image is resized using a box filter, which averages the colors in each 2x2 box of pixels
-    // in the source to generate the color of the pixel in the destination.
+    // in the source to generate the color of the pixel in the destination. The rows of each image
+    // are split between up to threadCount threads. The listener may be NULL.
     //
-    // Returns GIF_OK (1) on success, or GIF_ERROR (0) on failure.
-    int transcode(const char* pathIn, const char* pathOut);
+    // Returns GIF_OK (1) on success, or GIF_ERROR (0) on failure or if cancelled.
+    int transcode(const char* pathIn, const char* pathOut, int threadCount,
+                  ProgressListener* listener);
 
 private:
     // Implementation of the box filter algorithm.
-    static bool resizeBoxFilter(GifFileType* gifIn, GifFileType* gifOut);
+    static bool resizeBoxFilter(GifFileType* gifIn, GifFileType* gifOut, int threadCount,
+                                ProgressListener* listener);
+
+    // Computes the colors of rows [firstRow, lastRow) of the current image in the output GIF.
+    static void computeNewColorIndices(GifFileType* gifIn,
+                                       int transparentColorIndex,
+                                       ColorARGB* renderBuffer,
+                                       int outWidth,
+                                       int firstRow,
+                                       int lastRow,
+                                       GifByteType* dstBuffer,
+                                       ColorLookupCache* cache);
 
     // Reads the raster data for the current image of the GIF.
     static bool readImage(GifFileType* gifIn, GifByteType* rasterBits);
@@ -79,7 +110,8 @@ private:
                                             int transparentColorIndex,
                                             ColorARGB* renderBuffer,
                                             int x,
-                                            int y);
+                                            int y,
+                                            ColorLookupCache* cache);
 
     // Computes the average color (by averaging the per-channel (ARGB) values).
     static ColorARGB computeAverage(ColorARGB c1, ColorARGB c2, ColorARGB c3, ColorARGB c4);
@@ -102,6 +134,58 @@ private:
     static ColorARGB gifColorToColorARGB(const GifColorType& color);
 };
 
+// Remembers the color map index found for recently seen colors, since most pixels of a GIF share
+// their color with many others and searching the color map is the most expensive step of
+// resizing. It is a direct mapped table, so a lookup is a hash and one comparison. It must be
+// cleared whenever the color map or the transparent color changes.
+class ColorLookupCache {
+public:
+    ColorLookupCache();
+
+    void clear();
+
+    // Returns true and sets colorIndex if the color was cached.
+    bool get(ColorARGB color, GifByteType* colorIndex) const;
+
+    void put(ColorARGB color, GifByteType colorIndex);
+
+private:
+    static const int kSizeBits = 12;
+    static const int kSize = 1 << kSizeBits;
+
+    static int getSlot(ColorARGB key);
+
+    // Colors with their alpha forced to opaque, so that 0 marks an empty slot
+    ColorARGB mKeys[kSize];
+    GifByteType mColorIndices[kSize];
+};
+
+// Runs a task split into a fixed number of parts, one per thread, the calling thread running part
+// 0. The threads are started once and reused for every task, since a GIF can have hundreds of
+// images and each is split this way.
+class WorkerPool {
+public:
+    explicit WorkerPool(int threadCount);
+    ~WorkerPool();
+
+    // Calls task(part) for every part in [0, threadCount) and returns once all of them returned.
+    void run(const std::function<void(int)>& task);
+
+private:
+    void runWorker(int part);
+
+    std::mutex mMutex;
+    std::condition_variable mTaskReady;
+    std::condition_variable mTaskDone;
+    const std::function<void(int)>* mTask = NULL;
+    // Counts the tasks started, so that each worker runs a task only once
+    int mTaskCount = 0;
+    // Parts of the current task not done yet by the worker threads
+    int mPendingParts = 0;
+    bool mStopping = false;
+    std::vector<std::thread> mThreads;
+};
+
 // Wrapper class that automatically closes the GIF files when the wrapper goes out of scope.
 class GifFilesCloser {
 public:
@@ -18,6 +18,8 @@ package com.android.messaging.datamodel;
 
 import android.content.Context;
 import android.content.CursorLoader;
+import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.net.Uri;
 
 /**
@@ -25,6 +27,10 @@ import android.net.Uri;
  */
 public class BoundCursorLoader extends CursorLoader {
     private final String mBindingId;
+    private boolean mDiffingEnabled;
+    private boolean mReverseOrder;
+    // Snapshot of the last delivered cursor, which the next load is diffed against
+    private volatile CursorSnapshot mDeliveredSnapshot;
 
     /**
      * Create cursor loader for associated binding id
@@ -43,4 +49,64 @@ public class BoundCursorLoader extends CursorLoader {
     public String getBindingId() {
         return mBindingId;
     }
+
+    /**
+     * Have each loaded cursor carry a {@link CursorSnapshot} along with its differences from the
+     * previously delivered cursor, both computed on the loader thread.
+     *
+     * @param reverseOrder Whether the consumer presents the rows of the cursor in reverse order
+     */
+    public void enableDiffing(final boolean reverseOrder) {
+        mDiffingEnabled = true;
+        mReverseOrder = reverseOrder;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        final Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            final Cursor loadedCursor = onCursorLoaded(cursor);
+            if (!mDiffingEnabled) {
+                return loadedCursor;
+            }
+            return new SnapshotCursor(loadedCursor,
+                    CursorSnapshot.create(loadedCursor, mReverseOrder, mDeliveredSnapshot));
+        } catch (final RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Called on the loader thread with the freshly queried cursor, letting subclasses load extra
+     * data for it or wrap it before it gets delivered.
+     */
+    protected Cursor onCursorLoaded(final Cursor cursor) {
+        return cursor;
+    }
+
+    @Override
+    public void deliverResult(final Cursor cursor) {
+        if (mDiffingEnabled && !isReset()) {
+            mDeliveredSnapshot = CursorSnapshot.from(cursor);
+        }
+        super.deliverResult(cursor);
+    }
+
+    private static class SnapshotCursor extends CursorWrapper implements CursorSnapshot.Provider {
+        private final CursorSnapshot mSnapshot;
+
+        public SnapshotCursor(final Cursor cursor, final CursorSnapshot snapshot) {
+            super(cursor);
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public CursorSnapshot getCursorSnapshot() {
+            return mSnapshot;
+        }
+    }
 }
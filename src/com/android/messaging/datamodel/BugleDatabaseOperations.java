@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
 import androidx.collection.ArrayMap;
 import androidx.collection.SimpleArrayMap;
 import android.text.TextUtils;
@@ -52,6 +53,9 @@ import com.android.messaging.widget.WidgetConversationProvider;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -69,6 +73,12 @@ public class BugleDatabaseOperations {
     private static final ArrayMap<String, String> sNormalizedPhoneNumberToParticipantIdCache =
             new ArrayMap<String, String>();
 
+    // Content hashes of the drafts last written by updateDraftMessageData, by conversation id
+    private static final int PERSISTED_DRAFT_HASH_CACHE_SIZE = 32;
+    private static final LruCache<String, String> sPersistedDraftHashes =
+            new LruCache<String, String>(PERSISTED_DRAFT_HASH_CACHE_SIZE);
+    private static final String NO_DRAFT_HASH = "";
+
     /**
      * Convert list of recipient strings (email/phone number) into list of ConversationParticipants
      *
@@ -469,6 +479,7 @@ public class BugleDatabaseOperations {
     public static boolean deleteConversation(final DatabaseWrapper dbWrapper,
             final String conversationId, final long cutoffTimestamp) {
         Assert.isNotMainThread();
+        sPersistedDraftHashes.remove(conversationId);
         dbWrapper.beginTransaction();
         boolean conversationDeleted = false;
         boolean conversationMessagesDeleted = false;
@@ -522,6 +533,9 @@ public class BugleDatabaseOperations {
                         ConversationColumns._ID + "=?", new String[] { conversationId });
                 conversationDeleted = (count > 0);
             }
+            DataModelChangeStream.get().post(conversationDeleted
+                    ? DataModelChange.conversationDeleted(conversationId)
+                    : DataModelChange.conversationChanged(conversationId));
             dbWrapper.setTransactionSuccessful();
         } finally {
             dbWrapper.endTransaction();
@@ -772,8 +786,13 @@ public class BugleDatabaseOperations {
     public static boolean updateConversationRowIfExists(final DatabaseWrapper dbWrapper,
             final String conversationId, final ContentValues values) {
         Assert.isNotMainThread();
-        return updateRowIfExists(dbWrapper, DatabaseHelper.CONVERSATIONS_TABLE,
+        final int count = updateRowIfChanged(dbWrapper, DatabaseHelper.CONVERSATIONS_TABLE,
                 ConversationColumns._ID, conversationId, values);
+        if (count > 0) {
+            DataModelChangeStream.get().post(
+                    DataModelChange.conversationChanged(conversationId));
+        }
+        return (count >= 0);
     }
 
     @DoesNotRunOnMainThread
@@ -788,8 +807,92 @@ public class BugleDatabaseOperations {
     public static boolean updateMessageRowIfExists(final DatabaseWrapper dbWrapper,
             final String messageId, final ContentValues values) {
         Assert.isNotMainThread();
-        return updateRowIfExists(dbWrapper, DatabaseHelper.MESSAGES_TABLE, MessageColumns._ID,
-                messageId, values);
+        final int count = updateRowIfChanged(dbWrapper, DatabaseHelper.MESSAGES_TABLE,
+                MessageColumns._ID, messageId, values);
+        if (count > 0) {
+            postMessageUpdated(dbWrapper, values.getAsString(MessageColumns.CONVERSATION_ID),
+                    messageId);
+        }
+        return (count >= 0);
+    }
+
+    /**
+     * Posts the update of a message, looking up its conversation if the writer did not know it.
+     */
+    private static void postMessageUpdated(final DatabaseWrapper dbWrapper,
+            final String conversationId, final String messageId) {
+        final DataModelChangeStream changeStream = DataModelChangeStream.get();
+        if (!changeStream.hasListeners()) {
+            return;
+        }
+        changeStream.post(DataModelChange.messageUpdated(conversationId != null ? conversationId
+                : getConversationIdForMessage(dbWrapper, messageId), messageId));
+    }
+
+    private static String getConversationIdForMessage(final DatabaseWrapper dbWrapper,
+            final String messageId) {
+        Cursor cursor = null;
+        try {
+            cursor = dbWrapper.query(DatabaseHelper.MESSAGES_TABLE,
+                    new String[] { MessageColumns.CONVERSATION_ID },
+                    MessageColumns._ID + "=?",
+                    new String[] { messageId },
+                    null, null, null);
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Updates all the messages matching the selection, e.g. to mark a whole conversation as read,
+     * and posts a change for each conversation they belong to.
+     *
+     * @return the number of messages updated
+     */
+    @DoesNotRunOnMainThread
+    public static int updateMessagesInTransaction(final DatabaseWrapper dbWrapper,
+            final ContentValues values, final String selection, final String[] selectionArgs) {
+        Assert.isNotMainThread();
+        Assert.isTrue(dbWrapper.getDatabase().inTransaction());
+        final DataModelChangeStream changeStream = DataModelChangeStream.get();
+        final HashSet<String> conversationIds = new HashSet<String>();
+        if (changeStream.hasListeners()) {
+            Cursor cursor = null;
+            try {
+                cursor = dbWrapper.query(DatabaseHelper.MESSAGES_TABLE,
+                        new String[] { MessageColumns.CONVERSATION_ID },
+                        selection, selectionArgs, MessageColumns.CONVERSATION_ID /* groupBy */,
+                        null, null);
+                while (cursor.moveToNext()) {
+                    conversationIds.add(cursor.getString(0));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        final int count = dbWrapper.update(DatabaseHelper.MESSAGES_TABLE, values, selection,
+                selectionArgs);
+        if (count > 0) {
+            for (final String conversationId : conversationIds) {
+                changeStream.post(DataModelChange.conversationChanged(conversationId));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Posts the deletion of a message by a writer that deletes messages in bulk, such as the sync.
+     */
+    public static void postMessageDeletedInTransaction(final DatabaseWrapper dbWrapper,
+            final String conversationId, final String messageId) {
+        Assert.isTrue(dbWrapper.getDatabase().inTransaction());
+        DataModelChangeStream.get().post(
+                DataModelChange.messageDeleted(conversationId, messageId));
     }
 
     @DoesNotRunOnMainThread
@@ -903,6 +1006,14 @@ public class BugleDatabaseOperations {
         }
     }
 
+    /**
+     * Forgets the content of the stored drafts, so that the next save of each is written. Called
+     * when the tables are created, since whatever drafts were stored are gone with the old ones.
+     */
+    static void clearPersistedDraftHashes() {
+        sPersistedDraftHashes.evictAll();
+    }
+
     @DoesNotRunOnMainThread
     public static ArrayList<String> getRecipientsForConversation(final DatabaseWrapper dbWrapper,
             final String conversationId) {
@@ -1176,6 +1287,8 @@ public class BugleDatabaseOperations {
             messagePart.updateMessageId(messageId);
             insertNewMessagePartInTransaction(dbWrapper, messagePart, message.getConversationId());
         }
+        DataModelChangeStream.get().post(
+                DataModelChange.messageInserted(message.getConversationId(), messageId));
     }
 
     /**
@@ -1202,7 +1315,9 @@ public class BugleDatabaseOperations {
             //  Update message row
             final ContentValues values = new ContentValues();
             message.populate(values);
-            updateMessageRowIfExists(dbWrapper, message.getMessageId(), values);
+            updateRowIfChanged(dbWrapper, DatabaseHelper.MESSAGES_TABLE, MessageColumns._ID,
+                    messageId, values);
+            postMessageUpdated(dbWrapper, message.getConversationId(), messageId);
         }
     }
 
@@ -1219,7 +1334,11 @@ public class BugleDatabaseOperations {
         }
         values.clear();
         message.populate(values);
-        updateMessageRowIfExists(dbWrapper, message.getMessageId(), values);
+        final int count = updateRowIfChanged(dbWrapper, DatabaseHelper.MESSAGES_TABLE,
+                MessageColumns._ID, message.getMessageId(), values);
+        if (count > 0 || !partsToUpdate.isEmpty()) {
+            postMessageUpdated(dbWrapper, message.getConversationId(), message.getMessageId());
+        }
     }
 
     /**
@@ -1252,6 +1371,10 @@ public class BugleDatabaseOperations {
                 // Delete message
                 count = dbWrapper.delete(DatabaseHelper.MESSAGES_TABLE,
                         MessageColumns._ID + "=?", new String[] { messageId });
+                if (count > 0) {
+                    DataModelChangeStream.get().post(
+                            DataModelChange.messageDeleted(conversationId, messageId));
+                }
 
                 if (!deleteConversationIfEmptyInTransaction(dbWrapper, conversationId)) {
                     // TODO: Should we leave the conversation sort timestamp alone?
@@ -1298,6 +1421,8 @@ public class BugleDatabaseOperations {
                         ConversationColumns._ID + "=?", new String[] { conversationId });
                 LogUtil.i(TAG,
                         "BugleDatabaseOperations: Deleted empty conversation " + conversationId);
+                DataModelChangeStream.get().post(
+                        DataModelChange.conversationDeleted(conversationId));
                 return true;
             } else {
                 return false;
@@ -1519,12 +1644,14 @@ public class BugleDatabaseOperations {
         try {
             // Find all draft parts for the current conversation
             final SimpleArrayMap<Uri, MessagePartData> currentDraftParts = new SimpleArrayMap<>();
+            final ArrayList<MessagePartData> existingParts = new ArrayList<MessagePartData>();
             cursor = dbWrapper.query(DatabaseHelper.DRAFT_PARTS_VIEW,
                     MessagePartData.getProjection(),
                     MessageColumns.CONVERSATION_ID + " =?",
                     new String[] { conversationId }, null, null, null);
             while (cursor.moveToNext()) {
                 final MessagePartData part = MessagePartData.createFromCursor(cursor);
+                existingParts.add(part);
                 if (part.isAttachment()) {
                     currentDraftParts.put(part.getContentUri(), part);
                 }
@@ -1545,24 +1672,38 @@ public class BugleDatabaseOperations {
                 part.destroySync();
             }
 
-            // Delete existing draft (cascade deletes parts)
-            dbWrapper.delete(DatabaseHelper.MESSAGES_TABLE,
-                    MessageColumns.STATUS + "=? AND " + MessageColumns.CONVERSATION_ID + "=?",
-                    new String[] {
-                        Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_DRAFT),
-                        conversationId
-                    });
+            final boolean writeDraft = updateMode == UPDATE_MODE_ADD_DRAFT && message != null
+                    && message.hasContent() && conversationExists;
+            final String existingDraftId = getDraftMessageId(dbWrapper, conversationId);
+            if (writeDraft && existingDraftId != null
+                    && updateDraftInPlace(dbWrapper, existingDraftId, existingParts, message)) {
+                // Only the parts that changed were rewritten
+                messageId = existingDraftId;
+            } else {
+                // Delete existing draft (cascade deletes parts)
+                final int deletedDraftCount = dbWrapper.delete(DatabaseHelper.MESSAGES_TABLE,
+                        MessageColumns.STATUS + "=? AND " + MessageColumns.CONVERSATION_ID + "=?",
+                        new String[] {
+                            Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_DRAFT),
+                            conversationId
+                        });
+                if (deletedDraftCount > 0) {
+                    DataModelChangeStream.get().post(
+                            DataModelChange.conversationChanged(conversationId));
+                }
 
-            // Write new draft
-            if (updateMode == UPDATE_MODE_ADD_DRAFT && message != null
-                    && message.hasContent() && conversationExists) {
-                Assert.equals(MessageData.BUGLE_STATUS_OUTGOING_DRAFT,
-                        message.getStatus());
+                // Write new draft
+                if (writeDraft) {
+                    Assert.equals(MessageData.BUGLE_STATUS_OUTGOING_DRAFT,
+                            message.getStatus());
 
-                // Now add draft to message table
-                insertNewMessageInTransaction(dbWrapper, message);
-                messageId = message.getMessageId();
+                    // Now add draft to message table
+                    insertNewMessageInTransaction(dbWrapper, message);
+                    messageId = message.getMessageId();
+                }
             }
+            sPersistedDraftHashes.put(conversationId,
+                    writeDraft ? getDraftContentHash(message) : NO_DRAFT_HASH);
 
             if (conversationExists) {
                 updateConversationDraftSnippetAndPreviewInTransaction(
@@ -1588,6 +1729,150 @@ public class BugleDatabaseOperations {
         return messageId;
     }
 
+    /**
+     * @return true if the draft stored for the conversation is known to have the same content as
+     *         the given one, in which case writing it again would change nothing
+     */
+    public static boolean isDraftPersisted(final String conversationId,
+            @Nullable final MessageData message) {
+        final String persistedHash = sPersistedDraftHashes.get(conversationId);
+        if (persistedHash == null) {
+            return false;
+        }
+        final boolean hasContent = message != null && message.hasContent();
+        return TextUtils.equals(persistedHash,
+                hasContent ? getDraftContentHash(message) : NO_DRAFT_HASH);
+    }
+
+    /**
+     * Hashes what is persisted of a draft: its self id, protocol, subject and parts. The received
+     * timestamp, which is new for every save, is left out.
+     */
+    private static String getDraftContentHash(final MessageData message) {
+        final StringBuilder content = new StringBuilder();
+        content.append(message.getSelfId()).append('\n')
+                .append(message.getProtocol()).append('\n')
+                .append(message.getMmsSubject()).append('\n');
+        for (final MessagePartData part : message.getParts()) {
+            content.append(getDraftPartKey(part)).append('\n');
+        }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(content.toString().getBytes("UTF-8"));
+            final StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (final byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (final NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Fall back to the content itself
+            return content.toString();
+        }
+    }
+
+    /**
+     * @return a key which is equal for two parts only if they would be stored identically
+     */
+    private static String getDraftPartKey(final MessagePartData part) {
+        return part.getContentType() + '|' + part.getContentUri() + '|' + part.getWidth() + 'x'
+                + part.getHeight() + '|' + part.getText();
+    }
+
+    private static String getDraftMessageId(final DatabaseWrapper dbWrapper,
+            final String conversationId) {
+        Cursor cursor = null;
+        try {
+            cursor = dbWrapper.query(DatabaseHelper.MESSAGES_TABLE,
+                    new String[] { MessageColumns._ID },
+                    MessageColumns.STATUS + "=? AND " + MessageColumns.CONVERSATION_ID + "=?",
+                    new String[] {
+                        Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_DRAFT),
+                        conversationId
+                    }, null, null, null);
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the existing draft message of a conversation to match the given one, keeping the
+     * rows of the parts that did not change, so that saving a draft after typing a few words does
+     * not rewrite all of its attachments.
+     *
+     * @return false, having written nothing, if the kept attachments would no longer be in the
+     *         order of the new draft, in which case the draft has to be rewritten from scratch
+     */
+    private static boolean updateDraftInPlace(final DatabaseWrapper dbWrapper,
+            final String draftMessageId, final List<MessagePartData> existingParts,
+            final MessageData message) {
+        final ArrayMap<String, ArrayList<MessagePartData>> reusableParts =
+                new ArrayMap<String, ArrayList<MessagePartData>>();
+        for (final MessagePartData part : existingParts) {
+            final String key = getDraftPartKey(part);
+            ArrayList<MessagePartData> parts = reusableParts.get(key);
+            if (parts == null) {
+                parts = new ArrayList<MessagePartData>(1);
+                reusableParts.put(key, parts);
+            }
+            parts.add(part);
+        }
+
+        // Match the new parts with the existing ones. New attachments are inserted after the
+        // existing ones, so the kept attachments must keep their order and precede the new ones.
+        final ArrayList<MessagePartData> matchedParts = new ArrayList<MessagePartData>();
+        int lastKeptAttachmentIndex = -1;
+        boolean insertedAttachment = false;
+        for (final MessagePartData part : message.getParts()) {
+            final ArrayList<MessagePartData> candidates = reusableParts.get(getDraftPartKey(part));
+            final MessagePartData match =
+                    (candidates == null || candidates.isEmpty()) ? null : candidates.remove(0);
+            matchedParts.add(match);
+            if (part.isAttachment()) {
+                if (match == null) {
+                    insertedAttachment = true;
+                } else {
+                    final int index = existingParts.indexOf(match);
+                    if (insertedAttachment || index < lastKeptAttachmentIndex) {
+                        return false;
+                    }
+                    lastKeptAttachmentIndex = index;
+                }
+            }
+        }
+
+        // Delete the parts that are no longer in the draft
+        for (int i = 0; i < reusableParts.size(); i++) {
+            for (final MessagePartData part : reusableParts.valueAt(i)) {
+                dbWrapper.delete(DatabaseHelper.PARTS_TABLE, PartColumns._ID + "=?",
+                        new String[] { part.getPartId() });
+            }
+        }
+
+        message.updateMessageId(null);
+        message.updateMessageId(draftMessageId);
+        int index = 0;
+        for (final MessagePartData part : message.getParts()) {
+            final MessagePartData match = matchedParts.get(index++);
+            part.updateMessageId(null);
+            part.updateMessageId(draftMessageId);
+            part.updatePartId(null);
+            if (match != null) {
+                part.updatePartId(match.getPartId());
+            } else {
+                insertNewMessagePartInTransaction(dbWrapper, part, message.getConversationId());
+            }
+        }
+
+        final ContentValues values = new ContentValues();
+        message.populate(values);
+        updateMessageRowIfExists(dbWrapper, draftMessageId, values);
+        return true;
+    }
+
     /**
      * Read the first draft message associated with this conversation.
      * If none present create an empty (sms) draft message.
@@ -1763,6 +2048,8 @@ public class BugleDatabaseOperations {
                 values);
         participantId = Long.toString(participantRow);
         Assert.notNull(canonicalRecipient);
+        DataModelChangeStream.get().post(
+                DataModelChange.participantChanged(participantId));
 
         synchronized (sNormalizedPhoneNumberToParticipantIdCache) {
             // Now that we've inserted it, add it to our cache
@@ -1893,6 +2180,16 @@ public class BugleDatabaseOperations {
     public static boolean updateRowIfExists(final DatabaseWrapper db, final String table,
             final String rowKey, final String rowId, final ContentValues values) {
         Assert.isNotMainThread();
+        return (updateRowIfChanged(db, table, rowKey, rowId, values) >= 0);
+    }
+
+    /**
+     * Updates the row only if one of the values differs from what it holds.
+     *
+     * @return the number of rows updated, 0 if the row is missing or already up to date
+     */
+    private static int updateRowIfChanged(final DatabaseWrapper db, final String table,
+            final String rowKey, final String rowId, final ContentValues values) {
         final StringBuilder sb = new StringBuilder();
         final ArrayList<String> whereValues = new ArrayList<String>(values.size() + 1);
         whereValues.add(rowId);
@@ -1919,6 +2216,6 @@ public class BugleDatabaseOperations {
                     " for " + rowKey + " = " + rowId + " (deleted?)");
         }
         Assert.inRange(count, 0, 1);
-        return (count >= 0);
+        return count;
     }
 }
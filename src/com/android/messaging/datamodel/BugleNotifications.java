@@ -29,6 +29,7 @@ import android.graphics.Typeface;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.PowerManager;
 import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
@@ -78,9 +79,14 @@ import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.PendingIntentConstants;
 import com.android.messaging.util.PhoneUtils;
 import com.android.messaging.util.RingtoneUtil;
+import com.android.messaging.util.SafeAsyncTask;
 import com.android.messaging.util.ThreadUtil;
 import com.android.messaging.util.UriUtil;
+import com.google.common.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -137,6 +143,21 @@ public class BugleNotifications {
             new SimpleArrayMap<String, Long>();
     private static int sTimeBetweenDingsMs;
 
+    // Message notification updates waiting for the end of the update interval
+    private static final Object sPendingUpdateLock = new Object();
+    private static final PendingUpdate sPendingUpdate = new PendingUpdate();
+    private static boolean sUpdateScheduled;
+    private static long sLastUpdateTime = Long.MIN_VALUE / 2;
+    // Keeps the device awake until a deferred update ran, at most this long past its due time
+    private static final long PENDING_UPDATE_WAKE_LOCK_SLACK_MS = 10000;
+    private static PowerManager.WakeLock sPendingUpdateWakeLock;
+
+    // Receive-to-notification latency of new message notifications
+    private static final Object sNotificationLatencyLock = new Object();
+    private static int sNotificationLatencyCount;
+    private static long sNotificationLatencyTotalMs;
+    private static long sNotificationLatencyMaxMs;
+
     /**
      * This is the volume at which to play the observable-conversation notification sound,
      * expressed as a fraction of the system notification volume.
@@ -182,7 +203,10 @@ public class BugleNotifications {
             return;
         } else {
             if ((coverage & UPDATE_MESSAGES) != 0) {
-                createMessageNotification(silent, conversationId);
+                if (conversationId != null) {
+                    MessageNotificationState.invalidateConversation(conversationId);
+                }
+                requestMessageNotification(silent, conversationId);
             }
         }
         if ((coverage & UPDATE_ERRORS) != 0) {
@@ -190,6 +214,154 @@ public class BugleNotifications {
         }
     }
 
+    /**
+     * Updates the message notification right away, unless it was updated less than the update
+     * interval ago. In that case the update is deferred to the end of the interval, and merged
+     * with the other updates requested until then so that a burst of incoming messages only
+     * updates the notification (and rings) once.
+     */
+    private static void requestMessageNotification(final boolean silent,
+            final String conversationId) {
+        final long delayMs;
+        synchronized (sPendingUpdateLock) {
+            sPendingUpdate.add(silent, conversationId);
+            if (sUpdateScheduled) {
+                // The scheduled update will pick this one up
+                return;
+            }
+            final int intervalMs = BugleGservices.get().getInt(
+                    BugleGservicesKeys.MESSAGE_NOTIFICATION_UPDATE_INTERVAL_MS,
+                    BugleGservicesKeys.MESSAGE_NOTIFICATION_UPDATE_INTERVAL_MS_DEFAULT);
+            delayMs = sLastUpdateTime + intervalMs - SystemClock.elapsedRealtime();
+            sUpdateScheduled = delayMs > 0;
+            if (sUpdateScheduled) {
+                // The caller's wake lock is released once it returns, so keep the device awake
+                // until the deferred update ran
+                getPendingUpdateWakeLock().acquire(delayMs + PENDING_UPDATE_WAKE_LOCK_SLACK_MS);
+            }
+        }
+        if (delayMs > 0) {
+            ThreadUtil.getMainThreadHandler().postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    SafeAsyncTask.executeOnThreadPool(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (shouldNotify()) {
+                                    processPendingMessageNotification();
+                                } else {
+                                    synchronized (sPendingUpdateLock) {
+                                        sPendingUpdate.clear();
+                                        sUpdateScheduled = false;
+                                    }
+                                }
+                            } finally {
+                                synchronized (sPendingUpdateLock) {
+                                    if (!sUpdateScheduled) {
+                                        getPendingUpdateWakeLock().release();
+                                    }
+                                }
+                            }
+                        }
+                    });
+                }
+            }, delayMs);
+        } else {
+            processPendingMessageNotification();
+        }
+    }
+
+    private static PowerManager.WakeLock getPendingUpdateWakeLock() {
+        if (sPendingUpdateWakeLock == null) {
+            final Context context = Factory.get().getApplicationContext();
+            final PowerManager powerManager =
+                    (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            sPendingUpdateWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                    "bugle_notification_update");
+            sPendingUpdateWakeLock.setReferenceCounted(false);
+        }
+        return sPendingUpdateWakeLock;
+    }
+
+    private static void processPendingMessageNotification() {
+        final boolean silent;
+        final ConversationIdSet conversationIds;
+        synchronized (sPendingUpdateLock) {
+            if (!sPendingUpdate.isPending()) {
+                sUpdateScheduled = false;
+                return;
+            }
+            silent = sPendingUpdate.isSilent();
+            conversationIds = sPendingUpdate.takeConversationIds();
+            sPendingUpdate.clear();
+            sUpdateScheduled = false;
+            sLastUpdateTime = SystemClock.elapsedRealtime();
+        }
+        createMessageNotification(silent, conversationIds);
+    }
+
+    /**
+     * Message notification updates requested while an update is deferred, merged into one. The
+     * merged update is silent only if all of the requested ones were, and keeps the conversations
+     * of all of them.
+     */
+    @VisibleForTesting
+    static class PendingUpdate {
+        private boolean mPending;
+        private boolean mSilent;
+        private ConversationIdSet mConversationIds = new ConversationIdSet();
+
+        void add(final boolean silent, final String conversationId) {
+            mSilent = mPending ? (mSilent && silent) : silent;
+            if (conversationId != null) {
+                mConversationIds.add(conversationId);
+            }
+            mPending = true;
+        }
+
+        boolean isPending() {
+            return mPending;
+        }
+
+        boolean isSilent() {
+            return mSilent;
+        }
+
+        /**
+         * @return the conversations with new messages since the last update, which are no longer
+         *         tracked afterwards
+         */
+        ConversationIdSet takeConversationIds() {
+            final ConversationIdSet conversationIds = mConversationIds;
+            mConversationIds = new ConversationIdSet();
+            return conversationIds;
+        }
+
+        void clear() {
+            mPending = false;
+            mSilent = false;
+            mConversationIds.clear();
+        }
+    }
+
+    /**
+     * Whether to play the soft sound of an observable conversation rather than notify, which is
+     * the case only if the user can observe the new messages of every conversation.
+     */
+    @VisibleForTesting
+    static boolean isNewMessageObservable(final Set<String> conversationIds) {
+        if (conversationIds.isEmpty()) {
+            return DataModel.get().isNewMessageObservable(null);
+        }
+        for (final String conversationId : conversationIds) {
+            if (!DataModel.get().isNewMessageObservable(conversationId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Cancel all notifications of a certain type.
      *
@@ -472,61 +644,108 @@ public class BugleNotifications {
             notifBuilder.addExtras(people);
         }
 
-        if (state.mParticipantAvatarsUris != null) {
-            final Uri avatarUri = state.mParticipantAvatarsUris.get(0);
-            final AvatarRequestDescriptor descriptor = new AvatarRequestDescriptor(avatarUri,
-                    sIconWidth, sIconHeight, OsUtil.isAtLeastL());
-            final MediaRequest<ImageResource> imageRequest = descriptor.buildSyncMediaRequest(
-                    context);
-
+        final Uri avatarUri = getAvatarUri(state);
+        if (avatarUri != null) {
             synchronized (sPendingNotifications) {
                 sPendingNotifications.add(state);
             }
 
-            // Synchronously load the avatar.
-            final ImageResource avatarImage =
-                    MediaResourceManager.get().requestMediaResourceSync(imageRequest);
-            if (avatarImage != null) {
-                ImageResource avatarHiRes = null;
-                try {
-                    if (isWearCompanionAppInstalled()) {
-                        // For Wear users, we need to request a high-res avatar image to use as the
-                        // notification card background. If the sender has a contact photo, we'll
-                        // request the display photo from the Contacts provider. Otherwise, we ask
-                        // the local content provider for a hi-res version of the generic avatar
-                        // (e.g. letter with colored background).
-                        avatarHiRes = requestContactDisplayPhoto(context,
-                                getDisplayPhotoUri(avatarUri));
-                        if (avatarHiRes == null) {
-                            final AvatarRequestDescriptor hiResDesc =
-                                    new AvatarRequestDescriptor(avatarUri,
-                                    sWearableImageWidth,
-                                    sWearableImageHeight,
-                                    false /* cropToCircle */,
-                                    true /* isWearBackground */);
-                            avatarHiRes = MediaResourceManager.get().requestMediaResourceSync(
-                                    hiResDesc.buildSyncMediaRequest(context));
-                        }
-                    }
+            // Get the avatar, which was most likely prefetched (or even posted before)
+            final NotificationAvatarCache.Avatar avatar =
+                    NotificationAvatarCache.get().get(avatarUri, sAvatarLoader);
+            if (avatar != null) {
+                sendNotification(state, avatar.getIcon(), avatar.getHiRes());
+                return;
+            }
+        }
+        // We have no avatar. Post the notification anyway.
+        sendNotification(state, null, null);
+    }
 
-                    // We have to make copies of the bitmaps to hand to the NotificationManager
-                    // because the bitmap in the ImageResource is managed and will automatically
-                    // get released.
-                    Bitmap avatarBitmap = Bitmap.createBitmap(avatarImage.getBitmap());
-                    Bitmap avatarHiResBitmap = (avatarHiRes != null) ?
-                            Bitmap.createBitmap(avatarHiRes.getBitmap()) : null;
-                    sendNotification(state, avatarBitmap, avatarHiResBitmap);
-                    return;
-                } finally {
-                    avatarImage.release();
-                    if (avatarHiRes != null) {
-                        avatarHiRes.release();
+    /**
+     * Returns the uri of the avatar shown with the notification, or null if it has none.
+     */
+    private static Uri getAvatarUri(final NotificationState state) {
+        return (state.mParticipantAvatarsUris == null || state.mParticipantAvatarsUris.isEmpty())
+                ? null : state.mParticipantAvatarsUris.get(0);
+    }
+
+    /**
+     * Returns the uris of the avatars of the notification and its per-conversation children.
+     */
+    private static List<Uri> getAvatarUris(final NotificationState state) {
+        final List<Uri> avatarUris = new ArrayList<Uri>();
+        final Uri avatarUri = getAvatarUri(state);
+        if (avatarUri != null) {
+            avatarUris.add(avatarUri);
+        }
+        if (state instanceof MultiConversationNotificationState) {
+            for (final NotificationState child :
+                    ((MultiConversationNotificationState) state).mChildren) {
+                final Uri childAvatarUri = getAvatarUri(child);
+                if (childAvatarUri != null) {
+                    avatarUris.add(childAvatarUri);
+                }
+            }
+        }
+        return avatarUris;
+    }
+
+    private static final NotificationAvatarCache.AvatarLoader sAvatarLoader =
+            new NotificationAvatarCache.AvatarLoader() {
+        @Override
+        public NotificationAvatarCache.Avatar load(final Uri avatarUri) {
+            final Context context = Factory.get().getApplicationContext();
+            final AvatarRequestDescriptor descriptor = new AvatarRequestDescriptor(avatarUri,
+                    sIconWidth, sIconHeight, OsUtil.isAtLeastL());
+            final ImageResource avatarImage = MediaResourceManager.get().requestMediaResourceSync(
+                    descriptor.buildSyncMediaRequest(context));
+            if (avatarImage == null) {
+                return null;
+            }
+            ImageResource avatarHiRes = null;
+            try {
+                if (isWearCompanionAppInstalled()) {
+                    // For Wear users, we need to request a high-res avatar image to use as the
+                    // notification card background. If the sender has a contact photo, we'll
+                    // request the display photo from the Contacts provider. Otherwise, we ask
+                    // the local content provider for a hi-res version of the generic avatar
+                    // (e.g. letter with colored background).
+                    avatarHiRes = requestContactDisplayPhoto(context,
+                            getDisplayPhotoUri(avatarUri));
+                    if (avatarHiRes == null) {
+                        final AvatarRequestDescriptor hiResDesc =
+                                new AvatarRequestDescriptor(avatarUri,
+                                sWearableImageWidth,
+                                sWearableImageHeight,
+                                false /* cropToCircle */,
+                                true /* isWearBackground */);
+                        avatarHiRes = MediaResourceManager.get().requestMediaResourceSync(
+                                hiResDesc.buildSyncMediaRequest(context));
                     }
                 }
+
+                // We have to make copies of the bitmaps to hand to the NotificationManager
+                // because the bitmap in the ImageResource is managed and will automatically
+                // get released. The copies are cached and reused by later notifications.
+                return new NotificationAvatarCache.Avatar(copyBitmap(avatarImage.getBitmap()),
+                        (avatarHiRes != null) ? copyBitmap(avatarHiRes.getBitmap()) : null);
+            } finally {
+                avatarImage.release();
+                if (avatarHiRes != null) {
+                    avatarHiRes.release();
+                }
             }
         }
-        // We have no avatar. Post the notification anyway.
-        sendNotification(state, null, null);
+    };
+
+    private static Bitmap copyBitmap(final Bitmap bitmap) {
+        Config config = bitmap.getConfig();
+        // Make sure our bitmap has a valid format.
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        return bitmap.copy(config, false /* isMutable */);
     }
 
     /**
@@ -592,18 +811,25 @@ public class BugleNotifications {
     }
 
     private static void createMessageNotification(final boolean silent,
-            final String conversationId) {
+            final ConversationIdSet conversationIds) {
         final NotificationState state = MessageNotificationState.getNotificationState();
-        final boolean softSound = DataModel.get().isNewMessageObservable(conversationId);
+        final boolean softSound = isNewMessageObservable(conversationIds);
         if (state == null) {
+            NotificationAvatarCache.get().prefetch(Collections.<Uri>emptyList(), sAvatarLoader);
             cancel(PendingIntentConstants.SMS_NOTIFICATION_ID);
+            final String conversationId = conversationIds.first();
             if (softSound && !TextUtils.isEmpty(conversationId)) {
                 final Uri ringtoneUri = getNotificationRingtoneUriForConversationId(conversationId);
                 playObservableConversationNotificationSound(ringtoneUri);
             }
             return;
         }
+        // Decode the avatars of all the conversations at once, before going through them
+        NotificationAvatarCache.get().prefetch(getAvatarUris(state), sAvatarLoader);
         processAndSend(state, silent, softSound);
+        if (!silent && !softSound && !conversationIds.isEmpty()) {
+            recordNotificationLatency(state);
+        }
 
         // The rest of the logic here is for supporting Android Wear devices, specifically for when
         // we are notifying about multiple conversations. In that case, the Inbox-style summary
@@ -635,6 +861,35 @@ public class BugleNotifications {
         writeGroupChildIds(context, groupChildIds);
     }
 
+    /**
+     * Records how long after the newest message was received its notification got posted.
+     */
+    private static void recordNotificationLatency(final NotificationState state) {
+        final long latencyMs = System.currentTimeMillis() - state.getLatestReceivedTimestamp();
+        if (latencyMs < 0) {
+            return;
+        }
+        synchronized (sNotificationLatencyLock) {
+            sNotificationLatencyCount++;
+            sNotificationLatencyTotalMs += latencyMs;
+            sNotificationLatencyMaxMs = Math.max(sNotificationLatencyMaxMs, latencyMs);
+        }
+        LogUtil.save(LogUtil.DEBUG, TAG, "Posted notification " + latencyMs
+                + "ms after receiving message");
+    }
+
+    /**
+     * Dumps the receive-to-notification latency of the notifications posted so far.
+     */
+    public static void dumpNotificationLatency(final PrintWriter writer) {
+        synchronized (sNotificationLatencyLock) {
+            writer.println("Notification latency: count=" + sNotificationLatencyCount
+                    + " averageMs=" + (sNotificationLatencyCount == 0 ? 0 :
+                            sNotificationLatencyTotalMs / sNotificationLatencyCount)
+                    + " maxMs=" + sNotificationLatencyMaxMs);
+        }
+    }
+
     private static void updateBuilderAudioVibrate(final NotificationState state,
             final NotificationCompat.Builder notifBuilder, final boolean silent,
             final Uri ringtoneUri, final String conversationId) {
@@ -865,11 +1120,8 @@ public class BugleNotifications {
         if (!isWearCompanionAppInstalled()) {
             return;
         }
-        final String convId = notificationState.mConversationIds.first();
-        ConversationLineInfo convInfo = notificationState.mConvList.mConvInfos.get(0);
-        final Notification page = MessageNotificationState.buildConversationPageForWearable(
-                convId,
-                convInfo.mParticipantCount);
+        final ConversationLineInfo convInfo = notificationState.mConvList.mConvInfos.get(0);
+        final Notification page = convInfo.getWearablePage();
         if (page != null) {
             wearableExtender.addPage(page);
         }
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.net.Uri;
+
+import com.android.messaging.Factory;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.SafeAsyncTask;
+import com.android.messaging.util.ThreadUtil;
+import com.android.messaging.widget.BugleWidgetProvider;
+import com.android.messaging.widget.WidgetConversationProvider;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Batches the change notifications of MessagingContentProvider. Each one used to go out right
+ * away, so a sync or a burst of actions made every loader and widget requery many times a second.
+ *
+ * Changes made outside of a database transaction are held for a short window, and changes made
+ * within a transaction until it ends, then the distinct uris are notified at once. The changes
+ * made within a transaction that is rolled back are dropped. A batch with
+ * more than ESCALATION_THRESHOLD uris is notified as one change of the whole provider instead.
+ */
+class ContentChangeDispatcher {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // How long changes made outside of a transaction are held
+    private static final long BATCH_WINDOW_MS = 100;
+
+    // Past this number of distinct uris in a batch, notify that everything changed
+    @VisibleForTesting
+    static final int ESCALATION_THRESHOLD = 16;
+
+    private static ContentChangeDispatcher sInstance;
+
+    /**
+     * Delivers the notifications of a batch.
+     */
+    interface ChangeSink {
+        void notifyChange(Uri uri);
+
+        void notifyConversationListWidgets();
+
+        /**
+         * @param conversationId the conversation whose widgets to notify, or null for all of them
+         */
+        void notifyConversationWidgets(String conversationId);
+    }
+
+    private static class Batch {
+        final LinkedHashSet<Uri> mUris = new LinkedHashSet<Uri>();
+        final HashSet<String> mWidgetConversationIds = new HashSet<String>();
+        boolean mAllWidgetConversations;
+        boolean mConversationListWidgets;
+        boolean mEverything;
+        // Set on the batch of a transaction which is rolled back
+        boolean mRolledBack;
+
+        boolean isEmpty() {
+            return mUris.isEmpty() && mWidgetConversationIds.isEmpty()
+                    && !mAllWidgetConversations && !mConversationListWidgets && !mEverything;
+        }
+    }
+
+    private final ChangeSink mSink;
+    private final Object mLock = new Object();
+
+    // Changes made outside of transactions, guarded by mLock
+    private Batch mPendingBatch = new Batch();
+    private boolean mFlushScheduled;
+
+    // Changes made within the transaction open on each thread, if any
+    private final ThreadLocal<Batch> mTransactionBatch = new ThreadLocal<Batch>();
+
+    // Counters, guarded by mLock
+    private long mRequestedCount;
+    private long mNotifiedCount;
+    private long mSuppressedCount;
+    private long mEscalatedCount;
+    private long mBatchCount;
+
+    static synchronized ContentChangeDispatcher get() {
+        if (sInstance == null) {
+            sInstance = new ContentChangeDispatcher(new ChangeSink() {
+                @Override
+                public void notifyChange(final Uri uri) {
+                    Factory.get().getApplicationContext().getContentResolver()
+                            .notifyChange(uri, null);
+                }
+
+                @Override
+                public void notifyConversationListWidgets() {
+                    BugleWidgetProvider.notifyConversationListChanged(
+                            Factory.get().getApplicationContext());
+                }
+
+                @Override
+                public void notifyConversationWidgets(final String conversationId) {
+                    WidgetConversationProvider.notifyMessagesChanged(
+                            Factory.get().getApplicationContext(), conversationId);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ContentChangeDispatcher(final ChangeSink sink) {
+        mSink = sink;
+    }
+
+    void notifyChange(final Uri uri) {
+        synchronized (mLock) {
+            mRequestedCount++;
+            if (!getBatch().mUris.add(uri)) {
+                mSuppressedCount++;
+            }
+        }
+        scheduleFlush();
+    }
+
+    void notifyEverythingChanged() {
+        synchronized (mLock) {
+            mRequestedCount++;
+            getBatch().mEverything = true;
+        }
+        scheduleFlush();
+    }
+
+    void notifyConversationListWidgets() {
+        synchronized (mLock) {
+            getBatch().mConversationListWidgets = true;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * @param conversationId the conversation whose widgets to notify, or null for all of them
+     */
+    void notifyConversationWidgets(final String conversationId) {
+        synchronized (mLock) {
+            final Batch batch = getBatch();
+            if (conversationId == null) {
+                batch.mAllWidgetConversations = true;
+            } else {
+                batch.mWidgetConversationIds.add(conversationId);
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Called by DatabaseWrapper when the calling thread opens its outermost transaction.
+     */
+    void onTransactionStarted() {
+        mTransactionBatch.set(new Batch());
+    }
+
+    /**
+     * Called by DatabaseWrapper when a transaction of the calling thread, nested or not, ends
+     * without having been marked successful, which rolls back the outermost one.
+     */
+    void onTransactionRolledBack() {
+        final Batch transactionBatch = mTransactionBatch.get();
+        if (transactionBatch != null) {
+            transactionBatch.mRolledBack = true;
+        }
+    }
+
+    /**
+     * Called by DatabaseWrapper when the calling thread ends its outermost transaction. The
+     * changes made within it are notified right away, along with any pending ones, unless it was
+     * rolled back.
+     */
+    void onTransactionEnded() {
+        final Batch transactionBatch = mTransactionBatch.get();
+        mTransactionBatch.set(null);
+        if (transactionBatch == null || transactionBatch.mRolledBack
+                || transactionBatch.isEmpty()) {
+            return;
+        }
+        synchronized (mLock) {
+            final Batch batch = mPendingBatch;
+            for (final Uri uri : transactionBatch.mUris) {
+                if (!batch.mUris.add(uri)) {
+                    mSuppressedCount++;
+                }
+            }
+            batch.mWidgetConversationIds.addAll(transactionBatch.mWidgetConversationIds);
+            batch.mAllWidgetConversations |= transactionBatch.mAllWidgetConversations;
+            batch.mConversationListWidgets |= transactionBatch.mConversationListWidgets;
+            batch.mEverything |= transactionBatch.mEverything;
+        }
+        flush();
+    }
+
+    /**
+     * Notifies the pending changes made outside of transactions.
+     */
+    void flush() {
+        final Batch batch;
+        synchronized (mLock) {
+            batch = mPendingBatch;
+            mPendingBatch = new Batch();
+            if (batch.isEmpty()) {
+                return;
+            }
+            mBatchCount++;
+            if (!batch.mEverything && batch.mUris.size() > ESCALATION_THRESHOLD) {
+                batch.mEverything = true;
+                mEscalatedCount++;
+            }
+            if (batch.mEverything) {
+                mSuppressedCount += batch.mUris.size();
+                mNotifiedCount++;
+            } else {
+                mNotifiedCount += batch.mUris.size();
+            }
+        }
+        if (batch.mEverything) {
+            mSink.notifyChange(MessagingContentProvider.EVERYTHING_URI);
+            mSink.notifyConversationListWidgets();
+            mSink.notifyConversationWidgets(null /* conversationId */);
+            return;
+        }
+        for (final Uri uri : batch.mUris) {
+            mSink.notifyChange(uri);
+        }
+        if (batch.mConversationListWidgets) {
+            mSink.notifyConversationListWidgets();
+        }
+        if (batch.mAllWidgetConversations) {
+            mSink.notifyConversationWidgets(null /* conversationId */);
+        } else {
+            for (final String conversationId : batch.mWidgetConversationIds) {
+                mSink.notifyConversationWidgets(conversationId);
+            }
+        }
+    }
+
+    void dump(final PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("Content change notifications: requested=" + mRequestedCount
+                    + " notified=" + mNotifiedCount + " suppressed=" + mSuppressedCount
+                    + " batches=" + mBatchCount + " escalated=" + mEscalatedCount);
+        }
+    }
+
+    // Called with mLock held
+    private Batch getBatch() {
+        final Batch transactionBatch = mTransactionBatch.get();
+        return transactionBatch != null ? transactionBatch : mPendingBatch;
+    }
+
+    private void scheduleFlush() {
+        if (mTransactionBatch.get() != null) {
+            // Flushed when the transaction ends
+            return;
+        }
+        synchronized (mLock) {
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        ThreadUtil.getMainThreadHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                SafeAsyncTask.executeOnThreadPool(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mLock) {
+                            mFlushScheduled = false;
+                        }
+                        flush();
+                    }
+                });
+            }
+        }, BATCH_WINDOW_MS);
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "ContentChangeDispatcher: scheduled flush");
+        }
+    }
+}
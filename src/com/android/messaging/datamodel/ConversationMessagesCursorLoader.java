@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.android.messaging.datamodel.data.ConversationMessageData;
+import com.android.messaging.datamodel.data.ConversationMessageData.SideLoadedParts;
+import com.android.messaging.datamodel.data.ConversationMessageData.SideLoadedPartsCursor;
+
+import java.util.ArrayList;
+
+/**
+ * A BoundCursorLoader for a window of conversation messages, which side loads the parts of the
+ * loaded messages on the loader thread (see {@link ConversationMessageData#loadParts}) and starts
+ * precomputing their linkified text (see {@link MessageTextLinkCache}). Parts loaded for the
+ * previous cursor are reused for messages whose parts did not change since.
+ */
+public class ConversationMessagesCursorLoader extends BoundCursorLoader {
+    private volatile SideLoadedParts mLoadedParts;
+
+    public ConversationMessagesCursorLoader(final String bindingId, final Context context,
+            final Uri uri) {
+        super(bindingId, context, uri, ConversationMessageData.getProjection(), null, null, null);
+    }
+
+    @Override
+    protected Cursor onCursorLoaded(final Cursor cursor) {
+        final SideLoadedParts parts = ConversationMessageData.loadParts(
+                DataModel.get().getDatabase(), cursor, mLoadedParts);
+        mLoadedParts = parts;
+        final Cursor messagesCursor = new SideLoadedPartsCursor(cursor, parts);
+        precomputeMessageText(messagesCursor);
+        return messagesCursor;
+    }
+
+    /**
+     * Linkifies the text of the newest messages (the ones shown first) right away, and of the
+     * rest of the window in the background.
+     */
+    private static void precomputeMessageText(final Cursor cursor) {
+        final MessageTextLinkCache linkCache = MessageTextLinkCache.get();
+        final ConversationMessageData message = new ConversationMessageData();
+        final ArrayList<String> messageIds = new ArrayList<String>();
+        final ArrayList<String> texts = new ArrayList<String>();
+        // The cursor is sorted newest first
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            message.bind(cursor);
+            final String text = message.getText();
+            if (TextUtils.isEmpty(text)) {
+                continue;
+            }
+            if (cursor.getPosition() < MessageTextLinkCache.PRECOMPUTE_BEFORE_DELIVERY_COUNT) {
+                linkCache.getOrCompute(message.getMessageId(), text);
+            } else {
+                messageIds.add(message.getMessageId());
+                texts.add(text);
+            }
+        }
+        cursor.moveToPosition(-1);
+        linkCache.precomputeInBackground(messageIds, texts);
+    }
+}
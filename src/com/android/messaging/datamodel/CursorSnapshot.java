@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The row ids and a hash of the row contents of a loaded cursor, along with the differences from
+ * the previously loaded cursor of the same loader. Both are computed on the loader thread (see
+ * {@link BoundCursorLoader#enableDiffing}) so that CursorRecyclerAdapter can dispatch fine grained
+ * item notifications instead of rebinding every visible item for each new cursor.
+ */
+public final class CursorSnapshot {
+    /**
+     * Implemented by cursors (and cursor wrappers) that carry the snapshot they were loaded with.
+     */
+    public interface Provider {
+        CursorSnapshot getCursorSnapshot();
+    }
+
+    private static final AtomicLong sNextGeneration = new AtomicLong();
+
+    private final long mGeneration;
+    private final long[] mIds;
+    private final int[] mContentHashes;
+
+    // Generation of the snapshot mDiffResult was computed against. Only the generation is kept
+    // (rather than the snapshot itself) so that successive snapshots do not chain together.
+    private final long mPreviousGeneration;
+    private final DiffUtil.DiffResult mDiffResult;
+
+    private CursorSnapshot(final long[] ids, final int[] contentHashes,
+            final CursorSnapshot previous) {
+        mGeneration = sNextGeneration.incrementAndGet();
+        mIds = ids;
+        mContentHashes = contentHashes;
+        if (previous != null) {
+            mPreviousGeneration = previous.mGeneration;
+            mDiffResult = DiffUtil.calculateDiff(new SnapshotDiffCallback(previous, this));
+        } else {
+            mPreviousGeneration = -1;
+            mDiffResult = null;
+        }
+    }
+
+    /**
+     * Reads the ids and content hashes of all the rows of the cursor and diffs them against the
+     * previous snapshot, if any. The cursor position is reset before returning.
+     *
+     * @param cursor The loaded cursor
+     * @param reverseOrder Whether the consumer presents the rows of the cursor in reverse order
+     * @param previous The snapshot of the previously delivered cursor, or null
+     */
+    @DoesNotRunOnMainThread
+    public static CursorSnapshot create(final Cursor cursor, final boolean reverseOrder,
+            final CursorSnapshot previous) {
+        final int count = cursor.getCount();
+        final int idColumn = cursor.getColumnIndexOrThrow("_id");
+        final long[] ids = new long[count];
+        final int[] contentHashes = new int[count];
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final int position = cursor.getPosition();
+            final int index = reverseOrder ? count - position - 1 : position;
+            ids[index] = cursor.getLong(idColumn);
+            contentHashes[index] = hashRow(cursor);
+        }
+        cursor.moveToPosition(-1);
+        return new CursorSnapshot(ids, contentHashes, previous);
+    }
+
+    /**
+     * Returns the snapshot carried by the cursor or by any cursor it wraps, or null if none.
+     */
+    public static CursorSnapshot from(final Cursor cursor) {
+        Cursor current = cursor;
+        while (current != null) {
+            if (current instanceof Provider) {
+                return ((Provider) current).getCursorSnapshot();
+            }
+            current = (current instanceof CursorWrapper) ?
+                    ((CursorWrapper) current).getWrappedCursor() : null;
+        }
+        return null;
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    /**
+     * Returns the differences from the given snapshot to this one, or null if they were not
+     * computed against that snapshot (in which case the whole data set needs to be refreshed).
+     */
+    public DiffUtil.DiffResult getDiffFrom(final CursorSnapshot snapshot) {
+        if (snapshot == null || mDiffResult == null ||
+                snapshot.mGeneration != mPreviousGeneration) {
+            return null;
+        }
+        return mDiffResult;
+    }
+
+    private static int hashRow(final Cursor cursor) {
+        int hash = 1;
+        final int columnCount = cursor.getColumnCount();
+        for (int i = 0; i < columnCount; i++) {
+            final int valueHash;
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    valueHash = 0;
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    valueHash = hashLong(cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    valueHash = hashLong(Double.doubleToLongBits(cursor.getDouble(i)));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    valueHash = Arrays.hashCode(cursor.getBlob(i));
+                    break;
+                default:
+                    valueHash = cursor.getString(i).hashCode();
+                    break;
+            }
+            hash = 31 * hash + valueHash;
+        }
+        return hash;
+    }
+
+    private static int hashLong(final long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    private static class SnapshotDiffCallback extends DiffUtil.Callback {
+        private final CursorSnapshot mOld;
+        private final CursorSnapshot mNew;
+
+        SnapshotDiffCallback(final CursorSnapshot oldSnapshot, final CursorSnapshot newSnapshot) {
+            mOld = oldSnapshot;
+            mNew = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.mIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.mIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(final int oldPosition, final int newPosition) {
+            return mOld.mIds[oldPosition] == mNew.mIds[newPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(final int oldPosition, final int newPosition) {
+            // Items may be bound differently depending on their neighbors (e.g. message
+            // clustering), so an item is only unchanged if its neighbors are as well.
+            return isSameRow(oldPosition, newPosition) &&
+                    isSameRow(oldPosition - 1, newPosition - 1) &&
+                    isSameRow(oldPosition + 1, newPosition + 1);
+        }
+
+        private boolean isSameRow(final int oldPosition, final int newPosition) {
+            final boolean oldInRange = oldPosition >= 0 && oldPosition < mOld.mIds.length;
+            final boolean newInRange = newPosition >= 0 && newPosition < mNew.mIds.length;
+            if (!oldInRange || !newInRange) {
+                return oldInRange == newInRange;
+            }
+            return mOld.mIds[oldPosition] == mNew.mIds[newPosition] &&
+                    mOld.mContentHashes[oldPosition] == mNew.mContentHashes[newPosition];
+        }
+    }
+}
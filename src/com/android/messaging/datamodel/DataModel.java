@@ -149,6 +149,14 @@ public abstract class DataModel {
                 || isFocusedConversation(conversationId);
     }
 
+    /**
+     * @return the stream of typed changes made to the data model, for consumers which patch their
+     *         state instead of requerying on content uri notifications
+     */
+    public DataModelChangeStream getChangeStream() {
+        return DataModelChangeStream.get();
+    }
+
     public abstract void onApplicationCreated();
 
     public abstract SyncManager getSyncManager();
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.text.TextUtils;
+
+/**
+ * One change to the data model, as delivered by DataModelChangeStream. It carries the ids of the
+ * rows that changed so that consumers can patch their state or read just those rows.
+ */
+public final class DataModelChange {
+    /** A message and its parts were inserted */
+    public static final int TYPE_MESSAGE_INSERTED = 1;
+    /** A message row or its parts were updated */
+    public static final int TYPE_MESSAGE_UPDATED = 2;
+    /** A message was deleted */
+    public static final int TYPE_MESSAGE_DELETED = 3;
+    /**
+     * The metadata of a conversation (snippet, name, options, etc.) changed. Messages updated or
+     * deleted in bulk, e.g. when a conversation is marked as read or old messages are purged, are
+     * reported this way too.
+     */
+    public static final int TYPE_CONVERSATION_CHANGED = 4;
+    /** A conversation was deleted along with its messages */
+    public static final int TYPE_CONVERSATION_DELETED = 5;
+    /** A participant was added or its name, avatar or contact info changed */
+    public static final int TYPE_PARTICIPANT_CHANGED = 6;
+
+    private final int mType;
+    private final String mConversationId;
+    private final String mMessageId;
+    private final String mParticipantId;
+
+    private DataModelChange(final int type, final String conversationId, final String messageId,
+            final String participantId) {
+        mType = type;
+        mConversationId = conversationId;
+        mMessageId = messageId;
+        mParticipantId = participantId;
+    }
+
+    public static DataModelChange messageInserted(final String conversationId,
+            final String messageId) {
+        return new DataModelChange(TYPE_MESSAGE_INSERTED, conversationId, messageId, null);
+    }
+
+    public static DataModelChange messageUpdated(final String conversationId,
+            final String messageId) {
+        return new DataModelChange(TYPE_MESSAGE_UPDATED, conversationId, messageId, null);
+    }
+
+    public static DataModelChange messageDeleted(final String conversationId,
+            final String messageId) {
+        return new DataModelChange(TYPE_MESSAGE_DELETED, conversationId, messageId, null);
+    }
+
+    public static DataModelChange conversationChanged(final String conversationId) {
+        return new DataModelChange(TYPE_CONVERSATION_CHANGED, conversationId, null, null);
+    }
+
+    public static DataModelChange conversationDeleted(final String conversationId) {
+        return new DataModelChange(TYPE_CONVERSATION_DELETED, conversationId, null, null);
+    }
+
+    public static DataModelChange participantChanged(final String participantId) {
+        return new DataModelChange(TYPE_PARTICIPANT_CHANGED, null, null, participantId);
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return the conversation that changed or that the message belongs to, null for participant
+     *         changes
+     */
+    public String getConversationId() {
+        return mConversationId;
+    }
+
+    public String getMessageId() {
+        return mMessageId;
+    }
+
+    public String getParticipantId() {
+        return mParticipantId;
+    }
+
+    /**
+     * @return true if the change may concern the given conversation
+     */
+    public boolean affectsConversation(final String conversationId) {
+        if (mType == TYPE_PARTICIPANT_CHANGED) {
+            return false;
+        }
+        return mConversationId == null || TextUtils.equals(mConversationId, conversationId);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DataModelChange)) {
+            return false;
+        }
+        final DataModelChange other = (DataModelChange) o;
+        return mType == other.mType
+                && TextUtils.equals(mConversationId, other.mConversationId)
+                && TextUtils.equals(mMessageId, other.mMessageId)
+                && TextUtils.equals(mParticipantId, other.mParticipantId);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mType;
+        result = 31 * result + (mConversationId == null ? 0 : mConversationId.hashCode());
+        result = 31 * result + (mMessageId == null ? 0 : mMessageId.hashCode());
+        result = 31 * result + (mParticipantId == null ? 0 : mParticipantId.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DataModelChange{type=" + mType + " conversationId=" + mConversationId
+                + " messageId=" + mMessageId + " participantId=" + mParticipantId + "}";
+    }
+}
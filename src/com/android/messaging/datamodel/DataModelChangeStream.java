@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import com.android.messaging.util.Assert.RunsOnAnyThread;
+import com.android.messaging.util.Assert.RunsOnMainThread;
+import com.android.messaging.util.ThreadUtil;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * In-process stream of the changes made to the data model, typed and carrying row ids, for
+ * consumers which would rather patch their state than requery whole cursors on a content uri
+ * notification.
+ *
+ * Changes made within a database transaction are delivered together once the outermost
+ * transaction of the thread commits, and dropped if it rolls back. Changes made outside of a
+ * transaction are delivered right away. Listeners are called on the main thread. Nothing is
+ * recorded while there are no listeners.
+ */
+public class DataModelChangeStream {
+    /**
+     * Receives the changes to the data model.
+     */
+    public interface DataModelChangeListener {
+        /**
+         * @param changes the distinct changes of one transaction, in the order they were made
+         */
+        @RunsOnMainThread
+        void onDataModelChanged(List<DataModelChange> changes);
+    }
+
+    private static class TransactionChanges {
+        final LinkedHashSet<DataModelChange> mChanges = new LinkedHashSet<DataModelChange>();
+        boolean mRolledBack;
+    }
+
+    private static DataModelChangeStream sInstance;
+
+    private final Executor mDeliveryExecutor;
+    private final CopyOnWriteArrayList<DataModelChangeListener> mListeners =
+            new CopyOnWriteArrayList<DataModelChangeListener>();
+
+    // Changes made within the transaction open on each thread, if any
+    private final ThreadLocal<TransactionChanges> mTransactionChanges =
+            new ThreadLocal<TransactionChanges>();
+
+    static synchronized DataModelChangeStream get() {
+        if (sInstance == null) {
+            sInstance = new DataModelChangeStream(new Executor() {
+                @Override
+                public void execute(final Runnable runnable) {
+                    ThreadUtil.getMainThreadHandler().post(runnable);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DataModelChangeStream(final Executor deliveryExecutor) {
+        mDeliveryExecutor = deliveryExecutor;
+    }
+
+    @RunsOnAnyThread
+    public void addListener(final DataModelChangeListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    @RunsOnAnyThread
+    public void removeListener(final DataModelChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return true if changes are being listened to, for writers that would have to look up the
+     *         ids to post
+     */
+    boolean hasListeners() {
+        return !mListeners.isEmpty();
+    }
+
+    /**
+     * Records a change, to be delivered when the transaction of the calling thread commits or
+     * right away if there is none.
+     */
+    void post(final DataModelChange change) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        final TransactionChanges transactionChanges = mTransactionChanges.get();
+        if (transactionChanges != null) {
+            transactionChanges.mChanges.add(change);
+        } else {
+            deliver(Collections.singletonList(change));
+        }
+    }
+
+    /**
+     * Called by DatabaseWrapper when the calling thread opens its outermost transaction.
+     */
+    void onTransactionStarted() {
+        mTransactionChanges.set(new TransactionChanges());
+    }
+
+    /**
+     * Called by DatabaseWrapper when a transaction of the calling thread, nested or not, ends
+     * without having been marked successful, which rolls back the outermost one.
+     */
+    void onTransactionRolledBack() {
+        final TransactionChanges transactionChanges = mTransactionChanges.get();
+        if (transactionChanges != null) {
+            transactionChanges.mRolledBack = true;
+        }
+    }
+
+    /**
+     * Called by DatabaseWrapper when the calling thread ends its outermost transaction.
+     */
+    void onTransactionEnded() {
+        final TransactionChanges transactionChanges = mTransactionChanges.get();
+        mTransactionChanges.set(null);
+        if (transactionChanges == null || transactionChanges.mRolledBack
+                || transactionChanges.mChanges.isEmpty()) {
+            return;
+        }
+        deliver(new ArrayList<DataModelChange>(transactionChanges.mChanges));
+    }
+
+    private void deliver(final List<DataModelChange> changes) {
+        final List<DataModelChange> unmodifiableChanges = Collections.unmodifiableList(changes);
+        mDeliveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (final DataModelChangeListener listener : mListeners) {
+                    listener.onDataModelChanged(unmodifiableChanges);
+                }
+            }
+        });
+    }
+}
@@ -63,6 +63,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String PARTS_TABLE = "parts";
     public static final String PARTICIPANTS_TABLE = "participants";
     public static final String CONVERSATION_PARTICIPANTS_TABLE = "conversation_participants";
+    // Materialized conversation list view, see ConversationListItemData
+    static final String CONVERSATION_LIST_SNAPSHOT_TABLE =
+            ConversationListItemData.getConversationListSnapshotTable();
 
     // Views
     static final String DRAFT_PARTS_VIEW = "draft_parts_view";
@@ -207,6 +210,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + " ON " +  CONVERSATIONS_TABLE
             + "(" + ConversationColumns.SORT_TIMESTAMP + ")";
 
+    // The conversation list is filtered by archive status and sorted by sort timestamp
+    static final String CONVERSATION_LIST_SNAPSHOT_SORT_INDEX_SQL =
+            "CREATE INDEX index_" + CONVERSATION_LIST_SNAPSHOT_TABLE
+            + "_sort ON " + CONVERSATION_LIST_SNAPSHOT_TABLE
+            + "(" + ConversationColumns.ARCHIVE_STATUS + ", "
+            + ConversationColumns.SORT_TIMESTAMP + ")";
+
     // Messages table schema
     public static class MessageColumns implements BaseColumns {
         /* conversation id that this message belongs to */
@@ -267,6 +277,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         /* The detailed status (RESPONSE_STATUS or RETRIEVE_STATUS) for MMS message */
         public static final String RAW_TELEPHONY_STATUS = "raw_status";
+
+        /*
+         * Bumped whenever a part of the message is inserted, updated or deleted. This is
+         * maintained via triggers on the parts table. The parts of conversation messages are
+         * side loaded outside the messages cursor, and this is how loaders tell which of them
+         * are stale.
+         */
+        public static final String PARTS_VERSION = "parts_version";
+
+        /* Number of automatic attempts made at sending or downloading the pending message */
+        public static final String ATTEMPT_COUNT = "attempt_count";
+
+        /* Time at which the pending message is next due to be attempted */
+        public static final String NEXT_ATTEMPT_TIMESTAMP = "next_attempt_timestamp";
     }
 
     // Messages table SQL
@@ -291,6 +315,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     + MessageColumns.RAW_TELEPHONY_STATUS + " INT DEFAULT(0), "
                     + MessageColumns.SELF_PARTICIPANT_ID + " INT, "
                     + MessageColumns.RETRY_START_TIMESTAMP + " INT DEFAULT(0), "
+                    + MessageColumns.PARTS_VERSION + " INT DEFAULT(0), "
+                    + MessageColumns.ATTEMPT_COUNT + " INT DEFAULT(0), "
+                    + MessageColumns.NEXT_ATTEMPT_TIMESTAMP + " INT DEFAULT(0), "
                     + "FOREIGN KEY (" + MessageColumns.CONVERSATION_ID + ") REFERENCES "
                     + CONVERSATIONS_TABLE + "(" + ConversationColumns._ID + ") ON DELETE CASCADE "
                     + "FOREIGN KEY (" + MessageColumns.SENDER_PARTICIPANT_ID + ") REFERENCES "
@@ -379,6 +406,123 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + PartColumns.MESSAGE_ID + " = NEW." + MessageColumns._ID
             + "; END;";
 
+    // Triggers bumping the parts version of a message whenever its parts change, so that loaders
+    // side loading parts can tell which messages need their parts reloaded.
+    static final String CREATE_PARTS_VERSION_INSERT_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_TABLE + "_VERSION_INSERT_TRIGGER"
+            + " AFTER INSERT ON " + PARTS_TABLE
+            + " FOR EACH ROW BEGIN " + getBumpPartsVersionSql("NEW") + "; END;";
+
+    static final String CREATE_PARTS_VERSION_UPDATE_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_TABLE + "_VERSION_UPDATE_TRIGGER"
+            + " AFTER UPDATE OF "
+            + PartColumns.MESSAGE_ID + ", "
+            + PartColumns.TEXT + ", "
+            + PartColumns.CONTENT_URI + ", "
+            + PartColumns.CONTENT_TYPE + ", "
+            + PartColumns.WIDTH + ", "
+            + PartColumns.HEIGHT
+            + " ON " + PARTS_TABLE
+            + " FOR EACH ROW BEGIN " + getBumpPartsVersionSql("OLD") + "; "
+            + getBumpPartsVersionSql("NEW") + "; END;";
+
+    static final String CREATE_PARTS_VERSION_DELETE_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_TABLE + "_VERSION_DELETE_TRIGGER"
+            + " AFTER DELETE ON " + PARTS_TABLE
+            + " FOR EACH ROW BEGIN " + getBumpPartsVersionSql("OLD") + "; END;";
+
+    private static String getBumpPartsVersionSql(final String part) {
+        return "UPDATE " + MESSAGES_TABLE + " SET " + MessageColumns.PARTS_VERSION + "="
+                + MessageColumns.PARTS_VERSION + "+1 WHERE " + MessageColumns._ID + "="
+                + part + "." + PartColumns.MESSAGE_ID;
+    }
+
+    // Triggers keeping the conversation list snapshot table in sync with the tables the
+    // conversation list view reads from: the conversation itself, its latest message and the
+    // sender of its latest message.
+    static final String CREATE_CONVERSATION_LIST_SNAPSHOT_INSERT_TRIGGER_SQL =
+            "CREATE TRIGGER " + CONVERSATION_LIST_SNAPSHOT_TABLE + "_INSERT_TRIGGER"
+            + " AFTER INSERT ON " + CONVERSATIONS_TABLE
+            + " FOR EACH ROW BEGIN "
+            + ConversationListItemData.getRefreshConversationListSnapshotSql(
+                    "=NEW." + ConversationColumns._ID)
+            + "; END;";
+
+    static final String CREATE_CONVERSATION_LIST_SNAPSHOT_UPDATE_TRIGGER_SQL =
+            "CREATE TRIGGER " + CONVERSATION_LIST_SNAPSHOT_TABLE + "_UPDATE_TRIGGER"
+            + " AFTER UPDATE OF "
+            + ConversationColumns.NAME + ", "
+            + ConversationColumns.LATEST_MESSAGE_ID + ", "
+            + ConversationColumns.SNIPPET_TEXT + ", "
+            + ConversationColumns.SUBJECT_TEXT + ", "
+            + ConversationColumns.PREVIEW_URI + ", "
+            + ConversationColumns.PREVIEW_CONTENT_TYPE + ", "
+            + ConversationColumns.SHOW_DRAFT + ", "
+            + ConversationColumns.DRAFT_SNIPPET_TEXT + ", "
+            + ConversationColumns.DRAFT_SUBJECT_TEXT + ", "
+            + ConversationColumns.DRAFT_PREVIEW_URI + ", "
+            + ConversationColumns.DRAFT_PREVIEW_CONTENT_TYPE + ", "
+            + ConversationColumns.ARCHIVE_STATUS + ", "
+            + ConversationColumns.SORT_TIMESTAMP + ", "
+            + ConversationColumns.ICON + ", "
+            + ConversationColumns.PARTICIPANT_CONTACT_ID + ", "
+            + ConversationColumns.PARTICIPANT_LOOKUP_KEY + ", "
+            + ConversationColumns.OTHER_PARTICIPANT_NORMALIZED_DESTINATION + ", "
+            + ConversationColumns.CURRENT_SELF_ID + ", "
+            + ConversationColumns.PARTICIPANT_COUNT + ", "
+            + ConversationColumns.NOTIFICATION_ENABLED + ", "
+            + ConversationColumns.NOTIFICATION_SOUND_URI + ", "
+            + ConversationColumns.NOTIFICATION_VIBRATION + ", "
+            + ConversationColumns.INCLUDE_EMAIL_ADDRESS + ", "
+            + ConversationColumns.IS_ENTERPRISE
+            + " ON " + CONVERSATIONS_TABLE
+            + " FOR EACH ROW BEGIN "
+            + ConversationListItemData.getRefreshConversationListSnapshotSql(
+                    "=NEW." + ConversationColumns._ID)
+            + "; END;";
+
+    static final String CREATE_CONVERSATION_LIST_SNAPSHOT_DELETE_TRIGGER_SQL =
+            "CREATE TRIGGER " + CONVERSATION_LIST_SNAPSHOT_TABLE + "_DELETE_TRIGGER"
+            + " AFTER DELETE ON " + CONVERSATIONS_TABLE
+            + " FOR EACH ROW BEGIN DELETE FROM " + CONVERSATION_LIST_SNAPSHOT_TABLE
+            + " WHERE " + ConversationColumns._ID + "=OLD." + ConversationColumns._ID
+            + "; END;";
+
+    static final String CREATE_CONVERSATION_LIST_SNAPSHOT_MESSAGES_TRIGGER_SQL =
+            "CREATE TRIGGER " + CONVERSATION_LIST_SNAPSHOT_TABLE + "_" + MESSAGES_TABLE
+            + "_TRIGGER AFTER UPDATE OF "
+            + MessageColumns.READ + ", "
+            + MessageColumns.STATUS + ", "
+            + MessageColumns.RAW_TELEPHONY_STATUS + ", "
+            + MessageColumns.SENDER_PARTICIPANT_ID
+            + " ON " + MESSAGES_TABLE
+            + " FOR EACH ROW WHEN NEW." + MessageColumns._ID + "=(SELECT "
+            + ConversationColumns.LATEST_MESSAGE_ID + " FROM " + CONVERSATIONS_TABLE + " WHERE "
+            + ConversationColumns._ID + "=NEW." + MessageColumns.CONVERSATION_ID + ")"
+            + " BEGIN "
+            + ConversationListItemData.getRefreshConversationListSnapshotSql(
+                    "=NEW." + MessageColumns.CONVERSATION_ID)
+            + "; END;";
+
+    static final String CREATE_CONVERSATION_LIST_SNAPSHOT_PARTICIPANTS_TRIGGER_SQL =
+            "CREATE TRIGGER " + CONVERSATION_LIST_SNAPSHOT_TABLE + "_" + PARTICIPANTS_TABLE
+            + "_TRIGGER AFTER UPDATE OF "
+            + ParticipantColumns.FIRST_NAME + ", "
+            + ParticipantColumns.DISPLAY_DESTINATION
+            + " ON " + PARTICIPANTS_TABLE
+            + " FOR EACH ROW WHEN NEW." + ParticipantColumns.FIRST_NAME + " IS NOT OLD."
+            + ParticipantColumns.FIRST_NAME + " OR NEW." + ParticipantColumns.DISPLAY_DESTINATION
+            + " IS NOT OLD." + ParticipantColumns.DISPLAY_DESTINATION
+            + " BEGIN "
+            + ConversationListItemData.getRefreshConversationListSnapshotSql(
+                    " IN (SELECT " + CONVERSATIONS_TABLE + "." + ConversationColumns._ID
+                    + " FROM " + CONVERSATIONS_TABLE + " INNER JOIN " + MESSAGES_TABLE
+                    + " ON " + CONVERSATIONS_TABLE + "." + ConversationColumns.LATEST_MESSAGE_ID
+                    + "=" + MESSAGES_TABLE + "." + MessageColumns._ID
+                    + " WHERE " + MESSAGES_TABLE + "." + MessageColumns.SENDER_PARTICIPANT_ID
+                    + "=NEW." + ParticipantColumns._ID + ")")
+            + "; END;";
+
     // Primary sort index for parts table : by message_id
     private static final String PARTS_TABLE_MESSAGE_INDEX_SQL =
             "CREATE INDEX index_" + PARTS_TABLE + "_message_id ON " + PARTS_TABLE + "("
@@ -538,6 +682,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         CREATE_PARTS_TABLE_SQL,
         CREATE_PARTICIPANTS_TABLE_SQL,
         CREATE_CONVERSATION_PARTICIPANTS_TABLE_SQL,
+        ConversationListItemData.getConversationListSnapshotTableSql(),
     };
 
     // List of all our indices
@@ -549,12 +694,21 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         MESSAGES_TABLE_STATUS_SEEN_INDEX_SQL,
         PARTS_TABLE_MESSAGE_INDEX_SQL,
         CONVERSATION_PARTICIPANTS_TABLE_CONVERSATION_ID_INDEX_SQL,
+        CONVERSATION_LIST_SNAPSHOT_SORT_INDEX_SQL,
     };
 
     // List of all our SQL triggers
     private static final String[] CREATE_TRIGGER_SQLS = new String[] {
             CREATE_PARTS_TRIGGER_SQL,
             CREATE_MESSAGES_TRIGGER_SQL,
+            CREATE_CONVERSATION_LIST_SNAPSHOT_INSERT_TRIGGER_SQL,
+            CREATE_CONVERSATION_LIST_SNAPSHOT_UPDATE_TRIGGER_SQL,
+            CREATE_CONVERSATION_LIST_SNAPSHOT_DELETE_TRIGGER_SQL,
+            CREATE_CONVERSATION_LIST_SNAPSHOT_MESSAGES_TRIGGER_SQL,
+            CREATE_CONVERSATION_LIST_SNAPSHOT_PARTICIPANTS_TRIGGER_SQL,
+            CREATE_PARTS_VERSION_INSERT_TRIGGER_SQL,
+            CREATE_PARTS_VERSION_UPDATE_TRIGGER_SQL,
+            CREATE_PARTS_VERSION_DELETE_TRIGGER_SQL,
     };
 
     // List of all our views
@@ -19,6 +19,7 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.android.messaging.Factory;
+import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 
@@ -48,6 +49,15 @@ public class DatabaseUpgradeHelper {
         if (currentVersion < 2) {
             currentVersion = upgradeToVersion2(db);
         }
+        if (currentVersion < 3) {
+            currentVersion = upgradeToVersion3(db);
+        }
+        if (currentVersion < 4) {
+            currentVersion = upgradeToVersion4(db);
+        }
+        if (currentVersion < 5) {
+            currentVersion = upgradeToVersion5(db);
+        }
         // Rebuild all the views
         final Context context = Factory.get().getApplicationContext();
         DatabaseHelper.dropAllViews(db);
@@ -63,6 +73,43 @@ public class DatabaseUpgradeHelper {
         return 2;
     }
 
+    private int upgradeToVersion3(final SQLiteDatabase db) {
+        db.execSQL(ConversationListItemData.getConversationListSnapshotTableSql());
+        db.execSQL(DatabaseHelper.CONVERSATION_LIST_SNAPSHOT_SORT_INDEX_SQL);
+        db.execSQL(DatabaseHelper.CREATE_CONVERSATION_LIST_SNAPSHOT_INSERT_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_CONVERSATION_LIST_SNAPSHOT_UPDATE_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_CONVERSATION_LIST_SNAPSHOT_DELETE_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_CONVERSATION_LIST_SNAPSHOT_MESSAGES_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_CONVERSATION_LIST_SNAPSHOT_PARTICIPANTS_TRIGGER_SQL);
+        // The conversation list view is the same as in version 2, so fill the snapshot from it
+        db.execSQL(ConversationListItemData.getRefreshConversationListSnapshotSql(null));
+        LogUtil.i(TAG, "Upgraded database to version 3");
+        return 3;
+    }
+
+    /**
+     * Version 4 adds the parts version of messages, which the conversation messages loader needs
+     * to reuse side loaded parts and to diff messages whose parts changed.
+     */
+    private int upgradeToVersion4(final SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DatabaseHelper.MESSAGES_TABLE + " ADD COLUMN " +
+                DatabaseHelper.MessageColumns.PARTS_VERSION + " INT DEFAULT(0)");
+        db.execSQL(DatabaseHelper.CREATE_PARTS_VERSION_INSERT_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_VERSION_UPDATE_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_VERSION_DELETE_TRIGGER_SQL);
+        LogUtil.i(TAG, "Upgraded database to version 4");
+        return 4;
+    }
+
+    private int upgradeToVersion5(final SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DatabaseHelper.MESSAGES_TABLE + " ADD COLUMN " +
+                DatabaseHelper.MessageColumns.ATTEMPT_COUNT + " INT DEFAULT(0)");
+        db.execSQL("ALTER TABLE " + DatabaseHelper.MESSAGES_TABLE + " ADD COLUMN " +
+                DatabaseHelper.MessageColumns.NEXT_ATTEMPT_TIMESTAMP + " INT DEFAULT(0)");
+        LogUtil.i(TAG, "Upgraded database to version 5");
+        return 5;
+    }
+
     /**
      * Checks db version correctness at the end of each milestone release. If target database
      * version lies beyond the version range that the current release may handle, we snap the
@@ -126,7 +126,13 @@ public class DatabaseWrapper {
         // push the current time onto the transaction stack
         final TransactionData f = new TransactionData();
         f.time = t1;
-        sTransactionDepth.get().push(f);
+        final Stack<TransactionData> transactionStack = sTransactionDepth.get();
+        if (transactionStack.isEmpty()) {
+            // Hold the change notifications until the changes are committed
+            ContentChangeDispatcher.get().onTransactionStarted();
+            DataModelChangeStream.get().onTransactionStarted();
+        }
+        transactionStack.push(f);
 
         mDatabase.beginTransaction();
     }
@@ -142,6 +148,8 @@ public class DatabaseWrapper {
         long transactionStartTime = 0;
         final TransactionData f = sTransactionDepth.get().pop();
         if (f.transactionSuccessful == false) {
+            ContentChangeDispatcher.get().onTransactionRolledBack();
+            DataModelChangeStream.get().onTransactionRolledBack();
             LogUtil.w(TAG, "endTransaction without setting successful");
             for (final StackTraceElement st : (new Exception()).getStackTrace()) {
                 LogUtil.w(TAG, "    " + st.toString());
@@ -157,6 +165,10 @@ public class DatabaseWrapper {
             LogUtil.e(TAG, "Database full, unable to endTransaction", ex);
             UiUtils.showToastAtBottom(R.string.db_full);
         }
+        if (sTransactionDepth.get().isEmpty()) {
+            ContentChangeDispatcher.get().onTransactionEnded();
+            DataModelChangeStream.get().onTransactionEnded();
+        }
         if (mLog) {
             printTiming(t1, String.format(Locale.US,
                     ">>> endTransaction (total for this transaction: %d)",
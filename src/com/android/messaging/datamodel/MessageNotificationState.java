@@ -39,6 +39,7 @@ import android.text.style.URLSpan;
 
 import com.android.messaging.Factory;
 import com.android.messaging.R;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.ConversationParticipantsData;
@@ -60,10 +61,11 @@ import com.android.messaging.util.UriUtil;
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -83,7 +85,9 @@ import java.util.Map;
  *  2) ConversationLineInfo - A list of NotificationLineInfo in a single conversation.
  *  3) ConversationInfoList - A list of ConversationLineInfo and the total number of messages.
  *
- *  The createConversationInfoList function performs the query and creates the data structure.
+ *  The createConversationInfoList function creates the data structure. It is kept in memory
+ *  between notification updates, and only the conversations whose unseen messages changed are
+ *  queried again (see refreshConversationLineInfos).
  */
 public abstract class MessageNotificationState extends NotificationState {
     // Logging
@@ -218,6 +222,10 @@ public abstract class MessageNotificationState extends NotificationState {
         // Number of participants
         final int mParticipantCount;
 
+        // Conversation log shown on wearables, built on first use
+        private Notification mWearablePage;
+        private boolean mWearablePageBuilt;
+
         public ConversationLineInfo(final String conversationId,
                 final boolean isGroup,
                 final String groupConversationName,
@@ -272,6 +280,20 @@ public abstract class MessageNotificationState extends NotificationState {
             return messageLineInfo.mIsManualDownloadNeeded;
         }
 
+        /**
+         * Returns the page with the conversation log for wearables, or null if there is none.
+         * It is kept along with the notification lines, so it is only built again once the
+         * conversation changes.
+         */
+        public synchronized Notification getWearablePage() {
+            if (!mWearablePageBuilt) {
+                mWearablePage = buildConversationPageForWearable(mConversationId,
+                        mParticipantCount);
+                mWearablePageBuilt = true;
+            }
+            return mWearablePage;
+        }
+
         private MessageLineInfo getLatestMessageLineInfo() {
             // The latest message is stored at index zero of the message line infos.
             if (mLineInfos.size() > 0 && mLineInfos.get(0) instanceof MessageLineInfo) {
@@ -815,23 +837,25 @@ public abstract class MessageNotificationState extends NotificationState {
     }
 
     /**
-     * Performs a query on the database.
+     * Performs a query on the database for the unseen messages of one conversation, or of all of
+     * them if conversationId is null, and adds the conversations which have notifications enabled
+     * to convLineInfos.
      */
-    private static ConversationInfoList createConversationInfoList() {
-        // Map key is conversation id. We use LinkedHashMap to ensure that entries are iterated in
-        // the same order they were originally added. We scan unseen messages from newest to oldest,
-        // so the corresponding conversations are added in that order, too.
-        final Map<String, ConversationLineInfo> convLineInfos = new LinkedHashMap<>();
-        int messageCount = 0;
-
+    private static void loadConversationLineInfos(final DatabaseWrapper db,
+            final String conversationId, final Map<String, ConversationLineInfo> convLineInfos) {
         Cursor convMessageCursor = null;
         try {
             final Context context = Factory.get().getApplicationContext();
-            final DatabaseWrapper db = DataModel.get().getDatabase();
 
-            convMessageCursor = db.rawQuery(
-                    ConversationMessageData.getNotificationQuerySql(),
-                    null);
+            if (conversationId == null) {
+                convMessageCursor = db.rawQuery(
+                        ConversationMessageData.getNotificationQuerySql(),
+                        null);
+            } else {
+                convMessageCursor = db.rawQuery(
+                        ConversationMessageData.getConversationNotificationQuerySql(),
+                        new String[] { conversationId });
+            }
 
             if (convMessageCursor != null && convMessageCursor.moveToFirst()) {
                 if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
@@ -962,7 +986,6 @@ public abstract class MessageNotificationState extends NotificationState {
                                 authorFullName, authorFirstName, text,
                                 attachmentUri, attachmentType, isManualDownloadNeeded, messageId));
                     }
-                    messageCount++;
                     currConvInfo.mTotalMessageCount++;
                 } while (convMessageCursor.moveToNext());
             }
@@ -971,12 +994,6 @@ public abstract class MessageNotificationState extends NotificationState {
                 convMessageCursor.close();
             }
         }
-        if (convLineInfos.isEmpty()) {
-            return null;
-        } else {
-            return new ConversationInfoList(messageCount,
-                    Lists.newLinkedList(convLineInfos.values()));
-        }
     }
 
     /**
@@ -1038,6 +1055,145 @@ public abstract class MessageNotificationState extends NotificationState {
                 BugleGservicesKeys.MAX_MESSAGES_IN_CONVERSATION_NOTIFICATION_WITH_WEARABLE_DEFAULT);
     }
 
+    /**
+     * The notification lines of a conversation with unseen messages, along with what its unseen
+     * messages looked like when they were loaded.
+     */
+    private static class CachedConversation {
+        final int mUnseenMessageCount;
+        final long mLatestUnseenMessageId;
+        // Null if the conversation has notifications disabled
+        final ConversationLineInfo mConvInfo;
+
+        CachedConversation(final int unseenMessageCount, final long latestUnseenMessageId,
+                final ConversationLineInfo convInfo) {
+            mUnseenMessageCount = unseenMessageCount;
+            mLatestUnseenMessageId = latestUnseenMessageId;
+            mConvInfo = convInfo;
+        }
+    }
+
+    // Counts the unseen messages of each conversation, which is cheap thanks to the status/seen
+    // index on the messages table, to find out which conversations changed since the last update.
+    private static final String UNSEEN_MESSAGE_COUNTS_QUERY_SQL = "SELECT "
+            + MessageColumns.CONVERSATION_ID + ", "
+            + "COUNT(*), "
+            + "MAX(" + MessageColumns._ID + ")"
+            + " FROM " + DatabaseHelper.MESSAGES_TABLE
+            + " WHERE " + MessageColumns.STATUS + " IN ("
+            + MessageData.BUGLE_STATUS_INCOMING_COMPLETE + ", "
+            + MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD + ")"
+            + " AND " + MessageColumns.SEEN + " = 0"
+            + " GROUP BY " + MessageColumns.CONVERSATION_ID;
+    private static final int INDEX_CONVERSATION_ID = 0;
+    private static final int INDEX_UNSEEN_MESSAGE_COUNT = 1;
+    private static final int INDEX_LATEST_UNSEEN_MESSAGE_ID = 2;
+
+    // The in-memory notification model, guarded by sCachedConversations
+    private static final HashMap<String, CachedConversation> sCachedConversations =
+            new HashMap<String, CachedConversation>();
+    // Conversations whose messages changed without changing the set of unseen messages (e.g. an
+    // mms that got downloaded)
+    private static final HashSet<String> sStaleConversationIds = new HashSet<String>();
+    private static boolean sNeedsRebuild = true;
+    private static int sCachedMaxMessages;
+
+    /**
+     * Reloads the notification lines of the conversation on the next update, whether or not its
+     * unseen messages changed.
+     */
+    public static void invalidateConversation(final String conversationId) {
+        synchronized (sCachedConversations) {
+            sStaleConversationIds.add(conversationId);
+        }
+    }
+
+    /**
+     * Rebuilds the whole notification model on the next update, for changes which may affect
+     * any conversation (e.g. participant names).
+     */
+    public static void invalidateAll() {
+        synchronized (sCachedConversations) {
+            sNeedsRebuild = true;
+        }
+    }
+
+    /**
+     * Brings the notification model up to date and returns the conversations to notify about,
+     * most recent first. Only the conversations which were invalidated, or whose unseen messages
+     * changed, are queried again; the whole model is only rebuilt in one pass when invalidated.
+     */
+    private static ConversationInfoList createConversationInfoList() {
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final int maxMessages = getMaxMessagesInConversationNotification();
+        final List<ConversationLineInfo> convInfos = new ArrayList<ConversationLineInfo>();
+        int messageCount = 0;
+        synchronized (sCachedConversations) {
+            final HashMap<String, CachedConversation> previous =
+                    new HashMap<String, CachedConversation>(sCachedConversations);
+            final boolean rebuild = sNeedsRebuild || maxMessages != sCachedMaxMessages;
+            final Map<String, ConversationLineInfo> loaded =
+                    new HashMap<String, ConversationLineInfo>();
+            if (rebuild) {
+                previous.clear();
+                loadConversationLineInfos(db, null /* conversationId */, loaded);
+            }
+            sCachedConversations.clear();
+
+            int reloadedCount = 0;
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(UNSEEN_MESSAGE_COUNTS_QUERY_SQL, null);
+                while (cursor != null && cursor.moveToNext()) {
+                    final String conversationId = cursor.getString(INDEX_CONVERSATION_ID);
+                    final int unseenMessageCount = cursor.getInt(INDEX_UNSEEN_MESSAGE_COUNT);
+                    final long latestUnseenMessageId =
+                            cursor.getLong(INDEX_LATEST_UNSEEN_MESSAGE_ID);
+                    CachedConversation cached = previous.get(conversationId);
+                    if (cached == null
+                            || cached.mUnseenMessageCount != unseenMessageCount
+                            || cached.mLatestUnseenMessageId != latestUnseenMessageId
+                            || sStaleConversationIds.contains(conversationId)) {
+                        if (!rebuild) {
+                            loadConversationLineInfos(db, conversationId, loaded);
+                            reloadedCount++;
+                        }
+                        cached = new CachedConversation(unseenMessageCount,
+                                latestUnseenMessageId, loaded.get(conversationId));
+                    }
+                    sCachedConversations.put(conversationId, cached);
+                    if (cached.mConvInfo != null) {
+                        convInfos.add(cached.mConvInfo);
+                        messageCount += cached.mConvInfo.mTotalMessageCount;
+                    }
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            sStaleConversationIds.clear();
+            sNeedsRebuild = false;
+            sCachedMaxMessages = maxMessages;
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "MessageNotificationState: " + (rebuild ? "rebuilt" : "reloaded "
+                        + reloadedCount + " of " + sCachedConversations.size())
+                        + " conversations");
+            }
+        }
+        if (convInfos.isEmpty()) {
+            return null;
+        }
+        // Conversations with the most recent unseen message first
+        Collections.sort(convInfos, new Comparator<ConversationLineInfo>() {
+            @Override
+            public int compare(final ConversationLineInfo lhs, final ConversationLineInfo rhs) {
+                return Long.compare(rhs.mReceivedTimestamp, lhs.mReceivedTimestamp);
+            }
+        });
+        return new ConversationInfoList(messageCount, convInfos);
+    }
+
     /**
      * Scans the database for messages that need to go into notifications. Creates the appropriate
      * MessageNotificationState depending on if there are multiple senders, or
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.text.SpannableString;
+import android.text.SpannedString;
+import android.text.TextUtils;
+import android.text.util.Linkify;
+import android.util.LruCache;
+
+import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
+import com.android.messaging.util.Assert.RunsOnAnyThread;
+import com.android.messaging.util.SafeAsyncTask;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches message text with links (phone numbers, web urls, emails and map addresses) already
+ * added, keyed by message id. Linkify runs a handful of regular expressions over the text, so the
+ * conversation messages loader precomputes the results off the main thread and
+ * ConversationMessageView only picks them up at bind time.
+ */
+public class MessageTextLinkCache implements MemoryCache {
+    private static final int MAX_ENTRIES = 500;
+
+    // Number of messages, newest first, linkified on the loader thread before the messages are
+    // delivered. The rest of the window is linkified in the background afterwards.
+    public static final int PRECOMPUTE_BEFORE_DELIVERY_COUNT = 30;
+
+    private static MessageTextLinkCache sInstance;
+
+    /**
+     * Message text along with its link spans.
+     */
+    public static class LinkifiedText {
+        private final String mSourceText;
+        private final CharSequence mText;
+        private final boolean mHasLinks;
+
+        private LinkifiedText(final String sourceText, final CharSequence text,
+                final boolean hasLinks) {
+            mSourceText = sourceText;
+            mText = text;
+            mHasLinks = hasLinks;
+        }
+
+        /**
+         * Returns the (immutable) text with its link spans, TextView copies it when set.
+         */
+        public CharSequence getText() {
+            return mText;
+        }
+
+        public boolean hasLinks() {
+            return mHasLinks;
+        }
+    }
+
+    private final LruCache<String, LinkifiedText> mCache =
+            new LruCache<String, LinkifiedText>(MAX_ENTRIES);
+
+    public static synchronized MessageTextLinkCache get() {
+        if (sInstance == null) {
+            sInstance = new MessageTextLinkCache();
+            final MemoryCacheManager memoryCacheManager = MemoryCacheManager.get();
+            if (memoryCacheManager != null) {
+                memoryCacheManager.registerMemoryCache(sInstance);
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the linkified text for the message, computing and caching it if it was not
+     * precomputed (or the message text changed since).
+     */
+    @RunsOnAnyThread
+    public LinkifiedText getOrCompute(final String messageId, final String text) {
+        final LinkifiedText cached = mCache.get(messageId);
+        if (cached != null && TextUtils.equals(cached.mSourceText, text)) {
+            return cached;
+        }
+        final LinkifiedText linkified = linkify(text);
+        mCache.put(messageId, linkified);
+        return linkified;
+    }
+
+    /**
+     * Linkifies the given messages' text in the background, skipping any that are already cached.
+     *
+     * @param messageIds ids of the messages, in the same order as texts
+     * @param texts the messages' text
+     */
+    @RunsOnAnyThread
+    public void precomputeInBackground(final List<String> messageIds, final List<String> texts) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        final ArrayList<String> ids = new ArrayList<String>(messageIds);
+        final ArrayList<String> sourceTexts = new ArrayList<String>(texts);
+        SafeAsyncTask.executeOnThreadPool(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ids.size(); i++) {
+                    getOrCompute(ids.get(i), sourceTexts.get(i));
+                }
+            }
+        });
+    }
+
+    private static LinkifiedText linkify(final String text) {
+        if (TextUtils.isEmpty(text)) {
+            return new LinkifiedText(text, text, false);
+        }
+        final SpannableString spannable = new SpannableString(text);
+        final boolean hasLinks = Linkify.addLinks(spannable, Linkify.ALL);
+        return new LinkifiedText(text, hasLinks ? new SpannedString(spannable) : text, hasLinks);
+    }
+
+    @Override
+    public void reclaim() {
+        mCache.evictAll();
+    }
+}
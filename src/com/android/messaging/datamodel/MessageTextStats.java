@@ -19,11 +19,34 @@ package com.android.messaging.datamodel;
 import android.telephony.SmsMessage;
 
 import com.android.messaging.sms.MmsConfig;
+import com.android.messaging.sms.SmsSegmentCounter;
 
+/**
+ * Tracks how many SMS segments the text of a draft takes. Edits of the compose box are counted
+ * incrementally by {@link SmsSegmentCounter} so that each keystroke only costs as much as the
+ * characters it changes, rather than recounting the whole draft.
+ */
 public class MessageTextStats {
+    // Whether the platform may encode non GSM texts with national language tables, looked up once
+    private static Boolean sPlatformUsesAlternateEncodings;
+
+    private final SmsSegmentCounter mSegmentCounter = new SmsSegmentCounter();
     private boolean mMessageLengthRequiresMms;
     private int mMessageCount;
     private int mCodePointsRemainingInCurrentMessage;
+    private int mCodePointsUsed;
+    private boolean mIsDoubleByte;
+    // Number of chars which TextUtils.getTrimmedLength would not trim
+    private int mNonWhitespaceCount;
+    // The MmsConfig limits of mLimitsSubId, read again whenever the whole text is counted
+    private boolean mHasLimits;
+    private int mLimitsSubId;
+    private boolean mMultipartSmsRequiresMms;
+    private int mSmsToMmsTextThreshold;
+    private int mSmsToMmsTextLengthThreshold;
+    // The edit whose replaced chars were already uncounted; mEditStart is -1 when there is none
+    private int mEditStart = -1;
+    private int mEditBefore;
 
     public MessageTextStats() {
         mCodePointsRemainingInCurrentMessage = Integer.MAX_VALUE;
@@ -41,52 +64,149 @@ public class MessageTextStats {
         return mMessageLengthRequiresMms;
     }
 
-    public void updateMessageTextStats(final int selfSubId, final String messageText) {
-        final int[] params = SmsMessage.calculateLength(messageText, false);
-        /* SmsMessage.calculateLength returns an int[4] with:
-         *   int[0] being the number of SMS's required,
-         *   int[1] the number of code points used,
-         *   int[2] is the number of code points remaining until the next message.
-         *   int[3] is the encoding type that should be used for the message.
-         */
-        mMessageCount = params[0];
-        mCodePointsRemainingInCurrentMessage = params[2];
+    /**
+     * @return whether the counted text has anything but whitespace
+     */
+    public boolean hasNonWhitespaceText() {
+        return mNonWhitespaceCount > 0;
+    }
+
+    public void updateMessageTextStats(final int selfSubId, final CharSequence messageText) {
+        mEditStart = -1;
+        mSegmentCounter.reset(messageText);
+        mNonWhitespaceCount = countNonWhitespace(messageText, 0, messageText.length());
+        updateFromSegmentCounter(messageText);
+        updateMessageLengthRequiresMms(selfSubId);
+    }
+
+    /**
+     * Uncounts the {@code before} characters at {@code start} of the message text, which an edit
+     * is about to replace.
+     *
+     * @param messageText the text before the edit, which the stats were last updated with
+     */
+    public void beforeMessageTextChanged(final CharSequence messageText, final int start,
+            final int before) {
+        if (messageText.length() != mSegmentCounter.getLength() || start < 0 ||
+                start + before > messageText.length()) {
+            // Not in sync, the edit will be counted all over
+            mEditStart = -1;
+            return;
+        }
+        mSegmentCounter.remove(messageText, start, start + before);
+        mNonWhitespaceCount -= countNonWhitespace(messageText, start, start + before);
+        mEditStart = start;
+        mEditBefore = before;
+    }
+
+    /**
+     * Updates the stats after an edit of the message text which replaced the {@code before}
+     * characters at {@code start} with {@code count} new characters. Only the new characters are
+     * counted if the replaced ones were uncounted by {@link #beforeMessageTextChanged}.
+     *
+     * @param messageText the edited text
+     */
+    public void updateMessageTextStats(final int selfSubId, final CharSequence messageText,
+            final int start, final int before, final int count) {
+        if (mEditStart != start || mEditBefore != before ||
+                messageText.length() != mSegmentCounter.getLength() + count) {
+            // Not in sync with the edit, count it all over
+            updateMessageTextStats(selfSubId, messageText);
+            return;
+        }
+        mEditStart = -1;
+        mSegmentCounter.add(messageText, start, start + count);
+        mNonWhitespaceCount += countNonWhitespace(messageText, start, start + count);
+        updateFromSegmentCounter(messageText);
+        if (!mHasLimits || mLimitsSubId != selfSubId) {
+            loadLimits(selfSubId);
+        }
+        applyLimits();
+    }
+
+    private static int countNonWhitespace(final CharSequence text, final int start,
+            final int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            // Same as TextUtils.getTrimmedLength
+            if (text.charAt(i) > ' ') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void updateFromSegmentCounter(final CharSequence messageText) {
+        if (!mSegmentCounter.isGsm7Bit() && getPlatformUsesAlternateEncodings()) {
+            // The platform may still find a 7 bit encoding for the text, defer to it
+            final int[] params = SmsMessage.calculateLength(messageText, false);
+            /* SmsMessage.calculateLength returns an int[4] with:
+             *   int[0] being the number of SMS's required,
+             *   int[1] the number of code points used,
+             *   int[2] is the number of code points remaining until the next message.
+             *   int[3] is the encoding type that should be used for the message.
+             */
+            mMessageCount = params[0];
+            mCodePointsUsed = params[1];
+            mCodePointsRemainingInCurrentMessage = params[2];
+            mIsDoubleByte = params[3] == SmsMessage.ENCODING_16BIT;
+        } else {
+            mMessageCount = mSegmentCounter.getSegmentCount();
+            mCodePointsUsed = mSegmentCounter.getCodeUnitCount();
+            mCodePointsRemainingInCurrentMessage =
+                    mSegmentCounter.getCodeUnitsRemainingInCurrentSegment();
+            mIsDoubleByte = !mSegmentCounter.isGsm7Bit();
+        }
+    }
+
+    /**
+     * Works out again whether the counted text needs to go as MMS, which depends on the
+     * configuration of the subscription it is sent from.
+     */
+    public void updateMessageLengthRequiresMms(final int selfSubId) {
+        loadLimits(selfSubId);
+        applyLimits();
+    }
 
+    private void loadLimits(final int selfSubId) {
         final MmsConfig mmsConfig = MmsConfig.get(selfSubId);
-        if (!mmsConfig.getMultipartSmsEnabled() &&
-                !mmsConfig.getSendMultipartSmsAsSeparateMessages()) {
+        mHasLimits = true;
+        mLimitsSubId = selfSubId;
+        mMultipartSmsRequiresMms = !mmsConfig.getMultipartSmsEnabled() &&
+                !mmsConfig.getSendMultipartSmsAsSeparateMessages();
+        mSmsToMmsTextThreshold = mmsConfig.getSmsToMmsTextThreshold();
+        mSmsToMmsTextLengthThreshold = mmsConfig.getSmsToMmsTextLengthThreshold();
+    }
+
+    private void applyLimits() {
+        if (mMultipartSmsRequiresMms) {
             // The provider doesn't support multi-part sms's and we should use MMS to
             // send multi-part sms, so as soon as the user types
             // an sms longer than one segment, we have to turn the message into an mms.
             mMessageLengthRequiresMms = mMessageCount > 1;
         } else {
-            final int threshold = mmsConfig.getSmsToMmsTextThreshold();
+            final int threshold = mSmsToMmsTextThreshold;
             mMessageLengthRequiresMms = threshold > 0 && mMessageCount > threshold;
         }
         // Some carriers require any SMS message longer than 80 to be sent as MMS
         // see b/12122333
-        int smsToMmsLengthThreshold = mmsConfig.getSmsToMmsTextLengthThreshold();
+        int smsToMmsLengthThreshold = mSmsToMmsTextLengthThreshold;
         if (smsToMmsLengthThreshold > 0) {
-            final int usedInCurrentMessage = params[1];
-            /*
-             * A little hacky way to find out if we should count characters in double bytes.
-             * SmsMessage.calculateLength counts message code units based on the characters
-             * in input. If all of them are ascii, the max length is
-             * SmsMessage.MAX_USER_DATA_SEPTETS (160). If any of them are double-byte, like
-             * Korean or Chinese, the max length is SmsMessage.MAX_USER_DATA_BYTES (140) bytes
-             * (70 code units).
-             * Here we check if the total code units we can use is smaller than 140. If so,
-             * we know we should count threshold in double-byte, so divide the threshold by 2.
-             * In this way, we will count Korean text correctly with regard to the length threshold.
-             */
-            if (usedInCurrentMessage + mCodePointsRemainingInCurrentMessage
-                    < SmsMessage.MAX_USER_DATA_BYTES) {
+            // Double-byte text, like Korean or Chinese, fits in half as many characters so
+            // count the threshold in double-byte as well.
+            if (mIsDoubleByte) {
                 smsToMmsLengthThreshold /= 2;
             }
-            if (usedInCurrentMessage > smsToMmsLengthThreshold) {
+            if (mCodePointsUsed > smsToMmsLengthThreshold) {
                 mMessageLengthRequiresMms = true;
             }
         }
     }
 
+    private static boolean getPlatformUsesAlternateEncodings() {
+        if (sPlatformUsesAlternateEncodings == null) {
+            sPlatformUsesAlternateEncodings = SmsSegmentCounter.platformUsesAlternateEncodings();
+        }
+        return sPlatformUsesAlternateEncodings;
+    }
 }
@@ -16,18 +16,17 @@
 package com.android.messaging.datamodel;
 
 import android.content.ContentProvider;
-import android.content.ContentResolver;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
 
 import com.android.messaging.BugleApplication;
-import com.android.messaging.Factory;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
@@ -39,8 +38,6 @@ import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.PhoneUtils;
-import com.android.messaging.widget.BugleWidgetProvider;
-import com.android.messaging.widget.WidgetConversationProvider;
 import com.google.common.annotations.VisibleForTesting;
 
 import java.io.FileDescriptor;
@@ -72,6 +69,17 @@ public class MessagingContentProvider extends ContentProvider {
     public static final Uri CONVERSATION_MESSAGES_URI = Uri.parse(CONTENT_AUTHORITY +
             MESSAGES_QUERY + "/conversation");
 
+    // Query parameters for loading a window of a conversation's messages
+    private static final String WINDOW_START_TIMESTAMP_PARAM = "window_start_timestamp";
+    private static final String WINDOW_START_MESSAGE_ID_PARAM = "window_start_message_id";
+    private static final String PAGE_SIZE_PARAM = "page_size";
+
+    /**
+     * Cursor extra holding the total number of messages in the conversation for windowed
+     * conversation messages queries.
+     */
+    public static final String EXTRA_CONVERSATION_MESSAGE_COUNT = "conversation_message_count";
+
     // Conversation participants query
     private static final String PARTICIPANTS_QUERY = "participants";
 
@@ -95,24 +103,21 @@ public class MessagingContentProvider extends ContentProvider {
     public static final Uri DRAFT_IMAGES_URI = Uri.parse(CONTENT_AUTHORITY +
             DRAFT_IMAGES_QUERY);
 
+    // Parent of all the uris exposed by the provider
+    static final Uri EVERYTHING_URI = Uri.parse(CONTENT_AUTHORITY);
+
     /**
      * Notifies that <i>all</i> data exposed by the provider needs to be refreshed.
      * <p>
      * <b>IMPORTANT!</b> You probably shouldn't be calling this. Prefer to notify more specific
      * uri's instead. Currently only sync uses this, because sync can potentially update many
      * different tables at once.
+     * <p>
+     * Like all the notifications below, it is batched by {@link ContentChangeDispatcher}, which
+     * also notifies any conversation list widgets and all conversation widgets.
      */
     public static void notifyEverythingChanged() {
-        final Uri uri = Uri.parse(CONTENT_AUTHORITY);
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(uri, null);
-
-        // Notify any conversations widgets the conversation list has changed.
-        BugleWidgetProvider.notifyConversationListChanged(context);
-
-        // Notify all conversation widgets to update.
-        WidgetConversationProvider.notifyMessagesChanged(context, null /*conversationId*/);
+        ContentChangeDispatcher.get().notifyEverythingChanged();
     }
 
     /**
@@ -126,18 +131,15 @@ public class MessagingContentProvider extends ContentProvider {
 
     public static void notifyParticipantsChanged(final String conversationId) {
         final Uri uri = buildConversationParticipantsUri(conversationId);
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(uri, null);
+        ContentChangeDispatcher.get().notifyChange(uri);
     }
 
     public static void notifyAllMessagesChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(CONVERSATION_MESSAGES_URI, null);
+        ContentChangeDispatcher.get().notifyChange(CONVERSATION_MESSAGES_URI);
     }
 
     public static void notifyAllParticipantsChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(CONVERSATION_PARTICIPANTS_URI, null);
+        ContentChangeDispatcher.get().notifyChange(CONVERSATION_PARTICIPANTS_URI);
     }
 
     // Default value for unknown dimension of image
@@ -178,15 +180,38 @@ public class MessagingContentProvider extends ContentProvider {
         return builder.build();
     }
 
+    /**
+     * Build a messages uri for a window of the conversation's messages.
+     *
+     * @param windowStartTimestamp received timestamp of the oldest message already in the window,
+     *        or -1 to load only the newest page
+     * @param windowStartMessageId id of the oldest message already in the window
+     * @param pageSize number of messages older than the window start to load, or 0 for none
+     */
+    public static Uri buildConversationMessagesUri(final String conversationId,
+            final long windowStartTimestamp, final long windowStartMessageId,
+            final int pageSize) {
+        final Uri.Builder builder = CONVERSATION_MESSAGES_URI.buildUpon();
+        builder.appendPath(conversationId);
+        if (windowStartTimestamp >= 0) {
+            builder.appendQueryParameter(WINDOW_START_TIMESTAMP_PARAM,
+                    Long.toString(windowStartTimestamp));
+            builder.appendQueryParameter(WINDOW_START_MESSAGE_ID_PARAM,
+                    Long.toString(windowStartMessageId));
+        }
+        if (pageSize > 0) {
+            builder.appendQueryParameter(PAGE_SIZE_PARAM, Integer.toString(pageSize));
+        }
+        return builder.build();
+    }
+
     public static void notifyMessagesChanged(final String conversationId) {
         final Uri uri = buildConversationMessagesUri(conversationId);
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(uri, null);
+        ContentChangeDispatcher.get().notifyChange(uri);
         notifyConversationListChanged();
 
         // Notify the widget the messages changed
-        WidgetConversationProvider.notifyMessagesChanged(context, conversationId);
+        ContentChangeDispatcher.get().notifyConversationWidgets(conversationId);
     }
 
     /**
@@ -200,23 +225,19 @@ public class MessagingContentProvider extends ContentProvider {
 
     public static void notifyConversationMetadataChanged(final String conversationId) {
         final Uri uri = buildConversationMetadataUri(conversationId);
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(uri, null);
+        ContentChangeDispatcher.get().notifyChange(uri);
         notifyConversationListChanged();
     }
 
     public static void notifyPartsChanged() {
-        final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
-        cr.notifyChange(PARTS_URI, null);
+        ContentChangeDispatcher.get().notifyChange(PARTS_URI);
     }
 
     public static void notifyConversationListChanged() {
-        final Context context = Factory.get().getApplicationContext();
-        final ContentResolver cr = context.getContentResolver();
-        cr.notifyChange(CONVERSATIONS_URI, null);
+        ContentChangeDispatcher.get().notifyChange(CONVERSATIONS_URI);
 
         // Notify the widget the conversation list changed
-        BugleWidgetProvider.notifyConversationListChanged(context);
+        ContentChangeDispatcher.get().notifyConversationListWidgets();
     }
 
     /**
@@ -277,12 +298,12 @@ public class MessagingContentProvider extends ContentProvider {
         String limit = null;
         switch (match) {
             case CONVERSATIONS_QUERY_CODE:
-                queryBuilder.setTables(ConversationListItemData.getConversationListView());
+                queryBuilder.setTables(ConversationListItemData.getConversationListSnapshotTable());
                 // Hide empty conversations (ones with 0 sort_timestamp)
                 queryBuilder.appendWhere(ConversationColumns.SORT_TIMESTAMP + " > 0 ");
                 break;
             case CONVERSATION_QUERY_CODE:
-                queryBuilder.setTables(ConversationListItemData.getConversationListView());
+                queryBuilder.setTables(ConversationListItemData.getConversationListSnapshotTable());
                 if (uri.getPathSegments().size() == 2) {
                     queryBuilder.appendWhere(ConversationColumns._ID + "=?");
                     // Get the conversation id from the uri
@@ -328,6 +349,10 @@ public class MessagingContentProvider extends ContentProvider {
                     // selection/sorting for this query.
 
                     if (selection == null && selectionArgs == null && sortOrder == null) {
+                        if (uri.getQueryParameter(WINDOW_START_TIMESTAMP_PARAM) != null ||
+                                uri.getQueryParameter(PAGE_SIZE_PARAM) != null) {
+                            return queryConversationMessagesWindow(conversationId, uri);
+                        }
                         return queryConversationMessages(conversationId, uri);
                     } else {
                         throw new IllegalArgumentException(
@@ -383,6 +408,62 @@ public class MessagingContentProvider extends ContentProvider {
         return cursor;
     }
 
+    private Cursor queryConversationMessagesWindow(final String conversationId, final Uri uri) {
+        final String windowStartTimestamp = uri.getQueryParameter(WINDOW_START_TIMESTAMP_PARAM);
+        final String windowStartMessageId = uri.getQueryParameter(WINDOW_START_MESSAGE_ID_PARAM);
+        final String pageSizeParam = uri.getQueryParameter(PAGE_SIZE_PARAM);
+        final boolean hasWindowStart = windowStartTimestamp != null;
+        final int pageSize;
+        final long timestamp;
+        final long messageId;
+        try {
+            pageSize = pageSizeParam == null ? 0 : Integer.parseInt(pageSizeParam);
+            timestamp = hasWindowStart ? Long.parseLong(windowStartTimestamp) : -1;
+            messageId = hasWindowStart ? Long.parseLong(windowStartMessageId) : -1;
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed URI " + uri);
+        }
+        if (!hasWindowStart && pageSize <= 0) {
+            throw new IllegalArgumentException("Malformed URI " + uri);
+        }
+
+        final DatabaseWrapper db = getDatabaseWrapper();
+        final Cursor cursor = db.rawQuery(
+                ConversationMessageData.getConversationMessagesWindowQuerySql(hasWindowStart,
+                        pageSize),
+                ConversationMessageData.getConversationMessagesWindowQueryArgs(conversationId,
+                        hasWindowStart, timestamp, messageId, pageSize));
+        final long messageCount = db.queryNumEntries(DatabaseHelper.MESSAGES_TABLE,
+                ConversationMessageData.getConversationMessageCountSelection(),
+                new String[] { conversationId });
+        final Bundle extras = new Bundle();
+        extras.putInt(EXTRA_CONVERSATION_MESSAGE_COUNT, (int) messageCount);
+
+        // Notifications are sent to the un-windowed uri
+        final Cursor windowCursor = new ExtrasCursorWrapper(cursor, extras);
+        windowCursor.setNotificationUri(getContext().getContentResolver(),
+                buildConversationMessagesUri(conversationId));
+        return windowCursor;
+    }
+
+    /**
+     * Exposes extras computed alongside a query without requiring API 23's
+     * {@link android.database.AbstractCursor#setExtras}.
+     */
+    private static class ExtrasCursorWrapper extends CursorWrapper {
+        private final Bundle mExtras;
+
+        ExtrasCursorWrapper(final Cursor cursor, final Bundle extras) {
+            super(cursor);
+            mExtras = extras;
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
+
     @Override
     public String getType(final Uri uri) {
         final StringBuilder sb = new
@@ -462,6 +543,8 @@ public class MessagingContentProvider extends ContentProvider {
             }
         }
         writer.println("Default SMS app: " + defaultSmsApp);
+        BugleNotifications.dumpNotificationLatency(writer);
+        ContentChangeDispatcher.get().dump(writer);
         // Now dump logs
         LogUtil.dump(writer);
     }
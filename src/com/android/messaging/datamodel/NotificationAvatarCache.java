@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.Assert.RunsOnAnyThread;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.SafeAsyncTask;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Caches the avatar bitmaps posted with message notifications, already sized for the
+ * notification, keyed by avatar uri. Each new message re-posts the notifications of all the
+ * conversations with unread messages, so their avatars are decoded once and then reused across
+ * updates. The avatars of a notification's conversations are prefetched in parallel, and the ones
+ * of conversations that are no longer notified about are dropped. Past MAX_SIZE_BYTES of bitmaps,
+ * the least recently used avatars are dropped as well.
+ */
+public class NotificationAvatarCache implements MemoryCache {
+    private static final String TAG = LogUtil.BUGLE_NOTIFICATIONS_TAG;
+
+    private static final int MAX_SIZE_BYTES = 4 * 1024 * 1024;
+
+    private static NotificationAvatarCache sInstance;
+
+    /**
+     * The bitmaps for one avatar. They are not managed by MediaResourceManager and are never
+     * recycled, so they can be handed to the NotificationManager as they are.
+     */
+    public static class Avatar {
+        private final Bitmap mIcon;
+        private final Bitmap mHiRes;
+
+        public Avatar(final Bitmap icon, final Bitmap hiRes) {
+            mIcon = icon;
+            mHiRes = hiRes;
+        }
+
+        /**
+         * @return the avatar sized for the notification large icon
+         */
+        public Bitmap getIcon() {
+            return mIcon;
+        }
+
+        /**
+         * @return the avatar sized for the background of wearable notifications, or null
+         */
+        public Bitmap getHiRes() {
+            return mHiRes;
+        }
+
+        int getByteCount() {
+            return mIcon.getByteCount() + (mHiRes == null ? 0 : mHiRes.getByteCount());
+        }
+    }
+
+    /**
+     * Decodes the avatar bitmaps for a notification.
+     */
+    public interface AvatarLoader {
+        /**
+         * @return the avatar, or null if it could not be loaded
+         */
+        @DoesNotRunOnMainThread
+        Avatar load(Uri avatarUri);
+    }
+
+    private final Object mLock = new Object();
+    private final LruCache<Uri, Avatar> mAvatars;
+    private final HashMap<Uri, FutureTask<Avatar>> mPendingLoads =
+            new HashMap<Uri, FutureTask<Avatar>>();
+
+    @VisibleForTesting
+    NotificationAvatarCache() {
+        this(MAX_SIZE_BYTES);
+    }
+
+    @VisibleForTesting
+    NotificationAvatarCache(final int maxSizeBytes) {
+        mAvatars = new LruCache<Uri, Avatar>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(final Uri key, final Avatar avatar) {
+                return avatar.getByteCount();
+            }
+        };
+    }
+
+    public static synchronized NotificationAvatarCache get() {
+        if (sInstance == null) {
+            sInstance = new NotificationAvatarCache();
+            final MemoryCacheManager memoryCacheManager = MemoryCacheManager.get();
+            if (memoryCacheManager != null) {
+                memoryCacheManager.registerMemoryCache(sInstance);
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts loading the avatars that are not cached yet on the thread pool, all at once, and
+     * drops the cached avatars which are not among them.
+     *
+     * @param avatarUris the avatars of all the conversations currently notified about
+     * @param loader used to load the missing avatars
+     */
+    @RunsOnAnyThread
+    public void prefetch(final Collection<Uri> avatarUris, final AvatarLoader loader) {
+        final Set<Uri> retained = new HashSet<Uri>(avatarUris);
+        synchronized (mLock) {
+            for (final Uri avatarUri : mAvatars.snapshot().keySet()) {
+                if (!retained.contains(avatarUri)) {
+                    mAvatars.remove(avatarUri);
+                }
+            }
+            for (final Uri avatarUri : retained) {
+                if (mAvatars.get(avatarUri) == null && !mPendingLoads.containsKey(avatarUri)) {
+                    final FutureTask<Avatar> load = newLoad(avatarUri, loader);
+                    mPendingLoads.put(avatarUri, load);
+                    SafeAsyncTask.executeOnThreadPool(load);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the avatar, waiting for it if it is being prefetched and loading it on the calling
+     * thread if it is neither cached nor being loaded.
+     *
+     * @return the avatar, or null if it could not be loaded
+     */
+    @DoesNotRunOnMainThread
+    public Avatar get(final Uri avatarUri, final AvatarLoader loader) {
+        FutureTask<Avatar> load;
+        boolean loadHere = false;
+        synchronized (mLock) {
+            final Avatar avatar = mAvatars.get(avatarUri);
+            if (avatar != null) {
+                return avatar;
+            }
+            load = mPendingLoads.get(avatarUri);
+            if (load == null) {
+                load = newLoad(avatarUri, loader);
+                mPendingLoads.put(avatarUri, load);
+                loadHere = true;
+            }
+        }
+        if (loadHere) {
+            load.run();
+        }
+        try {
+            return load.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException e) {
+            LogUtil.e(TAG, "NotificationAvatarCache: failed to load avatar", e);
+            return null;
+        }
+    }
+
+    private FutureTask<Avatar> newLoad(final Uri avatarUri, final AvatarLoader loader) {
+        return new FutureTask<Avatar>(new Callable<Avatar>() {
+            @Override
+            public Avatar call() {
+                Avatar avatar = null;
+                try {
+                    avatar = loader.load(avatarUri);
+                } finally {
+                    synchronized (mLock) {
+                        if (mPendingLoads.remove(avatarUri) != null && avatar != null) {
+                            mAvatars.put(avatarUri, avatar);
+                        }
+                    }
+                }
+                return avatar;
+            }
+        });
+    }
+
+    @Override
+    public void reclaim() {
+        synchronized (mLock) {
+            mAvatars.evictAll();
+        }
+    }
+}
@@ -32,8 +32,10 @@ import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsCo
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
 import com.android.messaging.datamodel.data.ParticipantData;
 import com.android.messaging.datamodel.data.ParticipantData.ParticipantsQuery;
+import com.android.messaging.datamodel.media.AvatarGroupImageCache;
 import com.android.messaging.ui.UIIntents;
 import com.android.messaging.util.Assert;
+import com.android.messaging.util.AvatarUriUtil;
 import com.android.messaging.util.ContactUtil;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
@@ -241,6 +243,8 @@ public class ParticipantRefresh {
         }
 
         final ArrayList<String> changedParticipants = new ArrayList<String>();
+        // The avatar uris the changed participants had before the refresh
+        final ArrayList<String> changedAvatarUris = new ArrayList<String>();
 
         String selection = null;
         String[] selectionArgs = null;
@@ -268,6 +272,8 @@ public class ParticipantRefresh {
                     try {
                         final ParticipantData participantData =
                                 ParticipantData.getFromCursor(cursor);
+                        final String avatarUri =
+                                AvatarUriUtil.createAvatarUri(participantData).toString();
                         if (refreshParticipant(db, participantData)) {
                             if (participantData.isSelf()) {
                                 selfUpdated = true;
@@ -275,6 +281,7 @@ public class ParticipantRefresh {
                             updateParticipant(db, participantData);
                             final String id = participantData.getId();
                             changedParticipants.add(id);
+                            changedAvatarUris.add(avatarUri);
                         }
                     } catch (final Exception exception) {
                         // Failure to update one participant shouldn't cancel the entire refresh.
@@ -297,6 +304,9 @@ public class ParticipantRefresh {
         // Refresh conversations for participants that are changed.
         if (changedParticipants.size() > 0) {
             BugleDatabaseOperations.refreshConversationsForParticipants(changedParticipants);
+            MessageNotificationState.invalidateAll();
+            // Group avatars showing the participants as they were won't be shown again
+            AvatarGroupImageCache.invalidateParticipants(changedAvatarUris);
         }
         if (selfUpdated) {
             // Boom
@@ -334,6 +344,30 @@ public class ParticipantRefresh {
         return existingSubIds;
     }
 
+    /**
+     * Posts a change for every self participant, since their subscription info is rewritten in
+     * place without knowing which ones it changed.
+     */
+    private static void postSelfParticipantsChanged(final DatabaseWrapper db) {
+        final DataModelChangeStream changeStream = DataModelChangeStream.get();
+        if (!changeStream.hasListeners()) {
+            return;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = db.query(DatabaseHelper.PARTICIPANTS_TABLE,
+                    new String[] { ParticipantColumns._ID },
+                    SELF_PARTICIPANTS_CLAUSE, null, null, null, null);
+            while (cursor.moveToNext()) {
+                changeStream.post(DataModelChange.participantChanged(cursor.getString(0)));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
     private static final String UPDATE_SELF_PARTICIPANT_SUBSCRIPTION_SQL =
             "UPDATE " + DatabaseHelper.PARTICIPANTS_TABLE + " SET "
             +  ParticipantColumns.SIM_SLOT_ID + " = %d, "
@@ -400,6 +434,7 @@ public class ParticipantRefresh {
                     ParticipantData.INVALID_SLOT_ID, Color.TRANSPARENT, "''",
                     ParticipantColumns.SUB_ID + " NOT IN (" +
                     Joiner.on(", ").join(activeSubscriptionIdToRecordMap.keySet()) + ")"));
+            postSelfParticipantsChanged(db);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -614,8 +649,12 @@ public class ParticipantRefresh {
 
         db.beginTransaction();
         try {
-            db.update(DatabaseHelper.PARTICIPANTS_TABLE, values, ParticipantColumns._ID + "=?",
-                    new String[] { participantData.getId() });
+            final int count = db.update(DatabaseHelper.PARTICIPANTS_TABLE, values,
+                    ParticipantColumns._ID + "=?", new String[] { participantData.getId() });
+            if (count > 0) {
+                DataModelChangeStream.get().post(
+                        DataModelChange.participantChanged(participantData.getId()));
+            }
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -27,6 +27,8 @@ import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.DatabaseWrapper;
 import com.android.messaging.datamodel.MessagingContentProvider;
 import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.data.MessagePartData;
+import com.android.messaging.datamodel.media.VideoThumbnailStore;
 import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.util.LogUtil;
 
@@ -79,6 +81,13 @@ public class DeleteMessageAction extends Action implements Parcelable {
                 // We may have changed the conversation list
                 MessagingContentProvider.notifyConversationListChanged();
 
+                // Thumbnails of deleted videos won't be shown again
+                for (final MessagePartData part : message.getParts()) {
+                    if (part.isVideo() && part.getContentUri() != null) {
+                        VideoThumbnailStore.get().removeThumbnail(part.getContentUri());
+                    }
+                }
+
                 final Uri messageUri = message.getSmsMessageUri();
                 if (messageUri != null) {
                     // Delete from telephony DB
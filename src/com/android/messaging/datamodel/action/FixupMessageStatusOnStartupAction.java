@@ -20,6 +20,7 @@ import android.content.ContentValues;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.android.messaging.datamodel.BugleDatabaseOperations;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.DatabaseHelper;
 import com.android.messaging.datamodel.DatabaseWrapper;
@@ -60,7 +61,7 @@ public class FixupMessageStatusOnStartupAction extends Action implements Parcela
             final ContentValues values = new ContentValues();
             values.put(DatabaseHelper.MessageColumns.STATUS,
                     MessageData.BUGLE_STATUS_INCOMING_DOWNLOAD_FAILED);
-            downloadFailedCnt = db.update(DatabaseHelper.MESSAGES_TABLE, values,
+            downloadFailedCnt = BugleDatabaseOperations.updateMessagesInTransaction(db, values,
                     DatabaseHelper.MessageColumns.STATUS + " IN (?, ?)",
                     new String[]{
                             Integer.toString(MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING),
@@ -70,7 +71,7 @@ public class FixupMessageStatusOnStartupAction extends Action implements Parcela
             values.clear();
             values.put(DatabaseHelper.MessageColumns.STATUS,
                     MessageData.BUGLE_STATUS_OUTGOING_FAILED);
-            sendFailedCnt = db.update(DatabaseHelper.MESSAGES_TABLE, values,
+            sendFailedCnt = BugleDatabaseOperations.updateMessagesInTransaction(db, values,
                     DatabaseHelper.MessageColumns.STATUS + " IN (?, ?)",
                     new String[]{
                             Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING),
@@ -23,7 +23,6 @@ import android.os.Parcelable;
 import com.android.messaging.datamodel.BugleDatabaseOperations;
 import com.android.messaging.datamodel.BugleNotifications;
 import com.android.messaging.datamodel.DataModel;
-import com.android.messaging.datamodel.DatabaseHelper;
 import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.DatabaseWrapper;
 import com.android.messaging.datamodel.MessagingContentProvider;
@@ -71,7 +70,7 @@ public class MarkAsReadAction extends Action implements Parcelable {
             values.put(MessageColumns.READ, 1);
             values.put(MessageColumns.SEEN, 1);     // if they read it, they saw it
 
-            final int count = db.update(DatabaseHelper.MESSAGES_TABLE, values,
+            final int count = BugleDatabaseOperations.updateMessagesInTransaction(db, values,
                     "(" + MessageColumns.READ + " !=1 OR " +
                             MessageColumns.SEEN + " !=1 ) AND " +
                             MessageColumns.CONVERSATION_ID + "=?",
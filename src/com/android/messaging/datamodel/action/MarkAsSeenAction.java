@@ -21,9 +21,9 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.TextUtils;
 
+import com.android.messaging.datamodel.BugleDatabaseOperations;
 import com.android.messaging.datamodel.BugleNotifications;
 import com.android.messaging.datamodel.DataModel;
-import com.android.messaging.datamodel.DatabaseHelper;
 import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.DatabaseWrapper;
 import com.android.messaging.datamodel.MessagingContentProvider;
@@ -80,7 +80,7 @@ public class MarkAsSeenAction extends Action implements Parcelable {
             values.put(MessageColumns.SEEN, 1);
 
             if (hasSpecificConversation) {
-                final int count = db.update(DatabaseHelper.MESSAGES_TABLE, values,
+                final int count = BugleDatabaseOperations.updateMessagesInTransaction(db, values,
                         MessageColumns.SEEN + " != 1 AND " +
                                 MessageColumns.CONVERSATION_ID + "=?",
                         new String[] { conversationId });
@@ -88,7 +88,7 @@ public class MarkAsSeenAction extends Action implements Parcelable {
                     MessagingContentProvider.notifyMessagesChanged(conversationId);
                 }
             } else {
-                db.update(DatabaseHelper.MESSAGES_TABLE, values,
+                BugleDatabaseOperations.updateMessagesInTransaction(db, values,
                         MessageColumns.SEEN + " != 1", null/*selectionArgs*/);
             }
 
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.android.messaging.datamodel.BugleDatabaseOperations;
+import com.android.messaging.datamodel.DatabaseHelper;
+import com.android.messaging.datamodel.DatabaseWrapper;
+import com.android.messaging.datamodel.MessagingContentProvider;
+import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.util.BugleGservices;
+import com.android.messaging.util.BugleGservicesKeys;
+import com.android.messaging.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Works out which pending messages of a subscription are due to be sent or downloaded.
+ *
+ * All the messages of the subscription that are waiting to be sent or downloaded, or are being
+ * sent or downloaded, are read with a single query. The oldest pending message of each
+ * conversation, along with the pending downloads, is then queued by due time, retry count and
+ * conversation, and as many as may be in progress at once are taken off the queue in one batch:
+ * up to the SMS send window of messages to send (MMS still one at a time) and one MMS to download.
+ *
+ * Failed attempts are backed off per message, so a message that keeps failing does not hold back
+ * the others. The attempt count and next due time of each message are kept in the messages table,
+ * so backoffs carry over a restart.
+ */
+class PendingMessageScheduler {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    /** Due time reported when no pending message is waiting on a backoff */
+    static final long NOT_DUE = Long.MAX_VALUE;
+
+    /**
+     * The messages to send and download now, and when the next of the other pending messages will
+     * be due.
+     */
+    static class Batch {
+        final List<String> mToSendMessageIds = new ArrayList<String>();
+        final List<String> mToDownloadMessageIds = new ArrayList<String>();
+        // Earliest time at which a message left pending is due
+        long mNextDueTime = NOT_DUE;
+        // Earliest time at which a message of this batch will be retried should it fail
+        long mRetryTime = NOT_DUE;
+
+        boolean isEmpty() {
+            return mToSendMessageIds.isEmpty() && mToDownloadMessageIds.isEmpty();
+        }
+
+        /**
+         * @return when to check back should the messages of this batch not be dispatched
+         */
+        long getRetryTime() {
+            return Math.min(mNextDueTime, mRetryTime);
+        }
+    }
+
+    private static class PendingMessage {
+        final MessageData mMessage;
+        final String mMessageId;
+        final String mConversationId;
+        final boolean mIsMms;
+        final boolean mIsDownload;
+        final int mAttempts;
+        final long mDueTime;
+
+        PendingMessage(final Cursor cursor) {
+            mMessage = new MessageData();
+            mMessage.bind(cursor);
+            mMessageId = mMessage.getMessageId();
+            mConversationId = mMessage.getConversationId();
+            mIsMms = mMessage.getIsMms();
+            // We will check if a download has expired in DownloadMmsAction and mark the message
+            // failed there
+            mIsDownload = mMessage.getIsIncoming();
+            mAttempts = cursor.getInt(INDEX_ATTEMPT_COUNT);
+            mDueTime = cursor.getLong(INDEX_NEXT_ATTEMPT_TIMESTAMP);
+        }
+    }
+
+    private static final Comparator<PendingMessage> DUE_ORDER = new Comparator<PendingMessage>() {
+        @Override
+        public int compare(final PendingMessage lhs, final PendingMessage rhs) {
+            if (lhs.mDueTime != rhs.mDueTime) {
+                return lhs.mDueTime < rhs.mDueTime ? -1 : 1;
+            }
+            if (lhs.mAttempts != rhs.mAttempts) {
+                return lhs.mAttempts < rhs.mAttempts ? -1 : 1;
+            }
+            return lhs.mConversationId.compareTo(rhs.mConversationId);
+        }
+    };
+
+    private static final String[] PENDING_MESSAGES_PROJECTION;
+    private static final int INDEX_ATTEMPT_COUNT;
+    private static final int INDEX_NEXT_ATTEMPT_TIMESTAMP;
+    static {
+        // The message columns followed by the backoff of the message
+        final String[] messageProjection = MessageData.getProjection();
+        INDEX_ATTEMPT_COUNT = messageProjection.length;
+        INDEX_NEXT_ATTEMPT_TIMESTAMP = INDEX_ATTEMPT_COUNT + 1;
+        PENDING_MESSAGES_PROJECTION = new String[INDEX_NEXT_ATTEMPT_TIMESTAMP + 1];
+        System.arraycopy(messageProjection, 0, PENDING_MESSAGES_PROJECTION, 0,
+                messageProjection.length);
+        PENDING_MESSAGES_PROJECTION[INDEX_ATTEMPT_COUNT] =
+                DatabaseHelper.MessageColumns.ATTEMPT_COUNT;
+        PENDING_MESSAGES_PROJECTION[INDEX_NEXT_ATTEMPT_TIMESTAMP] =
+                DatabaseHelper.MessageColumns.NEXT_ATTEMPT_TIMESTAMP;
+    }
+
+    private static final String PENDING_MESSAGES_SELECTION =
+            DatabaseHelper.MessageColumns.STATUS + " IN (?, ?, ?, ?, ?, ?, ?, ?) AND "
+            + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ";
+
+    private static PendingMessageScheduler sInstance;
+
+    // Self participant ids whose pending messages are due straight away, as connectivity came back
+    private final HashSet<String> mExpeditedSelfIds = new HashSet<String>();
+
+    static synchronized PendingMessageScheduler get() {
+        if (sInstance == null) {
+            sInstance = new PendingMessageScheduler();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PendingMessageScheduler() {
+    }
+
+    /**
+     * Reads the pending messages of the subscription and takes the ones due now off the queue,
+     * recording an attempt for each of them. Messages to send that are outside of their resend
+     * window (or whose subscription is no longer active) are marked failed on the way.
+     *
+     * @param db the database
+     * @param selfId the self participant id of the subscription
+     * @param isActiveSubscription whether the subscription is active
+     * @param now the current time
+     * @return the messages to send and download
+     */
+    synchronized Batch takeDueMessages(final DatabaseWrapper db, final String selfId,
+            final boolean isActiveSubscription, final long now) {
+        final boolean expedited = mExpeditedSelfIds.remove(selfId);
+        final PriorityQueue<PendingMessage> queue = new PriorityQueue<PendingMessage>(
+                16, DUE_ORDER);
+        final Set<String> busyConversationIds = new HashSet<String>();
+        int sendingCnt = 0;
+        boolean mmsSending = false;
+        int downloadingCnt = 0;
+        int failedCnt = 0;
+        final int windowSize = BugleGservices.get().getInt(
+                BugleGservicesKeys.SMS_SEND_WINDOW_SIZE,
+                BugleGservicesKeys.SMS_SEND_WINDOW_SIZE_DEFAULT);
+        final Batch batch = new Batch();
+        int queuedCnt = 0;
+
+        final String[] selectionArgs = new String[] {
+                Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_YET_TO_SEND),
+                Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY),
+                Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING),
+                Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING),
+                Integer.toString(MessageData.BUGLE_STATUS_INCOMING_RETRYING_AUTO_DOWNLOAD),
+                Integer.toString(MessageData.BUGLE_STATUS_INCOMING_RETRYING_MANUAL_DOWNLOAD),
+                Integer.toString(MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING),
+                Integer.toString(MessageData.BUGLE_STATUS_INCOMING_MANUAL_DOWNLOADING),
+                selfId
+        };
+        Cursor cursor = null;
+        db.beginTransaction();
+        try {
+            if (expedited) {
+                // Make every pending message due without resetting the number of attempts
+                final ContentValues dueValues = new ContentValues(1);
+                dueValues.put(DatabaseHelper.MessageColumns.NEXT_ATTEMPT_TIMESTAMP, 0);
+                BugleDatabaseOperations.updateMessagesInTransaction(db, dueValues,
+                        PENDING_MESSAGES_SELECTION, selectionArgs);
+            }
+            cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                    PENDING_MESSAGES_PROJECTION,
+                    PENDING_MESSAGES_SELECTION,
+                    selectionArgs,
+                    null,
+                    null,
+                    DatabaseHelper.MessageColumns.RECEIVED_TIMESTAMP + " ASC");
+
+            final List<PendingMessage> pendingMessages = new ArrayList<PendingMessage>();
+            while (cursor.moveToNext()) {
+                final PendingMessage pendingMessage = new PendingMessage(cursor);
+                final MessageData message = pendingMessage.mMessage;
+                switch (message.getStatus()) {
+                    case MessageData.BUGLE_STATUS_OUTGOING_SENDING:
+                    case MessageData.BUGLE_STATUS_OUTGOING_RESENDING:
+                        sendingCnt++;
+                        mmsSending |= message.getIsMms();
+                        busyConversationIds.add(message.getConversationId());
+                        break;
+                    case MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING:
+                    case MessageData.BUGLE_STATUS_INCOMING_MANUAL_DOWNLOADING:
+                        downloadingCnt++;
+                        break;
+                    default:
+                        pendingMessages.add(pendingMessage);
+                        break;
+                }
+            }
+
+            final ContentValues values = new ContentValues();
+            values.put(DatabaseHelper.MessageColumns.STATUS,
+                    MessageData.BUGLE_STATUS_OUTGOING_FAILED);
+            for (final PendingMessage pendingMessage : pendingMessages) {
+                final MessageData message = pendingMessage.mMessage;
+                if (pendingMessage.mIsDownload) {
+                    queue.add(pendingMessage);
+                } else if (!isActiveSubscription || !message.getInResendWindow(now)) {
+                    failedCnt++;
+
+                    // Mark message as failed
+                    BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
+                    MessagingContentProvider.notifyMessagesChanged(message.getConversationId());
+                } else if (busyConversationIds.add(message.getConversationId())) {
+                    // Only the oldest message of a conversation not busy sending is queued, which
+                    // keeps outgoing messages "in order"
+                    queue.add(pendingMessage);
+                }
+            }
+
+            queuedCnt = queue.size();
+            final ContentValues attemptValues = new ContentValues(2);
+            PendingMessage pending;
+            while ((pending = queue.poll()) != null) {
+                if (pending.mDueTime > now) {
+                    // Everything left is still backing off
+                    batch.mNextDueTime = Math.min(batch.mNextDueTime, pending.mDueTime);
+                    break;
+                }
+                if (pending.mIsDownload) {
+                    if (downloadingCnt + batch.mToDownloadMessageIds.size() > 0) {
+                        continue;
+                    }
+                    batch.mToDownloadMessageIds.add(pending.mMessageId);
+                } else {
+                    final int inFlightCnt = sendingCnt + batch.mToSendMessageIds.size();
+                    if (inFlightCnt >= windowSize || mmsSending ||
+                            (pending.mIsMms && inFlightCnt > 0)) {
+                        continue;
+                    }
+                    mmsSending = pending.mIsMms;
+                    batch.mToSendMessageIds.add(pending.mMessageId);
+                }
+
+                // Record the attempt, which is backed off should the message fail
+                final int attempts = pending.mAttempts + 1;
+                final long retryTime = now + getBackoffDelay(attempts);
+                attemptValues.put(DatabaseHelper.MessageColumns.ATTEMPT_COUNT, attempts);
+                attemptValues.put(DatabaseHelper.MessageColumns.NEXT_ATTEMPT_TIMESTAMP,
+                        retryTime);
+                BugleDatabaseOperations.updateMessageRow(db, pending.mMessageId, attemptValues);
+                batch.mRetryTime = Math.min(batch.mRetryTime, retryTime);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "PendingMessageScheduler: "
+                    + sendingCnt + " messages already sending, "
+                    + downloadingCnt + " messages already downloading, "
+                    + queuedCnt + " messages queued, "
+                    + batch.mToSendMessageIds.size() + " messages to send, "
+                    + batch.mToDownloadMessageIds.size() + " messages to download, "
+                    + failedCnt + " failed messages");
+        }
+        return batch;
+    }
+
+    /**
+     * Makes every pending message of the subscription due straight away, without resetting the
+     * number of attempts made.
+     */
+    synchronized void expedite(final String selfId) {
+        mExpeditedSelfIds.add(selfId);
+    }
+
+    /**
+     * Restarts the backoff of a message the user retried, along with the other values written
+     * for it.
+     */
+    static void putAttemptsReset(final ContentValues values) {
+        values.put(DatabaseHelper.MessageColumns.ATTEMPT_COUNT, 0);
+        values.put(DatabaseHelper.MessageColumns.NEXT_ATTEMPT_TIMESTAMP, 0);
+    }
+
+    /**
+     * @return the delay before retrying a message after the given number of attempts
+     */
+    static long getBackoffDelay(final int attempts) {
+        final long initialBackoffMs = BugleGservices.get().getLong(
+                BugleGservicesKeys.INITIAL_MESSAGE_RESEND_DELAY_MS,
+                BugleGservicesKeys.INITIAL_MESSAGE_RESEND_DELAY_MS_DEFAULT);
+        final long maxDelayMs = BugleGservices.get().getLong(
+                BugleGservicesKeys.MAX_MESSAGE_RESEND_DELAY_MS,
+                BugleGservicesKeys.MAX_MESSAGE_RESEND_DELAY_MS_DEFAULT);
+        long delayMs = initialBackoffMs;
+        for (int attempt = 1; attempt < attempts && delayMs * 2 < maxDelayMs; attempt++) {
+            delayMs *= 2;
+        }
+        return delayMs;
+    }
+}
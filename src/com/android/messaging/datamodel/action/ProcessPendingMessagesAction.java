@@ -16,40 +16,27 @@
 
 package com.android.messaging.datamodel.action;
 
-import android.content.ContentValues;
-import android.database.Cursor;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.telephony.ServiceState;
 
-import com.android.messaging.Factory;
 import com.android.messaging.datamodel.BugleDatabaseOperations;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.DataModelImpl;
-import com.android.messaging.datamodel.DatabaseHelper;
-import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.DatabaseWrapper;
-import com.android.messaging.datamodel.MessagingContentProvider;
-import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.datamodel.data.ParticipantData;
-import com.android.messaging.util.BugleGservices;
-import com.android.messaging.util.BugleGservicesKeys;
-import com.android.messaging.util.BuglePrefs;
-import com.android.messaging.util.BuglePrefsKeys;
 import com.android.messaging.util.ConnectivityUtil;
 import com.android.messaging.util.ConnectivityUtil.ConnectivityListener;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.PhoneUtils;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Action used to lookup any messages in the pending send/download state and either fail them or
- * retry their action based on subscriptions. This action only initiates one retry at a time for
- * both sending/downloading. Further retries should be triggered by successful sending/downloading
- * of a message, network status change or exponential backoff timer.
+ * retry their action based on subscriptions. Which messages are due is worked out in batches by
+ * {@link PendingMessageScheduler}, which backs off failed messages individually. Further retries
+ * should be triggered by successful sending/downloading of a message, network status change or
+ * the backoff timer of the next due message.
  */
 public class ProcessPendingMessagesAction extends Action implements Parcelable {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
@@ -57,6 +44,8 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
     private static final int PENDING_INTENT_BASE_REQUEST_CODE = 103;
 
     private static final String KEY_SUB_ID = "sub_id";
+    // Number of times in a row the action found Bugle was not the default SMS app
+    private static final String KEY_NOT_DEFAULT_SMS_APP_COUNT = "not_default_sms_app_count";
 
     public static void processFirstPendingMessage() {
         PhoneUtils.forEachActiveSubscription(new PhoneUtils.SubscriptionRunnable() {
@@ -64,8 +53,6 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             public void runForSubscription(final int subId) {
                 // Clear any pending alarms or connectivity events
                 unregister(subId);
-                // Clear retry count
-                setRetry(0, subId);
                 // Start action
                 final ProcessPendingMessagesAction action = new ProcessPendingMessagesAction();
                 action.actionParameters.putInt(KEY_SUB_ID, subId);
@@ -84,18 +71,19 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         // is currently running or we will run now or register if pending actions possible.
         unregister(subId);
 
-        final boolean isDefaultSmsApp = PhoneUtils.getDefault().isDefaultSmsApp();
-        boolean scheduleAlarm = false;
-        // If message succeeded and if Bugle is default SMS app just carry on with next message
-        if (!failed && isDefaultSmsApp) {
-            // Clear retry attempt count as something just succeeded
-            setRetry(0, subId);
-
-            // Lookup and queue next message for each sending/downloading for immediate processing
-            // by background worker. If there are no pending messages, this will do nothing and
+        // Failed messages are backed off individually by the scheduler, so whether or not the
+        // message failed, carry on with whatever else is due now.
+        final long nextDueTime;
+        int notDefaultSmsAppCount = 0;
+        if (PhoneUtils.getDefault().isDefaultSmsApp()) {
+            final PendingMessageScheduler.Batch batch = takeDueMessages(subId);
+            if (batch == null) {
+                return;
+            }
+            // Queue due messages for each sending/downloading for immediate processing by
+            // background worker. If there are no due messages, this will do nothing and
             // return true.
-            final ProcessPendingMessagesAction action = new ProcessPendingMessagesAction();
-            if (action.queueActions(processingAction)) {
+            if (queueActions(batch, processingAction)) {
                 if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                     if (processingAction.hasBackgroundActions()) {
                         LogUtil.v(TAG, "ProcessPendingMessagesAction: Action queued");
@@ -103,14 +91,21 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                         LogUtil.v(TAG, "ProcessPendingMessagesAction: No actions to queue");
                     }
                 }
-                // Have queued next action if needed, nothing more to do
-                return;
+                nextDueTime = batch.mNextDueTime;
+            } else {
+                // In case of error queuing schedule a retry
+                nextDueTime = batch.getRetryTime();
+                LogUtil.w(TAG, "ProcessPendingMessagesAction: Action failed to queue; retrying");
             }
-            // In case of error queuing schedule a retry
-            scheduleAlarm = true;
-            LogUtil.w(TAG, "ProcessPendingMessagesAction: Action failed to queue; retrying");
+        } else {
+            // Nothing can be sent or downloaded, so leave the pending messages and their backoffs
+            // alone and check back later, less often each time in a row
+            notDefaultSmsAppCount = processingAction.actionParameters
+                    .getInt(KEY_NOT_DEFAULT_SMS_APP_COUNT, 0) + 1;
+            nextDueTime = System.currentTimeMillis()
+                    + PendingMessageScheduler.getBackoffDelay(notDefaultSmsAppCount);
         }
-        if (getHavePendingMessages(subId) || scheduleAlarm) {
+        if (nextDueTime != PendingMessageScheduler.NOT_DUE) {
             // Still have a pending message that needs to be queued for processing
             final ConnectivityListener listener = new ConnectivityListener() {
                 @Override
@@ -119,9 +114,14 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                         LogUtil.i(TAG, "ProcessPendingMessagesAction: Now connected for subId "
                                 + subId + ", starting action");
 
-                        // Clear any pending alarms or connectivity events but leave attempt count
+                        // Clear any pending alarms or connectivity events but leave attempt counts
                         // alone
                         unregister(subId);
+                        final String selfId = ParticipantData.getParticipantId(
+                                DataModel.get().getDatabase(), subId);
+                        if (selfId != null) {
+                            PendingMessageScheduler.get().expedite(selfId);
+                        }
 
                         // Start action
                         final ProcessPendingMessagesAction action =
@@ -131,24 +131,16 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     }
                 }
             };
-            // Read and increment attempt number from shared prefs
-            final int retryAttempt = getNextRetry(subId);
-            register(listener, retryAttempt, subId);
+            register(listener, nextDueTime, subId, notDefaultSmsAppCount);
         } else {
-            // No more pending messages (presumably the message that failed has expired) or it
-            // may be possible that a send and a download are already in process.
-            // Clear retry attempt count.
-            // TODO Might be premature if send and download in process...
-            // but worst case means we try to send a bit more often.
-            setRetry(0, subId);
+            // No more pending messages (presumably the message that failed has expired) or the
+            // remaining ones wait on messages currently sending/downloading.
             LogUtil.i(TAG, "ProcessPendingMessagesAction: No more pending messages");
         }
     }
 
-    private static void register(final ConnectivityListener listener, final int retryAttempt,
-            int subId) {
-        int retryNumber = retryAttempt;
-
+    private static void register(final ConnectivityListener listener, final long dueTime,
+            final int subId, final int notDefaultSmsAppCount) {
         // Register to be notified about connectivity changes
         ConnectivityUtil connectivityUtil = DataModelImpl.getConnectivityUtil(subId);
         if (connectivityUtil != null) {
@@ -157,23 +149,11 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
 
         final ProcessPendingMessagesAction action = new ProcessPendingMessagesAction();
         action.actionParameters.putInt(KEY_SUB_ID, subId);
-        final long initialBackoffMs = BugleGservices.get().getLong(
-                BugleGservicesKeys.INITIAL_MESSAGE_RESEND_DELAY_MS,
-                BugleGservicesKeys.INITIAL_MESSAGE_RESEND_DELAY_MS_DEFAULT);
-        final long maxDelayMs = BugleGservices.get().getLong(
-                BugleGservicesKeys.MAX_MESSAGE_RESEND_DELAY_MS,
-                BugleGservicesKeys.MAX_MESSAGE_RESEND_DELAY_MS_DEFAULT);
-        long delayMs;
-        long nextDelayMs = initialBackoffMs;
-        do {
-            delayMs = nextDelayMs;
-            retryNumber--;
-            nextDelayMs = delayMs * 2;
-        }
-        while (retryNumber > 0 && nextDelayMs < maxDelayMs);
+        action.actionParameters.putInt(KEY_NOT_DEFAULT_SMS_APP_COUNT, notDefaultSmsAppCount);
+        final long delayMs = Math.max(0, dueTime - System.currentTimeMillis());
 
-        LogUtil.i(TAG, "ProcessPendingMessagesAction: Registering for retry #" + retryAttempt
-                + " in " + delayMs + " ms for subId " + subId);
+        LogUtil.i(TAG, "ProcessPendingMessagesAction: Registering for retry in " + delayMs
+                + " ms for subId " + subId);
 
         action.schedule(PENDING_INTENT_BASE_REQUEST_CODE + subId, delayMs);
     }
@@ -194,80 +174,57 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         }
     }
 
-    private static void setRetry(final int retryAttempt, int subId) {
-        final BuglePrefs prefs = Factory.get().getSubscriptionPrefs(subId);
-        prefs.putInt(BuglePrefsKeys.PROCESS_PENDING_MESSAGES_RETRY_COUNT, retryAttempt);
-    }
-
-    private static int getNextRetry(int subId) {
-        final BuglePrefs prefs = Factory.get().getSubscriptionPrefs(subId);
-        final int retryAttempt =
-                prefs.getInt(BuglePrefsKeys.PROCESS_PENDING_MESSAGES_RETRY_COUNT, 0) + 1;
-        prefs.putInt(BuglePrefsKeys.PROCESS_PENDING_MESSAGES_RETRY_COUNT, retryAttempt);
-        return retryAttempt;
-    }
-
     private ProcessPendingMessagesAction() {
     }
 
     /**
-     * Read from the DB and determine if there are any messages we should process
+     * Read from the DB and take the messages that are due to be sent or downloaded now
      *
      * @param subId the subId
-     * @return true if we have pending messages
+     * @return the due messages, or null if the subscription has no self participant yet
      */
-    private static boolean getHavePendingMessages(final int subId) {
+    private static PendingMessageScheduler.Batch takeDueMessages(final int subId) {
         final DatabaseWrapper db = DataModel.get().getDatabase();
         final long now = System.currentTimeMillis();
+
+        LogUtil.i(TAG, "ProcessPendingMessagesAction: Start queueing for subId " + subId);
+
         final String selfId = ParticipantData.getParticipantId(db, subId);
         if (selfId == null) {
             // This could be happened before refreshing participant.
             LogUtil.w(TAG, "ProcessPendingMessagesAction: selfId is null for subId " + subId);
-            return false;
+            return null;
         }
 
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
-        if (toSendMessageId != null) {
-            return true;
-        } else {
-            final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
-            if (toDownloadMessageId != null) {
-                return true;
+        // Prior to L_MR1, isActiveSubscription is true always
+        boolean isActiveSubscription = true;
+        if (OsUtil.isAtLeastL_MR1()) {
+            final ParticipantData messageSelf =
+                    BugleDatabaseOperations.getExistingParticipant(db, selfId);
+            if (messageSelf == null || !messageSelf.isActiveSubscription()) {
+                isActiveSubscription = false;
             }
         }
-        // Messages may be in the process of sending/downloading even when there are no pending
-        // messages...
-        return false;
+        return PendingMessageScheduler.get().takeDueMessages(db, selfId, isActiveSubscription,
+                now);
     }
 
     /**
-     * Queue any pending actions
+     * Queue actions for the due messages
      *
-     * @param actionState
-     * @return true if action queued (or no actions to queue) else false
+     * @param batch the due messages
+     * @param processingAction the action to queue the background work on
+     * @return true if actions queued (or no actions to queue) else false
      */
-    private boolean queueActions(final Action processingAction) {
-        final DatabaseWrapper db = DataModel.get().getDatabase();
-        final long now = System.currentTimeMillis();
+    private static boolean queueActions(final PendingMessageScheduler.Batch batch,
+            final Action processingAction) {
         boolean succeeded = true;
-        final int subId = processingAction.actionParameters
-                .getInt(KEY_SUB_ID, ParticipantData.DEFAULT_SELF_SUB_ID);
-
-        LogUtil.i(TAG, "ProcessPendingMessagesAction: Start queueing for subId " + subId);
 
-        final String selfId = ParticipantData.getParticipantId(db, subId);
-        if (selfId == null) {
-            // This could be happened before refreshing participant.
-            LogUtil.w(TAG, "ProcessPendingMessagesAction: selfId is null");
-            return false;
-        }
-
-        // Will queue no more than one message to send plus one message to download
-        // This keeps outgoing messages "in order" but allow downloads to happen even if sending
-        // gets blocked until messages time out. Manual resend bumps messages to head of queue.
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
-        final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
-        if (toSendMessageId != null) {
+        // Queues no more than one message to send per conversation (up to the send window)
+        // plus one message to download. This keeps outgoing messages "in order" but allow
+        // downloads to happen even if sending gets blocked until messages time out. Manual resend
+        // restarts the backoff of the message.
+        for (final String toSendMessageId : batch.mToSendMessageIds) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: Queueing message " + toSendMessageId
                     + " for sending");
             // This could queue nothing
@@ -277,7 +234,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                 succeeded = false;
             }
         }
-        if (toDownloadMessageId != null) {
+        for (final String toDownloadMessageId : batch.mToDownloadMessageIds) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: Queueing message " + toDownloadMessageId
                     + " for download");
             // This could queue nothing
@@ -288,7 +245,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                 succeeded = false;
             }
         }
-        if (toSendMessageId == null && toDownloadMessageId == null) {
+        if (batch.isEmpty()) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: No messages to send or download");
         }
         return succeeded;
@@ -297,172 +254,16 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
     @Override
     protected Object executeAction() {
         final int subId = actionParameters.getInt(KEY_SUB_ID, ParticipantData.DEFAULT_SELF_SUB_ID);
-        // If triggered by alarm will not have unregistered yet
-        unregister(subId);
-
-        if (PhoneUtils.getDefault().isDefaultSmsApp()) {
-            if (!queueActions(this)) {
-                LogUtil.v(TAG, "ProcessPendingMessagesAction: rescheduling");
-                // TODO: Need to clear retry count here?
-                scheduleProcessPendingMessagesAction(true /* failed */, this);
-            }
-        } else {
-            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                LogUtil.v(TAG, "ProcessPendingMessagesAction: Not default SMS app; rescheduling");
-            }
-            scheduleProcessPendingMessagesAction(true /* failed */, this);
+        if (!PhoneUtils.getDefault().isDefaultSmsApp() &&
+                LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "ProcessPendingMessagesAction: Not default SMS app; rescheduling");
         }
-
+        // If triggered by alarm will not have unregistered yet; this unregisters, queues what is
+        // due and reschedules for the rest
+        scheduleProcessPendingMessagesAction(false /* failed */, this);
         return null;
     }
 
-    private static String findNextMessageToSend(final DatabaseWrapper db, final long now,
-            final String selfId) {
-        String toSendMessageId = null;
-        Cursor cursor = null;
-        int sendingCnt = 0;
-        int pendingCnt = 0;
-        int failedCnt = 0;
-        db.beginTransaction();
-        try {
-            // First check to see if we have any messages already sending
-            sendingCnt = (int) db.queryNumEntries(DatabaseHelper.MESSAGES_TABLE,
-                    DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
-                    + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ",
-                    new String[] {
-                        Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING),
-                        Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING),
-                        selfId}
-                    );
-
-            // Look for messages we could send
-            cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
-                    MessageData.getProjection(),
-                    DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
-                    + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ",
-                    new String[] {
-                        Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_YET_TO_SEND),
-                        Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY),
-                        selfId
-                    },
-                    null,
-                    null,
-                    DatabaseHelper.MessageColumns.RECEIVED_TIMESTAMP + " ASC");
-            pendingCnt = cursor.getCount();
-
-            final ContentValues values = new ContentValues();
-            values.put(DatabaseHelper.MessageColumns.STATUS,
-                    MessageData.BUGLE_STATUS_OUTGOING_FAILED);
-
-            // Prior to L_MR1, isActiveSubscription is true always
-            boolean isActiveSubscription = true;
-            if (OsUtil.isAtLeastL_MR1()) {
-                final ParticipantData messageSelf =
-                        BugleDatabaseOperations.getExistingParticipant(db, selfId);
-                if (messageSelf == null || !messageSelf.isActiveSubscription()) {
-                    isActiveSubscription = false;
-                }
-            }
-            while (cursor.moveToNext()) {
-                final MessageData message = new MessageData();
-                message.bind(cursor);
-
-                // Mark this message as failed if the message's self is inactive or the message is
-                // outside of resend window
-                if (!isActiveSubscription || !message.getInResendWindow(now)) {
-                    failedCnt++;
-
-                    // Mark message as failed
-                    BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
-                    MessagingContentProvider.notifyMessagesChanged(message.getConversationId());
-                } else {
-                    // If no messages currently sending
-                    if (sendingCnt == 0) {
-                        // Send this message
-                        toSendMessageId = message.getMessageId();
-                    }
-                    break;
-                }
-            }
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-
-        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
-            LogUtil.d(TAG, "ProcessPendingMessagesAction: "
-                    + sendingCnt + " messages already sending, "
-                    + pendingCnt + " messages to send, "
-                    + failedCnt + " failed messages");
-        }
-
-        return toSendMessageId;
-    }
-
-    private static String findNextMessageToDownload(final DatabaseWrapper db, final long now,
-            final String selfId) {
-        String toDownloadMessageId = null;
-        Cursor cursor = null;
-        int downloadingCnt = 0;
-        int pendingCnt = 0;
-        db.beginTransaction();
-        try {
-            // First check if we have any messages already downloading
-            downloadingCnt = (int) db.queryNumEntries(DatabaseHelper.MESSAGES_TABLE,
-                    DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
-                    + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =?",
-                    new String[] {
-                        Integer.toString(MessageData.BUGLE_STATUS_INCOMING_AUTO_DOWNLOADING),
-                        Integer.toString(MessageData.BUGLE_STATUS_INCOMING_MANUAL_DOWNLOADING),
-                        selfId
-                    });
-
-            // TODO: This query is not actually needed if downloadingCnt == 0.
-            cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
-                    MessageData.getProjection(),
-                    DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
-                    + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ",
-                    new String[]{
-                        Integer.toString(MessageData.BUGLE_STATUS_INCOMING_RETRYING_AUTO_DOWNLOAD),
-                        Integer.toString(
-                                MessageData.BUGLE_STATUS_INCOMING_RETRYING_MANUAL_DOWNLOAD),
-                        selfId
-                    },
-                    null,
-                    null,
-                    DatabaseHelper.MessageColumns.RECEIVED_TIMESTAMP + " ASC");
-
-            pendingCnt = cursor.getCount();
-
-            // If no messages are currently downloading and there is a download pending,
-            // queue the download of the oldest pending message.
-            if (downloadingCnt == 0 && cursor.moveToNext()) {
-                // Always start the next pending message. We will check if a download has
-                // expired in DownloadMmsAction and mark message failed there.
-                final MessageData message = new MessageData();
-                message.bind(cursor);
-                toDownloadMessageId = message.getMessageId();
-            }
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-
-        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
-            LogUtil.d(TAG, "ProcessPendingMessagesAction: "
-                    + downloadingCnt + " messages already downloading, "
-                    + pendingCnt + " messages to download");
-        }
-
-        return toDownloadMessageId;
-    }
-
     private ProcessPendingMessagesAction(final Parcel in) {
         super(in);
     }
@@ -83,10 +83,11 @@ public class RedownloadMmsAction extends Action implements Parcelable {
         if (message != null && message.canRedownloadMessage()) {
             final long timestamp = System.currentTimeMillis();
 
-            final ContentValues values = new ContentValues(2);
+            final ContentValues values = new ContentValues(4);
             values.put(DatabaseHelper.MessageColumns.STATUS,
                     MessageData.BUGLE_STATUS_INCOMING_RETRYING_MANUAL_DOWNLOAD);
             values.put(DatabaseHelper.MessageColumns.RETRY_START_TIMESTAMP, timestamp);
+            PendingMessageScheduler.putAttemptsReset(values);
 
             // Row must exist as was just loaded above (on ActionService thread)
             BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
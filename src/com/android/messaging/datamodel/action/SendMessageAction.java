@@ -201,19 +201,32 @@ public class SendMessageAction extends Action implements Parcelable {
         LogUtil.i(TAG, "SendMessageAction: Sending " + (isSms ? "SMS" : "MMS") + " message "
                 + messageId + " in conversation " + message.getConversationId());
 
-        int status;
-        int rawStatus = MessageData.RAW_TELEPHONY_STATUS_UNDEFINED;
-        int resultCode = MessageData.UNKNOWN_RESULT_CODE;
         if (isSms) {
             Assert.notNull(messageUri);
             final String recipient = actionParameters.getString(KEY_RECIPIENT);
             final String messageText = message.getMessageText();
             final String smsServiceCenter = actionParameters.getString(KEY_SMS_SERVICE_CENTER);
             final boolean deliveryReportRequired = MmsUtils.isDeliveryReportRequired(subId);
-
-            status = MmsUtils.sendSmsMessage(recipient, messageText, messageUri, subId,
-                    smsServiceCenter, deliveryReportRequired);
+            final Uri smsMessageUri = messageUri;
+
+            // Sending completes asynchronously, once the sent status of all parts came back
+            MmsUtils.sendSmsMessage(recipient, messageText, smsMessageUri, subId,
+                    message.getConversationId(), smsServiceCenter, deliveryReportRequired,
+                    new MmsUtils.SmsSendStatusCallback() {
+                        @Override
+                        public void onSmsSendCompleted(final int smsStatus) {
+                            ProcessSentMessageAction.processMessageSentFastFailed(messageId,
+                                    smsMessageUri, null /* updatedMessageUri */, subId,
+                                    true /* isSms */, smsStatus,
+                                    MessageData.RAW_TELEPHONY_STATUS_UNDEFINED,
+                                    MessageData.UNKNOWN_RESULT_CODE);
+                        }
+                    });
+            return null;
         } else {
+            int status;
+            int rawStatus = MessageData.RAW_TELEPHONY_STATUS_UNDEFINED;
+            int resultCode = MessageData.UNKNOWN_RESULT_CODE;
             final Context context = Factory.get().getApplicationContext();
             final ArrayList<String> recipients =
                     actionParameters.getStringArrayList(KEY_RECIPIENTS);
@@ -257,13 +270,13 @@ public class SendMessageAction extends Action implements Parcelable {
             } else {
                 status = MmsUtils.MMS_REQUEST_MANUAL_RETRY;
             }
-        }
 
-        // When we fast-fail before calling the MMS lib APIs (e.g. airplane mode,
-        // sending message is deleted).
-        ProcessSentMessageAction.processMessageSentFastFailed(messageId, messageUri,
-                updatedMessageUri, subId, isSms, status, rawStatus, resultCode);
-        return null;
+            // When we fast-fail before calling the MMS lib APIs (e.g. airplane mode,
+            // sending message is deleted).
+            ProcessSentMessageAction.processMessageSentFastFailed(messageId, messageUri,
+                    updatedMessageUri, subId, isSms, status, rawStatus, resultCode);
+            return null;
+        }
     }
 
     private void updateMessageUri(final String messageId, final Uri updatedMessageUri) {
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.android.messaging.sms.SmsSendEngine;
+
+/**
+ * Times out SMS messages whose sent status did not come back in time. Scheduled as an alarm on
+ * elapsed real time so that it also fires while the device sleeps.
+ */
+public class SmsSendTimeoutAction extends Action implements Parcelable {
+    private static final int REQUEST_CODE_PENDING_INTENT = 99;
+
+    /**
+     * Schedules the check for timed out messages, replacing any check scheduled before.
+     * @param delayMs the delay before checking, or Long.MAX_VALUE to cancel the check
+     */
+    public static void scheduleTimeoutCheck(final long delayMs) {
+        final SmsSendTimeoutAction action = new SmsSendTimeoutAction();
+        action.schedule(REQUEST_CODE_PENDING_INTENT, delayMs);
+    }
+
+    private SmsSendTimeoutAction() {
+    }
+
+    @Override
+    protected Object executeAction() {
+        SmsSendEngine.get().checkTimeouts();
+        return null;
+    }
+
+    private SmsSendTimeoutAction(final Parcel in) {
+        super(in);
+    }
+
+    public static final Parcelable.Creator<SmsSendTimeoutAction> CREATOR
+            = new Parcelable.Creator<SmsSendTimeoutAction>() {
+        @Override
+        public SmsSendTimeoutAction createFromParcel(final Parcel in) {
+            return new SmsSendTimeoutAction(in);
+        }
+
+        @Override
+        public SmsSendTimeoutAction[] newArray(final int size) {
+            return new SmsSendTimeoutAction[size];
+        }
+    };
+
+    @Override
+    public void writeToParcel(final Parcel parcel, final int flags) {
+        writeActionToParcel(parcel, flags);
+    }
+}
@@ -97,6 +97,8 @@ class SyncMessageBatch {
                     messageListToIds(mMessagesToDelete));
 
             for (final LocalDatabaseMessage message : mMessagesToDelete) {
+                BugleDatabaseOperations.postMessageDeletedInTransaction(db,
+                        message.getConversationId(), Long.toString(message.getLocalId()));
                 if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                     LogUtil.v(TAG, "SyncMessageBatch: Deleted message " + message.getLocalId()
                             + " for SMS/MMS " + message.getUri() + " with timestamp "
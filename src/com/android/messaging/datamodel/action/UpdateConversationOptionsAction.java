@@ -24,6 +24,7 @@ import com.android.messaging.datamodel.BugleDatabaseOperations;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
 import com.android.messaging.datamodel.DatabaseWrapper;
+import com.android.messaging.datamodel.MessageNotificationState;
 import com.android.messaging.datamodel.MessagingContentProvider;
 import com.android.messaging.util.Assert;
 
@@ -128,6 +129,7 @@ public class UpdateConversationOptionsAction extends Action
         } finally {
             db.endTransaction();
         }
+        MessageNotificationState.invalidateConversation(conversationId);
         MessagingContentProvider.notifyConversationMetadataChanged(conversationId);
         return null;
     }
@@ -19,6 +19,7 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import com.android.messaging.datamodel.BugleNotifications;
+import com.android.messaging.datamodel.MessageNotificationState;
 
 /**
  * Updates the message notification (generally, to include voice replies we've
@@ -35,6 +36,8 @@ public class UpdateMessageNotificationAction extends Action {
 
     @Override
     protected Object executeAction() {
+        // Our own replies show up in the conversation log on wearables
+        MessageNotificationState.invalidateAll();
         BugleNotifications.update(true /* silent */, BugleNotifications.UPDATE_MESSAGES);
         return null;
     }
@@ -27,29 +27,75 @@ import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.util.LogUtil;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class WriteDraftMessageAction extends Action implements Parcelable {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
 
+    // Sequence number of the latest draft write requested for each conversation, removed once
+    // that write is done. Older writes still queued for the conversation are skipped, so a burst
+    // of saves results in a single write.
+    private static final ConcurrentHashMap<String, Integer> sLatestWriteSequences =
+            new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger sNextWriteSequence = new AtomicInteger();
+
     /**
-     * Set draft message (no listener)
+     * Set draft message (no listener). Nothing is written if the stored draft already has the
+     * same content.
      */
     public static void writeDraftMessage(final String conversationId, final MessageData message) {
-        final WriteDraftMessageAction action = new WriteDraftMessageAction(conversationId, message);
+        // A pending write could still replace the stored draft, so the stored content can only
+        // be relied upon when there is none
+        if (!sLatestWriteSequences.containsKey(conversationId)
+                && BugleDatabaseOperations.isDraftPersisted(conversationId, message)) {
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "WriteDraftMessageAction: draft of " + conversationId
+                        + " unchanged, not writing it");
+            }
+            return;
+        }
+        final int sequence = sNextWriteSequence.incrementAndGet();
+        sLatestWriteSequences.put(conversationId, sequence);
+        final WriteDraftMessageAction action =
+                new WriteDraftMessageAction(conversationId, message, sequence);
         action.start();
     }
 
     private static final String KEY_CONVERSATION_ID = "conversationId";
     private static final String KEY_MESSAGE = "message";
+    private static final String KEY_WRITE_SEQUENCE = "write_sequence";
 
-    private WriteDraftMessageAction(final String conversationId, final MessageData message) {
+    private WriteDraftMessageAction(final String conversationId, final MessageData message,
+            final int sequence) {
         actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
         actionParameters.putParcelable(KEY_MESSAGE, message);
+        actionParameters.putInt(KEY_WRITE_SEQUENCE, sequence);
     }
 
     @Override
     protected Object executeAction() {
-        final DatabaseWrapper db = DataModel.get().getDatabase();
         final String conversationId = actionParameters.getString(KEY_CONVERSATION_ID);
+        final int sequence = actionParameters.getInt(KEY_WRITE_SEQUENCE);
+        final Integer latestSequence = sLatestWriteSequences.get(conversationId);
+        if (latestSequence != null && latestSequence != sequence) {
+            // A newer draft is queued and will overwrite this one
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "WriteDraftMessageAction: skipping superseded draft of "
+                        + conversationId);
+            }
+            return null;
+        }
+        try {
+            return persistDraft(conversationId);
+        } finally {
+            // Only now may callers compare against the stored draft again
+            sLatestWriteSequences.remove(conversationId, sequence);
+        }
+    }
+
+    private String persistDraft(final String conversationId) {
+        final DatabaseWrapper db = DataModel.get().getDatabase();
         final MessageData message = actionParameters.getParcelable(KEY_MESSAGE);
         if (message.getSelfId() == null || message.getParticipantId() == null) {
             // This could happen when this occurs before the draft message is loaded
@@ -32,6 +32,7 @@ import com.android.messaging.Factory;
 import com.android.messaging.R;
 import com.android.messaging.datamodel.BoundCursorLoader;
 import com.android.messaging.datamodel.BugleNotifications;
+import com.android.messaging.datamodel.ConversationMessagesCursorLoader;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
 import com.android.messaging.datamodel.MessagingContentProvider;
@@ -49,6 +50,8 @@ import com.android.messaging.sms.MmsSmsUtils;
 import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.Assert.RunsOnMainThread;
+import com.android.messaging.util.BugleGservices;
+import com.android.messaging.util.BugleGservicesKeys;
 import com.android.messaging.util.ContactUtil;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
@@ -68,6 +71,7 @@ public class ConversationData extends BindableData {
     private static final String BINDING_ID = "bindingId";
     private static final long LAST_MESSAGE_TIMESTAMP_NaN = -1;
     private static final int MESSAGE_COUNT_NaN = -1;
+    private static final long WINDOW_START_NaN = -1;
 
     /**
      * Takes a conversation id and a list of message ids and computes the positions
@@ -112,12 +116,21 @@ public class ConversationData extends BindableData {
         public void onSubscriptionListDataLoaded(ConversationData data);
     }
 
-    private static class ReversedCursor extends CursorWrapper {
+    private static class ReversedCursor extends CursorWrapper
+            implements ConversationMessageData.PartsProvider {
         final int mCount;
+        final ConversationMessageData.PartsProvider mPartsProvider;
 
         public ReversedCursor(final Cursor cursor) {
             super(cursor);
             mCount = cursor.getCount();
+            mPartsProvider = (cursor instanceof ConversationMessageData.PartsProvider) ?
+                    (ConversationMessageData.PartsProvider) cursor : null;
+        }
+
+        @Override
+        public List<MessagePartData> getMessageParts(final String messageId) {
+            return mPartsProvider == null ? null : mPartsProvider.getMessageParts(messageId);
         }
 
         @Override
@@ -254,10 +267,25 @@ public class ConversationData extends BindableData {
             final String bindingId = args.getString(BINDING_ID);
             // Check if data still bound to the requesting ui element
             if (isBound(bindingId)) {
-                final Uri uri =
-                        MessagingContentProvider.buildConversationMessagesUri(mConversationId);
-                loader = new BoundCursorLoader(bindingId, mContext, uri,
-                        ConversationMessageData.getProjection(), null, null, null);
+                // Load the newest page of messages first, and afterwards everything from the
+                // oldest loaded message onwards (plus another page when paging in older ones).
+                final int pageSize = BugleGservices.get().getInt(
+                        BugleGservicesKeys.CONVERSATION_MESSAGES_PAGE_SIZE,
+                        BugleGservicesKeys.CONVERSATION_MESSAGES_PAGE_SIZE_DEFAULT);
+                final Uri uri;
+                if (mWindowStartTimestamp == WINDOW_START_NaN) {
+                    uri = MessagingContentProvider.buildConversationMessagesUri(mConversationId,
+                            WINDOW_START_NaN, WINDOW_START_NaN, pageSize);
+                } else {
+                    uri = MessagingContentProvider.buildConversationMessagesUri(mConversationId,
+                            mWindowStartTimestamp, mWindowStartMessageId,
+                            mLoadingOlderMessages ? pageSize : 0);
+                }
+                final ConversationMessagesCursorLoader messagesLoader =
+                        new ConversationMessagesCursorLoader(bindingId, mContext, uri);
+                // The messages get presented oldest first (see ReversedCursor)
+                messagesLoader.enableDiffing(true /* reverseOrder */);
+                loader = messagesLoader;
                 mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                 mMessageCount = MESSAGE_COUNT_NaN;
             } else {
@@ -273,6 +301,7 @@ public class ConversationData extends BindableData {
 
             // Check if data still bound to the requesting ui element
             if (isBound(loader.getBindingId())) {
+                mLoadingOlderMessages = false;
                 // Check if we have a new message, or if we had a message sync.
                 ConversationMessageData newMessage = null;
                 boolean isSync = false;
@@ -303,8 +332,17 @@ public class ConversationData extends BindableData {
                     } else {
                         mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                     }
+                    updateMessageWindow(data);
+                    if (mWindowStartTimestamp != WINDOW_START_NaN) {
+                        // Reloads triggered by changes to the conversation keep the window
+                        // anchored rather than sliding it to the newest page.
+                        loader.setUri(MessagingContentProvider.buildConversationMessagesUri(
+                                mConversationId, mWindowStartTimestamp, mWindowStartMessageId,
+                                0 /* pageSize */));
+                    }
                 } else {
                     mMessageCount = MESSAGE_COUNT_NaN;
+                    mConversationMessageCount = MESSAGE_COUNT_NaN;
                 }
 
                 mListeners.onConversationMessagesCursorUpdated(ConversationData.this, data,
@@ -325,12 +363,34 @@ public class ConversationData extends BindableData {
                         false);
                 mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                 mMessageCount = MESSAGE_COUNT_NaN;
+                mConversationMessageCount = MESSAGE_COUNT_NaN;
+                mLoadingOlderMessages = false;
             } else {
                 LogUtil.w(TAG, "Messages loader reset after unbinding mConversationId = " +
                         mConversationId);
             }
         }
 
+        /**
+         * Anchors the message window at the oldest loaded message, so that later reloads keep
+         * everything the user may have scrolled through while still picking up new messages.
+         */
+        private void updateMessageWindow(final Cursor cursor) {
+            final Bundle extras = cursor.getExtras();
+            mConversationMessageCount = extras == null ? mMessageCount : extras.getInt(
+                    MessagingContentProvider.EXTRA_CONVERSATION_MESSAGE_COUNT, mMessageCount);
+            if (cursor.getCount() > 0) {
+                final int position = cursor.getPosition();
+                if (cursor.moveToFirst()) {
+                    mWindowStartTimestamp =
+                            cursor.getLong(ConversationMessageData.INDEX_RECEIVED_TIMESTAMP);
+                    mWindowStartMessageId =
+                            cursor.getLong(ConversationMessageData.INDEX_MESSAGE_ID);
+                    cursor.moveToPosition(position);
+                }
+            }
+        }
+
         private ConversationMessageData getLastMessage(final Cursor cursor) {
             if (cursor != null && cursor.getCount() > 0) {
                 final int position = cursor.getPosition();
@@ -465,6 +525,13 @@ public class ConversationData extends BindableData {
     private long mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
     private int mMessageCount = MESSAGE_COUNT_NaN;
     private String mLastMessageId;
+    // Keyset (received timestamp, message id) of the oldest message in the loaded window
+    private long mWindowStartTimestamp = WINDOW_START_NaN;
+    private long mWindowStartMessageId = WINDOW_START_NaN;
+    // Total number of messages in the conversation as of the last load
+    private int mConversationMessageCount = MESSAGE_COUNT_NaN;
+    private boolean mLoadingOlderMessages;
+    private Bundle mLoaderArgs;
 
     public ConversationData(final Context context, final ConversationDataListener listener,
             final String conversationId) {
@@ -532,6 +599,7 @@ public class ConversationData extends BindableData {
         // to same ui component
         final Bundle args = new Bundle();
         args.putString(BINDING_ID, binding.getBindingId());
+        mLoaderArgs = args;
         mLoaderManager = loaderManager;
         mLoaderManager.initLoader(CONVERSATION_META_DATA_LOADER, args, mMetadataLoaderCallbacks);
         mLoaderManager.initLoader(CONVERSATION_MESSAGES_LOADER, args, mMessagesLoaderCallbacks);
@@ -556,6 +624,35 @@ public class ConversationData extends BindableData {
         }
     }
 
+    /**
+     * Returns true if the conversation has messages older than the ones currently loaded.
+     */
+    public boolean hasOlderMessages() {
+        return mMessageCount != MESSAGE_COUNT_NaN && mConversationMessageCount > mMessageCount;
+    }
+
+    /**
+     * Returns the number of messages in the whole conversation (not just the loaded window) as of
+     * the last load, or the loaded count if unknown.
+     */
+    public int getApproximateMessageCount() {
+        return Math.max(mConversationMessageCount, mMessageCount);
+    }
+
+    /**
+     * Extends the loaded window by a page of older messages. The messages cursor is delivered
+     * again as a sync, so the ui keeps its position relative to the bottom.
+     */
+    public void loadOlderMessages(final BindingBase<ConversationData> binding) {
+        Assert.isTrue(binding.getData() == this);
+        if (mLoaderManager == null || mLoadingOlderMessages || !hasOlderMessages()) {
+            return;
+        }
+        mLoadingOlderMessages = true;
+        mLoaderManager.restartLoader(CONVERSATION_MESSAGES_LOADER, mLoaderArgs,
+                mMessagesLoaderCallbacks);
+    }
+
     /**
      * Gets the default self participant in the participant table (NOT the conversation's self).
      * This is available as soon as self participant data is loaded.
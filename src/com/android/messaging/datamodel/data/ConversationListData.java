@@ -94,12 +94,15 @@ public class ConversationListData extends BindableData
                             ParticipantColumns.BLOCKED + "=1", null, null);
                     break;
                 case CONVERSATION_LIST_LOADER:
-                    loader = new BoundCursorLoader(bindingId, mContext,
+                    final BoundCursorLoader conversationListLoader = new BoundCursorLoader(
+                            bindingId, mContext,
                             MessagingContentProvider.CONVERSATIONS_URI,
                             ConversationListItemData.PROJECTION,
                             mArchivedMode ? WHERE_ARCHIVED : WHERE_NOT_ARCHIVED,
                             null,       // selection args
                             SORT_ORDER);
+                    conversationListLoader.enableDiffing(false /* reverseOrder */);
+                    loader = conversationListLoader;
                     break;
                 default:
                     Assert.fail("Unknown loader id");
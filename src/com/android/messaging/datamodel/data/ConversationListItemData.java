@@ -33,6 +33,7 @@ import com.android.messaging.util.Dates;
 import com.google.common.base.Joiner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -287,8 +288,35 @@ public class ConversationListItemData {
         return CONVERSATION_LIST_VIEW_SQL;
     }
 
+    /**
+     * Get the name of the table materializing the conversation list view. It is kept up to date
+     * by triggers on the tables the view reads from (see DatabaseHelper), so that listing
+     * conversations is a plain indexed scan instead of a join per conversation.
+     */
+    public static final String getConversationListSnapshotTable() {
+        return CONVERSATION_LIST_SNAPSHOT_TABLE;
+    }
+
+    public static final String getConversationListSnapshotTableSql() {
+        return CONVERSATION_LIST_SNAPSHOT_TABLE_SQL;
+    }
+
+    /**
+     * Get the sql (re)computing the conversation list snapshot rows of the conversations matching
+     * the given condition on their id, e.g. "=NEW._id", or of all conversations if it is null.
+     */
+    public static final String getRefreshConversationListSnapshotSql(final String idCondition) {
+        final String columns = TextUtils.join(", ", PROJECTION);
+        return "INSERT OR REPLACE INTO " + CONVERSATION_LIST_SNAPSHOT_TABLE + " (" + columns
+                + ") SELECT " + columns + " FROM " + CONVERSATION_LIST_VIEW
+                + (idCondition == null ? "" :
+                        " WHERE " + ConversationListViewColumns._ID + idCondition);
+    }
+
     private static final String CONVERSATION_LIST_VIEW = "conversation_list_view";
 
+    private static final String CONVERSATION_LIST_SNAPSHOT_TABLE = "conversation_list_snapshot";
+
     private static final String CONVERSATION_LIST_VIEW_PROJECTION =
             DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns._ID
             + " as " + ConversationListViewColumns._ID + ", "
@@ -443,6 +471,13 @@ public class ConversationListItemData {
         ConversationListViewColumns.IS_ENTERPRISE,
     };
 
+    // Columns are left untyped so that values keep the types the view gives them
+    private static final String CONVERSATION_LIST_SNAPSHOT_TABLE_SQL = "CREATE TABLE "
+            + CONVERSATION_LIST_SNAPSHOT_TABLE + " (" + ConversationListViewColumns._ID
+            + " INTEGER PRIMARY KEY, "
+            + TextUtils.join(", ", Arrays.copyOfRange(PROJECTION, 1, PROJECTION.length))
+            + ");";
+
     private static final int INDEX_ID = 0;
     private static final int INDEX_CONVERSATION_NAME = 1;
     private static final int INDEX_CONVERSATION_ICON = 2;
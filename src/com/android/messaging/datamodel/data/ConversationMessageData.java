@@ -16,6 +16,7 @@
 package com.android.messaging.datamodel.data;
 
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.provider.ContactsContract;
@@ -26,6 +27,7 @@ import com.android.messaging.datamodel.DatabaseHelper;
 import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
+import com.android.messaging.datamodel.DatabaseWrapper;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.BugleGservices;
 import com.android.messaging.util.BugleGservicesKeys;
@@ -37,8 +39,10 @@ import com.google.common.base.Predicate;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class representing a message within a conversation sequence. The message parts
@@ -89,15 +93,25 @@ public class ConversationMessageData {
         mParticipantId = cursor.getString(INDEX_PARTICIPANT_ID);
         mPartsCount = cursor.getInt(INDEX_PARTS_COUNT);
 
-        mParts = makeParts(
-                cursor.getString(INDEX_PARTS_IDS),
-                cursor.getString(INDEX_PARTS_CONTENT_TYPES),
-                cursor.getString(INDEX_PARTS_CONTENT_URIS),
-                cursor.getString(INDEX_PARTS_WIDTHS),
-                cursor.getString(INDEX_PARTS_HEIGHTS),
-                cursor.getString(INDEX_PARTS_TEXTS),
-                mPartsCount,
-                mMessageId);
+        final List<MessagePartData> sideLoadedParts = (cursor instanceof PartsProvider) ?
+                ((PartsProvider) cursor).getMessageParts(mMessageId) : null;
+        if (sideLoadedParts != null) {
+            mParts = sideLoadedParts;
+        } else if (cursor.getString(INDEX_PARTS_IDS) == null) {
+            // Either the message has no parts, or they are side loaded and the message was
+            // inserted after the parts query (they will show up with the next load).
+            mParts = Collections.emptyList();
+        } else {
+            mParts = makeParts(
+                    cursor.getString(INDEX_PARTS_IDS),
+                    cursor.getString(INDEX_PARTS_CONTENT_TYPES),
+                    cursor.getString(INDEX_PARTS_CONTENT_URIS),
+                    cursor.getString(INDEX_PARTS_WIDTHS),
+                    cursor.getString(INDEX_PARTS_HEIGHTS),
+                    cursor.getString(INDEX_PARTS_TEXTS),
+                    mPartsCount,
+                    mMessageId);
+        }
 
         mSentTimestamp = cursor.getLong(INDEX_SENT_TIMESTAMP);
         mReceivedTimestamp = cursor.getLong(INDEX_RECEIVED_TIMESTAMP);
@@ -156,6 +170,142 @@ public class ConversationMessageData {
         return true;
     }
 
+    /**
+     * Implemented by conversation message cursors whose parts have been side loaded with
+     * {@link #loadParts}, so that binding a row reuses the parsed parts instead of unpacking the
+     * group-concatenated parts columns.
+     */
+    public interface PartsProvider {
+        /**
+         * Returns the (unmodifiable) parts of the given message, or null if they weren't loaded.
+         */
+        List<MessagePartData> getMessageParts(String messageId);
+    }
+
+    /**
+     * The side loaded parts of the messages of a conversation messages cursor, along with the
+     * parts version (see {@link MessageColumns#PARTS_VERSION}) of each message at the time.
+     */
+    public static class SideLoadedParts {
+        private final Map<String, List<MessagePartData>> mParts;
+        private final Map<String, Long> mPartsVersions;
+
+        private SideLoadedParts(final Map<String, List<MessagePartData>> parts,
+                final Map<String, Long> partsVersions) {
+            mParts = parts;
+            mPartsVersions = partsVersions;
+        }
+
+        /**
+         * Returns the (unmodifiable) parts of the given message, or null if it has none or they
+         * weren't loaded.
+         */
+        public List<MessagePartData> getMessageParts(final String messageId) {
+            return mParts.get(messageId);
+        }
+
+        private boolean isCurrent(final String messageId, final long partsVersion) {
+            final Long loadedPartsVersion = mPartsVersions.get(messageId);
+            return loadedPartsVersion != null && loadedPartsVersion == partsVersion;
+        }
+    }
+
+    /**
+     * A conversation messages cursor along with the side loaded parts of its messages.
+     */
+    public static class SideLoadedPartsCursor extends CursorWrapper implements PartsProvider {
+        private final SideLoadedParts mParts;
+
+        public SideLoadedPartsCursor(final Cursor cursor, final SideLoadedParts parts) {
+            super(cursor);
+            mParts = parts;
+        }
+
+        @Override
+        public List<MessagePartData> getMessageParts(final String messageId) {
+            return mParts.getMessageParts(messageId);
+        }
+    }
+
+    // Stay well below sqlite's limit of 999 bound arguments
+    private static final int PARTS_SIDE_LOAD_BATCH_SIZE = 500;
+
+    /**
+     * Reads the parts of all messages in a conversation messages cursor, batched by message id.
+     * This is meant to be called on a background thread right after the messages query (e.g.
+     * from a loader) so that binding rows later on doesn't need to parse anything.
+     *
+     * @param previous The parts loaded for a previous cursor of the same conversation, or null.
+     *        The parts of messages whose parts version didn't change since are reused rather than
+     *        read again.
+     */
+    public static SideLoadedParts loadParts(final DatabaseWrapper db,
+            final Cursor messagesCursor, final SideLoadedParts previous) {
+        final int count = messagesCursor.getCount();
+        final Map<String, List<MessagePartData>> partsByMessageId =
+                new HashMap<String, List<MessagePartData>>(count);
+        final Map<String, Long> partsVersions = new HashMap<String, Long>(count);
+        final ArrayList<String> messageIds = new ArrayList<String>(PARTS_SIDE_LOAD_BATCH_SIZE);
+        final int position = messagesCursor.getPosition();
+        messagesCursor.moveToPosition(-1);
+        while (messagesCursor.moveToNext()) {
+            final String messageId = messagesCursor.getString(INDEX_MESSAGE_ID);
+            final long partsVersion = messagesCursor.getLong(INDEX_PARTS_VERSION);
+            partsVersions.put(messageId, partsVersion);
+            if (previous != null && previous.isCurrent(messageId, partsVersion)) {
+                final List<MessagePartData> parts = previous.getMessageParts(messageId);
+                if (parts != null) {
+                    partsByMessageId.put(messageId, parts);
+                }
+                continue;
+            }
+            messageIds.add(messageId);
+            if (messageIds.size() == PARTS_SIDE_LOAD_BATCH_SIZE) {
+                loadPartsBatch(db, messageIds, partsByMessageId);
+                messageIds.clear();
+            }
+        }
+        if (!messageIds.isEmpty()) {
+            loadPartsBatch(db, messageIds, partsByMessageId);
+        }
+        messagesCursor.moveToPosition(position);
+        return new SideLoadedParts(partsByMessageId, partsVersions);
+    }
+
+    private static void loadPartsBatch(final DatabaseWrapper db, final List<String> messageIds,
+            final Map<String, List<MessagePartData>> partsByMessageId) {
+        final StringBuilder selection = new StringBuilder(PartColumns.MESSAGE_ID).append(" IN (");
+        for (int i = 0; i < messageIds.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+        Cursor cursor = null;
+        try {
+            cursor = db.query(DatabaseHelper.PARTS_TABLE, MessagePartData.getProjection(),
+                    selection.toString(), messageIds.toArray(new String[messageIds.size()]),
+                    null, null, PartColumns.MESSAGE_ID + ", " + PartColumns._ID);
+            while (cursor.moveToNext()) {
+                final MessagePartData part = MessagePartData.createFromCursor(cursor);
+                List<MessagePartData> parts = partsByMessageId.get(part.getMessageId());
+                if (parts == null) {
+                    parts = new ArrayList<MessagePartData>(1);
+                    partsByMessageId.put(part.getMessageId(), parts);
+                }
+                parts.add(part);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        for (final String messageId : messageIds) {
+            final List<MessagePartData> parts = partsByMessageId.get(messageId);
+            if (parts != null) {
+                partsByMessageId.put(messageId, Collections.unmodifiableList(parts));
+            }
+        }
+    }
+
     private static final Character QUOTE_CHAR = '\'';
     private static final char DIVIDER = '|';
 
@@ -636,6 +786,82 @@ public class ConversationMessageData {
                 + CONVERSATION_MESSAGES_QUERY_SQL_GROUP_BY;
     }
 
+    /**
+     * Returns the sql for a window of a conversation's messages. The window is keyed on
+     * (received_timestamp, _id) rather than an offset so that it stays anchored while new messages
+     * arrive, and the candidate message ids are picked from the messages table alone (walking
+     * index_messages_sort). The parts columns are left empty; use {@link #loadParts} to side load
+     * them.
+     *
+     * @param hasWindowStart whether the window includes all messages at or after a given key
+     * @param pageSize if > 0, the number of messages older than the window start (or the newest
+     *        messages if there is no window start) to include
+     * @see #getConversationMessagesWindowQueryArgs
+     */
+    public static String getConversationMessagesWindowQuerySql(final boolean hasWindowStart,
+            final int pageSize) {
+        Assert.isTrue(hasWindowStart || pageSize > 0);
+        final StringBuilder sql = new StringBuilder(CONVERSATION_MESSAGES_SIDE_LOADED_PARTS_QUERY_SQL)
+                .append(" AND ")
+                .append(DatabaseHelper.MESSAGES_TABLE).append('.')
+                .append(MessageColumns.CONVERSATION_ID).append("=?")
+                .append(" AND ")
+                .append(DatabaseHelper.MESSAGES_TABLE).append('.').append(MessageColumns._ID)
+                .append(" IN (");
+        if (hasWindowStart) {
+            sql.append("SELECT ").append(MessageColumns._ID)
+                    .append(MESSAGES_KEYSET_FROM_WHERE_SQL)
+                    .append(MESSAGES_KEYSET_AT_OR_AFTER_SQL);
+            if (pageSize > 0) {
+                sql.append(" UNION ALL ");
+            }
+        }
+        if (pageSize > 0) {
+            // The limit is an int we control so it is inlined rather than bound.
+            sql.append("SELECT ").append(MessageColumns._ID).append(" FROM (SELECT ")
+                    .append(MessageColumns._ID)
+                    .append(MESSAGES_KEYSET_FROM_WHERE_SQL)
+                    .append(hasWindowStart ? MESSAGES_KEYSET_BEFORE_SQL : "")
+                    .append(MESSAGES_KEYSET_ORDER_BY_SQL)
+                    .append(" LIMIT ").append(pageSize).append(')');
+        }
+        return sql.append("))")
+                .append(CONVERSATION_MESSAGES_WINDOW_QUERY_SQL_ORDER_BY)
+                .toString();
+    }
+
+    /**
+     * Returns the selection arguments matching
+     * {@link #getConversationMessagesWindowQuerySql(boolean, int)}.
+     */
+    public static String[] getConversationMessagesWindowQueryArgs(final String conversationId,
+            final boolean hasWindowStart, final long windowStartTimestamp,
+            final long windowStartMessageId, final int pageSize) {
+        final ArrayList<String> args = new ArrayList<String>();
+        args.add(conversationId);
+        final String timestamp = Long.toString(windowStartTimestamp);
+        final String messageId = Long.toString(windowStartMessageId);
+        if (hasWindowStart) {
+            Collections.addAll(args, conversationId, timestamp, timestamp, messageId);
+        }
+        if (pageSize > 0) {
+            args.add(conversationId);
+            if (hasWindowStart) {
+                Collections.addAll(args, timestamp, timestamp, messageId);
+            }
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Returns the selection on the messages table for counting the (non-draft) messages in a
+     * conversation. This only touches index_messages_sort so it is cheap enough to run alongside
+     * a windowed query.
+     */
+    public static String getConversationMessageCountSelection() {
+        return MESSAGES_KEYSET_WHERE_SQL;
+    }
+
     public static final String getNotificationQuerySql() {
         return CONVERSATION_MESSAGES_QUERY_SQL
                 + " AND "
@@ -648,6 +874,20 @@ public class ConversationMessageData {
                 + NOTIFICATION_QUERY_SQL_GROUP_BY;
     }
 
+    public static final String getConversationNotificationQuerySql() {
+        return CONVERSATION_MESSAGES_QUERY_SQL
+                + " AND "
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.CONVERSATION_ID + "=?"
+                + " AND "
+                + "(" + DatabaseHelper.MessageColumns.STATUS + " in ("
+                + MessageData.BUGLE_STATUS_INCOMING_COMPLETE + ", "
+                + MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD + ")"
+                + " AND "
+                + DatabaseHelper.MessageColumns.SEEN + " = 0)"
+                + ")"
+                + NOTIFICATION_QUERY_SQL_GROUP_BY;
+    }
+
     public static final String getWearableQuerySql() {
         return CONVERSATION_MESSAGES_QUERY_SQL
                 + " AND "
@@ -703,31 +943,16 @@ public class ConversationMessageData {
 
     private static final String EMPTY_STRING = "";
 
-    private static final String CONVERSATION_MESSAGES_QUERY_PROJECTION_SQL =
+    private static final String CONVERSATION_MESSAGES_QUERY_ID_PROJECTION_SQL =
             DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID
             + " as " + ConversationMessageViewColumns._ID + ", "
             + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.CONVERSATION_ID
             + " as " + ConversationMessageViewColumns.CONVERSATION_ID + ", "
             + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.SENDER_PARTICIPANT_ID
-            + " as " + ConversationMessageViewColumns.PARTICIPANT_ID + ", "
+            + " as " + ConversationMessageViewColumns.PARTICIPANT_ID + ", ";
 
-            + makeCaseWhenString(PartColumns._ID, false,
-                    ConversationMessageViewColumns.PARTS_IDS) + ", "
-            + makeCaseWhenString(PartColumns.CONTENT_TYPE, true,
-                    ConversationMessageViewColumns.PARTS_CONTENT_TYPES) + ", "
-            + makeCaseWhenString(PartColumns.CONTENT_URI, true,
-                    ConversationMessageViewColumns.PARTS_CONTENT_URIS) + ", "
-            + makeCaseWhenString(PartColumns.WIDTH, false,
-                    ConversationMessageViewColumns.PARTS_WIDTHS) + ", "
-            + makeCaseWhenString(PartColumns.HEIGHT, false,
-                    ConversationMessageViewColumns.PARTS_HEIGHTS) + ", "
-            + makeCaseWhenString(PartColumns.TEXT, true,
-                    ConversationMessageViewColumns.PARTS_TEXTS) + ", "
-
-            + CONVERSATION_MESSAGE_VIEW_PARTS_COUNT
-            + " as " + ConversationMessageViewColumns.PARTS_COUNT + ", "
-
-            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.SENT_TIMESTAMP
+    private static final String CONVERSATION_MESSAGES_QUERY_MESSAGE_PROJECTION_SQL =
+            DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.SENT_TIMESTAMP
             + " as " + ConversationMessageViewColumns.SENT_TIMESTAMP + ", "
             + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.RECEIVED_TIMESTAMP
             + " as " + ConversationMessageViewColumns.RECEIVED_TIMESTAMP + ", "
@@ -766,20 +991,70 @@ public class ConversationMessageData {
             + DatabaseHelper.PARTICIPANTS_TABLE + '.' + ParticipantColumns.CONTACT_ID
             + " as " + ConversationMessageViewColumns.SENDER_CONTACT_ID + ", "
             + DatabaseHelper.PARTICIPANTS_TABLE + '.' + ParticipantColumns.LOOKUP_KEY
-            + " as " + ConversationMessageViewColumns.SENDER_CONTACT_LOOKUP_KEY + " ";
+            + " as " + ConversationMessageViewColumns.SENDER_CONTACT_LOOKUP_KEY + ", "
+            // The parts are side loaded, so this is what makes a change to the parts of a
+            // message change its row in the cursor and its row hash
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.PARTS_VERSION
+            + " as " + ConversationMessageViewColumns.PARTS_VERSION + " ";
 
-    private static final String CONVERSATION_MESSAGES_QUERY_FROM_WHERE_SQL =
-            " FROM " + DatabaseHelper.MESSAGES_TABLE
-            + " LEFT JOIN " + DatabaseHelper.PARTS_TABLE
-            + " ON (" + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns._ID
-            + "=" + DatabaseHelper.PARTS_TABLE + "." + PartColumns.MESSAGE_ID + ") "
-            + " LEFT JOIN " + DatabaseHelper.PARTICIPANTS_TABLE
+    private static final String CONVERSATION_MESSAGES_QUERY_PROJECTION_SQL =
+            CONVERSATION_MESSAGES_QUERY_ID_PROJECTION_SQL
+
+            + makeCaseWhenString(PartColumns._ID, false,
+                    ConversationMessageViewColumns.PARTS_IDS) + ", "
+            + makeCaseWhenString(PartColumns.CONTENT_TYPE, true,
+                    ConversationMessageViewColumns.PARTS_CONTENT_TYPES) + ", "
+            + makeCaseWhenString(PartColumns.CONTENT_URI, true,
+                    ConversationMessageViewColumns.PARTS_CONTENT_URIS) + ", "
+            + makeCaseWhenString(PartColumns.WIDTH, false,
+                    ConversationMessageViewColumns.PARTS_WIDTHS) + ", "
+            + makeCaseWhenString(PartColumns.HEIGHT, false,
+                    ConversationMessageViewColumns.PARTS_HEIGHTS) + ", "
+            + makeCaseWhenString(PartColumns.TEXT, true,
+                    ConversationMessageViewColumns.PARTS_TEXTS) + ", "
+
+            + CONVERSATION_MESSAGE_VIEW_PARTS_COUNT
+            + " as " + ConversationMessageViewColumns.PARTS_COUNT + ", "
+
+            + CONVERSATION_MESSAGES_QUERY_MESSAGE_PROJECTION_SQL;
+
+    // Same columns as CONVERSATION_MESSAGES_QUERY_PROJECTION_SQL, except that the parts are left
+    // empty to be side loaded by message id (see loadParts), so that the query needs neither the
+    // parts join nor the GROUP BY.
+    private static final String CONVERSATION_MESSAGES_SIDE_LOADED_PARTS_PROJECTION_SQL =
+            CONVERSATION_MESSAGES_QUERY_ID_PROJECTION_SQL
+            + "NULL as " + ConversationMessageViewColumns.PARTS_IDS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_CONTENT_TYPES + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_CONTENT_URIS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_WIDTHS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_HEIGHTS + ", "
+            + "NULL as " + ConversationMessageViewColumns.PARTS_TEXTS + ", "
+            + "(SELECT count(*) FROM " + DatabaseHelper.PARTS_TABLE
+            + " WHERE " + DatabaseHelper.PARTS_TABLE + '.' + PartColumns.MESSAGE_ID
+            + "=" + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID + ")"
+            + " as " + ConversationMessageViewColumns.PARTS_COUNT + ", "
+            + CONVERSATION_MESSAGES_QUERY_MESSAGE_PROJECTION_SQL;
+
+    private static final String CONVERSATION_MESSAGES_QUERY_PARTICIPANTS_JOIN_WHERE_SQL =
+            " LEFT JOIN " + DatabaseHelper.PARTICIPANTS_TABLE
             + " ON (" + DatabaseHelper.MESSAGES_TABLE + '.' +  MessageColumns.SENDER_PARTICIPANT_ID
             + '=' + DatabaseHelper.PARTICIPANTS_TABLE + '.' + ParticipantColumns._ID + ")"
             // Exclude draft messages from main view
             + " WHERE (" + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.STATUS
             + " <> " + MessageData.BUGLE_STATUS_OUTGOING_DRAFT;
 
+    private static final String CONVERSATION_MESSAGES_QUERY_FROM_WHERE_SQL =
+            " FROM " + DatabaseHelper.MESSAGES_TABLE
+            + " LEFT JOIN " + DatabaseHelper.PARTS_TABLE
+            + " ON (" + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns._ID
+            + "=" + DatabaseHelper.PARTS_TABLE + "." + PartColumns.MESSAGE_ID + ") "
+            + CONVERSATION_MESSAGES_QUERY_PARTICIPANTS_JOIN_WHERE_SQL;
+
+    private static final String CONVERSATION_MESSAGES_SIDE_LOADED_PARTS_QUERY_SQL = "SELECT "
+            + CONVERSATION_MESSAGES_SIDE_LOADED_PARTS_PROJECTION_SQL
+            + " FROM " + DatabaseHelper.MESSAGES_TABLE
+            + CONVERSATION_MESSAGES_QUERY_PARTICIPANTS_JOIN_WHERE_SQL;
+
     // This query is mostly static, except for the injection of conversation id. This is for
     // performance reasons, to ensure that the query uses indices and does not trigger full scans
     // of the messages table. See b/17160946 for more details.
@@ -802,6 +1077,35 @@ public class ConversationMessageData {
           + " ORDER BY "
           + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.RECEIVED_TIMESTAMP + " DESC";
 
+    // Windowed queries side load parts so they don't group, and additionally order by _id so that
+    // the oldest row of the window is a stable keyset boundary even when several messages share a
+    // timestamp.
+    private static final String CONVERSATION_MESSAGES_WINDOW_QUERY_SQL_ORDER_BY =
+            " ORDER BY "
+          + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.RECEIVED_TIMESTAMP + " DESC, "
+          + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID + " DESC";
+
+    private static final String MESSAGES_KEYSET_WHERE_SQL =
+            MessageColumns.CONVERSATION_ID + "=?"
+          + " AND " + MessageColumns.STATUS + " <> " + MessageData.BUGLE_STATUS_OUTGOING_DRAFT;
+
+    private static final String MESSAGES_KEYSET_FROM_WHERE_SQL =
+            " FROM " + DatabaseHelper.MESSAGES_TABLE + " WHERE " + MESSAGES_KEYSET_WHERE_SQL;
+
+    // (received_timestamp, _id) >= (?, ?), spelled out since older sqlite lacks row values.
+    private static final String MESSAGES_KEYSET_AT_OR_AFTER_SQL =
+            " AND (" + MessageColumns.RECEIVED_TIMESTAMP + ">? OR ("
+          + MessageColumns.RECEIVED_TIMESTAMP + "=? AND " + MessageColumns._ID + ">=?))";
+
+    // (received_timestamp, _id) < (?, ?)
+    private static final String MESSAGES_KEYSET_BEFORE_SQL =
+            " AND (" + MessageColumns.RECEIVED_TIMESTAMP + "<? OR ("
+          + MessageColumns.RECEIVED_TIMESTAMP + "=? AND " + MessageColumns._ID + "<?))";
+
+    private static final String MESSAGES_KEYSET_ORDER_BY_SQL =
+            " ORDER BY " + MessageColumns.RECEIVED_TIMESTAMP + " DESC, "
+          + MessageColumns._ID + " DESC";
+
     private static final String NOTIFICATION_QUERY_SQL_GROUP_BY =
             " GROUP BY " + DatabaseHelper.PARTS_TABLE + '.' + PartColumns.MESSAGE_ID
           + " ORDER BY "
@@ -839,11 +1143,12 @@ public class ConversationMessageData {
         static final String PARTS_WIDTHS = "parts_widths";
         static final String PARTS_HEIGHTS = "parts_heights";
         static final String PARTS_TEXTS = "parts_texts";
+        static final String PARTS_VERSION = MessageColumns.PARTS_VERSION;
     }
 
     private static int sIndexIncrementer = 0;
 
-    private static final int INDEX_MESSAGE_ID                    = sIndexIncrementer++;
+    static final int INDEX_MESSAGE_ID                            = sIndexIncrementer++;
     private static final int INDEX_CONVERSATION_ID               = sIndexIncrementer++;
     private static final int INDEX_PARTICIPANT_ID                = sIndexIncrementer++;
 
@@ -857,7 +1162,7 @@ public class ConversationMessageData {
     private static final int INDEX_PARTS_COUNT                   = sIndexIncrementer++;
 
     private static final int INDEX_SENT_TIMESTAMP                = sIndexIncrementer++;
-    private static final int INDEX_RECEIVED_TIMESTAMP            = sIndexIncrementer++;
+    static final int INDEX_RECEIVED_TIMESTAMP                    = sIndexIncrementer++;
     private static final int INDEX_SEEN                          = sIndexIncrementer++;
     private static final int INDEX_READ                          = sIndexIncrementer++;
     private static final int INDEX_PROTOCOL                      = sIndexIncrementer++;
@@ -876,6 +1181,7 @@ public class ConversationMessageData {
     private static final int INDEX_SENDER_PROFILE_PHOTO_URI      = sIndexIncrementer++;
     private static final int INDEX_SENDER_CONTACT_ID             = sIndexIncrementer++;
     private static final int INDEX_SENDER_CONTACT_LOOKUP_KEY     = sIndexIncrementer++;
+    private static final int INDEX_PARTS_VERSION                 = sIndexIncrementer++;
 
 
     private static String[] sProjection = {
@@ -911,6 +1217,7 @@ public class ConversationMessageData {
         ConversationMessageViewColumns.SENDER_PROFILE_PHOTO_URI,
         ConversationMessageViewColumns.SENDER_CONTACT_ID,
         ConversationMessageViewColumns.SENDER_CONTACT_LOOKUP_KEY,
+        ConversationMessageViewColumns.PARTS_VERSION,
     };
 
     public static String[] getProjection() {
@@ -88,7 +88,9 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
 
     private boolean mIncludeEmailAddress;
     private boolean mIsGroupConversation;
-    private String mMessageText;
+    // Either a copy of the text or, while it is being edited, the text of the compose box itself,
+    // which is only copied once the draft is read
+    private CharSequence mMessageText;
     private String mMessageSubject;
     private String mSelfId;
     private MessageTextStats mMessageTextStats;
@@ -182,13 +184,13 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
         MessageData message = null;
         if (getIsMms()) {
             message = MessageData.createDraftMmsMessage(mConversationId, mSelfId,
-                    mMessageText, mMessageSubject);
+                    getMessageText(), mMessageSubject);
             for (final MessagePartData attachment : mAttachments) {
                 message.addPart(attachment);
             }
         } else {
             message = MessageData.createDraftSmsMessage(mConversationId, mSelfId,
-                    mMessageText);
+                    getMessageText());
         }
 
         if (clearLocalCopy) {
@@ -214,7 +216,10 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
     }
 
     public String getMessageText() {
-        return mMessageText;
+        if (mMessageText != null && !(mMessageText instanceof String)) {
+            mMessageText = mMessageText.toString();
+        }
+        return (String) mMessageText;
     }
 
     public String getMessageSubject() {
@@ -237,6 +242,13 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
         return mSelfId;
     }
 
+    /**
+     * @return whether the message text has anything but whitespace, without reading the text
+     */
+    public boolean hasMessageText() {
+        return mMessageTextStats.hasNonWhitespaceText();
+    }
+
     public int getNumMessagesToBeSent() {
         return mMessageTextStats.getNumMessagesToBeSent();
     }
@@ -251,8 +263,13 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
     }
 
     private void setMessageText(final String messageText, final boolean notify) {
-        mMessageText = messageText;
-        mMessageTextStats.updateMessageTextStats(getSelfSubId(), mMessageText);
+        if (TextUtils.equals(mMessageText, messageText)) {
+            // Already counted, only the subscription may have changed
+            mMessageTextStats.updateMessageLengthRequiresMms(getSelfSubId());
+        } else {
+            mMessageText = messageText;
+            mMessageTextStats.updateMessageTextStats(getSelfSubId(), mMessageText);
+        }
         if (notify) {
             dispatchChanged(MESSAGE_TEXT_CHANGED);
         }
@@ -269,6 +286,28 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
         setMessageText(messageText, false);
     }
 
+    /**
+     * Called before an edit replaces the {@code before} characters at {@code start} of the
+     * message text, so that they stop counting towards the SMS length.
+     */
+    public void beforeMessageTextChanged(final CharSequence messageText, final int start,
+            final int before) {
+        mMessageTextStats.beforeMessageTextChanged(messageText, start, before);
+    }
+
+    /**
+     * Sets the message text after an edit which replaced the {@code before} characters at
+     * {@code start} of the current text with {@code count} new characters. Only the edited
+     * characters are counted again towards the SMS length. The text is not copied until the
+     * draft is read, so it may be the live text of the compose box.
+     */
+    public void updateMessageText(final CharSequence messageText, final int start,
+            final int before, final int count) {
+        mMessageText = messageText;
+        mMessageTextStats.updateMessageTextStats(getSelfSubId(), mMessageText, start, before,
+                count);
+    }
+
     public void setMessageSubject(final String subject) {
         setMessageSubject(subject, false);
     }
@@ -684,6 +723,16 @@ public class DraftMessageData extends BindableData implements ReadDraftDataActio
             mCheckDraftForSendTask.cancel(true /* mayInterruptIfRunning */);
             mCheckDraftForSendTask = null;
         }
+        if ((changeFlags & ATTACHMENTS_CHANGED) == ATTACHMENTS_CHANGED) {
+            if (mSending) {
+                // The images shrunk so far are for the message being sent
+                MmsUtils.keepPreprocessedAttachments();
+            } else {
+                // Start shrinking the images for sending already, in the background, and stop
+                // shrinking those no longer attached
+                MmsUtils.preprocessAttachments(mAttachments, getSelfSubId());
+            }
+        }
         mListeners.onDraftChanged(this, changeFlags);
     }
 
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import com.android.messaging.util.Assert.RunsOnAnyThread;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the rendered group avatars, keyed by a hash of the avatars of their participants (see
+ * {@link AvatarGroupRequestDescriptor#getKey()}). It keeps the participant avatar uris of each
+ * group avatar so that the ones showing a participant can be dropped once the participant changes.
+ */
+public class AvatarGroupImageCache extends PoolableImageCache {
+    // The participant avatar uris of the cached group avatars, by key
+    private final HashMap<String, List<String>> mParticipantUris =
+            new HashMap<String, List<String>>();
+
+    public AvatarGroupImageCache(final int maxSize, final int id, final String name) {
+        super(maxSize, id, name);
+    }
+
+    /**
+     * Drops the cached group avatars that show any of the given participant avatars, if the
+     * group avatar cache exists.
+     */
+    @RunsOnAnyThread
+    public static void invalidateParticipants(final Collection<String> participantAvatarUris) {
+        final MediaCacheManager mediaCacheManager = MediaCacheManager.get();
+        if (mediaCacheManager == null || participantAvatarUris.isEmpty()) {
+            return;
+        }
+        final MediaCache<?> cache = mediaCacheManager.getOrCreateMediaCacheById(
+                BugleMediaCacheManager.AVATAR_GROUP_CACHE);
+        if (cache instanceof AvatarGroupImageCache) {
+            ((AvatarGroupImageCache) cache).removeGroupsOf(
+                    new HashSet<String>(participantAvatarUris));
+        }
+    }
+
+    /**
+     * Records the participant avatars of a group avatar that is about to be added to the cache.
+     */
+    synchronized void onGroupLoaded(final String key, final List<String> participantUris) {
+        mParticipantUris.put(key, participantUris);
+    }
+
+    private synchronized void removeGroupsOf(final Set<String> participantAvatarUris) {
+        final List<String> keys = new ArrayList<String>();
+        for (final Map.Entry<String, List<String>> entry : mParticipantUris.entrySet()) {
+            if (!Collections.disjoint(entry.getValue(), participantAvatarUris)) {
+                keys.add(entry.getKey());
+            }
+        }
+        for (final String key : keys) {
+            mParticipantUris.remove(key);
+            remove(key);
+        }
+    }
+
+    @Override
+    protected synchronized void entryRemoved(final boolean evicted, final String key,
+            final ImageResource oldValue, final ImageResource newValue) {
+        super.entryRemoved(evicted, key, oldValue, newValue);
+        if (newValue == null) {
+            // Not replaced by a new rendering of the same group
+            mParticipantUris.remove(key);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * Renders a group avatar from the avatars of its participants into the
+ * {@link AvatarGroupImageCache}, where it stays until one of the participants changes.
+ */
+public class AvatarGroupRequest extends CompositeImageRequest<AvatarGroupRequestDescriptor> {
+    public AvatarGroupRequest(final Context context,
+            final AvatarGroupRequestDescriptor descriptor) {
+        super(context, descriptor);
+    }
+
+    @Override
+    protected ImageResource loadMediaInternal(
+            final List<MediaRequest<ImageResource>> chainedTask) {
+        final ImageResource resource = super.loadMediaInternal(chainedTask);
+        final MediaCache<ImageResource> mediaCache = getMediaCache();
+        if (mediaCache instanceof AvatarGroupImageCache) {
+            ((AvatarGroupImageCache) mediaCache).onGroupLoaded(getKey(),
+                    mDescriptor.getParticipantUris());
+        }
+        return resource;
+    }
+
+    @Override
+    public int getCacheId() {
+        return BugleMediaCacheManager.AVATAR_GROUP_CACHE;
+    }
+}
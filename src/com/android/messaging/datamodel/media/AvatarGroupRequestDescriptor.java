@@ -21,14 +21,27 @@ import android.net.Uri;
 
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.AvatarUriUtil;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class AvatarGroupRequestDescriptor extends CompositeImageRequestDescriptor {
     private static final int MAX_GROUP_SIZE = 4;
+    private static final String KEY_PREFIX = "group";
 
+    private final List<String> mParticipantUris;
+    private final String mGroupKey;
+
+    /**
+     * Creates a request for the group avatar of the participant avatars in the group avatar uri.
+     * The participant avatars are requested at the size they take in the group avatar, so that
+     * they are cached at that size and reused when the group avatar is rendered again.
+     */
     public AvatarGroupRequestDescriptor(final Uri uri, final int desiredWidth,
             final int desiredHeight) {
         this(convertToDescriptor(uri, desiredWidth, desiredHeight), desiredWidth, desiredHeight);
@@ -38,29 +51,73 @@ public class AvatarGroupRequestDescriptor extends CompositeImageRequestDescripto
             final int desiredWidth, final int desiredHeight) {
         super(descriptors, desiredWidth, desiredHeight);
         Assert.isTrue(descriptors.size() <= MAX_GROUP_SIZE);
+
+        final List<String> participantUris = new ArrayList<String>(descriptors.size());
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (final ImageRequestDescriptor descriptor : descriptors) {
+            final String participantUri = getParticipantUri(descriptor);
+            participantUris.add(participantUri);
+            hasher.putString(participantUri, StandardCharsets.UTF_8).putChar(',');
+        }
+        mParticipantUris = Collections.unmodifiableList(participantUris);
+        mGroupKey = new StringBuilder(KEY_PREFIX).append(KEY_PART_DELIMITER)
+                .append(hasher.hash().toString()).append(KEY_PART_DELIMITER)
+                .append(desiredWidth).append(KEY_PART_DELIMITER)
+                .append(desiredHeight).toString();
     }
 
     private static List<? extends ImageRequestDescriptor> convertToDescriptor(final Uri uri,
             final int desiredWidth, final int desiredHeight) {
         final List<String> participantUriStrings = AvatarUriUtil.getGroupParticipantUris(uri);
+        final RectF[] destRects = generateDestRectArray(participantUriStrings.size(),
+                desiredWidth, desiredHeight);
         final List<AvatarRequestDescriptor> avatarDescriptors =
                 new ArrayList<AvatarRequestDescriptor>(participantUriStrings.size());
-        for (final String uriString : participantUriStrings) {
+        for (int i = 0; i < participantUriStrings.size(); i++) {
             final AvatarRequestDescriptor descriptor = new AvatarRequestDescriptor(
-                    Uri.parse(uriString), desiredWidth, desiredHeight);
+                    Uri.parse(participantUriStrings.get(i)),
+                    Math.max(1, Math.round(destRects[i].width())),
+                    Math.max(1, Math.round(destRects[i].height())));
             avatarDescriptors.add(descriptor);
         }
         return avatarDescriptors;
     }
 
+    private static String getParticipantUri(final ImageRequestDescriptor descriptor) {
+        if (descriptor instanceof UriImageRequestDescriptor) {
+            final Uri uri = ((UriImageRequestDescriptor) descriptor).uri;
+            if (uri != null) {
+                return uri.toString();
+            }
+        }
+        return descriptor.getKey();
+    }
+
+    /**
+     * Gets a key made of a hash of the participant avatars and the size of the group avatar,
+     * which is much shorter than the keys of all the participant avatar requests.
+     */
+    @Override
+    public String getKey() {
+        return mGroupKey;
+    }
+
+    /**
+     * @return the avatar uris of the participants shown in the group avatar
+     */
+    public List<String> getParticipantUris() {
+        return mParticipantUris;
+    }
+
     @Override
     public CompositeImageRequest<?> buildBatchImageRequest(final Context context) {
-        return new CompositeImageRequest<AvatarGroupRequestDescriptor>(context, this);
+        return new AvatarGroupRequest(context, this);
     }
 
     @Override
     public List<RectF> getChildRequestTargetRects() {
-        return Arrays.asList(generateDestRectArray());
+        return Arrays.asList(generateDestRectArray(mDescriptors.size(), desiredWidth,
+                desiredHeight));
     }
 
     /**
@@ -68,10 +125,8 @@ public class AvatarGroupRequestDescriptor extends CompositeImageRequestDescripto
      * should be located in the final group avatar image. The location of each avatar depends on
      * the size of the group and the size of the overall group avatar size.
      */
-    private RectF[] generateDestRectArray() {
-        final int groupSize = mDescriptors.size();
-        final float width = desiredWidth;
-        final float height = desiredHeight;
+    private static RectF[] generateDestRectArray(final int groupSize, final float width,
+            final float height) {
         final float halfWidth = width / 2F;
         final float halfHeight = height / 2F;
         final RectF[] destArray = new RectF[groupSize];
@@ -39,10 +39,13 @@ public class AvatarRequestDescriptor extends UriImageRequestDescriptor {
 
     public AvatarRequestDescriptor(final Uri uri, final int desiredWidth,
             final int desiredHeight, boolean cropToCircle, boolean isWearBackground) {
-        super(uri, desiredWidth, desiredHeight, false /* allowCompression */, true /* isStatic */,
-                cropToCircle,
+        // Contact photos are opaque, and are drawn into pooled bitmaps when cropped to a circle
+        super(uri, desiredWidth, desiredHeight, UriImageRequest.UNSPECIFIED_SIZE,
+                UriImageRequest.UNSPECIFIED_SIZE, false /* allowCompression */,
+                true /* isStatic */, cropToCircle,
                 ImageUtils.DEFAULT_CIRCLE_BACKGROUND_COLOR /* circleBackgroundColor */,
-                ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */);
+                ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */,
+                DECODE_MODE_RGB_565);
         Assert.isTrue(uri == null || UriUtil.isLocalResourceUri(uri) ||
                 AvatarUriUtil.isAvatarUri(uri));
         this.isWearBackground = isWearBackground;
@@ -15,6 +15,9 @@
  */
 package com.android.messaging.datamodel.media;
 
+import android.util.DisplayMetrics;
+
+import com.android.messaging.Factory;
 import com.android.messaging.util.Assert;
 
 /**
@@ -28,10 +31,14 @@ public class BugleMediaCacheManager extends MediaCacheManager {
     public static final int DEFAULT_IMAGE_CACHE = 1;
     public static final int AVATAR_IMAGE_CACHE = 2;
     public static final int VCARD_CACHE = 3;
+    public static final int IMAGE_TILE_CACHE = 4;
+    public static final int AVATAR_GROUP_CACHE = 5;
 
-    // VCard cache size - we compute the size by count, not by bytes.
-    private static final int VCARD_CACHE_SIZE = 5;
+    // VCard cache size - parsed vcards hold no image data, so a typical one takes a few KB.
+    private static final int VCARD_CACHE_SIZE = 256;    // 256KB
     private static final int SHARED_IMAGE_CACHE_SIZE = 1024 * 10;   // 10MB
+    // Group avatar cache size - rendered group avatars are icon sized, about 100KB each.
+    private static final int AVATAR_GROUP_CACHE_SIZE = 1024 * 2;    // 2MB
 
     @Override
     protected MediaCache<?> createMediaCacheById(final int id) {
@@ -45,10 +52,27 @@ public class BugleMediaCacheManager extends MediaCacheManager {
             case VCARD_CACHE:
                 return new MediaCache<VCardResource>(VCARD_CACHE_SIZE, id, "VCardCache");
 
+            case IMAGE_TILE_CACHE:
+                return new MediaCache<ImageResource>(getImageTileCacheSize(), id,
+                        "ImageTileCache");
+
+            case AVATAR_GROUP_CACHE:
+                return new AvatarGroupImageCache(AVATAR_GROUP_CACHE_SIZE, id,
+                        "AvatarGroupImageCache");
+
             default:
                 Assert.fail("BugleMediaCacheManager: unsupported cache id " + id);
                 break;
         }
         return null;
     }
+
+    /**
+     * The tiles of zoomed in images may take as much as the screen would in ARGB_8888 pixels.
+     */
+    private static int getImageTileCacheSize() {
+        final DisplayMetrics metrics =
+                Factory.get().getApplicationContext().getResources().getDisplayMetrics();
+        return metrics.widthPixels * metrics.heightPixels * 4 / 1024;
+    }
 }
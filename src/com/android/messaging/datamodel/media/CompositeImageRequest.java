@@ -39,16 +39,11 @@ import java.util.List;
  */
 public class CompositeImageRequest<D extends CompositeImageRequestDescriptor>
         extends ImageRequest<D> {
-    private final Bitmap mBitmap;
-    private final Canvas mCanvas;
     private final Paint mPaint;
 
     public CompositeImageRequest(final Context context, final D descriptor) {
         super(context, descriptor);
-        mBitmap = getBitmapPool().createOrReuseBitmap(
-                mDescriptor.desiredWidth, mDescriptor.desiredHeight);
-        mCanvas = new Canvas(mBitmap);
-        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
     }
 
     @Override
@@ -59,42 +54,55 @@ public class CompositeImageRequest<D extends CompositeImageRequestDescriptor>
         Assert.equals(descriptors.size(), targetRects.size());
         Assert.isTrue(descriptors.size() > 1);
 
+        // Only take a bitmap from the pool once the composite has to be drawn, not for requests
+        // served from the cache
+        final Bitmap bitmap = getBitmapPool().createOrReuseBitmap(
+                mDescriptor.desiredWidth, mDescriptor.desiredHeight);
+        final Canvas canvas = new Canvas(bitmap);
         for (int i = 0; i < descriptors.size(); i++) {
-            final MediaRequest<ImageResource> request =
-                    descriptors.get(i).buildSyncMediaRequest(mContext);
+            final ImageRequestDescriptor descriptor = descriptors.get(i);
+            final MediaRequest<ImageResource> request = descriptor.buildSyncMediaRequest(mContext);
             // Synchronously request the child image.
             final ImageResource resource =
                     MediaResourceManager.get().requestMediaResourceSync(request);
             if (resource != null) {
                 try {
                     final RectF avatarDestOnGroup = targetRects.get(i);
-
-                    // Draw the bitmap into a smaller size with a circle mask.
                     final Bitmap resourceBitmap = resource.getBitmap();
                     final RectF resourceRect = new RectF(
                             0, 0, resourceBitmap.getWidth(), resourceBitmap.getHeight());
-                    final Bitmap smallCircleBitmap = getBitmapPool().createOrReuseBitmap(
-                            Math.round(avatarDestOnGroup.width()),
-                            Math.round(avatarDestOnGroup.height()));
-                    final RectF smallCircleRect = new RectF(
-                            0, 0, smallCircleBitmap.getWidth(), smallCircleBitmap.getHeight());
-                    final Canvas smallCircleCanvas = new Canvas(smallCircleBitmap);
-                    ImageUtils.drawBitmapWithCircleOnCanvas(resource.getBitmap(), smallCircleCanvas,
-                            resourceRect, smallCircleRect, null /* bitmapPaint */,
-                            false /* fillBackground */,
-                            ImageUtils.DEFAULT_CIRCLE_BACKGROUND_COLOR /* circleBackgroundColor */,
-                            ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */);
-                    final Matrix matrix = new Matrix();
-                    matrix.setRectToRect(smallCircleRect, avatarDestOnGroup,
-                            Matrix.ScaleToFit.FILL);
-                    mCanvas.drawBitmap(smallCircleBitmap, matrix, mPaint);
+                    if (descriptor.cropToCircle) {
+                        // The child image is already a circle, requested at about the size it
+                        // takes in the composite, so draw it as it is.
+                        final Matrix matrix = new Matrix();
+                        matrix.setRectToRect(resourceRect, avatarDestOnGroup,
+                                Matrix.ScaleToFit.FILL);
+                        canvas.drawBitmap(resourceBitmap, matrix, mPaint);
+                    } else {
+                        // Draw the bitmap into a smaller size with a circle mask.
+                        final Bitmap smallCircleBitmap = getBitmapPool().createOrReuseBitmap(
+                                Math.round(avatarDestOnGroup.width()),
+                                Math.round(avatarDestOnGroup.height()));
+                        final RectF smallCircleRect = new RectF(0, 0,
+                                smallCircleBitmap.getWidth(), smallCircleBitmap.getHeight());
+                        final Canvas smallCircleCanvas = new Canvas(smallCircleBitmap);
+                        ImageUtils.drawBitmapWithCircleOnCanvas(resourceBitmap, smallCircleCanvas,
+                                resourceRect, smallCircleRect, null /* bitmapPaint */,
+                                false /* fillBackground */,
+                                ImageUtils.DEFAULT_CIRCLE_BACKGROUND_COLOR,
+                                ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR);
+                        final Matrix matrix = new Matrix();
+                        matrix.setRectToRect(smallCircleRect, avatarDestOnGroup,
+                                Matrix.ScaleToFit.FILL);
+                        canvas.drawBitmap(smallCircleBitmap, matrix, mPaint);
+                    }
                 } finally {
                     resource.release();
                 }
             }
         }
 
-        return new DecodedImageResource(getKey(), mBitmap, ExifInterface.ORIENTATION_NORMAL);
+        return new DecodedImageResource(getKey(), bitmap, ExifInterface.ORIENTATION_NORMAL);
     }
 
     @Override
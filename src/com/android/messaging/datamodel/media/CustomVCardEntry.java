@@ -18,6 +18,7 @@ package com.android.messaging.datamodel.media;
 import android.accounts.Account;
 import androidx.collection.ArrayMap;
 
+import com.android.vcard.VCardConstants;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
 
@@ -26,10 +27,19 @@ import java.util.Map;
 /**
  * Class which extends VCardEntry to add support for unknown properties.  Currently there is a TODO
  * to add this in the VCardEntry code, but we have to extend it to add the needed support
+ *
+ * Photos are not handed to VCardEntry, which would keep the bytes of all of them for as long as
+ * the entry is cached. Only the first one is held, until it is taken to be persisted as the
+ * avatar of the contact.
  */
 public class CustomVCardEntry extends VCardEntry {
+    // Rough per property cost of the VCardProperty and the data VCardEntry builds from it
+    private static final int PROPERTY_OVERHEAD_BYTES = 64;
+
     // List of properties keyed by their name for easy lookup
     private final Map<String, VCardProperty> mAllProperties;
+    private byte[] mPhotoBytes;
+    private int mEstimatedSize;
 
     public CustomVCardEntry(int vCardType, Account account) {
         super(vCardType, account);
@@ -38,8 +48,36 @@ public class CustomVCardEntry extends VCardEntry {
 
     @Override
     public void addProperty(VCardProperty property) {
+        final String name = property.getName();
+        if (VCardConstants.PROPERTY_PHOTO.equals(name)
+                || VCardConstants.PROPERTY_LOGO.equals(name)) {
+            if (mPhotoBytes == null) {
+                mPhotoBytes = property.getByteValue();
+            }
+            return;
+        }
         super.addProperty(property);
-        mAllProperties.put(property.getName(), property);
+        mAllProperties.put(name, property);
+        final String rawValue = property.getRawValue();
+        // The raw value is kept in the property and again, parsed, in VCardEntry, as UTF-16
+        mEstimatedSize += PROPERTY_OVERHEAD_BYTES + (rawValue == null ? 0 : rawValue.length() * 4);
+    }
+
+    /**
+     * @return the bytes of the first photo of the contact, or null if it has none or they were
+     *     already taken. The entry doesn't keep them afterwards.
+     */
+    public byte[] takePhotoBytes() {
+        final byte[] photoBytes = mPhotoBytes;
+        mPhotoBytes = null;
+        return photoBytes;
+    }
+
+    /**
+     * @return the estimated memory used by the entry in bytes, not counting a photo not yet taken
+     */
+    public int getEstimatedSize() {
+        return mEstimatedSize;
     }
 
     public VCardProperty getProperty(String name) {
@@ -39,12 +39,28 @@ public class DecodedImageResource extends ImageResource {
 
     private Bitmap mBitmap;
     private final int mOrientation;
+    // Kept from creation so the cache accounts the same size on adding and removing the resource,
+    // even after the bitmap is given away for reuse
+    private final int mMediaSize;
     private boolean mCacheable = true;
 
     public DecodedImageResource(final String key, final Bitmap bitmap, int orientation) {
         super(key, orientation);
         mBitmap = bitmap;
         mOrientation = orientation;
+        mMediaSize = bitmap != null ? getByteCount(bitmap) : 0;
+    }
+
+    /**
+     * @return the number of bytes of the bitmap, which depends on its config, e.g. half as many
+     * for RGB_565 bitmaps as ARGB_8888 ones
+     */
+    private static int getByteCount(final Bitmap bitmap) {
+        if (OsUtil.isAtLeastKLP()) {
+            return bitmap.getAllocationByteCount();
+        } else {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
     }
 
     /**
@@ -106,17 +122,7 @@ public class DecodedImageResource extends ImageResource {
 
     @Override
     public int getMediaSize() {
-        acquireLock();
-        try {
-            Assert.notNull(mBitmap);
-            if (OsUtil.isAtLeastKLP()) {
-                return mBitmap.getAllocationByteCount();
-            } else {
-                return mBitmap.getRowBytes() * mBitmap.getHeight();
-            }
-        } finally {
-            releaseLock();
-        }
+        return mMediaSize;
     }
 
     @Override
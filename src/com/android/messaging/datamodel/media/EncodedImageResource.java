@@ -103,7 +103,12 @@ public class EncodedImageResource extends ImageResource {
     MediaRequest<? extends RefCountedMediaResource> getMediaDecodingRequest(
             final MediaRequest<? extends RefCountedMediaResource> originalRequest) {
         Assert.isTrue(isEncoded());
-        return new DecodeImageRequest();
+        // The decoded image is only displayed, so it may be decoded into a hardware bitmap
+        final MediaRequestDescriptor<?> descriptor = originalRequest.getDescriptor();
+        final int decodeMode = descriptor instanceof ImageRequestDescriptor
+                ? ((ImageRequestDescriptor) descriptor).getDecodeMode()
+                : ImageRequestDescriptor.DECODE_MODE_POOLED;
+        return new DecodeImageRequest(ImageRequest.getBitmapConfig(decodeMode));
     }
 
     /**
@@ -112,7 +117,10 @@ public class EncodedImageResource extends ImageResource {
      * properties such as binding.
      */
     private class DecodeImageRequest implements MediaRequest<ImageResource> {
-        public DecodeImageRequest() {
+        private final Bitmap.Config mBitmapConfig;
+
+        public DecodeImageRequest(final Bitmap.Config bitmapConfig) {
+            mBitmapConfig = bitmapConfig;
             // Hold a ref onto the encoded resource before the request finishes.
             addRef();
         }
@@ -129,8 +137,10 @@ public class EncodedImageResource extends ImageResource {
             Assert.isNotMainThread();
             acquireLock();
             try {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inPreferredConfig = mBitmapConfig;
                 final Bitmap decodedBitmap = BitmapFactory.decodeByteArray(mImageBytes, 0,
-                        mImageBytes.length);
+                        mImageBytes.length, options);
                 return new DecodedImageResource(getKey(), decodedBitmap, getOrientation());
             } finally {
                 releaseLock();
@@ -58,8 +58,8 @@ public class FileImageRequest extends UriImageRequest {
             }
 
             if (thumbnail != null) {
-                final BitmapFactory.Options options = PoolableImageCache.getBitmapOptionsForPool(
-                        false /* scaled */, 0 /* inputDensity */, 0 /* targetDensity */);
+                final int decodeMode = getDecodeMode();
+                final BitmapFactory.Options options = getBitmapOptions(decodeMode);
                 // First, check dimensions of the bitmap.
                 options.inJustDecodeBounds = true;
                 BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
@@ -83,7 +83,9 @@ public class FileImageRequest extends UriImageRequest {
                     } else {
                         mDescriptor.updateSourceDimensions(options.outWidth, options.outHeight);
                     }
-                    final ReusableImageResourcePool bitmapPool = getBitmapPool();
+                    final ReusableImageResourcePool bitmapPool =
+                            decodeMode == ImageRequestDescriptor.DECODE_MODE_POOLED
+                                    ? getBitmapPool() : null;
                     if (bitmapPool == null) {
                         return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length,
                                 options);
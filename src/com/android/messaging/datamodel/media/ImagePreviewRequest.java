@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.exif.ExifInterface;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Loads a small preview of a local JPEG image. The thumbnail embedded in the EXIF data of the
+ * image is used if it has one of the same aspect ratio, which only takes reading the APP1
+ * segment at the start of the file. Otherwise the image is decoded at micro thumbnail size,
+ * which the JPEG decoder does while downscaling, much faster than decoding it at bubble size.
+ *
+ * Either way the preview lands in the image cache, so that it is ready the next time the image
+ * is shown after having been evicted.
+ */
+public class ImagePreviewRequest extends UriImageRequest<ImagePreviewRequestDescriptor> {
+    private static final String TAG = LogUtil.BUGLE_IMAGE_TAG;
+
+    // How far the aspect ratio of the EXIF thumbnail may be from the image's; some cameras
+    // letterbox the thumbnail of wide images into 4:3
+    private static final float MAX_ASPECT_RATIO_DIFFERENCE = 0.05f;
+
+    public ImagePreviewRequest(final Context context,
+            final ImagePreviewRequestDescriptor descriptor) {
+        super(context, descriptor);
+    }
+
+    @Override
+    protected ImageResource loadMediaInternal(final List<MediaRequest<ImageResource>> chainedTasks)
+            throws IOException {
+        final ImageResource exifThumbnail = loadExifThumbnail();
+        if (exifThumbnail != null) {
+            return exifThumbnail;
+        }
+        return super.loadMediaInternal(chainedTasks);
+    }
+
+    private ImageResource loadExifThumbnail() throws IOException {
+        final ExifInterface exifInterface = new ExifInterface();
+        final InputStream inputStream = getInputStreamForResource();
+        if (inputStream == null) {
+            throw new FileNotFoundException();
+        }
+        try {
+            exifInterface.readExif(inputStream);
+        } catch (final IOException e) {
+            // Not readable as EXIF, the fallback decode will tell whether it's a valid image
+            return null;
+        } finally {
+            inputStream.close();
+        }
+
+        final byte[] thumbnailBytes = exifInterface.getThumbnailBytes();
+        if (thumbnailBytes == null) {
+            return null;
+        }
+        final Bitmap thumbnail = BitmapFactory.decodeByteArray(thumbnailBytes, 0,
+                thumbnailBytes.length, getBitmapOptions(getDecodeMode()));
+        if (thumbnail == null) {
+            return null;
+        }
+
+        final Integer orientationValue =
+                exifInterface.getTagIntValue(ExifInterface.TAG_ORIENTATION);
+        final int orientation = orientationValue == null
+                ? ExifInterface.Orientation.TOP_LEFT : orientationValue;
+        final boolean invertDimensions =
+                ExifInterface.getOrientationParams(orientation).invertDimensions;
+        final int width = invertDimensions ? thumbnail.getHeight() : thumbnail.getWidth();
+        final int height = invertDimensions ? thumbnail.getWidth() : thumbnail.getHeight();
+        final float aspectRatio = (float) width / height;
+        final float sourceAspectRatio = (float) mDescriptor.sourceWidth / mDescriptor.sourceHeight;
+        if (Math.abs(aspectRatio / sourceAspectRatio - 1) > MAX_ASPECT_RATIO_DIFFERENCE) {
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "ImagePreviewRequest: EXIF thumbnail is " + width + "x" + height
+                        + " for a " + mDescriptor.sourceWidth + "x" + mDescriptor.sourceHeight
+                        + " image, decoding instead");
+            }
+            thumbnail.recycle();
+            return null;
+        }
+        return new DecodedImageResource(getKey(), thumbnail, orientation);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.android.messaging.util.Assert;
+
+/**
+ * Descriptor of the preview of a local JPEG image, see {@link ImagePreviewRequest}.
+ */
+public class ImagePreviewRequestDescriptor extends UriImageRequestDescriptor {
+    // Size of the preview decoded when the image has no usable EXIF thumbnail, as large as those
+    // usually are
+    public static final int MICRO_THUMBNAIL_SIZE = 160;
+
+    /**
+     * @param sourceWidth the width of the image, once oriented
+     * @param sourceHeight the height of the image, once oriented
+     */
+    public ImagePreviewRequestDescriptor(final Uri uri, final int sourceWidth,
+            final int sourceHeight) {
+        super(uri, MICRO_THUMBNAIL_SIZE, MICRO_THUMBNAIL_SIZE, sourceWidth, sourceHeight,
+                false /* allowCompression */, true /* isStatic */, false /* cropToCircle */,
+                0 /* circleBackgroundColor */, 0 /* circleStrokeColor */, DECODE_MODE_RGB_565);
+        Assert.isTrue(sourceWidth != ImageRequest.UNSPECIFIED_SIZE
+                && sourceHeight != ImageRequest.UNSPECIFIED_SIZE);
+    }
+
+    @Override
+    public String getKey() {
+        final String key = super.getKey();
+        return key == null ? null
+                : new StringBuilder(key).append(KEY_PART_DELIMITER).append("preview").toString();
+    }
+
+    @Override
+    public MediaRequest<ImageResource> buildSyncMediaRequest(final Context context) {
+        return new ImagePreviewRequest(context, this);
+    }
+}
@@ -26,6 +26,7 @@ import com.android.messaging.datamodel.data.MessagePartData;
 import com.android.messaging.datamodel.media.PoolableImageCache.ReusableImageResourcePool;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.ImageUtils;
+import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.exif.ExifInterface;
 
 import java.io.FileNotFoundException;
@@ -149,8 +150,8 @@ public abstract class ImageRequest<D extends ImageRequestDescriptor>
 
         mOrientation = ImageUtils.getOrientation(getInputStreamForResource());
 
-        final BitmapFactory.Options options = PoolableImageCache.getBitmapOptionsForPool(
-                false /* scaled */, 0 /* inputDensity */, 0 /* targetDensity */);
+        final int decodeMode = getDecodeMode();
+        final BitmapFactory.Options options = getBitmapOptions(decodeMode);
         // First, check dimensions of the bitmap if not already known.
         if (unknownSize) {
             final InputStream inputStream = getInputStreamForResource();
@@ -196,7 +197,9 @@ public abstract class ImageRequest<D extends ImageRequestDescriptor>
                 options.inJustDecodeBounds = false;
 
                 // Actually decode the bitmap, optionally using the bitmap pool.
-                final ReusableImageResourcePool bitmapPool = getBitmapPool();
+                final ReusableImageResourcePool bitmapPool =
+                        decodeMode == ImageRequestDescriptor.DECODE_MODE_POOLED
+                                ? getBitmapPool() : null;
                 if (bitmapPool == null) {
                     return BitmapFactory.decodeStream(inputStream, null, options);
                 } else {
@@ -215,6 +218,56 @@ public abstract class ImageRequest<D extends ImageRequestDescriptor>
         }
     }
 
+    /**
+     * Returns the decode mode of the image, which is the one of the descriptor unless hardware
+     * bitmaps aren't supported or the image needs a software bitmap to be cropped or compressed.
+     */
+    protected int getDecodeMode() {
+        final int decodeMode = mDescriptor.getDecodeMode();
+        if (decodeMode == ImageRequestDescriptor.DECODE_MODE_HARDWARE && (!OsUtil.isAtLeastO()
+                || mDescriptor.cropToCircle || isCompressedWhenCached())) {
+            return ImageRequestDescriptor.DECODE_MODE_POOLED;
+        }
+        return decodeMode;
+    }
+
+    /**
+     * Returns whether the loaded image is compressed before it is cached. Subclasses that chain
+     * an encoding request should override this.
+     */
+    protected boolean isCompressedWhenCached() {
+        return false;
+    }
+
+    /**
+     * Creates the options to decode an image with in the given decode mode. Only pooled decodes
+     * produce mutable bitmaps, which may be reused through the bitmap pool.
+     */
+    static BitmapFactory.Options getBitmapOptions(final int decodeMode) {
+        final BitmapFactory.Options options = PoolableImageCache.getBitmapOptionsForPool(
+                false /* scaled */, 0 /* inputDensity */, 0 /* targetDensity */);
+        final Bitmap.Config config = getBitmapConfig(decodeMode);
+        if (config != Bitmap.Config.ARGB_8888) {
+            options.inMutable = false;
+            options.inPreferredConfig = config;
+        }
+        return options;
+    }
+
+    /**
+     * Returns the config of the bitmaps decoded in the given decode mode.
+     */
+    static Bitmap.Config getBitmapConfig(final int decodeMode) {
+        switch (decodeMode) {
+            case ImageRequestDescriptor.DECODE_MODE_RGB_565:
+                return Bitmap.Config.RGB_565;
+            case ImageRequestDescriptor.DECODE_MODE_HARDWARE:
+                return OsUtil.isAtLeastO() ? Bitmap.Config.HARDWARE : Bitmap.Config.ARGB_8888;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
+    }
+
     private ImageResource postProcessOnBitmapResourceLoaded(final ImageResource loadedResource) {
         if (mDescriptor.cropToCircle && loadedResource instanceof DecodedImageResource) {
             final int width = mDescriptor.desiredWidth;
@@ -57,6 +57,26 @@ public abstract class ImageRequestDescriptor extends MediaRequestDescriptor<Imag
 
     protected static final char KEY_PART_DELIMITER = '|';
 
+    /**
+     * Decode into a mutable ARGB_8888 bitmap that can be reused through the bitmap pool of the
+     * cache. Needed for images that are drawn into or composited.
+     */
+    public static final int DECODE_MODE_POOLED = 0;
+
+    /**
+     * Decode into an RGB_565 bitmap, half the size, for opaque images such as JPEG photos.
+     * Images that turn out to have alpha are still decoded into ARGB_8888 bitmaps.
+     */
+    public static final int DECODE_MODE_RGB_565 = 1;
+
+    /**
+     * Decode into a hardware bitmap, kept only in graphics memory, for images that are only
+     * displayed. Falls back to DECODE_MODE_POOLED before O and for images cropped to a circle.
+     * Images compressed in the cache are decoded pooled to be compressed, and into hardware
+     * bitmaps when decoded from the cache.
+     */
+    public static final int DECODE_MODE_HARDWARE = 2;
+
     /**
      * Creates a new image request with unspecified width and height. In this case, the full
      * bitmap is loaded and decoded, so unless you are sure that the image will be of
@@ -92,12 +112,17 @@ public abstract class ImageRequestDescriptor extends MediaRequestDescriptor<Imag
     }
 
     public String getKey() {
-        return new StringBuilder()
+        final StringBuilder key = new StringBuilder()
                 .append(desiredWidth).append(KEY_PART_DELIMITER)
                 .append(desiredHeight).append(KEY_PART_DELIMITER)
                 .append(String.valueOf(cropToCircle)).append(KEY_PART_DELIMITER)
                 .append(String.valueOf(circleBackgroundColor)).append(KEY_PART_DELIMITER)
-                .append(String.valueOf(isStatic)).toString();
+                .append(String.valueOf(isStatic));
+        // Hardware bitmaps can't be drawn in software, so don't share them with other requests
+        if (getDecodeMode() == DECODE_MODE_HARDWARE) {
+            key.append(KEY_PART_DELIMITER).append("hardware");
+        }
+        return key.toString();
     }
 
     public boolean isStatic() {
@@ -110,4 +135,20 @@ public abstract class ImageRequestDescriptor extends MediaRequestDescriptor<Imag
     // Called once source dimensions finally determined upon loading the image
     public void updateSourceDimensions(final int sourceWidth, final int sourceHeight) {
     }
+
+    /**
+     * @return the descriptor of a small preview of the image that loads much faster, to be shown
+     *     until the image itself is loaded, or null if there is none. The preview is sized to
+     *     the source size of the image when shown.
+     */
+    public ImageRequestDescriptor getPreviewDescriptor() {
+        return null;
+    }
+
+    /**
+     * @return how the image should be decoded, one of the DECODE_MODE_* constants
+     */
+    public int getDecodeMode() {
+        return DECODE_MODE_POOLED;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.android.messaging.util.Assert;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.exif.ExifInterface;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decodes one tile of a large image with the region decoder of its descriptor. Tiles are kept in
+ * their own cache, whose size is bounded by the screen size, so that panning around a zoomed in
+ * image doesn't push the other images out of the shared image cache.
+ */
+public class ImageTileRequest implements MediaRequest<ImageResource> {
+    private final ImageTileRequestDescriptor mDescriptor;
+
+    ImageTileRequest(final ImageTileRequestDescriptor descriptor) {
+        mDescriptor = descriptor;
+    }
+
+    @Override
+    public String getKey() {
+        return mDescriptor.getKey();
+    }
+
+    @Override
+    @DoesNotRunOnMainThread
+    public ImageResource loadMediaBlocking(final List<MediaRequest<ImageResource>> chainedTask)
+            throws Exception {
+        Assert.isNotMainThread();
+        if (mDescriptor.decoder.isRecycled()) {
+            // The image was closed while the request was queued
+            throw new IOException("Region decoder recycled");
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = mDescriptor.sampleSize;
+        final Bitmap bitmap = mDescriptor.decoder.decodeRegion(mDescriptor.region, options);
+        if (bitmap == null) {
+            throw new RuntimeException("failed decoding tile");
+        }
+        return new DecodedImageResource(getKey(), bitmap, ExifInterface.Orientation.TOP_LEFT);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public MediaCache<ImageResource> getMediaCache() {
+        return (MediaCache<ImageResource>) MediaCacheManager.get().getOrCreateMediaCacheById(
+                getCacheId());
+    }
+
+    @Override
+    public int getCacheId() {
+        return BugleMediaCacheManager.IMAGE_TILE_CACHE;
+    }
+
+    @Override
+    public int getRequestType() {
+        return MediaRequest.REQUEST_LOAD_MEDIA;
+    }
+
+    @Override
+    public MediaRequestDescriptor<ImageResource> getDescriptor() {
+        return mDescriptor;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.content.Context;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.android.messaging.util.Assert;
+
+/**
+ * Describes one tile of a large image, i.e. a region of it decoded at a given sample size, so
+ * that a zoomed in image only has the part of it on screen decoded in full detail.
+ */
+public class ImageTileRequestDescriptor extends MediaRequestDescriptor<ImageResource> {
+    // The size of a decoded tile, in pixels of the tile bitmap
+    public static final int TILE_SIZE = 256;
+
+    private static final char KEY_PART_DELIMITER = '|';
+
+    public final Uri uri;
+    public final BitmapRegionDecoder decoder;
+    public final Rect region;
+    public final int sampleSize;
+
+    /**
+     * @param uri the uri of the image, only used in the cache key
+     * @param decoder the region decoder opened on the image, owned by the caller
+     * @param region the region of the image to decode, in pixels of the full image
+     * @param sampleSize the power of two to subsample the region by
+     */
+    public ImageTileRequestDescriptor(final Uri uri, final BitmapRegionDecoder decoder,
+            final Rect region, final int sampleSize) {
+        Assert.notNull(uri);
+        Assert.notNull(decoder);
+        this.uri = uri;
+        this.decoder = decoder;
+        this.region = region;
+        this.sampleSize = sampleSize;
+    }
+
+    public String getKey() {
+        return getKey(uri, region, sampleSize);
+    }
+
+    /**
+     * @return the key of the tile cached for the given region, which is the same as the one of a
+     *     request described with those arguments
+     */
+    public static String getKey(final Uri uri, final Rect region, final int sampleSize) {
+        return new StringBuilder().append(uri).append(KEY_PART_DELIMITER)
+                .append("tile").append(KEY_PART_DELIMITER)
+                .append(sampleSize).append(KEY_PART_DELIMITER)
+                .append(region.left).append(KEY_PART_DELIMITER)
+                .append(region.top).toString();
+    }
+
+    @Override
+    public MediaRequest<ImageResource> buildSyncMediaRequest(final Context context) {
+        return new ImageTileRequest(this);
+    }
+}
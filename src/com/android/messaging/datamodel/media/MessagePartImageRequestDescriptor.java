@@ -20,7 +20,9 @@ import android.net.Uri;
 
 import com.android.messaging.datamodel.action.UpdateMessagePartSizeAction;
 import com.android.messaging.datamodel.data.MessagePartData;
+import com.android.messaging.util.ContentType;
 import com.android.messaging.util.ImageUtils;
+import com.android.messaging.util.UriUtil;
 
 /**
  * Image descriptor attached to a message part.
@@ -28,6 +30,7 @@ import com.android.messaging.util.ImageUtils;
  */
 public class MessagePartImageRequestDescriptor extends UriImageRequestDescriptor {
     private final String mMessagePartId;
+    private final String mContentType;
 
     /**
      * Creates a new image request for a message part.
@@ -36,17 +39,48 @@ public class MessagePartImageRequestDescriptor extends UriImageRequestDescriptor
             final int desiredWidth, final int desiredHeight, boolean isStatic) {
         // Pull image parameters out of the MessagePart record
         this(messagePart.getPartId(), messagePart.getContentUri(), desiredWidth, desiredHeight,
-                messagePart.getWidth(), messagePart.getHeight(), isStatic);
+                messagePart.getWidth(), messagePart.getHeight(), isStatic,
+                messagePart.getContentType());
     }
 
     protected MessagePartImageRequestDescriptor(final String messagePartId, final Uri contentUri,
             final int desiredWidth, final int desiredHeight, final int sourceWidth,
             final int sourceHeight, boolean isStatic) {
+        this(messagePartId, contentUri, desiredWidth, desiredHeight, sourceWidth, sourceHeight,
+                isStatic, null /* contentType */);
+    }
+
+    private MessagePartImageRequestDescriptor(final String messagePartId, final Uri contentUri,
+            final int desiredWidth, final int desiredHeight, final int sourceWidth,
+            final int sourceHeight, boolean isStatic, final String contentType) {
+        // JPEG images are opaque, so they don't need ARGB_8888 bitmaps
         super(contentUri, desiredWidth, desiredHeight, sourceWidth, sourceHeight,
                 true /* allowCompression */, isStatic, false /* cropToCircle */,
                 ImageUtils.DEFAULT_CIRCLE_BACKGROUND_COLOR /* circleBackgroundColor */,
-                ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */);
+                ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */,
+                isJpeg(contentType) ? DECODE_MODE_RGB_565 : DECODE_MODE_POOLED);
         mMessagePartId = messagePartId;
+        mContentType = contentType;
+    }
+
+    /**
+     * Local JPEG images of known size are previewed by their EXIF thumbnail, or else a tiny decode
+     * of the image, which is much faster than decoding the image at the size of the bubble.
+     */
+    @Override
+    public ImageRequestDescriptor getPreviewDescriptor() {
+        if (uri == null || !UriUtil.isLocalUri(uri)
+                || !isJpeg(mContentType)
+                || sourceWidth == MessagePartData.UNSPECIFIED_SIZE
+                || sourceHeight == MessagePartData.UNSPECIFIED_SIZE) {
+            return null;
+        }
+        return new ImagePreviewRequestDescriptor(uri, sourceWidth, sourceHeight);
+    }
+
+    private static boolean isJpeg(final String contentType) {
+        return ContentType.IMAGE_JPEG.equals(contentType)
+                || ContentType.IMAGE_JPG.equals(contentType);
     }
 
     @Override
@@ -387,12 +387,14 @@ public class PoolableImageCache extends MediaCache<ImageResource> {
         }
 
         /**
-         * @return the pool key for a given image resource.
+         * @return the pool key for a given image resource. Only mutable ARGB_8888 bitmaps are
+         * pooled, as those are what pooled decodes and createOrReuseBitmap() expect.
          */
         private int getPoolKey(final ImageResource imageResource) {
             if (imageResource.supportsBitmapReuse()) {
                 final Bitmap bitmap = imageResource.getBitmap();
-                if (bitmap != null && bitmap.isMutable()) {
+                if (bitmap != null && bitmap.isMutable()
+                        && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
                     final int width = bitmap.getWidth();
                     final int height = bitmap.getHeight();
                     if (width > 0 && height > 0) {
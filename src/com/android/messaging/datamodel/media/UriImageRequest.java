@@ -55,4 +55,9 @@ public class UriImageRequest<D extends UriImageRequestDescriptor> extends ImageR
         }
         return resource;
     }
+
+    @Override
+    protected boolean isCompressedWhenCached() {
+        return mDescriptor.allowCompression;
+    }
 }
@@ -23,6 +23,7 @@ import com.android.messaging.util.UriUtil;
 public class UriImageRequestDescriptor extends ImageRequestDescriptor {
     public final Uri uri;
     public final boolean allowCompression;
+    private final int mDecodeMode;
 
     public UriImageRequestDescriptor(final Uri uri) {
         this(uri, UriImageRequest.UNSPECIFIED_SIZE, UriImageRequest.UNSPECIFIED_SIZE, false, false,
@@ -59,10 +60,24 @@ public class UriImageRequestDescriptor extends ImageRequestDescriptor {
             final int desiredHeight, final int sourceWidth, final int sourceHeight,
             final boolean allowCompression, final boolean isStatic, final boolean cropToCircle,
             final int circleBackgroundColor, int circleStrokeColor) {
+        this(uri, desiredWidth, desiredHeight, sourceWidth, sourceHeight, allowCompression,
+                isStatic, cropToCircle, circleBackgroundColor, circleStrokeColor,
+                DECODE_MODE_POOLED);
+    }
+
+    /**
+     * Creates a new Uri-based image request decoded in the given mode, one of the
+     * ImageRequestDescriptor.DECODE_MODE_* constants.
+     */
+    public UriImageRequestDescriptor(final Uri uri, final int desiredWidth,
+            final int desiredHeight, final int sourceWidth, final int sourceHeight,
+            final boolean allowCompression, final boolean isStatic, final boolean cropToCircle,
+            final int circleBackgroundColor, int circleStrokeColor, final int decodeMode) {
         super(desiredWidth, desiredHeight, sourceWidth, sourceHeight, isStatic,
                 cropToCircle, circleBackgroundColor, circleStrokeColor);
         this.uri = uri;
         this.allowCompression = allowCompression;
+        mDecodeMode = decodeMode;
     }
 
     @Override
@@ -79,6 +94,11 @@ public class UriImageRequestDescriptor extends ImageRequestDescriptor {
         return null;
     }
 
+    @Override
+    public int getDecodeMode() {
+        return mDecodeMode;
+    }
+
     @Override
     public MediaRequest<ImageResource> buildSyncMediaRequest(final Context context) {
         if (uri == null || UriUtil.isLocalUri(uri)) {
@@ -43,8 +43,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Requests and parses VCard data. In Bugle, we need to display VCard details in the conversation
@@ -57,20 +55,19 @@ import java.util.concurrent.TimeUnit;
  * Some particular attention is needed for the avatar icon. If the VCard contains avatar icon,
  * it's in byte array form that can't easily be cached/persisted. Therefore, we persist the
  * image bytes to the scratch directory and generate a content Uri for it, so that ContactIconView
- * may use this Uri to display and cache the image if needed.
+ * may use this Uri to display and cache the image if needed. This is done once the whole VCard is
+ * parsed, after which the entries no longer hold the image bytes.
  */
 public class VCardRequest implements MediaRequest<VCardResource> {
     private final Context mContext;
     private final VCardRequestDescriptor mDescriptor;
-    private final List<VCardResourceEntry> mLoadedVCards;
-    private VCardResource mLoadedResource;
-    private static final int VCARD_LOADING_TIMEOUT_MILLIS = 10000;  // 10s
+    private final List<CustomVCardEntry> mParsedEntries;
     private static final String DEFAULT_VCARD_TYPE = "default";
 
     VCardRequest(final Context context, final VCardRequestDescriptor descriptor) {
         mDescriptor = descriptor;
         mContext = context;
-        mLoadedVCards = new ArrayList<VCardResourceEntry>();
+        mParsedEntries = new ArrayList<CustomVCardEntry>();
     }
 
     @Override
@@ -83,23 +80,24 @@ public class VCardRequest implements MediaRequest<VCardResource> {
     public VCardResource loadMediaBlocking(List<MediaRequest<VCardResource>> chainedTask)
             throws Exception {
         Assert.isNotMainThread();
-        Assert.isTrue(mLoadedResource == null);
-        Assert.equals(0, mLoadedVCards.size());
+        Assert.equals(0, mParsedEntries.size());
 
-        // The VCard library doesn't support synchronously loading the media resource. Therefore,
-        // We have to burn the thread waiting for the result to come back.
-        final CountDownLatch signal = new CountDownLatch(1);
-        if (!parseVCard(mDescriptor.vCardUri, signal)) {
-            // Directly fail without actually going through the interpreter, return immediately.
+        // The parser calls back the entry handler on this thread and has created all the entries
+        // by the time it returns.
+        if (!parseVCard(mDescriptor.vCardUri)) {
             throw new VCardException("Invalid vcard");
         }
+        if (mParsedEntries.isEmpty()) {
+            throw new VCardException("No entry in vcard");
+        }
 
-        signal.await(VCARD_LOADING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
-        if (mLoadedResource == null) {
-            // Maybe null if failed or timeout.
-            throw new VCardException("Failure or timeout loading vcard");
+        final List<VCardResourceEntry> vcards =
+                new ArrayList<VCardResourceEntry>(mParsedEntries.size());
+        for (final CustomVCardEntry entry : mParsedEntries) {
+            vcards.add(new VCardResourceEntry(entry, getAvatarUri(entry)));
         }
-        return mLoadedResource;
+        mParsedEntries.clear();
+        return new VCardResource(getKey(), vcards);
     }
 
     @Override
@@ -115,7 +113,7 @@ public class VCardRequest implements MediaRequest<VCardResource> {
     }
 
     @DoesNotRunOnMainThread
-    private boolean parseVCard(final Uri targetUri, final CountDownLatch signal) {
+    private boolean parseVCard(final Uri targetUri) {
         Assert.isNotMainThread();
         final VCardEntryCounter counter = new VCardEntryCounter();
         final VCardSourceDetector detector = new VCardSourceDetector();
@@ -144,13 +142,12 @@ public class VCardRequest implements MediaRequest<VCardResource> {
             return false;
         }
 
-        return doActuallyReadOneVCard(targetUri, true, detector, null, signal);
+        return doActuallyReadOneVCard(targetUri, true, detector, null);
     }
 
     @DoesNotRunOnMainThread
     private boolean doActuallyReadOneVCard(final Uri uri, final boolean showEntryParseProgress,
-            final VCardSourceDetector detector, final List<String> errorFileNameList,
-            final CountDownLatch signal) {
+            final VCardSourceDetector detector, final List<String> errorFileNameList) {
         Assert.isNotMainThread();
         int vcardType = detector.getEstimatedType();
         if (vcardType == VCardConfig.VCARD_TYPE_UNKNOWN) {
@@ -158,7 +155,7 @@ public class VCardRequest implements MediaRequest<VCardResource> {
         }
         final CustomVCardEntryConstructor builder =
                 new CustomVCardEntryConstructor(vcardType, null);
-        builder.addEntryHandler(new ContactVCardEntryHandler(signal));
+        builder.addEntryHandler(new ContactVCardEntryHandler());
 
         try {
             if (!readOneVCardFile(uri, vcardType, builder, false, null)) {
@@ -240,79 +237,64 @@ public class VCardRequest implements MediaRequest<VCardResource> {
         return true;
     }
 
-    class ContactVCardEntryHandler implements CustomVCardEntryConstructor.EntryHandler {
-        final CountDownLatch mSignal;
+    /**
+     * @return the Uri of the first photo of the entry persisted to the scratch space, or of an
+     *     avatar generated from its name and first destination if it has no photo
+     */
+    @DoesNotRunOnMainThread
+    private static Uri getAvatarUri(final CustomVCardEntry entry) {
+        Assert.isNotMainThread();
+        final byte[] photoBytes = entry.takePhotoBytes();
+        if (photoBytes != null) {
+            // The photo data is in bytes form, so we need to persist it in our temp directory
+            // so that ContactIconView can load it and display it later
+            // (and cache it, of course).
+            final InputStream inputStream = new ByteArrayInputStream(photoBytes);
+            try {
+                final Uri avatarUri = UriUtil.persistContentToScratchSpace(inputStream);
+                if (avatarUri != null) {
+                    return avatarUri;
+                }
+            } finally {
+                try {
+                    inputStream.close();
+                } catch (final IOException e) {
+                    // Do nothing.
+                }
+            }
+        }
 
-        public ContactVCardEntryHandler(final CountDownLatch signal) {
-            mSignal = signal;
+        // Fall back to generated avatar.
+        String destination = null;
+        final List<VCardEntry.PhoneData> phones = entry.getPhoneList();
+        if (phones != null && phones.size() > 0) {
+            destination = PhoneUtils.getDefault().getCanonicalBySystemLocale(
+                    phones.get(0).getNumber());
         }
 
+        if (destination == null) {
+            final List<VCardEntry.EmailData> emails = entry.getEmailList();
+            if (emails != null && emails.size() > 0) {
+                destination = emails.get(0).getAddress();
+            }
+        }
+        return AvatarUriUtil.createAvatarUri(null, entry.getDisplayName(), destination, null);
+    }
+
+    class ContactVCardEntryHandler implements CustomVCardEntryConstructor.EntryHandler {
         @Override
         public void onStart() {
+            // Drop the entries of an attempt with the wrong vCard version
+            mParsedEntries.clear();
         }
 
         @Override
-        @DoesNotRunOnMainThread
         public void onEntryCreated(final CustomVCardEntry entry) {
-            Assert.isNotMainThread();
-            final String displayName = entry.getDisplayName();
-            final List<VCardEntry.PhotoData> photos = entry.getPhotoList();
-            Uri avatarUri = null;
-            if (photos != null && photos.size() > 0) {
-                // The photo data is in bytes form, so we need to persist it in our temp directory
-                // so that ContactIconView can load it and display it later
-                // (and cache it, of course).
-                for (final VCardEntry.PhotoData photo : photos) {
-                    final byte[] photoBytes = photo.getBytes();
-                    if (photoBytes != null) {
-                        final InputStream inputStream = new ByteArrayInputStream(photoBytes);
-                        try {
-                            avatarUri = UriUtil.persistContentToScratchSpace(inputStream);
-                            if (avatarUri != null) {
-                                // Just load the first avatar and be done. Want more? wait for V2.
-                                break;
-                            }
-                        } finally {
-                            try {
-                                inputStream.close();
-                            } catch (final IOException e) {
-                                // Do nothing.
-                            }
-                        }
-                    }
-                }
-            }
-
-            // Fall back to generated avatar.
-            if (avatarUri == null) {
-                String destination = null;
-                final List<VCardEntry.PhoneData> phones = entry.getPhoneList();
-                if (phones != null && phones.size() > 0) {
-                    destination = PhoneUtils.getDefault().getCanonicalBySystemLocale(
-                            phones.get(0).getNumber());
-                }
-
-                if (destination == null) {
-                    final List<VCardEntry.EmailData> emails = entry.getEmailList();
-                    if (emails != null && emails.size() > 0) {
-                        destination = emails.get(0).getAddress();
-                    }
-                }
-                avatarUri = AvatarUriUtil.createAvatarUri(null, displayName, destination, null);
-            }
-
-            // Add the loaded vcard to the list.
-            mLoadedVCards.add(new VCardResourceEntry(entry, avatarUri));
+            mParsedEntries.add(entry);
         }
 
         @Override
         public void onEnd() {
-            // Finished loading all vCard entries, signal the loading thread to proceed with the
-            // result.
-            if (mLoadedVCards.size() > 0) {
-                mLoadedResource = new VCardResource(getKey(), mLoadedVCards);
-            }
-            mSignal.countDown();
         }
     }
 
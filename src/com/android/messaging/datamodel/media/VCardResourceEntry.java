@@ -94,6 +94,13 @@ public class VCardResourceEntry {
         return mDisplayName;
     }
 
+    /**
+     * @return the estimated memory used by the entry in bytes
+     */
+    int getEstimatedSize() {
+        return mVCard.getEstimatedSize();
+    }
+
     public String getDisplayAddress() {
         List<PostalData> postalList = mVCard.getPostalList();
         if (postalList == null || postalList.size() < 1) {
@@ -53,6 +53,14 @@ public class VideoThumbnailRequest extends ImageRequest<UriImageRequestDescripto
 
     @Override
     protected Bitmap getBitmapForResource() throws IOException {
+        // Extracting a frame is slow, so reuse the one stored when this video was last loaded
+        final VideoThumbnailStore store = VideoThumbnailStore.get();
+        final VideoThumbnailStore.Thumbnail thumbnail = store.getThumbnail(mDescriptor.uri);
+        if (thumbnail != null) {
+            mDescriptor.updateSourceDimensions(thumbnail.sourceWidth, thumbnail.sourceHeight);
+            return thumbnail.bitmap;
+        }
+
         Bitmap bitmap = null;
         // Get a thumbnail through MediaMetadataRetriever to get a representative frame at any time
         // position instead.
@@ -65,6 +73,7 @@ public class VideoThumbnailRequest extends ImageRequest<UriImageRequestDescripto
         }
         if (bitmap != null) {
             mDescriptor.updateSourceDimensions(bitmap.getWidth(), bitmap.getHeight());
+            store.putThumbnail(mDescriptor.uri, bitmap);
         }
         return bitmap;
     }
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.android.messaging.Factory;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.OsUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the frames extracted for video thumbnails in the cache directory, so that loading the
+ * thumbnail of a video again after it was evicted from the memory cache only decodes a small JPEG
+ * instead of extracting a frame from the video.
+ *
+ * Each thumbnail is stored in a file named after its video uri, along with the size and
+ * modification time the video had, so that a thumbnail is only used while the video is
+ * unchanged, and the size of the frame it was made from, which thumbnails may be scaled down from.
+ */
+public class VideoThumbnailStore {
+    private static final String TAG = LogUtil.BUGLE_IMAGE_TAG;
+
+    private static final String THUMBNAIL_DIR = "video_thumbnails";
+    private static final String THUMBNAIL_EXTENSION = ".thumb";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int HEADER_MAGIC = 0x56544831;
+    private static final int MAX_THUMBNAIL_DIMENSION = 1024;
+    private static final int JPEG_QUALITY = 85;
+    private static final int MAX_THUMBNAIL_COUNT = 100;
+
+    private static VideoThumbnailStore sInstance;
+
+    /**
+     * A stored thumbnail and the size of the video frame it was made from.
+     */
+    public static class Thumbnail {
+        public final Bitmap bitmap;
+        public final int sourceWidth;
+        public final int sourceHeight;
+
+        Thumbnail(final Bitmap bitmap, final int sourceWidth, final int sourceHeight) {
+            this.bitmap = bitmap;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+        }
+    }
+
+    private final Context mContext;
+    private final File mDirectory;
+    // Guards writing, deleting and trimming thumbnail files
+    private final Object mLock = new Object();
+
+    public static synchronized VideoThumbnailStore get() {
+        if (sInstance == null) {
+            final Context context = Factory.get().getApplicationContext();
+            sInstance = new VideoThumbnailStore(context,
+                    new File(context.getCacheDir(), THUMBNAIL_DIR));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    VideoThumbnailStore(final Context context, final File directory) {
+        mContext = context;
+        mDirectory = directory;
+    }
+
+    /**
+     * @return the stored thumbnail of the video, or null if there is none or the video changed
+     *     since it was stored
+     */
+    @DoesNotRunOnMainThread
+    public Thumbnail getThumbnail(final Uri videoUri) {
+        final long[] fingerprint = getFingerprint(videoUri);
+        if (fingerprint == null) {
+            return null;
+        }
+        final File file = getFile(videoUri);
+        if (!file.exists()) {
+            return null;
+        }
+        try (final DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (inputStream.readInt() != HEADER_MAGIC
+                    || inputStream.readLong() != fingerprint[0]
+                    || inputStream.readLong() != fingerprint[1]) {
+                // The video changed, or the file is from another version
+                removeThumbnail(videoUri);
+                return null;
+            }
+            final int sourceWidth = inputStream.readInt();
+            final int sourceHeight = inputStream.readInt();
+            final Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
+            if (bitmap == null) {
+                return null;
+            }
+            // Keep recently used thumbnails when trimming
+            file.setLastModified(System.currentTimeMillis());
+            return new Thumbnail(bitmap, sourceWidth, sourceHeight);
+        } catch (final IOException e) {
+            LogUtil.w(TAG, "VideoThumbnailStore: could not read thumbnail of " + videoUri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the frame extracted for the thumbnail of the video, scaled down if large.
+     */
+    @DoesNotRunOnMainThread
+    public void putThumbnail(final Uri videoUri, final Bitmap frame) {
+        final long[] fingerprint = getFingerprint(videoUri);
+        if (fingerprint == null) {
+            return;
+        }
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final float scale =
+                Math.min(1.0f, (float) MAX_THUMBNAIL_DIMENSION / Math.max(width, height));
+        final Bitmap thumbnail = scale < 1.0f
+                ? Bitmap.createScaledBitmap(frame, Math.max(1, Math.round(width * scale)),
+                        Math.max(1, Math.round(height * scale)), true /* filter */)
+                : frame;
+        try {
+            synchronized (mLock) {
+                if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+                    return;
+                }
+                final File file = getFile(videoUri);
+                final File tempFile = new File(mDirectory, file.getName() + TEMP_EXTENSION);
+                try (final DataOutputStream outputStream = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                    outputStream.writeInt(HEADER_MAGIC);
+                    outputStream.writeLong(fingerprint[0]);
+                    outputStream.writeLong(fingerprint[1]);
+                    outputStream.writeInt(width);
+                    outputStream.writeInt(height);
+                    thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream);
+                } catch (final IOException e) {
+                    LogUtil.w(TAG, "VideoThumbnailStore: could not store thumbnail of "
+                            + videoUri, e);
+                    tempFile.delete();
+                    return;
+                }
+                if (!tempFile.renameTo(file)) {
+                    tempFile.delete();
+                    return;
+                }
+                trim();
+            }
+        } finally {
+            if (thumbnail != frame) {
+                thumbnail.recycle();
+            }
+        }
+    }
+
+    /**
+     * Deletes the stored thumbnail of the video, if any.
+     */
+    @DoesNotRunOnMainThread
+    public void removeThumbnail(final Uri videoUri) {
+        synchronized (mLock) {
+            getFile(videoUri).delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails beyond the maximum count.
+     */
+    private void trim() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_THUMBNAIL_COUNT) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                return Long.compare(rhs.lastModified(), lhs.lastModified());
+            }
+        });
+        for (int i = MAX_THUMBNAIL_COUNT; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File getFile(final Uri videoUri) {
+        return new File(mDirectory, Hashing.sha1().hashString(videoUri.toString(),
+                StandardCharsets.UTF_8).toString() + THUMBNAIL_EXTENSION);
+    }
+
+    /**
+     * @return the size and modification time of the video, or null if they can't be known, in
+     *     which case its thumbnail is not stored. The modification time is 0 before L.
+     */
+    private long[] getFingerprint(final Uri videoUri) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = mContext.getContentResolver().openFileDescriptor(videoUri, "r");
+            if (descriptor == null || descriptor.getStatSize() < 0) {
+                return null;
+            }
+            long modified = 0;
+            if (OsUtil.isAtLeastL()) {
+                try {
+                    modified = Os.fstat(descriptor.getFileDescriptor()).st_mtime;
+                } catch (final ErrnoException e) {
+                    return null;
+                }
+            }
+            return new long[] { descriptor.getStatSize(), modified };
+        } catch (final FileNotFoundException | SecurityException e) {
+            return null;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (final IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+}
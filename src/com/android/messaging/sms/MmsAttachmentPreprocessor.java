@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Process;
+import android.util.LruCache;
+
+import com.android.messaging.datamodel.MemoryCacheManager;
+import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.Assert.RunsOnAnyThread;
+import com.android.messaging.util.ImageUtils.ImageResizer;
+import com.android.messaging.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shrinks the images of outgoing MMS to fit the message, on a small pool of threads so that the
+ * images of a message are processed in parallel, and keeps the results keyed by source uri and
+ * limits. The images of a draft are started on a separate background pool as soon as they are
+ * attached, so that by the time the message is sent the work is usually done, and resending a
+ * message reuses it.
+ */
+class MmsAttachmentPreprocessor implements MemoryCache {
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    private static final int MAX_THREADS =
+            Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final int MAX_CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+
+    private static MmsAttachmentPreprocessor sInstance;
+
+    /**
+     * The source image and the limits it has to be shrunk to.
+     */
+    static class ResizeRequest {
+        final Uri mImageUri;
+        final String mContentType;
+        final int mWidth;
+        final int mHeight;
+        final int mOrientation;
+        final int mWidthLimit;
+        final int mHeightLimit;
+        final int mByteLimit;
+        final String mKey;
+
+        ResizeRequest(final Uri imageUri, final String contentType, final int width,
+                final int height, final int orientation, final int widthLimit,
+                final int heightLimit, final int byteLimit) {
+            mImageUri = imageUri;
+            mContentType = contentType;
+            mWidth = width;
+            mHeight = height;
+            mOrientation = orientation;
+            mWidthLimit = widthLimit;
+            mHeightLimit = heightLimit;
+            mByteLimit = byteLimit;
+            mKey = imageUri + "|" + contentType + "|" + width + "x" + height + "|" + orientation
+                    + "|" + widthLimit + "x" + heightLimit + "|" + byteLimit;
+        }
+    }
+
+    /**
+     * Shrinks one image.
+     */
+    @VisibleForTesting
+    interface Resizer {
+        /**
+         * @param cancellationSignal cancelled when the image is no longer needed
+         * @return the encoded image, or null if it could not be shrunk or was cancelled
+         */
+        byte[] resize(Context context, ResizeRequest request,
+                CancellationSignal cancellationSignal);
+    }
+
+    /**
+     * Shrinks images with ImageResizer, which stops transcoding a GIF half way when cancelled.
+     */
+    @VisibleForTesting
+    static final Resizer IMAGE_RESIZER = new Resizer() {
+        @Override
+        public byte[] resize(final Context context, final ResizeRequest request,
+                final CancellationSignal cancellationSignal) {
+            return ImageResizer.getResizedImageData(request.mWidth, request.mHeight,
+                    request.mOrientation, request.mWidthLimit, request.mHeightLimit,
+                    request.mByteLimit, request.mImageUri, context, request.mContentType,
+                    cancellationSignal);
+        }
+    };
+
+    private final Resizer mResizer;
+    // Runs the resizes of messages being sent
+    private final ThreadPoolExecutor mSendExecutor;
+    // Runs the resizes started ahead of sending, which must not hold up those of a send
+    private final ThreadPoolExecutor mSpeculativeExecutor;
+    private final Object mLock = new Object();
+    private final HashMap<String, FutureTask<byte[]>> mPendingResizes =
+            new HashMap<String, FutureTask<byte[]>>();
+    // Keys of the pending resizes started ahead of sending which no message being sent needs yet
+    private HashSet<String> mSpeculativeKeys = new HashSet<String>();
+    private int mSpeculativeGeneration;
+    private final LruCache<String, byte[]> mResults =
+            new LruCache<String, byte[]>(MAX_CACHE_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(final String key, final byte[] data) {
+            return data.length;
+        }
+    };
+
+    static synchronized MmsAttachmentPreprocessor get() {
+        if (sInstance == null) {
+            sInstance = new MmsAttachmentPreprocessor(IMAGE_RESIZER);
+            final MemoryCacheManager memoryCacheManager = MemoryCacheManager.get();
+            if (memoryCacheManager != null) {
+                memoryCacheManager.registerMemoryCache(sInstance);
+            }
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    MmsAttachmentPreprocessor(final Resizer resizer) {
+        mResizer = resizer;
+        mSendExecutor = newExecutor("MmsAttachmentPreprocessor #",
+                Process.THREAD_PRIORITY_DEFAULT);
+        mSpeculativeExecutor = newExecutor("MmsAttachmentPreprocessor speculative #",
+                Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    private static ThreadPoolExecutor newExecutor(final String threadName,
+            final int threadPriority) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(threadPriority);
+                                runnable.run();
+                            }
+                        }, threadName + mCount.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts shrinking the image of a message being sent, unless it is already done or under way.
+     * If it was queued ahead of sending, it is moved off the background queue.
+     */
+    @RunsOnAnyThread
+    void start(final Context context, final ResizeRequest request) {
+        synchronized (mLock) {
+            if (mResults.get(request.mKey) != null) {
+                return;
+            }
+            FutureTask<byte[]> resize = mPendingResizes.get(request.mKey);
+            if (resize != null) {
+                mSpeculativeKeys.remove(request.mKey);
+                if (mSpeculativeExecutor.remove(resize)) {
+                    mSendExecutor.execute(resize);
+                }
+                return;
+            }
+            resize = newResize(context, request);
+            mPendingResizes.put(request.mKey, resize);
+            mSendExecutor.execute(resize);
+        }
+    }
+
+    /**
+     * @return the generation to pass to startSpeculative, which supersedes all previous ones
+     */
+    @RunsOnAnyThread
+    int newSpeculativeGeneration() {
+        synchronized (mLock) {
+            return ++mSpeculativeGeneration;
+        }
+    }
+
+    /**
+     * Starts shrinking the images of a draft in the background ahead of sending it, and cancels
+     * the resizes started for images the draft no longer has.
+     *
+     * @param generation from newSpeculativeGeneration, the call is ignored if a newer one was
+     *        taken meanwhile
+     * @param requests all the images of the draft which need shrinking
+     */
+    @RunsOnAnyThread
+    void startSpeculative(final Context context, final int generation,
+            final List<ResizeRequest> requests) {
+        synchronized (mLock) {
+            if (generation != mSpeculativeGeneration) {
+                return;
+            }
+            final HashSet<String> speculativeKeys = new HashSet<String>(requests.size());
+            for (final ResizeRequest request : requests) {
+                if (mResults.get(request.mKey) != null) {
+                    continue;
+                }
+                if (!mPendingResizes.containsKey(request.mKey)) {
+                    final FutureTask<byte[]> resize = newResize(context, request);
+                    mPendingResizes.put(request.mKey, resize);
+                    mSpeculativeExecutor.execute(resize);
+                    speculativeKeys.add(request.mKey);
+                } else if (mSpeculativeKeys.contains(request.mKey)) {
+                    speculativeKeys.add(request.mKey);
+                }
+            }
+            for (final String key : mSpeculativeKeys) {
+                if (!speculativeKeys.contains(key)) {
+                    final FutureTask<byte[]> resize = mPendingResizes.remove(key);
+                    if (resize != null) {
+                        mSpeculativeExecutor.remove(resize);
+                        resize.cancel(false /* mayInterruptIfRunning */);
+                    }
+                }
+            }
+            mSpeculativeKeys = speculativeKeys;
+        }
+    }
+
+    /**
+     * Keeps the resizes started ahead of sending a draft which is now being sent, so that changes
+     * made to the draft afterwards do not cancel them.
+     */
+    @RunsOnAnyThread
+    void keepSpeculative() {
+        synchronized (mLock) {
+            mSpeculativeGeneration++;
+            mSpeculativeKeys = new HashSet<String>();
+        }
+    }
+
+    /**
+     * Returns the shrunk image, waiting for it if it is under way and shrinking it on the calling
+     * thread if it was never started or is still queued in the background.
+     *
+     * @return the encoded image, or null if it could not be shrunk
+     */
+    @DoesNotRunOnMainThread
+    byte[] getResizedImageData(final Context context, final ResizeRequest request) {
+        FutureTask<byte[]> resize;
+        boolean resizeHere = false;
+        synchronized (mLock) {
+            final byte[] data = mResults.get(request.mKey);
+            if (data != null) {
+                return data;
+            }
+            resize = mPendingResizes.get(request.mKey);
+            if (resize == null) {
+                resize = newResize(context, request);
+                mPendingResizes.put(request.mKey, resize);
+                resizeHere = true;
+            } else {
+                mSpeculativeKeys.remove(request.mKey);
+                resizeHere = mSpeculativeExecutor.remove(resize);
+            }
+        }
+        if (resizeHere) {
+            resize.run();
+        }
+        try {
+            return resize.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException e) {
+            LogUtil.e(TAG, "MmsAttachmentPreprocessor: failed to resize " + request.mImageUri,
+                    e.getCause());
+            return null;
+        }
+    }
+
+    private FutureTask<byte[]> newResize(final Context context, final ResizeRequest request) {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        return new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return mResizer.resize(context, request, cancellationSignal);
+            }
+        }) {
+            @Override
+            public boolean cancel(final boolean mayInterruptIfRunning) {
+                // Also stops a resize under way, which would otherwise run to completion
+                cancellationSignal.cancel();
+                return super.cancel(mayInterruptIfRunning);
+            }
+
+            @Override
+            protected void done() {
+                byte[] data = null;
+                if (!isCancelled()) {
+                    try {
+                        data = get();
+                    } catch (final InterruptedException | ExecutionException e) {
+                        // Reported to whoever waits for the image
+                    }
+                }
+                synchronized (mLock) {
+                    // Unless cancelled, in which case a new resize may have taken its place
+                    if (mPendingResizes.get(request.mKey) == this) {
+                        mPendingResizes.remove(request.mKey);
+                        mSpeculativeKeys.remove(request.mKey);
+                    }
+                    if (data != null) {
+                        mResults.put(request.mKey, data);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public void reclaim() {
+        mResults.evictAll();
+    }
+}
@@ -40,6 +40,8 @@ import android.text.TextUtils;
 import android.text.util.Rfc822Token;
 import android.text.util.Rfc822Tokenizer;
 
+import androidx.collection.SimpleArrayMap;
+
 import com.android.messaging.Factory;
 import com.android.messaging.R;
 import com.android.messaging.datamodel.MediaScratchFileProvider;
@@ -73,11 +75,11 @@ import com.android.messaging.util.ContentType;
 import com.android.messaging.util.DebugUtils;
 import com.android.messaging.util.EmailAddress;
 import com.android.messaging.util.ImageUtils;
-import com.android.messaging.util.ImageUtils.ImageResizer;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.MediaMetadataRetrieverWrapper;
 import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.SafeAsyncTask;
 import com.google.common.base.Joiner;
 
 import java.io.BufferedOutputStream;
@@ -89,6 +91,7 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
@@ -291,15 +294,68 @@ public class MmsUtils {
     public static final int MIN_IMAGE_BYTE_SIZE = 16 * 1024;
     public static final int MAX_VIDEO_ATTACHMENT_COUNT = 1;
 
-    public static MmsInfo makePduBody(final Context context, final MessageData message,
+    /**
+     * Starts shrinking the images of a draft in the background the way makePduBody would for
+     * sending it, so that sending it does not have to wait for them. Images shrunk for a previous
+     * state of the draft that it no longer needs are cancelled.
+     *
+     * @param attachments the attachments of the draft
+     */
+    public static void preprocessAttachments(final List<MessagePartData> attachments,
             final int subId) {
-        final PduBody pb = new PduBody();
+        final Context context = Factory.get().getApplicationContext();
+        final MmsAttachmentPreprocessor preprocessor = MmsAttachmentPreprocessor.get();
+        final int generation = preprocessor.newSpeculativeGeneration();
+        if (attachments.isEmpty()) {
+            preprocessor.startSpeculative(context, generation,
+                    Collections.<MmsAttachmentPreprocessor.ResizeRequest>emptyList());
+            return;
+        }
+        final ArrayList<MessagePartData> parts = new ArrayList<MessagePartData>(attachments);
+        SafeAsyncTask.executeOnThreadPool(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final SimpleArrayMap<MessagePartData, PicturePlan> plans =
+                            planPictures(context, parts, subId, false /* startResizes */);
+                    final ArrayList<MmsAttachmentPreprocessor.ResizeRequest> requests =
+                            new ArrayList<MmsAttachmentPreprocessor.ResizeRequest>(plans.size());
+                    for (int i = 0; i < plans.size(); i++) {
+                        if (plans.valueAt(i).mResizeRequest != null) {
+                            requests.add(plans.valueAt(i).mResizeRequest);
+                        }
+                    }
+                    preprocessor.startSpeculative(context, generation, requests);
+                } catch (final RuntimeException e) {
+                    // Only speculative, the images are shrunk again when sending if need be
+                    LogUtil.w(TAG, "Failed to preprocess draft attachments", e);
+                }
+            }
+        });
+    }
 
+    /**
+     * Keeps the images shrunk in the background for a draft which is being sent, so that later
+     * changes to the draft do not cancel them.
+     */
+    public static void keepPreprocessedAttachments() {
+        MmsAttachmentPreprocessor.get().keepSpeculative();
+    }
+
+    /**
+     * Works out how each image of a message has to be fitted into it.
+     *
+     * @param startResizes whether to start shrinking the images which need it, in parallel
+     * @return the plans of the image parts
+     */
+    private static SimpleArrayMap<MessagePartData, PicturePlan> planPictures(
+            final Context context, final Iterable<MessagePartData> parts, final int subId,
+            final boolean startResizes) {
         // Compute data size requirements for this message: count up images and total size of
         // non-image attachments.
         int totalLength = 0;
         int countImage = 0;
-        for (final MessagePartData part : message.getParts()) {
+        for (final MessagePartData part : parts) {
             if (part.isAttachment()) {
                 final String contentType = part.getContentType();
                 if (ContentType.isImageType(contentType)) {
@@ -320,9 +376,32 @@ public class MmsUtils {
         final int widthLimit = MmsConfig.get(subId).getMaxImageWidth();
         final int heightLimit = MmsConfig.get(subId).getMaxImageHeight();
 
+        final SimpleArrayMap<MessagePartData, PicturePlan> plans =
+                new SimpleArrayMap<MessagePartData, PicturePlan>(countImage);
+        for (final MessagePartData part : parts) {
+            if (part.isAttachment() && ContentType.isImageType(part.getContentType())) {
+                final PicturePlan plan = planPicture(context, part, widthLimit, heightLimit,
+                        bytesPerImage);
+                if (startResizes && plan.mResizeRequest != null) {
+                    MmsAttachmentPreprocessor.get().start(context, plan.mResizeRequest);
+                }
+                plans.put(part, plan);
+            }
+        }
+        return plans;
+    }
+
+    public static MmsInfo makePduBody(final Context context, final MessageData message,
+            final int subId) {
+        final PduBody pb = new PduBody();
+
+        // Work out how to fit each image, and start shrinking the ones that need it in parallel
+        final SimpleArrayMap<MessagePartData, PicturePlan> picturePlans =
+                planPictures(context, message.getParts(), subId, true /* startResizes */);
+
         // Actually add the attachments, shrinking images appropriately.
         int index = 0;
-        totalLength = 0;
+        int totalLength = 0;
         boolean hasVisualAttachment = false;
         boolean hasNonVisualAttachment = false;
         boolean hasText = false;
@@ -333,20 +412,15 @@ public class MmsUtils {
                 String contentType = part.getContentType();
                 final String extension = ContentType.getExtensionFromMimeType(contentType);
                 if (ContentType.isImageType(contentType)) {
+                    final PicturePlan plan = picturePlans.get(part);
                     if (extension != null) {
                         srcName = String.format("image%06d.%s", index, extension);
                     } else {
-                        // There's a good chance that if we selected the image from our media picker
-                        // the content type is image/*. Fix the content type here for gifs so that
-                        // we only need to open the input stream once. All other gif vs static image
-                        // checks will only have to do a string comparison which is much cheaper.
-                        final boolean isGif = ImageUtils.isGif(contentType, part.getContentUri());
-                        contentType = isGif ? ContentType.IMAGE_GIF : contentType;
+                        final boolean isGif = ContentType.IMAGE_GIF.equals(plan.mContentType);
                         srcName = String.format(isGif ? "image%06d.gif" : "image%06d.jpg", index);
                     }
                     smilBody.append(String.format(sSmilImagePart, srcName));
-                    totalLength += addPicturePart(context, pb, index, part,
-                            widthLimit, heightLimit, bytesPerImage, srcName, contentType);
+                    totalLength += addPicturePart(context, pb, index, plan, srcName);
                     hasVisualAttachment = true;
                 } else if (ContentType.isVideoType(contentType)) {
                     srcName = String.format("video%06d.%s", index,
@@ -451,12 +525,36 @@ public class MmsUtils {
         return part.getData().length;
     }
 
-    private static int addPicturePart(final Context context, final PduBody pb, final int index,
+    /**
+     * How one image is fitted into a message.
+     */
+    private static class PicturePlan {
+        Uri mImageUri;
+        String mContentType;
+        int mImageSize;
+        // Null if the image is already within the limits
+        MmsAttachmentPreprocessor.ResizeRequest mResizeRequest;
+    }
+
+    private static PicturePlan planPicture(final Context context,
             final MessagePartData messagePart, int widthLimit, int heightLimit,
-            final int maxPartSize, final String srcName, final String contentType) {
+            final int maxPartSize) {
         final Uri imageUri = messagePart.getContentUri();
         final int width = messagePart.getWidth();
         final int height = messagePart.getHeight();
+        final PicturePlan plan = new PicturePlan();
+        plan.mImageUri = imageUri;
+
+        String contentType = messagePart.getContentType();
+        if (ContentType.getExtensionFromMimeType(contentType) == null) {
+            // There's a good chance that if we selected the image from our media picker
+            // the content type is image/*. Fix the content type here for gifs so that
+            // we only need to open the input stream once. All other gif vs static image
+            // checks will only have to do a string comparison which is much cheaper.
+            final boolean isGif = ImageUtils.isGif(contentType, imageUri);
+            contentType = isGif ? ContentType.IMAGE_GIF : contentType;
+        }
+        plan.mContentType = contentType;
 
         // Swap the width and height limits to match the orientation of the image so we scale the
         // picture as little as possible.
@@ -467,30 +565,47 @@ public class MmsUtils {
         }
 
         final int orientation = ImageUtils.getOrientation(context, imageUri);
-        int imageSize = getDataLength(context, imageUri);
-        if (imageSize <= 0) {
-            LogUtil.e(TAG, "Can't get image", new Exception());
-            return 0;
+        plan.mImageSize = getDataLength(context, imageUri);
+        if (plan.mImageSize <= 0) {
+            return plan;
         }
 
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "addPicturePart size: " + imageSize + " width: "
+            LogUtil.v(TAG, "planPicture size: " + plan.mImageSize + " width: "
                     + width + " widthLimit: " + widthLimit
                     + " height: " + height
                     + " heightLimit: " + heightLimit);
         }
 
-        PduPart part;
         // Check if we're already within the limits - in which case we don't need to resize.
         // The size can be zero here, even when the media has content. See the comment in
         // MediaModel.initMediaSize. Sometimes it'll compute zero and it's costly to read the
         // whole stream to compute the size. When we call getResizedImageAsPart(), we'll correctly
         // set the size.
-        if (imageSize <= maxPartSize &&
+        if (!(plan.mImageSize <= maxPartSize &&
                 width <= widthLimit &&
                 height <= heightLimit &&
                 (orientation == android.media.ExifInterface.ORIENTATION_UNDEFINED ||
-                orientation == android.media.ExifInterface.ORIENTATION_NORMAL)) {
+                orientation == android.media.ExifInterface.ORIENTATION_NORMAL))) {
+            plan.mResizeRequest = new MmsAttachmentPreprocessor.ResizeRequest(imageUri,
+                    contentType, width, height, orientation, widthLimit, heightLimit,
+                    maxPartSize);
+        }
+        return plan;
+    }
+
+    private static int addPicturePart(final Context context, final PduBody pb, final int index,
+            final PicturePlan plan, final String srcName) {
+        final Uri imageUri = plan.mImageUri;
+        final String contentType = plan.mContentType;
+        int imageSize = plan.mImageSize;
+        if (imageSize <= 0) {
+            LogUtil.e(TAG, "Can't get image", new Exception());
+            return 0;
+        }
+
+        PduPart part;
+        if (plan.mResizeRequest == null) {
             if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                 LogUtil.v(TAG, "addPicturePart - already sized");
             }
@@ -498,8 +613,7 @@ public class MmsUtils {
             part.setDataUri(imageUri);
             part.setContentType(contentType.getBytes());
         } else {
-            part = getResizedImageAsPart(widthLimit, heightLimit, maxPartSize,
-                    width, height, orientation, imageUri, context, contentType);
+            part = getResizedImageAsPart(plan.mResizeRequest, context);
             if (part == null) {
                 final OutOfMemoryError e = new OutOfMemoryError();
                 LogUtil.e(TAG, "Can't resize image: not enough memory?", e);
@@ -656,24 +770,20 @@ public class MmsUtils {
      * that the content type of the resulting PduPart may not be the same as the content type of
      * this UriImage; always call {@link PduPart#getContentType()} to get the new content type.
      *
-     * @param widthLimit The width limit, in pixels
-     * @param heightLimit The height limit, in pixels
-     * @param byteLimit The binary size limit, in bytes
-     * @param width The image width, in pixels
-     * @param height The image height, in pixels
-     * @param orientation Orientation constant from ExifInterface for rotating or flipping the
-     *                    image
-     * @param imageUri Uri to the image data
+     * The image is taken from MmsAttachmentPreprocessor, which may have shrunk it already.
+     *
+     * @param request The image and the limits to fit it in
      * @param context Needed to open the image
      * @return A new PduPart containing the resized image data
      */
-    private static PduPart getResizedImageAsPart(final int widthLimit,
-            final int heightLimit, final int byteLimit, final int width, final int height,
-            final int orientation, final Uri imageUri, final Context context, final String contentType) {
+    private static PduPart getResizedImageAsPart(
+            final MmsAttachmentPreprocessor.ResizeRequest request, final Context context) {
         final PduPart part = new PduPart();
+        final Uri imageUri = request.mImageUri;
+        final String contentType = request.mContentType;
 
-        final byte[] data = ImageResizer.getResizedImageData(width, height, orientation,
-                widthLimit, heightLimit, byteLimit, imageUri, context, contentType);
+        final byte[] data =
+                MmsAttachmentPreprocessor.get().getResizedImageData(context, request);
         if (data == null) {
             if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                 LogUtil.v(TAG, "Resize image failed.");
@@ -2457,46 +2567,58 @@ public class MmsUtils {
         return prefs.getBoolean(deliveryReportKey, defaultValue);
     }
 
-    public static int sendSmsMessage(final String recipient, final String messageText,
-            final Uri requestUri, final int subId,
-            final String smsServiceCenter, final boolean requireDeliveryReport) {
+    /**
+     * Called once sending an SMS message completed, with one of the MMS_REQUEST_* statuses.
+     */
+    public interface SmsSendStatusCallback {
+        void onSmsSendCompleted(int status);
+    }
+
+    /**
+     * Queues an SMS message for sending through {@link SmsSendEngine}. The callback may be called
+     * on any thread, including the calling one.
+     */
+    public static void sendSmsMessage(final String recipient, final String messageText,
+            final Uri requestUri, final int subId, final String conversationId,
+            final String smsServiceCenter, final boolean requireDeliveryReport,
+            final SmsSendStatusCallback callback) {
         if (!isSmsDataAvailable(subId)) {
             LogUtil.w(TAG, "MmsUtils: can't send SMS without radio");
+            callback.onSmsSendCompleted(MMS_REQUEST_MANUAL_RETRY);
+            return;
+        }
+        SmsSendEngine.get().send(new SmsSendEngine.Request(subId, conversationId, recipient,
+                messageText, smsServiceCenter, requireDeliveryReport, requestUri),
+                new SmsSendEngine.SendCallback() {
+                    @Override
+                    public void onSendCompleted(final SendResult result) {
+                        callback.onSmsSendCompleted(getSmsSendStatus(result));
+                    }
+                });
+    }
+
+    private static int getSmsSendStatus(final SendResult result) {
+        if (result == null) {
+            // Could not be handed to the radio, already logged by SmsSendEngine
+            return MMS_REQUEST_MANUAL_RETRY;
+        }
+        if (result.hasPending()) {
+            // Timed out
+            LogUtil.e(TAG, "MmsUtils: sending SMS timed out");
             return MMS_REQUEST_MANUAL_RETRY;
         }
-        final Context context = Factory.get().getApplicationContext();
         int status = MMS_REQUEST_MANUAL_RETRY;
-        try {
-            // Send a single message
-            final SendResult result = SmsSender.sendMessage(
-                    context,
-                    subId,
-                    recipient,
-                    messageText,
-                    smsServiceCenter,
-                    requireDeliveryReport,
-                    requestUri);
-            if (!result.hasPending()) {
-                // not timed out, check failures
-                final int failureLevel = result.getHighestFailureLevel();
-                switch (failureLevel) {
-                    case SendResult.FAILURE_LEVEL_NONE:
-                        status = MMS_REQUEST_SUCCEEDED;
-                        break;
-                    case SendResult.FAILURE_LEVEL_TEMPORARY:
-                        status = MMS_REQUEST_AUTO_RETRY;
-                        LogUtil.e(TAG, "MmsUtils: SMS temporary failure");
-                        break;
-                    case SendResult.FAILURE_LEVEL_PERMANENT:
-                        LogUtil.e(TAG, "MmsUtils: SMS permanent failure");
-                        break;
-                }
-            } else {
-                // Timed out
-                LogUtil.e(TAG, "MmsUtils: sending SMS timed out");
-            }
-        } catch (final Exception e) {
-            LogUtil.e(TAG, "MmsUtils: failed to send SMS " + e, e);
+        switch (result.getHighestFailureLevel()) {
+            case SendResult.FAILURE_LEVEL_NONE:
+                status = MMS_REQUEST_SUCCEEDED;
+                break;
+            case SendResult.FAILURE_LEVEL_TEMPORARY:
+                status = MMS_REQUEST_AUTO_RETRY;
+                LogUtil.e(TAG, "MmsUtils: SMS temporary failure");
+                break;
+            case SendResult.FAILURE_LEVEL_PERMANENT:
+                LogUtil.e(TAG, "MmsUtils: SMS permanent failure");
+                break;
         }
         return status;
     }
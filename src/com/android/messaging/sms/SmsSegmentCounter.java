@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.content.res.Resources;
+import android.telephony.SmsMessage;
+
+/**
+ * Counts the SMS segments needed to send a text, the way {@code SmsMessage.calculateLength(text,
+ * false)} does, but keeps its counts up to date as ranges of the text are removed and inserted so
+ * that each edit only costs as much as the characters it touches.
+ *
+ * Characters of the GSM 7 bit default alphabet take one septet and those of its extension table
+ * two. As soon as the text holds any other character the whole text falls back to UCS-2, one code
+ * unit per UTF-16 char.
+ */
+public class SmsSegmentCounter {
+    // The GSM 7 bit default alphabet, indexed by septet (3GPP TS 23.038). Index 27 is the escape
+    // to the extension table, which the platform tables hold as 0xffff.
+    private static final String GSM_DEFAULT_ALPHABET =
+            "@\u00a3$\u00a5\u00e8\u00e9\u00f9\u00ec\u00f2\u00c7\n\u00d8\u00f8\r\u00c5\u00e5"
+            + "\u0394_\u03a6\u0393\u039b\u03a9\u03a0\u03a8\u03a3\u0398\u039e\uffff\u00c6\u00e6"
+            + "\u00df\u00c9 !\"#\u00a4%&'()*+,-./0123456789:;<=>?\u00a1ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "\u00c4\u00d6\u00d1\u00dc\u00a7\u00bfabcdefghijklmnopqrstuvwxyz\u00e4\u00f6\u00f1"
+            + "\u00fc\u00e0";
+
+    // The characters of the extension table of the default alphabet
+    private static final String GSM_EXTENSION_TABLE = "\u000c^{}\\[~]|\u20ac";
+
+    // The escape character itself is skipped when counting septets
+    private static final char GSM_EXTENDED_ESCAPE = 0x1b;
+
+    private static final byte COST_NON_GSM = -1;
+
+    // Septets taken by each char below 0x400 (the range covering the default alphabet and its
+    // extension table except for the euro sign), or COST_NON_GSM if it is not in either
+    private static final byte[] SEPTET_COSTS = new byte[0x400];
+    static {
+        for (int i = 0; i < SEPTET_COSTS.length; i++) {
+            SEPTET_COSTS[i] = COST_NON_GSM;
+        }
+        for (int i = 0; i < GSM_DEFAULT_ALPHABET.length(); i++) {
+            final char c = GSM_DEFAULT_ALPHABET.charAt(i);
+            if (c < SEPTET_COSTS.length) {
+                SEPTET_COSTS[c] = 1;
+            }
+        }
+        for (int i = 0; i < GSM_EXTENSION_TABLE.length(); i++) {
+            final char c = GSM_EXTENSION_TABLE.charAt(i);
+            if (c < SEPTET_COSTS.length) {
+                SEPTET_COSTS[c] = 2;
+            }
+        }
+        SEPTET_COSTS[GSM_EXTENDED_ESCAPE] = 0;
+    }
+
+    // Septets of the chars of the text in the GSM alphabet
+    private int mSeptetCount;
+    // Number of chars of the text not in the GSM alphabet
+    private int mNonGsmCount;
+    // Length of the text, in UTF-16 chars
+    private int mLength;
+
+    public SmsSegmentCounter() {
+    }
+
+    /**
+     * @return the number of septets the char takes in the GSM 7 bit alphabet, or -1 if it is not
+     *         in the alphabet
+     */
+    static int getSeptetCost(final char c) {
+        if (c < SEPTET_COSTS.length) {
+            return SEPTET_COSTS[c];
+        }
+        switch (c) {
+            case '\u20ac':
+                return 2;
+            case '\uffff':
+                return 1;
+            default:
+                return COST_NON_GSM;
+        }
+    }
+
+    /**
+     * Starts counting the given text over.
+     */
+    public void reset(final CharSequence text) {
+        mSeptetCount = 0;
+        mNonGsmCount = 0;
+        mLength = 0;
+        add(text, 0, text == null ? 0 : text.length());
+    }
+
+    /**
+     * Counts the chars of text in [start, end), which were inserted into the counted text.
+     */
+    public void add(final CharSequence text, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final int cost = getSeptetCost(text.charAt(i));
+            if (cost == COST_NON_GSM) {
+                mNonGsmCount++;
+            } else {
+                mSeptetCount += cost;
+            }
+        }
+        mLength += end - start;
+    }
+
+    /**
+     * Stops counting the chars of text in [start, end), which were removed from the counted text.
+     */
+    public void remove(final CharSequence text, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final int cost = getSeptetCost(text.charAt(i));
+            if (cost == COST_NON_GSM) {
+                mNonGsmCount--;
+            } else {
+                mSeptetCount -= cost;
+            }
+        }
+        mLength -= end - start;
+    }
+
+    /**
+     * @return the length of the counted text, in UTF-16 chars
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return true if the text only holds chars of the GSM 7 bit alphabet
+     */
+    public boolean isGsm7Bit() {
+        return mNonGsmCount == 0;
+    }
+
+    /**
+     * @return the number of code units (septets, or UTF-16 chars for UCS-2) used by the text
+     */
+    public int getCodeUnitCount() {
+        return isGsm7Bit() ? mSeptetCount : mLength;
+    }
+
+    /**
+     * @return the number of SMS segments needed to send the text
+     */
+    public int getSegmentCount() {
+        if (isGsm7Bit()) {
+            if (mSeptetCount > SmsMessage.MAX_USER_DATA_SEPTETS) {
+                return (mSeptetCount + SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER - 1)
+                        / SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER;
+            }
+            return 1;
+        }
+        final int octets = mLength * 2;
+        if (octets > SmsMessage.MAX_USER_DATA_BYTES) {
+            return (octets + SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER - 1)
+                    / SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER;
+        }
+        return 1;
+    }
+
+    /**
+     * @return the number of code units left in the last segment before another one is needed
+     */
+    public int getCodeUnitsRemainingInCurrentSegment() {
+        final int segmentCount = getSegmentCount();
+        if (isGsm7Bit()) {
+            if (segmentCount > 1) {
+                return segmentCount * SmsMessage.MAX_USER_DATA_SEPTETS_WITH_HEADER
+                        - mSeptetCount;
+            }
+            return SmsMessage.MAX_USER_DATA_SEPTETS - mSeptetCount;
+        }
+        final int octets = mLength * 2;
+        if (segmentCount > 1) {
+            return (segmentCount * SmsMessage.MAX_USER_DATA_BYTES_WITH_HEADER - octets) / 2;
+        }
+        return (SmsMessage.MAX_USER_DATA_BYTES - octets) / 2;
+    }
+
+    /**
+     * Whether the platform may encode texts outside of the default GSM alphabet differently than
+     * this counter does, because the carrier enabled national language shift tables or forces 7
+     * bit encoding by transliterating. Texts fully in the default alphabet are counted the same
+     * either way.
+     */
+    public static boolean platformUsesAlternateEncodings() {
+        final Resources resources = Resources.getSystem();
+        return hasIntArrayEntries(resources, "config_sms_enabled_single_shift_tables") ||
+                hasIntArrayEntries(resources, "config_sms_enabled_locking_shift_tables") ||
+                getBoolean(resources, "config_sms_force_7bit_encoding");
+    }
+
+    private static boolean hasIntArrayEntries(final Resources resources, final String name) {
+        final int id = resources.getIdentifier(name, "array", "android");
+        if (id == 0) {
+            return false;
+        }
+        try {
+            return resources.getIntArray(id).length > 0;
+        } catch (final Resources.NotFoundException e) {
+            return false;
+        }
+    }
+
+    private static boolean getBoolean(final Resources resources, final String name) {
+        final int id = resources.getIdentifier(name, "bool", "android");
+        if (id == 0) {
+            return false;
+        }
+        try {
+            return resources.getBoolean(id);
+        } catch (final Resources.NotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.action.SmsSendTimeoutAction;
+import com.android.messaging.sms.SmsSender.SendResult;
+import com.android.messaging.sms.SmsSender.SendResultListener;
+import com.android.messaging.util.Assert;
+import com.android.messaging.util.Assert.RunsOnAnyThread;
+import com.android.messaging.util.BugleGservices;
+import com.android.messaging.util.BugleGservicesKeys;
+import com.android.messaging.util.LogUtil;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends SMS messages without blocking the calling thread while their sent status is pending.
+ *
+ * Up to a configurable window of messages per subscription is kept in flight at the same time.
+ * Within a conversation messages are handed to the radio one at a time, in the order they were
+ * queued, so they still arrive in order. Each message completes through its
+ * {@link SendCallback}, either when the sent status of all of its parts has come back or when it
+ * times out.
+ *
+ * The engine keeps the device awake while it has messages queued or in flight, and checks for
+ * timed out messages from an alarm on elapsed real time so that sleep cannot delay them.
+ */
+public class SmsSendEngine {
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    /**
+     * Called once sending a message completed.
+     */
+    public interface SendCallback {
+        /**
+         * @param result the sent status of the message. It still has pending parts if sending
+         *        timed out, and is null if the message could not be handed to the radio at all.
+         */
+        void onSendCompleted(SendResult result);
+    }
+
+    /**
+     * Hands messages over to the radio. Abstracted so that the engine can be exercised without
+     * one.
+     */
+    @VisibleForTesting
+    interface Transport {
+        void send(Request request, SendResultListener listener) throws SmsException;
+
+        /**
+         * Stops tracking a message which timed out, returning its pending result if any.
+         */
+        SendResult abandon(Request request);
+    }
+
+    /**
+     * Keeps the engine running while it has work. Abstracted so that the engine can be exercised
+     * without alarms or wake locks.
+     */
+    @VisibleForTesting
+    interface Host {
+        /**
+         * Arranges for {@link SmsSendEngine#checkTimeouts} to be called after the delay,
+         * replacing the check arranged before. Long.MAX_VALUE cancels the check.
+         */
+        void scheduleTimeoutCheck(long delayMillis);
+
+        /**
+         * Called with true when the engine gets its first message and with false once it has
+         * completed its last one.
+         */
+        void setBusy(boolean busy);
+    }
+
+    /**
+     * A message to send.
+     */
+    public static class Request {
+        final int mSubId;
+        final String mConversationId;
+        final String mDestination;
+        final String mMessageText;
+        final String mServiceCenter;
+        final boolean mRequireDeliveryReport;
+        final Uri mMessageUri;
+
+        public Request(final int subId, final String conversationId, final String destination,
+                final String messageText, final String serviceCenter,
+                final boolean requireDeliveryReport, final Uri messageUri) {
+            Assert.notNull(conversationId);
+            Assert.notNull(messageUri);
+            mSubId = subId;
+            mConversationId = conversationId;
+            mDestination = destination;
+            mMessageText = messageText;
+            mServiceCenter = serviceCenter;
+            mRequireDeliveryReport = requireDeliveryReport;
+            mMessageUri = messageUri;
+        }
+
+        @Override
+        public String toString() {
+            return "Request:subId=" + mSubId + ",conversationId=" + mConversationId
+                    + ",requestId=" + mMessageUri;
+        }
+    }
+
+    private static class PlatformTransport implements Transport {
+        @Override
+        public void send(final Request request, final SendResultListener listener)
+                throws SmsException {
+            final Context context = Factory.get().getApplicationContext();
+            SmsSender.sendMessage(context, request.mSubId, request.mDestination,
+                    request.mMessageText, request.mServiceCenter, request.mRequireDeliveryReport,
+                    request.mMessageUri, listener);
+        }
+
+        @Override
+        public SendResult abandon(final Request request) {
+            return SmsSender.abandonMessage(request.mMessageUri);
+        }
+    }
+
+    private static class PlatformHost implements Host {
+        private final PowerManager.WakeLock mWakeLock;
+
+        PlatformHost() {
+            final Context context = Factory.get().getApplicationContext();
+            final PowerManager powerManager =
+                    (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                    "bugle_sms_send_engine");
+            mWakeLock.setReferenceCounted(false);
+        }
+
+        @Override
+        public void scheduleTimeoutCheck(final long delayMillis) {
+            SmsSendTimeoutAction.scheduleTimeoutCheck(delayMillis);
+        }
+
+        @Override
+        public void setBusy(final boolean busy) {
+            if (busy) {
+                mWakeLock.acquire();
+            } else {
+                mWakeLock.release();
+            }
+        }
+    }
+
+    private class PendingSend implements SendResultListener {
+        final Request mRequest;
+        final SendCallback mCallback;
+        boolean mCompleted;
+        // Elapsed real time at which the message times out, once it is in flight
+        long mDeadline;
+
+        PendingSend(final Request request, final SendCallback callback) {
+            mRequest = request;
+            mCallback = callback;
+        }
+
+        @Override
+        public void onSendCompleted(final Uri messageUri, final SendResult result) {
+            complete(this, result);
+        }
+    }
+
+    /**
+     * The messages queued and in flight for one subscription.
+     */
+    private static class SubscriptionQueue {
+        // Queued messages per conversation, kept in the order conversations were first queued
+        final LinkedHashMap<String, ArrayDeque<PendingSend>> mConversationQueues =
+                new LinkedHashMap<String, ArrayDeque<PendingSend>>();
+        // Conversations with a message in flight
+        final HashMap<String, PendingSend> mInFlight = new HashMap<String, PendingSend>();
+    }
+
+    private static final long NO_TIMEOUT_CHECK = Long.MAX_VALUE;
+
+    private static SmsSendEngine sInstance;
+
+    private final Transport mTransport;
+    private final Host mHost;
+    // Hands the messages freed up by a completion to the radio, off the thread it came in on
+    private final Executor mDispatchExecutor;
+    private final int mWindowSize;
+    private final long mTimeoutMillis;
+    private final HashMap<Integer, SubscriptionQueue> mSubscriptionQueues =
+            new HashMap<Integer, SubscriptionQueue>();
+    // Elapsed real time of the scheduled timeout check
+    private long mTimeoutCheckTime = NO_TIMEOUT_CHECK;
+
+    public static synchronized SmsSendEngine get() {
+        if (sInstance == null) {
+            final BugleGservices gservices = BugleGservices.get();
+            sInstance = new SmsSendEngine(new PlatformTransport(), new PlatformHost(),
+                    Executors.newSingleThreadExecutor(),
+                    gservices.getInt(BugleGservicesKeys.SMS_SEND_WINDOW_SIZE,
+                            BugleGservicesKeys.SMS_SEND_WINDOW_SIZE_DEFAULT),
+                    gservices.getLong(BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS,
+                            BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SmsSendEngine(final Transport transport, final Host host, final Executor dispatchExecutor,
+            final int windowSize, final long timeoutMillis) {
+        mTransport = transport;
+        mHost = host;
+        mDispatchExecutor = dispatchExecutor;
+        mWindowSize = Math.max(1, windowSize);
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Queues the message for sending. The callback may be called on any thread, including the
+     * calling one.
+     */
+    @RunsOnAnyThread
+    public void send(final Request request, final SendCallback callback) {
+        final List<PendingSend> toDispatch;
+        synchronized (this) {
+            if (mSubscriptionQueues.isEmpty()) {
+                mHost.setBusy(true);
+            }
+            SubscriptionQueue queue = mSubscriptionQueues.get(request.mSubId);
+            if (queue == null) {
+                queue = new SubscriptionQueue();
+                mSubscriptionQueues.put(request.mSubId, queue);
+            }
+            ArrayDeque<PendingSend> conversationQueue =
+                    queue.mConversationQueues.get(request.mConversationId);
+            if (conversationQueue == null) {
+                conversationQueue = new ArrayDeque<PendingSend>();
+                queue.mConversationQueues.put(request.mConversationId, conversationQueue);
+            }
+            conversationQueue.add(new PendingSend(request, callback));
+            toDispatch = takeDispatchableLocked(queue);
+        }
+        dispatch(toDispatch);
+    }
+
+    /**
+     * Takes the next messages to send off the queue, as long as the window allows, picking the
+     * head of each conversation without a message in flight.
+     */
+    private List<PendingSend> takeDispatchableLocked(final SubscriptionQueue queue) {
+        final List<PendingSend> toDispatch = new ArrayList<PendingSend>();
+        final Iterator<Map.Entry<String, ArrayDeque<PendingSend>>> iterator =
+                queue.mConversationQueues.entrySet().iterator();
+        while (queue.mInFlight.size() < mWindowSize && iterator.hasNext()) {
+            final Map.Entry<String, ArrayDeque<PendingSend>> entry = iterator.next();
+            if (queue.mInFlight.containsKey(entry.getKey())) {
+                continue;
+            }
+            final PendingSend pendingSend = entry.getValue().poll();
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+            pendingSend.mDeadline = SystemClock.elapsedRealtime() + mTimeoutMillis;
+            queue.mInFlight.put(entry.getKey(), pendingSend);
+            toDispatch.add(pendingSend);
+        }
+        if (!toDispatch.isEmpty() && mTimeoutCheckTime == NO_TIMEOUT_CHECK) {
+            // Messages time out in the order they were dispatched, so a check scheduled
+            // earlier never comes too late for these
+            scheduleTimeoutCheckLocked(toDispatch.get(0).mDeadline);
+        }
+        return toDispatch;
+    }
+
+    private void scheduleTimeoutCheckLocked(final long checkTime) {
+        mTimeoutCheckTime = checkTime;
+        mHost.scheduleTimeoutCheck(checkTime == NO_TIMEOUT_CHECK ? NO_TIMEOUT_CHECK
+                : Math.max(0, checkTime - SystemClock.elapsedRealtime()));
+    }
+
+    private void dispatch(final List<PendingSend> toDispatch) {
+        for (final PendingSend pendingSend : toDispatch) {
+            try {
+                mTransport.send(pendingSend.mRequest, pendingSend);
+            } catch (final Exception e) {
+                LogUtil.e(TAG, "SmsSendEngine: failed to send SMS " + e, e);
+                complete(pendingSend, null);
+            }
+        }
+    }
+
+    private void complete(final PendingSend pendingSend, final SendResult result) {
+        final List<PendingSend> toDispatch;
+        synchronized (this) {
+            if (pendingSend.mCompleted) {
+                return;
+            }
+            pendingSend.mCompleted = true;
+            final Request request = pendingSend.mRequest;
+            final SubscriptionQueue queue = mSubscriptionQueues.get(request.mSubId);
+            queue.mInFlight.remove(request.mConversationId);
+            toDispatch = takeDispatchableLocked(queue);
+            if (queue.mInFlight.isEmpty() && queue.mConversationQueues.isEmpty()) {
+                mSubscriptionQueues.remove(request.mSubId);
+                if (mSubscriptionQueues.isEmpty()) {
+                    scheduleTimeoutCheckLocked(NO_TIMEOUT_CHECK);
+                    mHost.setBusy(false);
+                }
+            }
+        }
+        pendingSend.mCallback.onSendCompleted(result);
+        if (!toDispatch.isEmpty()) {
+            // Sent statuses come in on the main thread, which must not make the binder calls
+            // to send the next messages
+            mDispatchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(toDispatch);
+                }
+            });
+        }
+    }
+
+    /**
+     * Completes the messages in flight past their deadline and schedules the next check.
+     */
+    @RunsOnAnyThread
+    public void checkTimeouts() {
+        final List<PendingSend> timedOut = new ArrayList<PendingSend>();
+        synchronized (this) {
+            final long now = SystemClock.elapsedRealtime();
+            long nextCheckTime = NO_TIMEOUT_CHECK;
+            for (final SubscriptionQueue queue : mSubscriptionQueues.values()) {
+                for (final PendingSend pendingSend : queue.mInFlight.values()) {
+                    if (pendingSend.mDeadline <= now) {
+                        timedOut.add(pendingSend);
+                    } else {
+                        nextCheckTime = Math.min(nextCheckTime, pendingSend.mDeadline);
+                    }
+                }
+            }
+            scheduleTimeoutCheckLocked(nextCheckTime);
+        }
+        for (final PendingSend pendingSend : timedOut) {
+            LogUtil.e(TAG, "SmsSendEngine: sending SMS timed out. " + pendingSend.mRequest);
+            complete(pendingSend, mTransport.abandon(pendingSend.mRequest));
+        }
+    }
+
+    /**
+     * @return the number of messages currently in flight for the subscription
+     */
+    @VisibleForTesting
+    synchronized int getInFlightCount(final int subId) {
+        final SubscriptionQueue queue = mSubscriptionQueues.get(subId);
+        return queue == null ? 0 : queue.mInFlight.size();
+    }
+}
@@ -21,7 +21,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.SystemClock;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsManager;
 import android.text.TextUtils;
@@ -30,8 +29,6 @@ import com.android.messaging.Factory;
 import com.android.messaging.R;
 import com.android.messaging.receiver.SendStatusReceiver;
 import com.android.messaging.util.Assert;
-import com.android.messaging.util.BugleGservices;
-import com.android.messaging.util.BugleGservicesKeys;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
 import com.android.messaging.util.UiUtils;
@@ -43,10 +40,11 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * Class that sends chat message via SMS.
  *
- * The interface emulates a blocking sending similar to making an HTTP request.
- * It calls the SmsManager to send a (potentially multipart) message and waits
- * on the sent status on each part. The waiting has a timeout so it won't wait
- * forever. Once the sent status of all parts received, the call returns.
+ * It calls the SmsManager to send a (potentially multipart) message and collects the sent
+ * status of each part as they come back through {@link SendStatusReceiver}. Once the sent status
+ * of all parts is received, the {@link SendResultListener} of the message is called. Callers are
+ * expected to go through {@link SmsSendEngine}, which limits the number of messages in flight and
+ * times out messages whose results never come back.
  * A successful sending requires success status for all parts. Otherwise, we
  * pick the highest level of failure as the error for the whole message, which
  * is used to determine if we need to retry the sending.
@@ -64,6 +62,13 @@ public class SmsSender {
 
     private static final Random RANDOM = new Random();
 
+    /**
+     * Called once the sent status of all the parts of a message has been received.
+     */
+    public interface SendResultListener {
+        void onSendCompleted(Uri messageUri, SendResult result);
+    }
+
     /**
      * Class that holds the sent status for all parts of a multipart message sending
      */
@@ -79,6 +84,8 @@ public class SmsSender {
         private int mPendingParts;
         // Tracking the highest level of failure among all parts
         private int mHighestFailureLevel;
+        // Notified once no parts are pending anymore
+        private SendResultListener mListener;
 
         public SendResult(final int numOfParts) {
             Assert.isTrue(numOfParts > 0);
@@ -153,11 +160,13 @@ public class SmsSender {
         if (requestId != null) {
             final SendResult result = sPendingMessageMap.get(requestId);
             if (result != null) {
+                final SendResultListener listener;
                 synchronized (result) {
                     result.setPartResult(resultCode);
-                    if (!result.hasPending()) {
-                        result.notifyAll();
-                    }
+                    listener = result.hasPending() ? null : result.mListener;
+                }
+                if (listener != null && sPendingMessageMap.remove(requestId, result)) {
+                    listener.onSendCompleted(requestId, result);
                 }
             } else {
                 LogUtil.e(TAG, "SmsSender: ignoring sent result. " + " requestId=" + requestId
@@ -176,10 +185,14 @@ public class SmsSender {
         }
     }
 
-    // This should be called from a RequestWriter queue thread
-    public static SendResult sendMessage(final Context context, final int subId, String dest,
+    /**
+     * Hands the message over to the SmsManager and returns right away. The listener is called
+     * (on the thread the sent results are delivered on) once the sent status of all parts has been
+     * received, unless the message gets abandoned (see {@link #abandonMessage}) first.
+     */
+    public static void sendMessage(final Context context, final int subId, String dest,
             String message, final String serviceCenter, final boolean requireDeliveryReport,
-            final Uri messageUri) throws SmsException {
+            final Uri messageUri, final SendResultListener listener) throws SmsException {
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
             LogUtil.v(TAG, "SmsSender: sending message. " +
                     "dest=" + dest + " message=" + message +
@@ -215,36 +228,30 @@ public class SmsSender {
         }
         // Prepare the send result, which collects the send status for each part
         final SendResult pendingResult = new SendResult(messages.size());
+        pendingResult.mListener = listener;
         sPendingMessageMap.put(messageUri, pendingResult);
         // Actually send the sms
-        sendInternal(
-                context, subId, dest, messages, serviceCenter, requireDeliveryReport, messageUri);
-        // Wait for pending intent to come back
-        synchronized (pendingResult) {
-            final long smsSendTimeoutInMillis = BugleGservices.get().getLong(
-                    BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS,
-                    BugleGservicesKeys.SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT);
-            final long beginTime = SystemClock.elapsedRealtime();
-            long waitTime = smsSendTimeoutInMillis;
-            // We could possibly be woken up while still pending
-            // so make sure we wait the full timeout period unless
-            // we have the send results of all parts.
-            while (pendingResult.hasPending() && waitTime > 0) {
-                try {
-                    pendingResult.wait(waitTime);
-                } catch (final InterruptedException e) {
-                    LogUtil.e(TAG, "SmsSender: sending wait interrupted");
-                }
-                waitTime = smsSendTimeoutInMillis - (SystemClock.elapsedRealtime() - beginTime);
-            }
+        try {
+            sendInternal(context, subId, dest, messages, serviceCenter, requireDeliveryReport,
+                    messageUri);
+        } catch (final SmsException e) {
+            sPendingMessageMap.remove(messageUri, pendingResult);
+            throw e;
         }
-        // Either we timed out or have all the results (success or failure)
-        sPendingMessageMap.remove(messageUri);
-        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "SmsSender: sending completed. " +
-                    "dest=" + dest + " message=" + message + " result=" + pendingResult);
+    }
+
+    /**
+     * Stops tracking the sent status of a message, e.g. because it timed out.
+     *
+     * @return the (still pending) result of the message, or null if it already completed
+     */
+    public static SendResult abandonMessage(final Uri messageUri) {
+        final SendResult result = sPendingMessageMap.remove(messageUri);
+        if (result != null && LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "SmsSender: abandoned message. requestId=" + messageUri
+                    + " result=" + result);
         }
-        return pendingResult;
+        return result;
     }
 
     // Actually sending the message using SmsManager
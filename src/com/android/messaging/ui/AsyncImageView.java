@@ -38,6 +38,7 @@ import com.android.messaging.datamodel.media.GifImageResource;
 import com.android.messaging.datamodel.media.ImageRequest;
 import com.android.messaging.datamodel.media.ImageRequestDescriptor;
 import com.android.messaging.datamodel.media.ImageResource;
+import com.android.messaging.datamodel.media.MediaCache;
 import com.android.messaging.datamodel.media.MediaRequest;
 import com.android.messaging.datamodel.media.MediaResourceManager;
 import com.android.messaging.datamodel.media.MediaResourceManager.MediaResourceLoadListener;
@@ -51,6 +52,10 @@ import java.util.HashSet;
 
 /**
  * An ImageView used to asynchronously request an image from MediaResourceManager and render it.
+ *
+ * If the image request has a preview (see {@link ImageRequestDescriptor#getPreviewDescriptor()})
+ * and the image isn't cached, the preview is requested along with it and shown, stretched to the
+ * size of the image, until the image is loaded and swapped in without animation.
  */
 public class AsyncImageView extends ImageView implements MediaResourceLoadListener<ImageResource> {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
@@ -66,6 +71,31 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
     @VisibleForTesting
     public final Binding<BindableMediaRequest<ImageResource>> mImageRequestBinding;
 
+    // Binding to the request for the preview of the image, if any, until either is loaded
+    private final Binding<BindableMediaRequest<ImageResource>> mPreviewRequestBinding;
+
+    // True while the image shown is the preview of the requested one
+    private boolean mShowingPreview;
+
+    private final MediaResourceLoadListener<ImageResource> mPreviewListener =
+            new MediaResourceLoadListener<ImageResource>() {
+                @Override
+                public void onMediaResourceLoaded(final MediaRequest<ImageResource> request,
+                        final ImageResource resource, final boolean isCached) {
+                    mPreviewRequestBinding.unbind();
+                    if (mImageResource == null) {
+                        setImage(resource, isCached, true /* isPreview */);
+                    }
+                }
+
+                @Override
+                public void onMediaResourceLoadError(final MediaRequest<ImageResource> request,
+                        final Exception exception) {
+                    // Keep showing the placeholder until the image loads
+                    mPreviewRequestBinding.unbind();
+                }
+            };
+
     /** True if we want the image to fade in when it loads */
     private boolean mFadeIn;
 
@@ -102,6 +132,7 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
     public AsyncImageView(final Context context, final AttributeSet attrs) {
         super(context, attrs);
         mImageRequestBinding = BindingBase.createBinding(this);
+        mPreviewRequestBinding = BindingBase.createBinding(this);
         final TypedArray attr = context.obtainStyledAttributes(attrs, R.styleable.AsyncImageView,
                 0, 0);
         mFadeIn = attr.getBoolean(R.styleable.AsyncImageView_fadeIn, true);
@@ -134,7 +165,13 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
             maybeSetupPlaceholderDrawable(descriptor);
             final BindableMediaRequest<ImageResource> imageRequest =
                     descriptor.buildAsyncMediaRequest(getContext(), this);
-            requestImage(imageRequest);
+            final ImageRequestDescriptor previewDescriptor = descriptor.getPreviewDescriptor();
+            final BindableMediaRequest<ImageResource> previewRequest =
+                    previewDescriptor != null && !isCached(imageRequest)
+                            ? previewDescriptor.buildAsyncMediaRequest(getContext(),
+                                    mPreviewListener)
+                            : null;
+            requestImage(imageRequest, previewRequest);
         }
     }
 
@@ -152,7 +189,7 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
     public void resumeLoading() {
         Assert.notNull(mDelayLoader);
         Assert.isTrue(mImageRequestBinding.isBound());
-        MediaResourceManager.get().requestMediaResourceAsync(mImageRequestBinding.getData());
+        startLoading();
     }
 
     /**
@@ -181,6 +218,14 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
     }
 
     protected void setImage(final ImageResource resource, final boolean isCached) {
+        setImage(resource, isCached, false /* isPreview */);
+    }
+
+    private void setImage(final ImageResource resource, final boolean isCached,
+            final boolean isPreview) {
+        // The image replacing its preview is swapped in as is, it was already animated in
+        final boolean replacingPreview = mShowingPreview && resource != null;
+        mShowingPreview = false;
         // Switch reference to the new ImageResource. Make sure we release the current
         // resource and addRef() on the new resource so that the underlying bitmaps don't
         // get leaked or get recycled by the bitmap cache.
@@ -193,12 +238,20 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
         if (drawable != null) {
             mImageResource = resource;
             mImageResource.addRef();
-            setImageDrawable(drawable);
+            if (isPreview) {
+                final ImageRequestDescriptor descriptor =
+                        (ImageRequestDescriptor) mImageRequestBinding.getData().getDescriptor();
+                setImageDrawable(PlaceholderInsetDrawable.fillFromDrawable(drawable,
+                        descriptor.sourceWidth, descriptor.sourceHeight));
+                mShowingPreview = true;
+            } else {
+                setImageDrawable(drawable);
+            }
             if (drawable instanceof FrameSequenceDrawable) {
                 ((FrameSequenceDrawable) drawable).start();
             }
 
-            if (getVisibility() == VISIBLE) {
+            if (getVisibility() == VISIBLE && !replacingPreview) {
                 if (mReveal) {
                     setVisibility(INVISIBLE);
                     UiUtils.revealOrHideViewWithAnimation(this, VISIBLE, null);
@@ -222,18 +275,44 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
         invalidate();
     }
 
-    private void requestImage(final BindableMediaRequest<ImageResource> request) {
+    private void requestImage(final BindableMediaRequest<ImageResource> request,
+            @Nullable final BindableMediaRequest<ImageResource> previewRequest) {
         mImageRequestBinding.bind(request);
+        if (previewRequest != null) {
+            mPreviewRequestBinding.bind(previewRequest);
+        }
         if (mDelayLoader == null || !mDelayLoader.isDelayLoadingImage()) {
-            MediaResourceManager.get().requestMediaResourceAsync(request);
+            startLoading();
         } else {
             mDelayLoader.registerView(this);
         }
     }
 
+    private void startLoading() {
+        // Queue the preview first so that it gets a loading thread before the image
+        if (mPreviewRequestBinding.isBound()) {
+            MediaResourceManager.get().requestMediaResourceAsync(
+                    mPreviewRequestBinding.getData());
+        }
+        MediaResourceManager.get().requestMediaResourceAsync(mImageRequestBinding.getData());
+    }
+
+    /**
+     * @return true if the image is in the memory cache, in which case it loads about as fast as
+     *     its preview would
+     */
+    private static boolean isCached(final MediaRequest<ImageResource> request) {
+        final MediaCache<ImageResource> mediaCache = request.getMediaCache();
+        return mediaCache != null && mediaCache.get(request.getKey()) != null;
+    }
+
     @Override
     public void onMediaResourceLoaded(final MediaRequest<ImageResource> request,
             final ImageResource resource, final boolean isCached) {
+        if (mPreviewRequestBinding.isBound()) {
+            // Too late for the preview
+            mPreviewRequestBinding.unbind();
+        }
         if (mImageResource != resource) {
             setImage(resource, isCached);
         }
@@ -397,6 +476,9 @@ public class AsyncImageView extends ImageView implements MediaResourceLoadListen
     }
 
     private void unbindView() {
+        if (mPreviewRequestBinding.isBound()) {
+            mPreviewRequestBinding.unbind();
+        }
         if (mImageRequestBinding.isBound()) {
             mImageRequestBinding.unbind();
             if (mDelayLoader != null) {
@@ -21,11 +21,14 @@ import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.DataSetObserver;
 import android.os.Handler;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.util.Log;
 import android.view.ViewGroup;
 import android.widget.FilterQueryProvider;
 
+import com.android.messaging.datamodel.CursorSnapshot;
+
 /**
  * Copy of CursorAdapter suited for RecyclerView.
  *
@@ -74,6 +77,10 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
      * {@hide}
      */
     protected FilterQueryProvider mFilterQueryProvider;
+    /**
+     * Snapshot of the current cursor, if it was loaded with one, see {@link CursorSnapshot}.
+     */
+    private CursorSnapshot mCursorSnapshot;
 
     /**
      * If set the adapter will call requery() on the cursor whenever a content change
@@ -122,6 +129,7 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
         mDataValid = cursorPresent;
         mContext = context;
         mRowIDColumn = cursorPresent ? c.getColumnIndexOrThrow("_id") : -1;
+        mCursorSnapshot = CursorSnapshot.from(c);
         if ((flags & FLAG_REGISTER_CONTENT_OBSERVER) == FLAG_REGISTER_CONTENT_OBSERVER) {
             mChangeObserver = new ChangeObserver();
             mDataSetObserver = new MyDataSetObserver();
@@ -232,6 +240,10 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
      * {@link #changeCursor(Cursor)}, the returned old Cursor is <em>not</em>
      * closed.
      *
+     * <p>If the new cursor carries a {@link CursorSnapshot} diffed against the snapshot of the
+     * current cursor, only the inserted, removed, moved and changed items are notified.
+     * Otherwise the whole data set is.
+     *
      * @param newCursor The new cursor to be used.
      * @return Returns the previously set Cursor, or null if there wasa not one.
      * If the given new Cursor is the same instance is the previously set
@@ -259,11 +271,21 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
                 newCursor.registerDataSetObserver(mDataSetObserver);
             }
             mRowIDColumn = newCursor.getColumnIndexOrThrow("_id");
+            final CursorSnapshot newSnapshot = CursorSnapshot.from(newCursor);
+            final DiffUtil.DiffResult diffResult = (mDataValid && newSnapshot != null) ?
+                    newSnapshot.getDiffFrom(mCursorSnapshot) : null;
+            mCursorSnapshot = newSnapshot;
             mDataValid = true;
-            // notify the observers about the new cursor
-            notifyDataSetChanged();
+            if (diffResult != null) {
+                // notify the observers about the changed items only
+                diffResult.dispatchUpdatesTo(this);
+            } else {
+                // notify the observers about the new cursor
+                notifyDataSetChanged();
+            }
         } else {
             mRowIDColumn = -1;
+            mCursorSnapshot = null;
             mDataValid = false;
             // notify the observers about the lack of a data set
             notifyDataSetChanged();
@@ -319,12 +341,15 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
     private class MyDataSetObserver extends DataSetObserver {
         @Override
         public void onChanged() {
+            // The cursor contents no longer match its snapshot
+            mCursorSnapshot = null;
             mDataValid = true;
             notifyDataSetChanged();
         }
 
         @Override
         public void onInvalidated() {
+            mCursorSnapshot = null;
             mDataValid = false;
             notifyDataSetChanged();
         }
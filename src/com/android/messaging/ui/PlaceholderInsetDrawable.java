@@ -52,6 +52,15 @@ public class PlaceholderInsetDrawable extends InsetDrawable {
                 insetHorizontal, insetVertical, sourceWidth, sourceHeight);
     }
 
+    /**
+     * Given a source drawable, such as a low resolution preview of the real image, wraps it around
+     * in this placeholder drawable by stretching it to fill the container.
+     */
+    public static PlaceholderInsetDrawable fillFromDrawable(final Drawable drawable,
+            final int sourceWidth, final int sourceHeight) {
+        return new PlaceholderInsetDrawable(drawable, 0, 0, 0, 0, sourceWidth, sourceHeight);
+    }
+
     private PlaceholderInsetDrawable(final Drawable drawable, final int insetLeft,
             final int insetTop, final int insetRight, final int insetBottom,
             final int sourceWidth, final int sourceHeight) {
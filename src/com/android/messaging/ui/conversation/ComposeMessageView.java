@@ -669,9 +669,20 @@ public class ComposeMessageView extends LinearLayout
     }
 
     private void updateVisualsOnDraftChanged(boolean hasAttachmentsChanged) {
-        final String messageText = mComposeEditText.getText().toString();
+        mBinding.getData().setMessageText(mComposeEditText.getText().toString());
+        updateVisuals(hasAttachmentsChanged);
+    }
+
+    /**
+     * Updates the visuals after a keystroke, once the draft has been handed the edit of its
+     * message text, without copying or scanning the whole text.
+     */
+    private void updateVisualsOnTextEdited() {
+        updateVisuals(false /* hasAttachmentsChanged */);
+    }
+
+    private void updateVisuals(final boolean hasAttachmentsChanged) {
         final DraftMessageData draftMessageData = mBinding.getData();
-        draftMessageData.setMessageText(messageText);
 
         final String subject = mComposeSubjectText.getText().toString();
         draftMessageData.setMessageSubject(subject);
@@ -679,7 +690,7 @@ public class ComposeMessageView extends LinearLayout
              mSubjectView.setVisibility(View.VISIBLE);
         }
 
-        final boolean hasMessageText = (TextUtils.getTrimmedLength(messageText) > 0);
+        final boolean hasMessageText = draftMessageData.hasMessageText();
         final boolean hasSubject = (TextUtils.getTrimmedLength(subject) > 0);
         final boolean hasWorkingDraft = hasMessageText || hasSubject ||
                 mBinding.getData().hasAttachments();
@@ -890,6 +901,10 @@ public class ComposeMessageView extends LinearLayout
         if (mHost.shouldHideAttachmentsWhenSimSelectorShown()) {
             hideSimSelector();
         }
+        if (mBinding.isBound() && s == mComposeEditText.getText()) {
+            // The replaced chars are only known before the edit
+            mBinding.getData().beforeMessageTextChanged(s, start, count);
+        }
     }
 
     private void hideSimSelector() {
@@ -915,7 +930,12 @@ public class ComposeMessageView extends LinearLayout
         }
 
         mBinding.ensureBound();
-        updateVisualsOnDraftChanged();
+        if (s == mComposeEditText.getText()) {
+            // Hand the edited range to the draft so that only it gets counted towards the SMS
+            // length, rather than the whole text, which is only copied when the draft is read
+            mBinding.getData().updateMessageText(s, start, before, count);
+        }
+        updateVisualsOnTextEdited();
     }
 
     @Override
@@ -69,6 +69,18 @@ public class ConversationFastScroller extends RecyclerView.OnScrollListener impl
         return null;
     }
 
+    /**
+     * Tells the fast scroller about messages that are in the conversation but not (yet) loaded
+     * into the adapter, so that the thumb reflects the position within the whole conversation.
+     */
+    public interface MessageWindowHost {
+        /** Returns the approximate number of messages in the whole conversation. */
+        int getApproximateMessageCount();
+
+        /** Requests that older messages be paged into the adapter. */
+        void loadOlderMessages();
+    }
+
     public static final int POSITION_RIGHT_SIDE = 0;
     public static final int POSITION_LEFT_SIDE = 1;
 
@@ -107,6 +119,8 @@ public class ConversationFastScroller extends RecyclerView.OnScrollListener impl
     // Whether the user is currently dragging the thumb up or down.
     private boolean mDragging = false;
 
+    private MessageWindowHost mMessageWindowHost;
+
     // Animations responsible for hiding the scrollbar & preview. May be null.
     private AnimatorSet mHideAnimation;
     private ObjectAnimator mHidePreviewAnimation;
@@ -161,6 +175,25 @@ public class ConversationFastScroller extends RecyclerView.OnScrollListener impl
         mPreviewTextView.setAlpha(0f);
     }
 
+    public void setMessageWindowHost(final MessageWindowHost host) {
+        mMessageWindowHost = host;
+    }
+
+    /**
+     * Returns the fraction of the conversation (at the top) that isn't loaded in the adapter.
+     */
+    private float getUnloadedRatio() {
+        if (mMessageWindowHost == null) {
+            return 0f;
+        }
+        final int loadedCount = mRv.getAdapter().getItemCount();
+        final int totalCount = mMessageWindowHost.getApproximateMessageCount();
+        if (totalCount <= loadedCount) {
+            return 0f;
+        }
+        return (totalCount - loadedCount) / (float) totalCount;
+    }
+
     public void refreshConversationThemeColor() {
         mPreviewTextView.setBackground(
                 ConversationDrawables.get().getFastScrollPreviewDrawable(mPosRight));
@@ -305,7 +338,9 @@ public class ConversationFastScroller extends RecyclerView.OnScrollListener impl
         }
         final int scrollRange = range - extent;
         offset = Math.min(offset, scrollRange);
-        return offset / (float) scrollRange;
+        // The loaded messages only make up the bottom part of the conversation.
+        final float unloadedRatio = getUnloadedRatio();
+        return unloadedRatio + (1.0f - unloadedRatio) * (offset / (float) scrollRange);
     }
 
     private void updatePreviewText() {
@@ -406,6 +441,16 @@ public class ConversationFastScroller extends RecyclerView.OnScrollListener impl
         dragScrollRatio = Math.max(dragScrollRatio, 0.0f);
         dragScrollRatio = Math.min(dragScrollRatio, 1.0f);
 
+        // If the thumb is dragged into the part of the conversation that isn't loaded yet, stay
+        // at the top of what is loaded and page in older messages.
+        final float unloadedRatio = getUnloadedRatio();
+        if (dragScrollRatio < unloadedRatio) {
+            mRv.scrollToPosition(0);
+            mMessageWindowHost.loadOlderMessages();
+            return;
+        }
+        dragScrollRatio = (dragScrollRatio - unloadedRatio) / (1.0f - unloadedRatio);
+
         // Scroll the RecyclerView to a new position.
         final int itemCount = mRv.getAdapter().getItemCount();
         final int itemPos = (int)((itemCount - 1) * dragScrollRatio);
@@ -136,6 +136,8 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
 
     static final int REQUEST_CHOOSE_ATTACHMENTS = 2;
     private static final int JUMP_SCROLL_THRESHOLD = 15;
+    // Start paging in older messages when scrolled to within this many items of the top.
+    private static final int LOAD_OLDER_MESSAGES_THRESHOLD = 20;
     // We animate the message from draft to message list, if we the message doesn't show up in the
     // list within this time limit, then we just do a fade in animation instead
     public static final int MESSAGE_ANIMATION_MAX_WAIT = 500;
@@ -271,9 +273,24 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
                     mConversationComposeDivider.animate().alpha(isScrolledToBottom() ? 0 : 1);
                     mWasScrolledToBottom = isScrolledToBottom();
                 }
+                if (dy < 0) {
+                    maybeLoadOlderMessages();
+                }
             }
     };
 
+    private void maybeLoadOlderMessages() {
+        if (!mBinding.isBound()) {
+            return;
+        }
+        final int firstVisibleItem = ((LinearLayoutManager) mRecyclerView.getLayoutManager())
+                .findFirstVisibleItemPosition();
+        if (firstVisibleItem != RecyclerView.NO_POSITION &&
+                firstVisibleItem < LOAD_OLDER_MESSAGES_THRESHOLD) {
+            mBinding.getData().loadOlderMessages(mBinding);
+        }
+    }
+
     private final ActionMode.Callback mMessageActionModeCallback = new ActionMode.Callback() {
         @Override
         public boolean onCreateActionMode(final ActionMode actionMode, final Menu menu) {
@@ -609,6 +626,22 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
         mFastScroller = ConversationFastScroller.addTo(mRecyclerView,
                 UiUtils.isRtlMode() ? ConversationFastScroller.POSITION_LEFT_SIDE :
                     ConversationFastScroller.POSITION_RIGHT_SIDE);
+        if (mFastScroller != null) {
+            mFastScroller.setMessageWindowHost(new ConversationFastScroller.MessageWindowHost() {
+                @Override
+                public int getApproximateMessageCount() {
+                    return mBinding.isBound() ? mBinding.getData().getApproximateMessageCount()
+                            : 0;
+                }
+
+                @Override
+                public void loadOlderMessages() {
+                    if (mBinding.isBound()) {
+                        mBinding.getData().loadOlderMessages(mBinding);
+                    }
+                }
+            });
+        }
 
         mComposeMessageView = (ComposeMessageView)
                 view.findViewById(R.id.message_compose_view_container);
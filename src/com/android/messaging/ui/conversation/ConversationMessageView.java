@@ -26,8 +26,8 @@ import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.text.format.Formatter;
+import android.text.method.LinkMovementMethod;
 import android.text.style.URLSpan;
-import android.text.util.Linkify;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.view.Gravity;
@@ -43,6 +43,8 @@ import android.widget.TextView;
 
 import com.android.messaging.R;
 import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.MessageTextLinkCache;
+import com.android.messaging.datamodel.MessageTextLinkCache.LinkifiedText;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.datamodel.data.MessagePartData;
@@ -114,6 +116,11 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
     private boolean mOneOnOne;
     private ConversationMessageViewHost mHost;
 
+    // Whether the content description is out of date with the bound message. Views are rebound
+    // all the time while scrolling, so unless an accessibility service is running the content
+    // description is only built once something asks for it.
+    private boolean mContentDescriptionStale;
+
     public ConversationMessageView(final Context context, final AttributeSet attrs) {
         super(context, attrs);
         // TODO: we should switch to using Binding and DataModel factory methods.
@@ -156,6 +163,10 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
         mMessageMetadataView = (ViewGroup) findViewById(R.id.message_metadata);
         mMessageTextAndInfoView = (ViewGroup) findViewById(R.id.message_text_and_info);
         mSimNameView = (TextView) findViewById(R.id.sim_name);
+
+        // A content description used to make the view important for accessibility as soon as it
+        // was bound; keep it that way now that the description is built lazily.
+        setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_YES);
     }
 
     @Override
@@ -254,7 +265,19 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
         // Update colors and layout parameters for the view.
         updateViewAppearance();
 
-        updateContentDescription();
+        updateMessageTextAccessibility();
+        mContentDescriptionStale = true;
+        if (AccessibilityUtil.isAccessibilityEnabled(getContext())) {
+            updateContentDescription();
+        }
+    }
+
+    @Override
+    public CharSequence getContentDescription() {
+        if (mContentDescriptionStale) {
+            updateContentDescription();
+        }
+        return super.getContentDescription();
     }
 
     public void setHost(final ConversationMessageViewHost host) {
@@ -650,10 +673,18 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
     private void updateMessageText() {
         final String text = mData.getText();
         if (!TextUtils.isEmpty(text)) {
-            mMessageTextView.setText(text);
             // Linkify phone numbers, web urls, emails, and map addresses to allow users to
-            // click on them and take the default intent.
-            mMessageTextHasLinks = Linkify.addLinks(mMessageTextView, Linkify.ALL);
+            // click on them and take the default intent. This is normally precomputed off the
+            // main thread by the messages loader.
+            final LinkifiedText linkifiedText =
+                    MessageTextLinkCache.get().getOrCompute(mData.getMessageId(), text);
+            mMessageTextView.setText(linkifiedText.getText());
+            mMessageTextHasLinks = linkifiedText.hasLinks();
+            if (mMessageTextHasLinks && mMessageTextView.getLinksClickable() &&
+                    !(mMessageTextView.getMovementMethod() instanceof LinkMovementMethod)) {
+                // This is what Linkify.addLinks(TextView, int) does for us.
+                mMessageTextView.setMovementMethod(LinkMovementMethod.getInstance());
+            }
             mMessageTextView.setVisibility(View.VISIBLE);
         } else {
             mMessageTextView.setVisibility(View.GONE);
@@ -785,7 +816,18 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
         requestLayout();
     }
 
+    private void updateMessageTextAccessibility() {
+        if (mMessageTextView.getVisibility() == View.VISIBLE) {
+            // If the message has hyperlinks, we will let the user navigate to the text message so
+            // that the hyperlink can be clicked. Otherwise, the text message does not need to
+            // be reachable, it is read out as part of the content description.
+            mMessageTextView.setImportantForAccessibility(mMessageTextHasLinks ?
+                    View.IMPORTANT_FOR_ACCESSIBILITY_YES : View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+        }
+    }
+
     private void updateContentDescription() {
+        mContentDescriptionStale = false;
         StringBuilder description = new StringBuilder();
 
         Resources res = getResources();
@@ -811,17 +853,9 @@ public class ConversationMessageView extends FrameLayout implements View.OnClick
             description.append(mSubjectText.getText());
         }
 
-        if (mMessageTextView.getVisibility() == View.VISIBLE) {
-            // If the message has hyperlinks, we will let the user navigate to the text message so
-            // that the hyperlink can be clicked. Otherwise, the text message does not need to
-            // be reachable.
-            if (mMessageTextHasLinks) {
-                mMessageTextView.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_YES);
-            } else {
-                mMessageTextView.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
-                description.append(separator);
-                description.append(mMessageTextView.getText());
-            }
+        if (mMessageTextView.getVisibility() == View.VISIBLE && !mMessageTextHasLinks) {
+            description.append(separator);
+            description.append(mMessageTextView.getText());
         }
 
         if (mMessageTitleLayout.getVisibility() == View.VISIBLE) {
@@ -43,6 +43,8 @@ import com.android.messaging.datamodel.MessagingContentProvider;
 import com.android.messaging.datamodel.action.UpdateConversationArchiveStatusAction;
 import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.media.ImageRequest;
+import com.android.messaging.datamodel.media.ImageRequestDescriptor;
 import com.android.messaging.datamodel.media.UriImageRequestDescriptor;
 import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.ui.AsyncImageView;
@@ -491,9 +493,11 @@ public class ConversationListItemView extends FrameLayout implements OnClickList
                 R.dimen.conversation_list_image_preview_size);
         mImagePreviewView.setImageResourceId(
                 new UriImageRequestDescriptor(previewImageUri, imageSize, imageSize,
+                        ImageRequest.UNSPECIFIED_SIZE, ImageRequest.UNSPECIFIED_SIZE,
                         true /* allowCompression */, false /* isStatic */, false /*cropToCircle*/,
                         ImageUtils.DEFAULT_CIRCLE_BACKGROUND_COLOR /* circleBackgroundColor */,
-                        ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */));
+                        ImageUtils.DEFAULT_CIRCLE_STROKE_COLOR /* circleStrokeColor */,
+                        ImageRequestDescriptor.DECODE_MODE_HARDWARE));
         mImagePreviewView.setOnLongClickListener(this);
         mImagePreviewView.setVisibility(previewImageVisibility);
         mImagePreviewView.setOnClickListener(previewClickListener);
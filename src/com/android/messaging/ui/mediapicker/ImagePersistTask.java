@@ -18,9 +18,8 @@ package com.android.messaging.ui.mediapicker;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
 import android.net.Uri;
 
 import com.android.messaging.datamodel.MediaScratchFileProvider;
@@ -29,8 +28,9 @@ import com.android.messaging.util.ContentType;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.SafeAsyncTask;
 import com.android.messaging.util.exif.ExifInterface;
-import com.android.messaging.util.exif.ExifTag;
+import com.android.messaging.util.exif.ExifOrientationReader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -72,58 +72,52 @@ public class ImagePersistTask extends SafeAsyncTask<Void, Void, Void> {
     @Override
     protected Void doInBackgroundTimed(final Void... params) {
         OutputStream outputStream = null;
-        Bitmap bitmap = null;
+        BitmapRegionDecoder decoder = null;
         Bitmap clippedBitmap = null;
         try {
             outputStream =
                     mContext.getContentResolver().openOutputStream(mOutputUri);
             if (mHeightPercent != 1.0f) {
-                int orientation = android.media.ExifInterface.ORIENTATION_UNDEFINED;
-                final ExifInterface exifInterface = new ExifInterface();
+                int orientation = ExifOrientationReader.ORIENTATION_UNDEFINED;
                 try {
-                    exifInterface.readExif(mBytes);
-                    final Integer orientationValue =
-                            exifInterface.getTagIntValue(ExifInterface.TAG_ORIENTATION);
-                    if (orientationValue != null) {
-                        orientation = orientationValue.intValue();
-                    }
-                    // The thumbnail is of the full image, but we're cropping it, so just clear
-                    // the thumbnail
-                    exifInterface.setCompressedThumbnail((byte[]) null);
+                    orientation = ExifOrientationReader.readOrientation(
+                            new ByteArrayInputStream(mBytes));
                 } catch (IOException e) {
                     // Couldn't get exif tags, not the end of the world
                 }
-                bitmap = BitmapFactory.decodeByteArray(mBytes, 0, mBytes.length);
+                // EXIF data can take a big chunk of the file size and is often cleared by the
+                // carrier, only store orientation since that's critical. The thumbnail is of the
+                // full image, so it has to go anyway as we're cropping.
+                final ExifInterface exifInterface = new ExifInterface();
+                if (orientation != ExifOrientationReader.ORIENTATION_UNDEFINED) {
+                    exifInterface.setTag(exifInterface.buildTag(ExifInterface.TAG_ORIENTATION,
+                            (short) orientation));
+                }
+                // Only decode the part of the image we keep
+                decoder = BitmapRegionDecoder.newInstance(mBytes, 0, mBytes.length,
+                        false /* isShareable */);
                 final int clippedWidth;
                 final int clippedHeight;
                 if (ExifInterface.getOrientationParams(orientation).invertDimensions) {
-                    Assert.equals(mWidth, bitmap.getHeight());
-                    Assert.equals(mHeight, bitmap.getWidth());
+                    Assert.equals(mWidth, decoder.getHeight());
+                    Assert.equals(mHeight, decoder.getWidth());
                     clippedWidth = (int) (mHeight * mHeightPercent);
                     clippedHeight = mWidth;
                 } else {
-                    Assert.equals(mWidth, bitmap.getWidth());
-                    Assert.equals(mHeight, bitmap.getHeight());
+                    Assert.equals(mWidth, decoder.getWidth());
+                    Assert.equals(mHeight, decoder.getHeight());
                     clippedWidth = mWidth;
                     clippedHeight = (int) (mHeight * mHeightPercent);
                 }
-                final int offsetTop = (bitmap.getHeight() - clippedHeight) / 2;
-                final int offsetLeft = (bitmap.getWidth() - clippedWidth) / 2;
+                final int offsetTop = (decoder.getHeight() - clippedHeight) / 2;
+                final int offsetLeft = (decoder.getWidth() - clippedWidth) / 2;
                 mWidth = clippedWidth;
                 mHeight = clippedHeight;
-                clippedBitmap = Bitmap.createBitmap(clippedWidth, clippedHeight,
-                        Bitmap.Config.ARGB_8888);
-                clippedBitmap.setDensity(bitmap.getDensity());
-                final Canvas clippedBitmapCanvas = new Canvas(clippedBitmap);
-                final Matrix matrix = new Matrix();
-                matrix.postTranslate(-offsetLeft, -offsetTop);
-                clippedBitmapCanvas.drawBitmap(bitmap, matrix, null /* paint */);
-                clippedBitmapCanvas.save();
-                // EXIF data can take a big chunk of the file size and is often cleared by the
-                // carrier, only store orientation since that's critical
-                ExifTag orientationTag = exifInterface.getTag(ExifInterface.TAG_ORIENTATION);
-                exifInterface.clearExif();
-                exifInterface.setTag(orientationTag);
+                clippedBitmap = decoder.decodeRegion(new Rect(offsetLeft, offsetTop,
+                        offsetLeft + clippedWidth, offsetTop + clippedHeight), null /* options */);
+                if (clippedBitmap == null) {
+                    throw new IOException("Unable to decode captured image");
+                }
                 exifInterface.writeExif(clippedBitmap, outputStream);
             } else {
                 outputStream.write(mBytes);
@@ -133,8 +127,8 @@ public class ImagePersistTask extends SafeAsyncTask<Void, Void, Void> {
             mException = e;
             LogUtil.e(TAG, "Unable to persist image to temp storage " + e);
         } finally {
-            if (bitmap != null) {
-                bitmap.recycle();
+            if (decoder != null) {
+                decoder.recycle();
             }
 
             if (clippedBitmap != null) {
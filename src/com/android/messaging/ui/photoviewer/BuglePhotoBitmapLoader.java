@@ -30,9 +30,11 @@ import com.android.messaging.datamodel.media.MediaRequest;
 import com.android.messaging.datamodel.media.MediaResourceManager;
 import com.android.messaging.datamodel.media.UriImageRequestDescriptor;
 import com.android.messaging.util.ImageUtils;
+import com.android.messaging.util.UriUtil;
 
 /**
- * Loader for the bitmap of a photo.
+ * Loader for the bitmap of a photo. Local photos too large to be decoded whole get a
+ * {@link TiledImageDrawable}, which decodes the part on screen in more detail when zoomed in.
  */
 public class BuglePhotoBitmapLoader extends AsyncTaskLoader<BitmapResult>
         implements PhotoBitmapLoaderInterface {
@@ -57,8 +59,9 @@ public class BuglePhotoBitmapLoader extends AsyncTaskLoader<BitmapResult>
         final BitmapResult result = new BitmapResult();
         final Context context = getContext();
         if (context != null && mPhotoUri != null) {
+            final Uri uri = Uri.parse(mPhotoUri);
             final ImageRequestDescriptor descriptor =
-                    new UriImageRequestDescriptor(Uri.parse(mPhotoUri),
+                    new UriImageRequestDescriptor(uri,
                             PhotoViewController.sMaxPhotoSize, PhotoViewController.sMaxPhotoSize,
                             true /* allowCompression */, false /* isStatic */,
                             false /* cropToCircle */,
@@ -71,7 +74,10 @@ public class BuglePhotoBitmapLoader extends AsyncTaskLoader<BitmapResult>
             if (imageResource != null) {
                 setImageResource(imageResource);
                 result.status = BitmapResult.STATUS_SUCCESS;
-                result.drawable = mImageResource.getDrawable(context.getResources());
+                final TiledImageDrawable tiledDrawable = UriUtil.isLocalUri(uri)
+                        ? TiledImageDrawable.create(context, uri, mImageResource) : null;
+                result.drawable = tiledDrawable != null ? tiledDrawable
+                        : mImageResource.getDrawable(context.getResources());
             } else {
                 releaseImageResource();
                 result.status = BitmapResult.STATUS_EXCEPTION;
@@ -164,6 +170,8 @@ public class BuglePhotoBitmapLoader extends AsyncTaskLoader<BitmapResult>
         if (drawable != null && drawable instanceof FrameSequenceDrawable
                 && !((FrameSequenceDrawable) drawable).isDestroyed()) {
             ((FrameSequenceDrawable) drawable).destroy();
+        } else if (drawable instanceof TiledImageDrawable) {
+            ((TiledImageDrawable) drawable).destroy();
         }
 
     }
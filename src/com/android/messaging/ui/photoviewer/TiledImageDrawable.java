@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.ui.photoviewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.collection.ArrayMap;
+import androidx.collection.ArraySet;
+
+import com.android.messaging.datamodel.binding.Binding;
+import com.android.messaging.datamodel.binding.BindingBase;
+import com.android.messaging.datamodel.media.BindableMediaRequest;
+import com.android.messaging.datamodel.media.BugleMediaCacheManager;
+import com.android.messaging.datamodel.media.DecodedImageResource;
+import com.android.messaging.datamodel.media.ImageResource;
+import com.android.messaging.datamodel.media.ImageTileRequestDescriptor;
+import com.android.messaging.datamodel.media.MediaCache;
+import com.android.messaging.datamodel.media.MediaCacheManager;
+import com.android.messaging.datamodel.media.MediaRequest;
+import com.android.messaging.datamodel.media.MediaResourceManager;
+import com.android.messaging.datamodel.media.MediaResourceManager.MediaResourceLoadListener;
+import com.android.messaging.util.Assert;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.ThreadUtil;
+import com.android.messaging.util.exif.ExifInterface;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Drawable for an image too large to be decoded whole at full resolution. It is as large as the
+ * full image and draws its subsampled preview, over which it draws tiles decoded with a
+ * BitmapRegionDecoder at the current zoom, only for the part of the image that is on screen.
+ *
+ * Tiles are requested from the MediaResourceManager and land in the image tile cache. The
+ * drawable holds a reference on the tiles it last drew so that they are not recycled while on
+ * screen, and lets go of the others, so that the memory used by tiles is bounded by the size of
+ * the viewport rather than of the image.
+ */
+public class TiledImageDrawable extends Drawable
+        implements MediaResourceLoadListener<ImageResource> {
+    private static final String TAG = LogUtil.BUGLE_IMAGE_TAG;
+    private static final float SQRT_2 = (float) Math.sqrt(2);
+
+    private final Context mContext;
+    private final Uri mUri;
+    private final Bitmap mPreview;
+    private final BitmapRegionDecoder mDecoder;
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    // Tiles drawn in the last frame, with a reference held
+    private final ArrayMap<String, ImageResource> mTiles = new ArrayMap<>();
+    // Tiles being loaded, unbound when no longer on screen to drop their request
+    private final ArrayMap<String, Binding<BindableMediaRequest<ImageResource>>> mPendingTiles =
+            new ArrayMap<>();
+    // Every tile requested, to remove them from the cache once the image is closed
+    private final ArraySet<String> mRequestedTiles = new ArraySet<>();
+    private final ArraySet<String> mVisibleTiles = new ArraySet<>();
+
+    private final Rect mClipBounds = new Rect();
+    private final Rect mRegion = new Rect();
+    private final RectF mTileBounds = new RectF();
+    private final Matrix mMatrix = new Matrix();
+    private final float[] mMatrixValues = new float[9];
+    private boolean mDestroyed;
+
+    /**
+     * @param imageResource the resource decoded for the image, which must outlive the drawable
+     * @return a drawable tiling the image over the bitmap of the resource, or null if the bitmap
+     *     already has all of the detail of the image or the image can't be decoded by region
+     */
+    @DoesNotRunOnMainThread
+    public static TiledImageDrawable create(final Context context, final Uri uri,
+            final ImageResource imageResource) {
+        Assert.isNotMainThread();
+        if (!(imageResource instanceof DecodedImageResource)) {
+            // GIFs are animated
+            return null;
+        }
+        final int orientation = imageResource.getOrientation();
+        if (orientation != ExifInterface.Orientation.TOP_LEFT && orientation != 0) {
+            // Tiles would have to be rotated along with the preview
+            return null;
+        }
+        final Bitmap preview = imageResource.getBitmap();
+        InputStream inputStream = null;
+        BitmapRegionDecoder decoder = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            decoder = BitmapRegionDecoder.newInstance(inputStream, false /* isShareable */);
+        } catch (final IOException | SecurityException e) {
+            LogUtil.w(TAG, "TiledImageDrawable: can't decode regions of " + uri, e);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (final IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+        if (decoder == null) {
+            return null;
+        }
+        if (decoder.getWidth() <= preview.getWidth()
+                && decoder.getHeight() <= preview.getHeight()) {
+            decoder.recycle();
+            return null;
+        }
+        return new TiledImageDrawable(context, uri, preview, decoder);
+    }
+
+    private TiledImageDrawable(final Context context, final Uri uri, final Bitmap preview,
+            final BitmapRegionDecoder decoder) {
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mPreview = preview;
+        mDecoder = decoder;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mImageWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mImageHeight;
+    }
+
+    @Override
+    public void draw(final Canvas canvas) {
+        final Rect bounds = getBounds();
+        if (bounds.isEmpty() || mPreview.isRecycled()) {
+            return;
+        }
+        canvas.drawBitmap(mPreview, null, bounds, mPaint);
+        if (mDestroyed) {
+            return;
+        }
+
+        mVisibleTiles.clear();
+        // The part of the drawable on screen, and how many screen pixels an image pixel takes
+        if (canvas.getClipBounds(mClipBounds) && mClipBounds.intersect(bounds)) {
+            final float boundsScale = bounds.width() / (float) mImageWidth;
+            canvas.getMatrix(mMatrix);
+            mMatrix.getValues(mMatrixValues);
+            final float scale = boundsScale * (float) Math.hypot(
+                    mMatrixValues[Matrix.MSCALE_X], mMatrixValues[Matrix.MSKEW_Y]);
+            final int sampleSize = getSampleSize(scale);
+            if ((long) mPreview.getWidth() * sampleSize < mImageWidth) {
+                drawTiles(canvas, bounds, boundsScale, sampleSize);
+            }
+        }
+
+        // Let go of the tiles no longer on screen
+        for (int i = mTiles.size() - 1; i >= 0; i--) {
+            if (!mVisibleTiles.contains(mTiles.keyAt(i))) {
+                mTiles.removeAt(i).release();
+            }
+        }
+        for (int i = mPendingTiles.size() - 1; i >= 0; i--) {
+            if (!mVisibleTiles.contains(mPendingTiles.keyAt(i))) {
+                mPendingTiles.removeAt(i).unbind();
+            }
+        }
+    }
+
+    private void drawTiles(final Canvas canvas, final Rect bounds, final float boundsScale,
+            final int sampleSize) {
+        final int tileSpan = ImageTileRequestDescriptor.TILE_SIZE * sampleSize;
+        final int left = Math.max(0, (int) ((mClipBounds.left - bounds.left) / boundsScale));
+        final int top = Math.max(0, (int) ((mClipBounds.top - bounds.top) / boundsScale));
+        final int right = Math.min(mImageWidth,
+                (int) Math.ceil((mClipBounds.right - bounds.left) / boundsScale));
+        final int bottom = Math.min(mImageHeight,
+                (int) Math.ceil((mClipBounds.bottom - bounds.top) / boundsScale));
+        MediaCache<ImageResource> tileCache = null;
+        for (int tileTop = top / tileSpan * tileSpan; tileTop < bottom; tileTop += tileSpan) {
+            for (int tileLeft = left / tileSpan * tileSpan; tileLeft < right;
+                    tileLeft += tileSpan) {
+                mRegion.set(tileLeft, tileTop, Math.min(tileLeft + tileSpan, mImageWidth),
+                        Math.min(tileTop + tileSpan, mImageHeight));
+                final String key = ImageTileRequestDescriptor.getKey(mUri, mRegion, sampleSize);
+                mVisibleTiles.add(key);
+                ImageResource tile = mTiles.get(key);
+                if (tile == null && !mPendingTiles.containsKey(key)) {
+                    if (tileCache == null) {
+                        tileCache = getTileCache();
+                    }
+                    tile = tileCache.fetchResourceFromCache(key);
+                    if (tile != null) {
+                        mTiles.put(key, tile);
+                    } else {
+                        requestTile(key, sampleSize);
+                    }
+                }
+                if (tile != null) {
+                    mTileBounds.set(bounds.left + mRegion.left * boundsScale,
+                            bounds.top + mRegion.top * boundsScale,
+                            bounds.left + mRegion.right * boundsScale,
+                            bounds.top + mRegion.bottom * boundsScale);
+                    canvas.drawBitmap(tile.getBitmap(), null, mTileBounds, mPaint);
+                }
+            }
+        }
+    }
+
+    private void requestTile(final String key, final int sampleSize) {
+        final ImageTileRequestDescriptor descriptor = new ImageTileRequestDescriptor(mUri,
+                mDecoder, new Rect(mRegion), sampleSize);
+        final BindableMediaRequest<ImageResource> request =
+                descriptor.buildAsyncMediaRequest(mContext, this);
+        final Binding<BindableMediaRequest<ImageResource>> binding =
+                BindingBase.createBinding(this);
+        binding.bind(request);
+        mPendingTiles.put(key, binding);
+        mRequestedTiles.add(key);
+        MediaResourceManager.get().requestMediaResourceAsync(request);
+    }
+
+    @Override
+    public void onMediaResourceLoaded(final MediaRequest<ImageResource> request,
+            final ImageResource resource, final boolean cached) {
+        final Binding<BindableMediaRequest<ImageResource>> binding =
+                mPendingTiles.remove(request.getKey());
+        if (binding != null) {
+            binding.unbind();
+            // The reference held for this callback is released after it returns
+            resource.addRef();
+            mTiles.put(request.getKey(), resource);
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void onMediaResourceLoadError(final MediaRequest<ImageResource> request,
+            final Exception exception) {
+        // The preview stays visible under the missing tile
+        final Binding<BindableMediaRequest<ImageResource>> binding =
+                mPendingTiles.remove(request.getKey());
+        if (binding != null) {
+            binding.unbind();
+        }
+    }
+
+    /**
+     * Releases the tiles and the region decoder. The drawable only draws its preview afterwards.
+     */
+    public void destroy() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // Tiles are only touched on the main thread
+            ThreadUtil.getMainThreadHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    destroy();
+                }
+            });
+            return;
+        }
+        if (mDestroyed) {
+            return;
+        }
+        mDestroyed = true;
+        for (int i = 0; i < mPendingTiles.size(); i++) {
+            mPendingTiles.valueAt(i).unbind();
+        }
+        mPendingTiles.clear();
+        for (int i = 0; i < mTiles.size(); i++) {
+            mTiles.valueAt(i).release();
+        }
+        mTiles.clear();
+        final MediaCache<ImageResource> tileCache = getTileCache();
+        for (int i = 0; i < mRequestedTiles.size(); i++) {
+            tileCache.remove(mRequestedTiles.valueAt(i));
+        }
+        mRequestedTiles.clear();
+        mDecoder.recycle();
+    }
+
+    /**
+     * @return the power of two to subsample tiles by to draw them at the given scale, the one
+     *     closest to giving as many image pixels as screen pixels
+     */
+    static int getSampleSize(final float scale) {
+        int sampleSize = 1;
+        while (sampleSize * scale * SQRT_2 <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MediaCache<ImageResource> getTileCache() {
+        return (MediaCache<ImageResource>) MediaCacheManager.get().getOrCreateMediaCacheById(
+                BugleMediaCacheManager.IMAGE_TILE_CACHE);
+    }
+
+    @Override
+    public void setAlpha(final int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(final ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return mPreview.hasAlpha() || mPaint.getAlpha() < 255
+                ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+    }
+}
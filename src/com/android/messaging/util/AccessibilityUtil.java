@@ -38,6 +38,12 @@ public class AccessibilityUtil {
         return accessibilityManager.isTouchExplorationEnabled();
     }
 
+    public static boolean isAccessibilityEnabled(final Context context) {
+        final AccessibilityManager accessibilityManager = (AccessibilityManager)
+                context.getSystemService(Context.ACCESSIBILITY_SERVICE);
+        return accessibilityManager.isEnabled();
+    }
+
     public static StringBuilder appendContentDescription(final Context context,
             final StringBuilder contentDescription, final String val) {
         if (sContentDescriptionDivider == null) {
@@ -68,6 +68,13 @@ public final class BugleGservicesKeys {
     public static final String SMS_SEND_TIMEOUT_IN_MILLIS = "bugle_sms_send_timeout";
     public static final long SMS_SEND_TIMEOUT_IN_MILLIS_DEFAULT = 5 * 60 * 1000L;
 
+    /**
+     * Max number of SMS messages per subscription handed to the radio without their sent status
+     * having come back yet
+     */
+    public static final String SMS_SEND_WINDOW_SIZE = "bugle_sms_send_window_size";
+    public static final int SMS_SEND_WINDOW_SIZE_DEFAULT = 4;
+
     /**
      * Keys to control the SMS sync batch size. The batch size is defined by the number
      * of messages that incur local database change, e.g. importing messages and
@@ -194,6 +201,15 @@ public final class BugleGservicesKeys {
             "bugle_max_messages_in_conversation_notification";
     public static final int MAX_MESSAGES_IN_CONVERSATION_NOTIFICATION_DEFAULT = 7;
 
+    /**
+     * Minimum time between two updates of the message notification. Updates requested sooner,
+     * e.g. while a burst of messages is received, are coalesced into one update at the end of
+     * the interval.
+     */
+    public static final String MESSAGE_NOTIFICATION_UPDATE_INTERVAL_MS =
+            "bugle_message_notification_update_interval_ms";
+    public static final int MESSAGE_NOTIFICATION_UPDATE_INTERVAL_MS_DEFAULT = 500;
+
     /**
      * Time (in seconds) between notification ringing for incoming messages of the same
      * conversation. We won't ding more often than this value for messages coming in at a high rate.
@@ -295,4 +311,12 @@ public final class BugleGservicesKeys {
      */
     public static final String ENABLE_GIF_TRANSCODING = "bugle_gif_transcoding";
     public static final boolean ENABLE_GIF_TRANSCODING_DEFAULT = true;
+
+    /**
+     * Number of messages loaded per page when opening a conversation. Older messages are paged
+     * in as the user scrolls up. Default is {@value #CONVERSATION_MESSAGES_PAGE_SIZE_DEFAULT}.
+     */
+    public static final String CONVERSATION_MESSAGES_PAGE_SIZE =
+            "bugle_conversation_messages_page_size";
+    public static final int CONVERSATION_MESSAGES_PAGE_SIZE_DEFAULT = 300;
 }
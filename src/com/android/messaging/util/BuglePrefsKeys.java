@@ -62,10 +62,4 @@ public final class BuglePrefsKeys {
     public static final int SELECTED_MEDIA_PICKER_CHOOSER_INDEX_DEFAULT
             = -1;
 
-    /**
-     * The attempt number when retrying ProcessPendingMessagesAction
-     */
-    public static final String PROCESS_PENDING_MESSAGES_RETRY_COUNT
-            = BuglePrefs.SHARED_PREFERENCES_PER_SUBSCRIPTION_PREFIX + "process_pending_retry";
-
 }
@@ -27,6 +27,11 @@ import com.android.messaging.R;
  * this per active subscription.
  */
 public class BugleSubscriptionPrefs extends BuglePrefsImpl {
+    // The retry attempt of ProcessPendingMessagesAction, before pending messages were backed off
+    // one by one in the messages table
+    private static final String OBSOLETE_PROCESS_PENDING_MESSAGES_RETRY_COUNT =
+            SHARED_PREFERENCES_PER_SUBSCRIPTION_PREFIX + "process_pending_retry";
+
     private final int mSubId;
 
     public BugleSubscriptionPrefs(final Context context, final int subId) {
@@ -67,6 +72,10 @@ public class BugleSubscriptionPrefs extends BuglePrefsImpl {
                     migratePrefStringInternal(BuglePrefs.getApplicationPrefs(), "mms_phone_number",
                             R.string.mms_phone_number_pref_key, null);
                 }
+                // Fall through
+            case 1:
+                // Upgrade to version 2. Pending messages keep their own backoff.
+                remove(OBSOLETE_PROCESS_PENDING_MESSAGES_RETRY_COUNT);
         }
     }
 
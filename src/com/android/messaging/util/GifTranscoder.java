@@ -17,8 +17,13 @@
 package com.android.messaging.util;
 
 import android.content.Context;
+import android.os.CancellationSignal;
 import android.text.format.Formatter;
 
+import androidx.annotation.Nullable;
+
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 
 import java.io.File;
@@ -36,17 +41,44 @@ public class GifTranscoder {
     private static int MIN_HEIGHT = 100;
     private static int MIN_WIDTH = 100;
 
+    // The rows of each image are split between this many threads
+    private static final int DEFAULT_THREAD_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     static {
         System.loadLibrary("giftranscode");
     }
 
+    /**
+     * Receives the progress of a transcode, on the transcoding thread.
+     */
+    public interface ProgressListener {
+        /**
+         * @param progress fraction of the input GIF transcoded so far, between 0 and 1
+         */
+        void onProgress(float progress);
+    }
+
     public static boolean transcode(Context context, String filePath, String outFilePath) {
+        return transcode(context, filePath, outFilePath, null /* cancellationSignal */,
+                null /* listener */);
+    }
+
+    /**
+     * Transcodes a GIF, reporting progress after each image and stopping early if the signal is
+     * cancelled. Nothing is left at outFilePath if it fails or is cancelled.
+     */
+    @DoesNotRunOnMainThread
+    public static boolean transcode(Context context, String filePath, String outFilePath,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ProgressListener listener) {
         if (!isEnabled()) {
             return false;
         }
         final long inputSize = new File(filePath).length();
         Stopwatch stopwatch = Stopwatch.createStarted();
-        final boolean success = transcodeInternal(filePath, outFilePath);
+        final boolean success = transcode(filePath, outFilePath, DEFAULT_THREAD_COUNT,
+                cancellationSignal, listener);
         stopwatch.stop();
         final long elapsedMs = stopwatch.elapsed(TimeUnit.MILLISECONDS);
         final long outputSize = new File(outFilePath).length();
@@ -59,11 +91,59 @@ public class GifTranscoder {
                     Formatter.formatShortFileSize(context, inputSize),
                     Formatter.formatShortFileSize(context, outputSize),
                     compression * 100.0f));
+        } else if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+            LogUtil.i(TAG, "Cancelled resizing GIF (" + LogUtil.sanitizePII(filePath)
+                    + ") after " + elapsedMs + " ms");
+        }
+        return success;
+    }
+
+    @VisibleForTesting
+    static boolean transcode(String filePath, String outFilePath, int threadCount,
+            @Nullable CancellationSignal cancellationSignal,
+            @Nullable ProgressListener listener) {
+        final NativeCallback callback = (cancellationSignal == null && listener == null) ? null
+                : new NativeCallback(new File(filePath).length(), cancellationSignal, listener);
+        final boolean success = transcodeInternal(filePath, outFilePath, threadCount, callback);
+        if (!success) {
+            new File(outFilePath).delete();
         }
         return success;
     }
 
-    private static native boolean transcodeInternal(String filePath, String outFilePath);
+    /**
+     * Turns the input bytes read by the native transcoder into progress and checks for
+     * cancellation.
+     */
+    private static class NativeCallback {
+        private final long mInputSize;
+        private final CancellationSignal mCancellationSignal;
+        private final ProgressListener mListener;
+
+        NativeCallback(final long inputSize, final CancellationSignal cancellationSignal,
+                final ProgressListener listener) {
+            mInputSize = inputSize;
+            mCancellationSignal = cancellationSignal;
+            mListener = listener;
+        }
+
+        /**
+         * Called from native code after each image of the GIF is written.
+         * @return whether to keep going
+         */
+        boolean onImageTranscoded(final long bytesRead) {
+            if (mCancellationSignal != null && mCancellationSignal.isCanceled()) {
+                return false;
+            }
+            if (mListener != null && mInputSize > 0) {
+                mListener.onProgress(Math.min(1.0f, (float) bytesRead / mInputSize));
+            }
+            return true;
+        }
+    }
+
+    private static native boolean transcodeInternal(String filePath, String outFilePath,
+            int threadCount, NativeCallback callback);
 
     /**
      * Estimates the size of a GIF transcoded from a GIF with the specified size.
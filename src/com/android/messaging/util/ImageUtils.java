@@ -31,6 +31,7 @@ import android.graphics.RectF;
 import android.graphics.Shader.TileMode;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.provider.MediaStore;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
@@ -42,6 +43,7 @@ import com.android.messaging.datamodel.MessagingContentProvider;
 import com.android.messaging.datamodel.media.ImageRequest;
 import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
 import com.android.messaging.util.exif.ExifInterface;
+import com.android.messaging.util.exif.ExifOrientationReader;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.Files;
 
@@ -269,13 +271,7 @@ public class ImageUtils {
         int orientation = android.media.ExifInterface.ORIENTATION_UNDEFINED;
         if (inputStream != null) {
             try {
-                final ExifInterface exifInterface = new ExifInterface();
-                exifInterface.readExif(inputStream);
-                final Integer orientationValue =
-                        exifInterface.getTagIntValue(ExifInterface.TAG_ORIENTATION);
-                if (orientationValue != null) {
-                    orientation = orientationValue.intValue();
-                }
+                orientation = ExifOrientationReader.readOrientation(inputStream);
             } catch (IOException e) {
                 // If the image if GIF, PNG, or missing exif header, just use the defaults
             } finally {
@@ -375,6 +371,30 @@ public class ImageUtils {
          */
         private static final float MAX_TARGET_SCALE_FACTOR = 1.5f;
 
+        /**
+         * Fraction of the byte limit the predicted quality and scale aim for, leaving headroom
+         * for the prediction error so that the first encode usually fits
+         */
+        private static final float TARGET_SIZE_RATIO = 0.9f;
+
+        /**
+         * Number and height of the full width bands sampled from the image to probe how well it
+         * compresses. The height is a multiple of the largest JPEG block size.
+         */
+        private static final int PROBE_BANDS = 4;
+        private static final int PROBE_BAND_HEIGHT = 32;
+
+        /**
+         * Maximum number of probes (each followed by a rescale if even the minimum quality is
+         * predicted not to fit) before encoding the whole image
+         */
+        private static final int MAX_PROBE_ROUNDS = 2;
+
+        /**
+         * Approximate size of the JPEG headers and tables, which does not grow with the pixels
+         */
+        private static final int JPEG_HEADER_SIZE = 600;
+
 
         // Current sample size for subsampling image during initial decode
         private int mSampleSize;
@@ -388,6 +408,18 @@ public class ImageUtils {
         private float mScaleFactor;
         // Flag keeping track of whether cache memory has been reclaimed
         private boolean mHasReclaimedMemory;
+        // Whether quality and scale are still to be predicted from a probe before encoding
+        private boolean mShouldProbe;
+        // Predicted encoded bytes per pixel at the highest and lowest quality (0 if unknown)
+        private float mHighQualityBytesPerPixel;
+        private float mLowQualityBytesPerPixel;
+        // Buffer reused by all encodes of the whole image, allocated by the first one at the
+        // predicted size
+        private ByteArrayOutputStream mEncodeBuffer;
+        // Number of encodes of the whole image and of probes, for benchmarking. A probe encodes
+        // a few bands of the image at two qualities.
+        private int mEncodeCount;
+        private int mProbeCount;
 
         // Initial size of the image (typically provided but can be UNSPECIFIED_SIZE)
         private int mWidth;
@@ -407,6 +439,8 @@ public class ImageUtils {
         // Cached value of bitmap factory options
         private final BitmapFactory.Options mOptions;
         private final String mContentType;
+        // Stops resizing early once cancelled, if set
+        private CancellationSignal mCancellationSignal;
 
         private final int mMemoryClass;
 
@@ -428,15 +462,33 @@ public class ImageUtils {
                 final int orientation, final int widthLimit, final int heightLimit,
                 final int byteLimit, final Uri uri, final Context context,
                 final String contentType) {
+            return getResizedImageData(width, height, orientation, widthLimit, heightLimit,
+                    byteLimit, uri, context, contentType, null /* cancellationSignal */);
+        }
+
+        /**
+         * Same as above, giving up and returning null as soon as possible once the signal is
+         * cancelled, including in the middle of transcoding a GIF.
+         */
+        public static byte[] getResizedImageData(final int width, final int height,
+                final int orientation, final int widthLimit, final int heightLimit,
+                final int byteLimit, final Uri uri, final Context context,
+                final String contentType, @Nullable final CancellationSignal cancellationSignal) {
             final ImageResizer resizer = new ImageResizer(width, height, orientation,
                     widthLimit, heightLimit, byteLimit, uri, context, contentType);
+            resizer.mCancellationSignal = cancellationSignal;
             return resizer.resize();
         }
 
+        private boolean isCanceled() {
+            return mCancellationSignal != null && mCancellationSignal.isCanceled();
+        }
+
         /**
          * Create and initialize an image resizer
          */
-        private ImageResizer(final int width, final int height, final int orientation,
+        @VisibleForTesting
+        ImageResizer(final int width, final int height, final int orientation,
                 final int widthLimit, final int heightLimit, final int byteLimit, final Uri uri,
                 final Context context, final String contentType) {
             mWidth = width;
@@ -452,6 +504,7 @@ public class ImageUtils {
             mQuality = IMAGE_COMPRESSION_QUALITY;
             mScaleFactor = 1.0f;
             mHasReclaimedMemory = false;
+            mShouldProbe = true;
             mOptions = new BitmapFactory.Options();
             mOptions.inScaled = false;
             mOptions.inDensity = 0;
@@ -470,10 +523,29 @@ public class ImageUtils {
          *
          * @return encoded image meeting size requirements else null
          */
-        private byte[] resize() {
+        @VisibleForTesting
+        byte[] resize() {
             return ImageUtils.isGif(mContentType, mUri) ? resizeGifImage() : resizeStaticImage();
         }
 
+        /**
+         * Turns off predicting quality and scale, leaving only the step by step search
+         */
+        @VisibleForTesting
+        void disableProbe() {
+            mShouldProbe = false;
+        }
+
+        @VisibleForTesting
+        int getEncodeCount() {
+            return mEncodeCount;
+        }
+
+        @VisibleForTesting
+        int getProbeCount() {
+            return mProbeCount;
+        }
+
         private byte[] resizeGifImage() {
             byte[] bytesToReturn = null;
             final String inputFilePath;
@@ -493,8 +565,8 @@ public class ImageUtils {
                 final File outputFile = MediaScratchFileProvider.getFileFromUri(tmpUri);
                 final String outputFilePath = outputFile.getAbsolutePath();
 
-                final boolean success =
-                        GifTranscoder.transcode(mContext, inputFilePath, outputFilePath);
+                final boolean success = GifTranscoder.transcode(mContext, inputFilePath,
+                        outputFilePath, mCancellationSignal, null /* listener */);
                 if (success) {
                     try {
                         bytesToReturn = Files.toByteArray(outputFile);
@@ -533,6 +605,9 @@ public class ImageUtils {
             //  Decode image - if out of memory - reclaim memory and retry
             try {
                 for (int attempts = 0; attempts < NUMBER_OF_RESIZE_ATTEMPTS; attempts++) {
+                    if (isCanceled()) {
+                        return null;
+                    }
                     final byte[] encoded = recodeImage(attempts);
 
                     // Only return data within the limit
@@ -540,7 +615,9 @@ public class ImageUtils {
                         return encoded;
                     } else {
                         final int currentSize = (encoded == null ? 0 : encoded.length);
-                        updateRecodeParameters(currentSize);
+                        if (currentSize == 0 || !correctRecodeParameters(currentSize)) {
+                            updateRecodeParameters(currentSize);
+                        }
                     }
                 }
             } catch (final FileNotFoundException e) {
@@ -672,70 +749,31 @@ public class ImageUtils {
         private byte[] recodeImage(final int attempt) throws FileNotFoundException {
             byte[] encoded = null;
             try {
-                final ContentResolver cr = mContext.getContentResolver();
                 final boolean logv = LogUtil.isLoggable(LogUtil.BUGLE_IMAGE_TAG, LogUtil.VERBOSE);
                 if (logv) {
                     LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "getResizedImageData: attempt=" + attempt
                             + " limit (w=" + mWidthLimit + " h=" + mHeightLimit + ") quality="
                             + mQuality + " scale=" + mScaleFactor + " sampleSize=" + mSampleSize);
                 }
-                if (mScaled == null) {
-                    if (mDecoded == null) {
-                        mOptions.inSampleSize = mSampleSize;
-                        try (final InputStream inputStream = cr.openInputStream(mUri)) {
-                            mDecoded = BitmapFactory.decodeStream(inputStream, null, mOptions);
-                        } catch (IOException e) {
-                            // Ignore
-                        }
-                        if (mDecoded == null) {
-                            if (logv) {
-                                LogUtil.v(LogUtil.BUGLE_IMAGE_TAG,
-                                        "getResizedImageData: got empty decoded bitmap");
-                            }
+                if (!ensureScaledImage(logv)) {
+                    return null;
+                }
+                if (mShouldProbe) {
+                    // Predict once, from the first image which decoded
+                    mShouldProbe = false;
+                    int rounds = 1;
+                    while (probeRecodeParameters(logv) && rounds < MAX_PROBE_ROUNDS) {
+                        if (!ensureScaledImage(logv)) {
                             return null;
                         }
+                        rounds++;
                     }
-                    if (logv) {
-                        LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "getResizedImageData: decoded w,h="
-                                + mDecoded.getWidth() + "," + mDecoded.getHeight());
-                    }
-                    // Make sure to scale the decoded image if dimension is not within limit
-                    final int decodedWidth = mDecoded.getWidth();
-                    final int decodedHeight = mDecoded.getHeight();
-                    if (decodedWidth > mWidthLimit || decodedHeight > mHeightLimit) {
-                        final float minScaleFactor = Math.max(
-                                mWidthLimit == 0 ? 1.0f :
-                                    (float) decodedWidth / (float) mWidthLimit,
-                                    mHeightLimit == 0 ? 1.0f :
-                                        (float) decodedHeight / (float) mHeightLimit);
-                        if (mScaleFactor < minScaleFactor) {
-                            mScaleFactor = minScaleFactor;
-                        }
-                    }
-                    if (mScaleFactor > 1.0 || mOrientationParams.rotation != 0) {
-                        mMatrix.reset();
-                        mMatrix.postRotate(mOrientationParams.rotation);
-                        mMatrix.postScale(mOrientationParams.scaleX / mScaleFactor,
-                                mOrientationParams.scaleY / mScaleFactor);
-                        mScaled = Bitmap.createBitmap(mDecoded, 0, 0, decodedWidth, decodedHeight,
-                                mMatrix, false /* filter */);
-                        if (mScaled == null) {
-                            if (logv) {
-                                LogUtil.v(LogUtil.BUGLE_IMAGE_TAG,
-                                        "getResizedImageData: got empty scaled bitmap");
-                            }
-                            return null;
-                        }
-                        if (logv) {
-                            LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "getResizedImageData: scaled w,h="
-                                    + mScaled.getWidth() + "," + mScaled.getHeight());
-                        }
-                    } else {
-                        mScaled = mDecoded;
+                    if (!ensureScaledImage(logv)) {
+                        return null;
                     }
                 }
                 // Now encode it at current quality
-                encoded = ImageUtils.bitmapToBytes(mScaled, mQuality);
+                encoded = encode(mScaled, mQuality);
                 if (encoded != null && logv) {
                     LogUtil.v(LogUtil.BUGLE_IMAGE_TAG,
                             "getResizedImageData: Encoded down to " + encoded.length + "@"
@@ -751,6 +789,252 @@ public class ImageUtils {
             return encoded;
         }
 
+        /**
+         * Decode the image at the current sample size and scale it by the current scale factor,
+         * unless that was already done
+         * @return flag indicating whether there is a scaled image to encode
+         */
+        private boolean ensureScaledImage(final boolean logv) throws FileNotFoundException {
+            if (mScaled != null) {
+                return true;
+            }
+            if (mDecoded == null) {
+                mOptions.inSampleSize = mSampleSize;
+                try (final InputStream inputStream =
+                        mContext.getContentResolver().openInputStream(mUri)) {
+                    mDecoded = BitmapFactory.decodeStream(inputStream, null, mOptions);
+                } catch (IOException e) {
+                    // Ignore
+                }
+                if (mDecoded == null) {
+                    if (logv) {
+                        LogUtil.v(LogUtil.BUGLE_IMAGE_TAG,
+                                "getResizedImageData: got empty decoded bitmap");
+                    }
+                    return false;
+                }
+            }
+            if (logv) {
+                LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "getResizedImageData: decoded w,h="
+                        + mDecoded.getWidth() + "," + mDecoded.getHeight());
+            }
+            // Make sure to scale the decoded image if dimension is not within limit
+            final int decodedWidth = mDecoded.getWidth();
+            final int decodedHeight = mDecoded.getHeight();
+            if (decodedWidth > mWidthLimit || decodedHeight > mHeightLimit) {
+                final float minScaleFactor = Math.max(
+                        mWidthLimit == 0 ? 1.0f :
+                            (float) decodedWidth / (float) mWidthLimit,
+                            mHeightLimit == 0 ? 1.0f :
+                                (float) decodedHeight / (float) mHeightLimit);
+                if (mScaleFactor < minScaleFactor) {
+                    mScaleFactor = minScaleFactor;
+                }
+            }
+            if (mScaleFactor > 1.0 || mOrientationParams.rotation != 0) {
+                mMatrix.reset();
+                mMatrix.postRotate(mOrientationParams.rotation);
+                mMatrix.postScale(mOrientationParams.scaleX / mScaleFactor,
+                        mOrientationParams.scaleY / mScaleFactor);
+                mScaled = Bitmap.createBitmap(mDecoded, 0, 0, decodedWidth, decodedHeight,
+                        mMatrix, false /* filter */);
+                if (mScaled == null) {
+                    if (logv) {
+                        LogUtil.v(LogUtil.BUGLE_IMAGE_TAG,
+                                "getResizedImageData: got empty scaled bitmap");
+                    }
+                    return false;
+                }
+                if (logv) {
+                    LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "getResizedImageData: scaled w,h="
+                            + mScaled.getWidth() + "," + mScaled.getHeight());
+                }
+            } else {
+                mScaled = mDecoded;
+            }
+            return true;
+        }
+
+        /**
+         * Encode a bitmap into the reused buffer
+         * @return encoded bitmap
+         */
+        private byte[] encode(final Bitmap bitmap, final int quality) {
+            if (mEncodeBuffer == null) {
+                mEncodeBuffer = new ByteArrayOutputStream(
+                        getPredictedSize(bitmap.getWidth() * bitmap.getHeight(), quality));
+            } else {
+                mEncodeBuffer.reset();
+            }
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, mEncodeBuffer);
+            mEncodeCount++;
+            return mEncodeBuffer.toByteArray();
+        }
+
+        /**
+         * Encode bands sampled across the scaled image at the highest and lowest quality and
+         * predict from them the quality, and if needed the scale, at which the whole image
+         * fits the byte limit. The encoded size per pixel is modeled as exponential in quality.
+         * @return flag indicating whether the scale was changed, so the image must be rescaled
+         */
+        private boolean probeRecodeParameters(final boolean logv) {
+            final Bitmap probe = createProbeBitmap(mScaled);
+            try {
+                final int probePixels = probe.getWidth() * probe.getHeight();
+                // Bands are small, a byte per pixel is more than they encode to at any quality
+                final ByteArrayOutputStream probeBuffer =
+                        new ByteArrayOutputStream(JPEG_HEADER_SIZE + probePixels);
+                mHighQualityBytesPerPixel = getBytesPerPixel(probe, IMAGE_COMPRESSION_QUALITY,
+                        probePixels, probeBuffer);
+                mLowQualityBytesPerPixel = getBytesPerPixel(probe,
+                        MINIMUM_IMAGE_COMPRESSION_QUALITY, probePixels, probeBuffer);
+                mProbeCount++;
+            } finally {
+                if (probe != mScaled) {
+                    probe.recycle();
+                }
+            }
+            if (logv) {
+                LogUtil.v(LogUtil.BUGLE_IMAGE_TAG, "getResizedImageData: probed bytes/pixel "
+                        + mHighQualityBytesPerPixel + "~" + IMAGE_COMPRESSION_QUALITY + " "
+                        + mLowQualityBytesPerPixel + "~" + MINIMUM_IMAGE_COMPRESSION_QUALITY);
+            }
+            return predictRecodeParameters(logv);
+        }
+
+        private static float getBytesPerPixel(final Bitmap probe, final int quality,
+                final int probePixels, final ByteArrayOutputStream probeBuffer) {
+            probeBuffer.reset();
+            probe.compress(Bitmap.CompressFormat.JPEG, quality, probeBuffer);
+            return Math.max(1, probeBuffer.size() - JPEG_HEADER_SIZE) / (float) probePixels;
+        }
+
+        /**
+         * Predict the encoded size of an image from the probe, or if there was none assume it
+         * is about the byte limit
+         */
+        private int getPredictedSize(final int pixels, final int quality) {
+            if (mHighQualityBytesPerPixel <= 0 || mLowQualityBytesPerPixel <= 0) {
+                return mByteLimit;
+            }
+            return JPEG_HEADER_SIZE + (int) (pixels * getPredictedBytesPerPixel(quality));
+        }
+
+        /**
+         * Interpolate the probed bytes per pixel at the given quality
+         */
+        private double getPredictedBytesPerPixel(final int quality) {
+            return mLowQualityBytesPerPixel
+                    * Math.pow(mHighQualityBytesPerPixel / mLowQualityBytesPerPixel,
+                            (double) (quality - MINIMUM_IMAGE_COMPRESSION_QUALITY)
+                                    / (IMAGE_COMPRESSION_QUALITY
+                                            - MINIMUM_IMAGE_COMPRESSION_QUALITY));
+        }
+
+        /**
+         * Return full width bands evenly spaced down the image, in one bitmap, or the image
+         * itself if it is barely larger than the bands
+         */
+        private static Bitmap createProbeBitmap(final Bitmap source) {
+            final int width = source.getWidth();
+            final int height = source.getHeight();
+            final int probeHeight = PROBE_BANDS * PROBE_BAND_HEIGHT;
+            if (height <= probeHeight * 2) {
+                return source;
+            }
+            final Bitmap probe = Bitmap.createBitmap(width, probeHeight, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(probe);
+            final Rect sourceRect = new Rect();
+            final Rect probeRect = new Rect();
+            for (int band = 0; band < PROBE_BANDS; band++) {
+                // Center each band in its own slice of the image
+                final int top = (int) ((band + 0.5f) * height / PROBE_BANDS)
+                        - PROBE_BAND_HEIGHT / 2;
+                sourceRect.set(0, top, width, top + PROBE_BAND_HEIGHT);
+                probeRect.set(0, band * PROBE_BAND_HEIGHT, width, (band + 1) * PROBE_BAND_HEIGHT);
+                canvas.drawBitmap(source, sourceRect, probeRect, null);
+            }
+            return probe;
+        }
+
+        /**
+         * Pick the highest quality at which the scaled image is predicted to fit, else scale the
+         * image down to the area predicted to fit at the minimum quality
+         * @return flag indicating whether the scale was changed, so the image must be rescaled
+         */
+        private boolean predictRecodeParameters(final boolean logv) {
+            final int pixels = mScaled.getWidth() * mScaled.getHeight();
+            final float targetBytesPerPixel =
+                    (mByteLimit * TARGET_SIZE_RATIO - JPEG_HEADER_SIZE) / pixels;
+            if (targetBytesPerPixel <= 0) {
+                return false;
+            }
+            if (mHighQualityBytesPerPixel <= targetBytesPerPixel) {
+                mQuality = IMAGE_COMPRESSION_QUALITY;
+            } else if (mLowQualityBytesPerPixel <= targetBytesPerPixel) {
+                final double quality = mHighQualityBytesPerPixel <= mLowQualityBytesPerPixel
+                        ? IMAGE_COMPRESSION_QUALITY
+                        : MINIMUM_IMAGE_COMPRESSION_QUALITY
+                                + (IMAGE_COMPRESSION_QUALITY - MINIMUM_IMAGE_COMPRESSION_QUALITY)
+                                * Math.log(targetBytesPerPixel / mLowQualityBytesPerPixel)
+                                / Math.log(mHighQualityBytesPerPixel / mLowQualityBytesPerPixel);
+                mQuality = Math.max(MINIMUM_IMAGE_COMPRESSION_QUALITY,
+                        Math.min(IMAGE_COMPRESSION_QUALITY, (int) quality));
+            } else {
+                // Even the minimum quality is too big - shrink the area by the excess. Images
+                // lose less size than area when scaled down, which the next probe or the
+                // correction after encoding catches.
+                mQuality = MINIMUM_IMAGE_COMPRESSION_QUALITY;
+                mScaleFactor = mScaleFactor
+                        / (float) Math.sqrt(targetBytesPerPixel / mLowQualityBytesPerPixel);
+                if (logv) {
+                    LogUtil.v(LogUtil.BUGLE_IMAGE_TAG,
+                            "getResizedImageData: Predicted scale " + mScaleFactor);
+                }
+                // Release scaled bitmap to trigger rescaling
+                if (mScaled != mDecoded) {
+                    mScaled.recycle();
+                }
+                mScaled = null;
+                return true;
+            }
+            if (logv) {
+                LogUtil.v(LogUtil.BUGLE_IMAGE_TAG,
+                        "getResizedImageData: Predicted quality " + mQuality);
+            }
+            return false;
+        }
+
+        /**
+         * When an image encoded at a predicted quality is still too big, scale the prediction by
+         * its error and predict again
+         * @param currentSize encoded image size
+         * @return flag indicating whether parameters were updated, else the step by step search
+         *     should take over
+         */
+        private boolean correctRecodeParameters(final int currentSize) {
+            if (mHighQualityBytesPerPixel <= 0 || mLowQualityBytesPerPixel <= 0
+                    || mScaled == null) {
+                return false;
+            }
+            final int pixels = mScaled.getWidth() * mScaled.getHeight();
+            final float actualBytesPerPixel =
+                    Math.max(1, currentSize - JPEG_HEADER_SIZE) / (float) pixels;
+            final double predictedBytesPerPixel = getPredictedBytesPerPixel(mQuality);
+            final float error = (float) (actualBytesPerPixel / predictedBytesPerPixel);
+            if (error <= 1.0f) {
+                // The model was not too optimistic, so correcting it would not help
+                return false;
+            }
+            final int previousQuality = mQuality;
+            final float previousScaleFactor = mScaleFactor;
+            mHighQualityBytesPerPixel *= error;
+            mLowQualityBytesPerPixel *= error;
+            final boolean logv = LogUtil.isLoggable(LogUtil.BUGLE_IMAGE_TAG, LogUtil.VERBOSE);
+            predictRecodeParameters(logv);
+            return mQuality < previousQuality || mScaleFactor > previousScaleFactor;
+        }
+
         /**
          * When image recode fails this method updates compression parameters for the next attempt
          * @param currentSize encoded image size (will be 0 if OOM)
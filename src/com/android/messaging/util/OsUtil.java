@@ -43,6 +43,7 @@ public class OsUtil {
     private static boolean sIsAtLeastL_MR1;
     private static boolean sIsAtLeastM;
     private static boolean sIsAtLeastN;
+    private static boolean sIsAtLeastO;
 
     private static Boolean sIsSecondaryUser = null;
 
@@ -57,6 +58,7 @@ public class OsUtil {
         sIsAtLeastL_MR1 = v >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1;
         sIsAtLeastM = v >= android.os.Build.VERSION_CODES.M;
         sIsAtLeastN = BuildCompat.isAtLeastN();
+        sIsAtLeastO = v >= android.os.Build.VERSION_CODES.O;
     }
 
     /**
@@ -131,6 +133,14 @@ public class OsUtil {
         return sIsAtLeastN;
     }
 
+    /**
+     * @return True if the version of Android that we're running on is at least O
+     *  (API level 26).
+     */
+    public static boolean isAtLeastO() {
+        return sIsAtLeastO;
+    }
+
     /**
      * @return The Android API version of the OS that we're currently running on.
      */
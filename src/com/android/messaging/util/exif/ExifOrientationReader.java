@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.util.exif;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads only the orientation tag of a JPEG image. It walks the segment headers up to the EXIF
+ * APP1 segment and then the entries of IFD 0, reading forward through a small per-thread buffer
+ * and stopping as soon as the tag is found or passed, so that unlike
+ * {@link ExifInterface#readExif(InputStream)} it allocates nothing and never looks at the other
+ * IFDs or the thumbnail.
+ */
+public final class ExifOrientationReader {
+    /**
+     * Returned when the image has no orientation tag, same as
+     * android.media.ExifInterface.ORIENTATION_UNDEFINED
+     */
+    public static final int ORIENTATION_UNDEFINED = 0;
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int SOS = 0xDA;
+    private static final short ORIENTATION_TAG_ID =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_ORIENTATION);
+    private static final int TIFF_HEADER_SIZE = 8;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    // Large enough for an IFD entry, the largest structure read at once
+    private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[IFD_ENTRY_SIZE];
+        }
+    };
+
+    private ExifOrientationReader() {
+    }
+
+    /**
+     * @param inputStream The stream to the image file, positioned at its start. Not closed.
+     * @return the EXIF orientation of the image, or ORIENTATION_UNDEFINED if it has none or is
+     *     not a JPEG image
+     */
+    public static int readOrientation(final InputStream inputStream) throws IOException {
+        final byte[] buffer = sBuffer.get();
+        if (!readFully(inputStream, buffer, 2) || getShort(buffer, 0, false) != JpegHeader.SOI) {
+            return ORIENTATION_UNDEFINED;
+        }
+        while (readFully(inputStream, buffer, 4)) {
+            if ((buffer[0] & 0xFF) != MARKER_PREFIX) {
+                return ORIENTATION_UNDEFINED;
+            }
+            final short marker = getShort(buffer, 0, false);
+            final int markerType = buffer[1] & 0xFF;
+            if (marker == JpegHeader.EOI || markerType == SOS || JpegHeader.isSofMarker(marker)) {
+                // Image data starts, there is no EXIF data past this point
+                return ORIENTATION_UNDEFINED;
+            }
+            int length = getUnsignedShort(buffer, 2, false) - 2;
+            if (length < 0) {
+                return ORIENTATION_UNDEFINED;
+            }
+            // Some invalid formatted image contains multiple APP1, keep looking for the one with
+            // Exif data
+            if (marker == JpegHeader.APP1 && length >= 6 + TIFF_HEADER_SIZE) {
+                if (!readFully(inputStream, buffer, 6)) {
+                    return ORIENTATION_UNDEFINED;
+                }
+                length -= 6;
+                if (getInt(buffer, 0, false) == ExifParser.EXIF_HEADER
+                        && getShort(buffer, 4, false) == ExifParser.EXIF_HEADER_TAIL) {
+                    return readTiffOrientation(inputStream, buffer, length);
+                }
+            }
+            if (!skipFully(inputStream, length)) {
+                return ORIENTATION_UNDEFINED;
+            }
+        }
+        return ORIENTATION_UNDEFINED;
+    }
+
+    /**
+     * Reads the orientation from the TIFF data of an EXIF segment, positioned at its start
+     */
+    private static int readTiffOrientation(final InputStream inputStream, final byte[] buffer,
+            final int length) throws IOException {
+        if (!readFully(inputStream, buffer, TIFF_HEADER_SIZE)) {
+            return ORIENTATION_UNDEFINED;
+        }
+        final short byteOrder = getShort(buffer, 0, false);
+        final boolean littleEndian;
+        if (byteOrder == ExifParser.LITTLE_ENDIAN_TAG) {
+            littleEndian = true;
+        } else if (byteOrder == ExifParser.BIG_ENDIAN_TAG) {
+            littleEndian = false;
+        } else {
+            return ORIENTATION_UNDEFINED;
+        }
+        if (getShort(buffer, 2, littleEndian) != ExifParser.TIFF_HEADER_TAIL) {
+            return ORIENTATION_UNDEFINED;
+        }
+        // Offsets are relative to the start of the TIFF header
+        final long ifdOffset = getInt(buffer, 4, littleEndian) & 0xFFFFFFFFL;
+        if (ifdOffset < TIFF_HEADER_SIZE || ifdOffset + 2 > length
+                || !skipFully(inputStream, ifdOffset - TIFF_HEADER_SIZE)
+                || !readFully(inputStream, buffer, 2)) {
+            return ORIENTATION_UNDEFINED;
+        }
+        final int entryCount = getUnsignedShort(buffer, 0, littleEndian);
+        for (int i = 0; i < entryCount; i++) {
+            if (ifdOffset + 2 + (i + 1) * IFD_ENTRY_SIZE > length
+                    || !readFully(inputStream, buffer, IFD_ENTRY_SIZE)) {
+                return ORIENTATION_UNDEFINED;
+            }
+            final int tagId = getUnsignedShort(buffer, 0, littleEndian);
+            if (tagId == (ORIENTATION_TAG_ID & 0xFFFF)) {
+                // The value fits in the entry, left aligned
+                final short type = getShort(buffer, 2, littleEndian);
+                if (type == ExifTag.TYPE_UNSIGNED_SHORT) {
+                    return getUnsignedShort(buffer, 8, littleEndian);
+                } else if (type == ExifTag.TYPE_UNSIGNED_LONG) {
+                    return getInt(buffer, 8, littleEndian);
+                }
+                return ORIENTATION_UNDEFINED;
+            } else if (tagId > (ORIENTATION_TAG_ID & 0xFFFF)) {
+                // Entries are sorted by tag
+                return ORIENTATION_UNDEFINED;
+            }
+        }
+        return ORIENTATION_UNDEFINED;
+    }
+
+    private static boolean readFully(final InputStream inputStream, final byte[] buffer,
+            final int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            final int read = inputStream.read(buffer, offset, count - offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private static boolean skipFully(final InputStream inputStream, final long count)
+            throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            final long skipped = inputStream.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else if (inputStream.read() >= 0) {
+                // Some streams cannot skip, or skip nothing until read
+                remaining--;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getUnsignedShort(final byte[] buffer, final int offset,
+            final boolean littleEndian) {
+        return getShort(buffer, offset, littleEndian) & 0xFFFF;
+    }
+
+    private static short getShort(final byte[] buffer, final int offset,
+            final boolean littleEndian) {
+        final int first = buffer[offset] & 0xFF;
+        final int second = buffer[offset + 1] & 0xFF;
+        return (short) (littleEndian ? (second << 8) | first : (first << 8) | second);
+    }
+
+    private static int getInt(final byte[] buffer, final int offset, final boolean littleEndian) {
+        if (littleEndian) {
+            return (getUnsignedShort(buffer, offset + 2, true) << 16)
+                    | getUnsignedShort(buffer, offset, true);
+        }
+        return (getUnsignedShort(buffer, offset, false) << 16)
+                | getUnsignedShort(buffer, offset + 2, false);
+    }
+}
@@ -24,24 +24,26 @@ import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
+import android.text.format.DateUtils;
 import android.text.style.StyleSpan;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
 import com.android.messaging.R;
-import com.android.messaging.datamodel.media.AvatarGroupRequestDescriptor;
-import com.android.messaging.datamodel.media.AvatarRequestDescriptor;
-import com.android.messaging.datamodel.media.ImageRequestDescriptor;
-import com.android.messaging.datamodel.media.ImageResource;
-import com.android.messaging.datamodel.media.MediaRequest;
-import com.android.messaging.datamodel.media.MediaResourceManager;
-import com.android.messaging.util.AvatarUriUtil;
 import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.OsUtil;
+import com.android.messaging.util.PhoneUtils;
+
+import java.util.HashMap;
 
 /**
  * Remote Views Factory for Bugle Widget.
+ *
+ * The views of all the rows are built in onDataSetChanged, and getViewAt serves them from that
+ * snapshot. Rows whose content did not change since the previous snapshot keep their views.
  */
 abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactory {
     protected static final String TAG = LogUtil.BUGLE_WIDGET_TAG;
@@ -49,9 +51,10 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
     protected static final int MAX_ITEMS_TO_SHOW = 25;
 
     /**
-     * Lock to avoid race condition between widgets.
+     * Guards the cursor and the snapshot of this widget. Each widget instance has its own
+     * factory, so widgets don't wait on each other.
      */
-    protected static final Object sWidgetLock = new Object();
+    protected final Object mLock = new Object();
 
     protected final Context mContext;
     protected final int mAppWidgetId;
@@ -59,7 +62,13 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
     protected Cursor mCursor;
     protected final AppWidgetManager mAppWidgetManager;
     protected int mIconSize;
-    protected ImageResource mAvatarResource;
+
+    // Whether the rows of the snapshot include avatars, which depends on the widget size
+    protected boolean mIncludeAvatar;
+
+    // The views of the rows as of the last onDataSetChanged, along with their signatures
+    private RemoteViews[] mViews;
+    private String[] mViewSignatures;
 
     public BaseWidgetFactory(Context context, Intent intent) {
         mContext = context;
@@ -86,11 +95,13 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
             LogUtil.v(TAG, "onDestroy");
         }
-        synchronized (sWidgetLock) {
+        synchronized (mLock) {
             if (mCursor != null && !mCursor.isClosed()) {
                 mCursor.close();
                 mCursor = null;
             }
+            mViews = null;
+            mViewSignatures = null;
         }
     }
 
@@ -99,7 +110,7 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
         if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
             LogUtil.v(TAG, "onDataSetChanged");
         }
-        synchronized (sWidgetLock) {
+        synchronized (mLock) {
             if (mCursor != null) {
                 mCursor.close();
                 mCursor = null;
@@ -107,6 +118,7 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
             final long token = Binder.clearCallingIdentity();
             try {
                 mCursor = doQuery();
+                buildSnapshot();
                 onLoadComplete();
             } finally {
                 Binder.restoreCallingIdentity(token);
@@ -116,6 +128,100 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
 
     protected abstract Cursor doQuery();
 
+    /**
+     * Builds the views of all the rows, reusing the views of the previous snapshot for the rows
+     * whose signature did not change.
+     */
+    private void buildSnapshot() {
+        mIncludeAvatar = shouldIncludeAvatar();
+        final int count = getCount();
+        // Views also depend on the time (relative timestamps), and a few global states
+        final String snapshotState = mIncludeAvatar + "|"
+                + PhoneUtils.getDefault().isDefaultSmsApp() + "|"
+                + (System.currentTimeMillis() / DateUtils.MINUTE_IN_MILLIS) + "|";
+
+        final HashMap<String, RemoteViews> previousViews = new HashMap<String, RemoteViews>();
+        if (mViews != null) {
+            for (int i = 0; i < mViews.length; i++) {
+                if (mViewSignatures[i] != null) {
+                    previousViews.put(mViewSignatures[i], mViews[i]);
+                }
+            }
+        }
+        final RemoteViews[] views = new RemoteViews[count];
+        final String[] viewSignatures = new String[count];
+        int builtCount = 0;
+        for (int position = 0; position < count; position++) {
+            final String rowSignature = getViewSignature(position);
+            final String signature = rowSignature == null ? null : snapshotState + rowSignature;
+            RemoteViews view = signature == null ? null : previousViews.get(signature);
+            if (view == null) {
+                view = buildViewAt(position);
+                builtCount++;
+            }
+            views[position] = view;
+            viewSignatures[position] = signature;
+        }
+        mViews = views;
+        mViewSignatures = viewSignatures;
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "buildSnapshot: built " + builtCount + " of " + count + " views");
+        }
+    }
+
+    /**
+     * @return the {@link RemoteViews} for a specific position in the list, from the snapshot
+     */
+    @Override
+    public RemoteViews getViewAt(final int position) {
+        synchronized (mLock) {
+            if (mViews != null && position >= 0 && position < mViews.length) {
+                return mViews[position];
+            }
+            return buildViewAt(position);
+        }
+    }
+
+    /**
+     * Builds the {@link RemoteViews} for a specific position in the list. Called with mLock held.
+     */
+    protected abstract RemoteViews buildViewAt(int position);
+
+    /**
+     * Returns a string which changes whenever the view at the position needs to be built again,
+     * typically made of the values of its row, or null to always build it again. Called with
+     * mLock held.
+     */
+    protected abstract String getViewSignature(int position);
+
+    /**
+     * @return the values of the current row of the cursor, separated by '|'
+     */
+    protected static String getRowValues(final Cursor cursor) {
+        final StringBuilder values = new StringBuilder();
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            if (cursor.getType(i) != Cursor.FIELD_TYPE_BLOB) {
+                values.append(cursor.getString(i));
+            }
+            values.append('|');
+        }
+        return values.toString();
+    }
+
+    private boolean shouldIncludeAvatar() {
+        if (!OsUtil.isAtLeastJB()) {
+            return true;
+        }
+        final Bundle options = mAppWidgetManager.getAppWidgetOptions(mAppWidgetId);
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "shouldIncludeAvatar BugleWidgetProvider.WIDGET_SIZE_KEY: " +
+                    options.getInt(BugleWidgetProvider.WIDGET_SIZE_KEY));
+        }
+        // Show the avatar when grande size, otherwise hide it.
+        return options.getInt(BugleWidgetProvider.WIDGET_SIZE_KEY) ==
+                BugleWidgetProvider.SIZE_LARGE;
+    }
+
     /**
      * Returns the number of items that should be shown in the widget list.  This method also
      * updates the boolean that indicates whether the "show more" item should be shown.
@@ -123,7 +229,7 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
      */
     @Override
     public int getCount() {
-        synchronized (sWidgetLock) {
+        synchronized (mLock) {
             if (mCursor == null) {
                 if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                     LogUtil.v(TAG, "getCount: 0");
@@ -166,26 +272,7 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
     }
 
     protected Bitmap getAvatarBitmap(final Uri avatarUri) {
-        final String avatarType = avatarUri == null ?
-                null : AvatarUriUtil.getAvatarType(avatarUri);
-        ImageRequestDescriptor descriptor;
-        if (AvatarUriUtil.TYPE_GROUP_URI.equals(avatarType)) {
-            descriptor = new AvatarGroupRequestDescriptor(avatarUri, mIconSize, mIconSize);
-        } else {
-            descriptor = new AvatarRequestDescriptor(avatarUri, mIconSize, mIconSize);
-        }
-
-        final MediaRequest<ImageResource> imageRequest =
-                descriptor.buildSyncMediaRequest(mContext);
-        final ImageResource imageResource =
-                MediaResourceManager.get().requestMediaResourceSync(imageRequest);
-        if (imageResource != null) {
-            setAvatarResource(imageResource);
-            return mAvatarResource.getBitmap();
-        } else {
-            releaseAvatarResource();
-            return null;
-        }
+        return WidgetAvatarCache.get().getAvatar(mContext, avatarUri, mIconSize);
     }
 
     /**
@@ -214,19 +301,4 @@ abstract class BaseWidgetFactory implements RemoteViewsService.RemoteViewsFactor
     }
 
     protected abstract int getMainLayoutId();
-
-    private void setAvatarResource(final ImageResource resource) {
-        if (mAvatarResource != resource) {
-            // Clear out any information for what is currently used
-            releaseAvatarResource();
-            mAvatarResource = resource;
-        }
-    }
-
-    private void releaseAvatarResource() {
-        if (mAvatarResource != null) {
-            mAvatarResource.release();
-        }
-        mAvatarResource = null;
-    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.android.messaging.datamodel.MemoryCacheManager;
+import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
+import com.android.messaging.datamodel.media.AvatarGroupRequestDescriptor;
+import com.android.messaging.datamodel.media.AvatarRequestDescriptor;
+import com.android.messaging.datamodel.media.ImageRequestDescriptor;
+import com.android.messaging.datamodel.media.ImageResource;
+import com.android.messaging.datamodel.media.MediaResourceManager;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.AvatarUriUtil;
+
+/**
+ * Caches the avatar bitmaps shown by all the widgets, keyed by avatar uri and size. The same
+ * participants tend to show up in every widget on the launcher, and the rows of a widget are
+ * rebuilt whenever the conversations change, so each avatar is decoded once and then shared.
+ *
+ * The cached bitmaps are copies that MediaResourceManager does not manage, so they stay valid for
+ * as long as the RemoteViews holding them are around.
+ */
+class WidgetAvatarCache implements MemoryCache {
+    private static final int MAX_SIZE_BYTES = 2 * 1024 * 1024;
+
+    private static WidgetAvatarCache sInstance;
+
+    private final LruCache<String, Bitmap> mCache = new LruCache<String, Bitmap>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(final String key, final Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    static synchronized WidgetAvatarCache get() {
+        if (sInstance == null) {
+            sInstance = new WidgetAvatarCache();
+            final MemoryCacheManager memoryCacheManager = MemoryCacheManager.get();
+            if (memoryCacheManager != null) {
+                memoryCacheManager.registerMemoryCache(sInstance);
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the avatar at the given size, loading it on the calling thread if it is not cached.
+     *
+     * @return the avatar bitmap, or null if it could not be loaded
+     */
+    @DoesNotRunOnMainThread
+    Bitmap getAvatar(final Context context, final Uri avatarUri, final int size) {
+        final String key = size + ":" + avatarUri;
+        final Bitmap cached = mCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Bitmap avatar = loadAvatar(context, avatarUri, size);
+        if (avatar != null) {
+            mCache.put(key, avatar);
+        }
+        return avatar;
+    }
+
+    private static Bitmap loadAvatar(final Context context, final Uri avatarUri, final int size) {
+        final String avatarType = avatarUri == null ?
+                null : AvatarUriUtil.getAvatarType(avatarUri);
+        ImageRequestDescriptor descriptor;
+        if (AvatarUriUtil.TYPE_GROUP_URI.equals(avatarType)) {
+            descriptor = new AvatarGroupRequestDescriptor(avatarUri, size, size);
+        } else {
+            descriptor = new AvatarRequestDescriptor(avatarUri, size, size);
+        }
+
+        final ImageResource imageResource = MediaResourceManager.get().requestMediaResourceSync(
+                descriptor.buildSyncMediaRequest(context));
+        if (imageResource == null) {
+            return null;
+        }
+        try {
+            final Bitmap bitmap = imageResource.getBitmap();
+            if (bitmap == null) {
+                return null;
+            }
+            final Bitmap.Config config = bitmap.getConfig();
+            return bitmap.copy(config != null ? config : Bitmap.Config.ARGB_8888,
+                    false /* isMutable */);
+        } finally {
+            imageResource.release();
+        }
+    }
+
+    @Override
+    public void reclaim() {
+        mCache.evictAll();
+    }
+}
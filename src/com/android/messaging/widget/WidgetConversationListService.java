@@ -22,7 +22,6 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Typeface;
 import android.net.Uri;
-import android.os.Bundle;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.TextPaint;
@@ -43,7 +42,6 @@ import com.android.messaging.ui.conversationlist.ConversationListItemView;
 import com.android.messaging.util.ContentType;
 import com.android.messaging.util.Dates;
 import com.android.messaging.util.LogUtil;
-import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.PhoneUtils;
 
 public class WidgetConversationListService extends RemoteViewsService {
@@ -75,139 +73,136 @@ public class WidgetConversationListService extends RemoteViewsService {
                     ConversationListData.SORT_ORDER);
         }
 
+        @Override
+        protected String getViewSignature(final int position) {
+            if (mCursor == null || (mShouldShowViewMore && position >= getItemCount())) {
+                return "more";
+            }
+            if (!mCursor.moveToPosition(position)) {
+                return null;
+            }
+            return getRowValues(mCursor);
+        }
+
         /**
          * @return the {@link RemoteViews} for a specific position in the list.
          */
         @Override
-        public RemoteViews getViewAt(int position) {
+        protected RemoteViews buildViewAt(int position) {
             if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                LogUtil.v(TAG, "getViewAt position: " + position);
+                LogUtil.v(TAG, "buildViewAt position: " + position);
+            }
+            // "View more conversations" view.
+            if (mCursor == null
+                    || (mShouldShowViewMore && position >= getItemCount())) {
+                return getViewMoreItemsView();
             }
-            synchronized (sWidgetLock) {
-                // "View more conversations" view.
-                if (mCursor == null
-                        || (mShouldShowViewMore && position >= getItemCount())) {
-                    return getViewMoreItemsView();
-                }
 
-                if (!mCursor.moveToPosition(position)) {
-                    // If we ever fail to move to a position, return the "View More conversations"
-                    // view.
-                    LogUtil.w(TAG, "Failed to move to position: " + position);
-                    return getViewMoreItemsView();
-                }
+            if (!mCursor.moveToPosition(position)) {
+                // If we ever fail to move to a position, return the "View More conversations"
+                // view.
+                LogUtil.w(TAG, "Failed to move to position: " + position);
+                return getViewMoreItemsView();
+            }
 
-                final ConversationListItemData conv = new ConversationListItemData();
-                conv.bind(mCursor);
-
-                // Inflate and fill out the remote view
-                final RemoteViews remoteViews = new RemoteViews(
-                        mContext.getPackageName(), R.layout.widget_conversation_list_item);
-
-                final boolean hasUnreadMessages = !conv.getIsRead();
-                final Resources resources = mContext.getResources();
-                final boolean isDefaultSmsApp = PhoneUtils.getDefault().isDefaultSmsApp();
-
-                final String timeStamp = conv.getIsSendRequested() ?
-                        resources.getString(R.string.message_status_sending) :
-                            Dates.getWidgetTimeString(conv.getTimestamp(), true /*abbreviated*/)
-                                .toString();
-                // Date/Timestamp or Sending or Error state -- all shown in the date item
-                remoteViews.setTextViewText(R.id.date,
-                        boldifyIfUnread(timeStamp, hasUnreadMessages));
-
-                // From
-                remoteViews.setTextViewText(R.id.from,
-                        boldifyIfUnread(conv.getName(), hasUnreadMessages));
-
-                // Notifications turned off mini-bell icon
-                remoteViews.setViewVisibility(R.id.conversation_notification_bell,
-                        conv.getNotificationEnabled() ? View.GONE : View.VISIBLE);
-
-                // On click intent.
-                final Intent intent = UIIntents.get().getIntentForConversationActivity(mContext,
-                        conv.getConversationId(), null /* draft */);
-
-                remoteViews.setOnClickFillInIntent(R.id.widget_conversation_list_item, intent);
-
-                // Avatar
-                boolean includeAvatar;
-                if (OsUtil.isAtLeastJB()) {
-                    final Bundle options = mAppWidgetManager.getAppWidgetOptions(mAppWidgetId);
-                    if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                        LogUtil.v(TAG, "getViewAt BugleWidgetProvider.WIDGET_SIZE_KEY: " +
-                                options.getInt(BugleWidgetProvider.WIDGET_SIZE_KEY));
-                    }
+            final ConversationListItemData conv = new ConversationListItemData();
+            conv.bind(mCursor);
 
-                    includeAvatar = options.getInt(BugleWidgetProvider.WIDGET_SIZE_KEY) ==
-                            BugleWidgetProvider.SIZE_LARGE;
-                } else {
-                    includeAvatar = true;;
-                }
+            // Inflate and fill out the remote view
+            final RemoteViews remoteViews = new RemoteViews(
+                    mContext.getPackageName(), R.layout.widget_conversation_list_item);
 
-                // Show the avatar when grande size, otherwise hide it.
-                remoteViews.setViewVisibility(R.id.avatarView, includeAvatar ?
-                        View.VISIBLE : View.GONE);
+            final boolean hasUnreadMessages = !conv.getIsRead();
+            final Resources resources = mContext.getResources();
+            final boolean isDefaultSmsApp = PhoneUtils.getDefault().isDefaultSmsApp();
 
-                Uri iconUri = null;
-                if (conv.getIcon() != null) {
-                    iconUri = Uri.parse(conv.getIcon());
-                }
-                remoteViews.setImageViewBitmap(R.id.avatarView, includeAvatar ?
-                        getAvatarBitmap(iconUri) : null);
-
-                // Error
-                // Only show the fail icon if it is not a group conversation.
-                // And also require that we be the default sms app.
-                final boolean showError =
-                        conv.getIsFailedStatus() && !conv.getIsGroup() && isDefaultSmsApp;
-                final boolean showDraft = conv.getShowDraft() && isDefaultSmsApp;
-                remoteViews.setViewVisibility(R.id.conversation_failed_status_icon,
-                        showError && includeAvatar ?
-                        View.VISIBLE : View.GONE);
-
-                if (showError || showDraft) {
-                    remoteViews.setViewVisibility(R.id.snippet, View.GONE);
-                    remoteViews.setViewVisibility(R.id.errorBlock, View.VISIBLE);
-                    remoteViews.setTextViewText(R.id.errorSnippet, getSnippetText(conv));
-
-                    if (showDraft) {
-                        // Show italicized "Draft" on third line
-                        final String text = resources.getString(
-                                R.string.conversation_list_item_view_draft_message);
-                        SpannableStringBuilder builder = new SpannableStringBuilder(text);
-                        builder.setSpan(new StyleSpan(Typeface.ITALIC), 0, text.length(),
-                                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                        builder.setSpan(new ForegroundColorSpan(
-                                    resources.getColor(R.color.widget_text_color)),
-                                0, text.length(),
-                                Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                        remoteViews.setTextViewText(R.id.errorText, builder);
-                    } else {
-                        // Show error message on third line
-                       int failureMessageId = R.string.message_status_download_failed;
-                        if (conv.getIsMessageTypeOutgoing()) {
-                            failureMessageId = MmsUtils.mapRawStatusToErrorResourceId(
-                                    conv.getMessageStatus(),
-                                    conv.getMessageRawTelephonyStatus());
-                        }
-                        remoteViews.setTextViewText(R.id.errorText,
-                                resources.getString(failureMessageId));
-                    }
+            final String timeStamp = conv.getIsSendRequested() ?
+                    resources.getString(R.string.message_status_sending) :
+                        Dates.getWidgetTimeString(conv.getTimestamp(), true /*abbreviated*/)
+                            .toString();
+            // Date/Timestamp or Sending or Error state -- all shown in the date item
+            remoteViews.setTextViewText(R.id.date,
+                    boldifyIfUnread(timeStamp, hasUnreadMessages));
+
+            // From
+            remoteViews.setTextViewText(R.id.from,
+                    boldifyIfUnread(conv.getName(), hasUnreadMessages));
+
+            // Notifications turned off mini-bell icon
+            remoteViews.setViewVisibility(R.id.conversation_notification_bell,
+                    conv.getNotificationEnabled() ? View.GONE : View.VISIBLE);
+
+            // On click intent.
+            final Intent intent = UIIntents.get().getIntentForConversationActivity(mContext,
+                    conv.getConversationId(), null /* draft */);
+
+            remoteViews.setOnClickFillInIntent(R.id.widget_conversation_list_item, intent);
+
+            // Avatar
+            final boolean includeAvatar = mIncludeAvatar;
+
+            // Show the avatar when grande size, otherwise hide it.
+            remoteViews.setViewVisibility(R.id.avatarView, includeAvatar ?
+                    View.VISIBLE : View.GONE);
+
+            Uri iconUri = null;
+            if (conv.getIcon() != null) {
+                iconUri = Uri.parse(conv.getIcon());
+            }
+            remoteViews.setImageViewBitmap(R.id.avatarView, includeAvatar ?
+                    getAvatarBitmap(iconUri) : null);
+
+            // Error
+            // Only show the fail icon if it is not a group conversation.
+            // And also require that we be the default sms app.
+            final boolean showError =
+                    conv.getIsFailedStatus() && !conv.getIsGroup() && isDefaultSmsApp;
+            final boolean showDraft = conv.getShowDraft() && isDefaultSmsApp;
+            remoteViews.setViewVisibility(R.id.conversation_failed_status_icon,
+                    showError && includeAvatar ?
+                    View.VISIBLE : View.GONE);
+
+            if (showError || showDraft) {
+                remoteViews.setViewVisibility(R.id.snippet, View.GONE);
+                remoteViews.setViewVisibility(R.id.errorBlock, View.VISIBLE);
+                remoteViews.setTextViewText(R.id.errorSnippet, getSnippetText(conv));
+
+                if (showDraft) {
+                    // Show italicized "Draft" on third line
+                    final String text = resources.getString(
+                            R.string.conversation_list_item_view_draft_message);
+                    SpannableStringBuilder builder = new SpannableStringBuilder(text);
+                    builder.setSpan(new StyleSpan(Typeface.ITALIC), 0, text.length(),
+                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    builder.setSpan(new ForegroundColorSpan(
+                                resources.getColor(R.color.widget_text_color)),
+                            0, text.length(),
+                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    remoteViews.setTextViewText(R.id.errorText, builder);
                 } else {
-                    remoteViews.setViewVisibility(R.id.errorBlock, View.GONE);
-                    remoteViews.setViewVisibility(R.id.snippet, View.VISIBLE);
-                    remoteViews.setTextViewText(R.id.snippet,
-                            boldifyIfUnread(getSnippetText(conv), hasUnreadMessages));
+                    // Show error message on third line
+                   int failureMessageId = R.string.message_status_download_failed;
+                    if (conv.getIsMessageTypeOutgoing()) {
+                        failureMessageId = MmsUtils.mapRawStatusToErrorResourceId(
+                                conv.getMessageStatus(),
+                                conv.getMessageRawTelephonyStatus());
+                    }
+                    remoteViews.setTextViewText(R.id.errorText,
+                            resources.getString(failureMessageId));
                 }
+            } else {
+                remoteViews.setViewVisibility(R.id.errorBlock, View.GONE);
+                remoteViews.setViewVisibility(R.id.snippet, View.VISIBLE);
+                remoteViews.setTextViewText(R.id.snippet,
+                        boldifyIfUnread(getSnippetText(conv), hasUnreadMessages));
+            }
 
-                // Set the accessibility TalkBack text
-                remoteViews.setContentDescription(R.id.widget_conversation_list_item,
-                        ConversationListItemView.buildContentDescription(mContext.getResources(),
-                                conv, new TextPaint()));
+            // Set the accessibility TalkBack text
+            remoteViews.setContentDescription(R.id.widget_conversation_list_item,
+                    ConversationListItemView.buildContentDescription(mContext.getResources(),
+                            conv, new TextPaint()));
 
-                return remoteViews;
-            }
+            return remoteViews;
         }
 
         private String getSnippetText(final ConversationListItemData conv) {
@@ -21,7 +21,6 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.Bundle;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.TextUtils;
@@ -71,7 +70,6 @@ public class WidgetConversationService extends RemoteViewsService {
      * Remote Views Factory for the conversation widget.
      */
     private static class WidgetConversationFactory extends BaseWidgetFactory {
-        private ImageResource mImageResource;
         private String mConversationId;
 
         public WidgetConversationFactory(Context context, Intent intent) {
@@ -117,148 +115,158 @@ public class WidgetConversationService extends RemoteViewsService {
                     );
         }
 
+        @Override
+        protected String getViewSignature(final int originalPosition) {
+            if (mCursor == null || (mShouldShowViewMore && originalPosition == 0)) {
+                return "more";
+            }
+            final int position = getCount() - originalPosition - 1;
+            if (!mCursor.moveToPosition(position)) {
+                return null;
+            }
+            final String rowValues = getRowValues(mCursor);
+            // Whether the timestamp shows depends on the next message, and the position to scroll
+            // to on the number of messages
+            final ConversationMessageData message = new ConversationMessageData();
+            message.bind(mCursor);
+            return rowValues + message.getCanClusterWithNextMessage() + "|"
+                    + getScrollToPosition(originalPosition);
+        }
+
+        private int getScrollToPosition(final int originalPosition) {
+            int scrollToPosition = originalPosition;
+            final int cursorCount = mCursor.getCount();
+            if (cursorCount > MAX_ITEMS_TO_SHOW) {
+                scrollToPosition += cursorCount - MAX_ITEMS_TO_SHOW;
+            }
+            return scrollToPosition;
+        }
+
         /**
          * @return the {@link RemoteViews} for a specific position in the list.
          */
         @Override
-        public RemoteViews getViewAt(final int originalPosition) {
-            synchronized (sWidgetLock) {
-                // "View more messages" view.
-                if (mCursor == null
-                        || (mShouldShowViewMore && originalPosition == 0)) {
-                    return getViewMoreItemsView();
-                }
-                // The message cursor is in reverse order for performance reasons.
-                final int position = getCount() - originalPosition - 1;
-                if (!mCursor.moveToPosition(position)) {
-                    // If we ever fail to move to a position, return the "View More messages"
-                    // view.
-                    LogUtil.w(TAG, "Failed to move to position: " + position);
-                    return getViewMoreItemsView();
-                }
+        protected RemoteViews buildViewAt(final int originalPosition) {
+            // "View more messages" view.
+            if (mCursor == null
+                    || (mShouldShowViewMore && originalPosition == 0)) {
+                return getViewMoreItemsView();
+            }
+            // The message cursor is in reverse order for performance reasons.
+            final int position = getCount() - originalPosition - 1;
+            if (!mCursor.moveToPosition(position)) {
+                // If we ever fail to move to a position, return the "View More messages"
+                // view.
+                LogUtil.w(TAG, "Failed to move to position: " + position);
+                return getViewMoreItemsView();
+            }
 
-                final ConversationMessageData message = new ConversationMessageData();
-                message.bind(mCursor);
+            final ConversationMessageData message = new ConversationMessageData();
+            message.bind(mCursor);
 
-                // Inflate and fill out the remote view
-                final RemoteViews remoteViews = new RemoteViews(
-                        mContext.getPackageName(), message.getIsIncoming() ?
-                                R.layout.widget_message_item_incoming :
-                                    R.layout.widget_message_item_outgoing);
+            // Inflate and fill out the remote view
+            final RemoteViews remoteViews = new RemoteViews(
+                    mContext.getPackageName(), message.getIsIncoming() ?
+                            R.layout.widget_message_item_incoming :
+                                R.layout.widget_message_item_outgoing);
 
-                final boolean hasUnreadMessages = false; //!message.getIsRead();
+            final boolean hasUnreadMessages = false; //!message.getIsRead();
 
-                // Date
-                remoteViews.setTextViewText(R.id.date, boldifyIfUnread(
-                        Dates.getWidgetTimeString(message.getReceivedTimeStamp(),
-                                false /*abbreviated*/),
-                        hasUnreadMessages));
+            // Date
+            remoteViews.setTextViewText(R.id.date, boldifyIfUnread(
+                    Dates.getWidgetTimeString(message.getReceivedTimeStamp(),
+                            false /*abbreviated*/),
+                    hasUnreadMessages));
 
-                // On click intent.
-                final Intent intent = UIIntents.get().getIntentForConversationActivity(mContext,
-                        mConversationId, null /* draft */);
+            // On click intent.
+            final Intent intent = UIIntents.get().getIntentForConversationActivity(mContext,
+                    mConversationId, null /* draft */);
 
-                // Attachments
-                int attachmentStringId = 0;
-                remoteViews.setViewVisibility(R.id.attachmentFrame, View.GONE);
+            // Attachments
+            int attachmentStringId = 0;
+            remoteViews.setViewVisibility(R.id.attachmentFrame, View.GONE);
 
-                int scrollToPosition = originalPosition;
-                final int cursorCount = mCursor.getCount();
-                if (cursorCount > MAX_ITEMS_TO_SHOW) {
-                    scrollToPosition += cursorCount - MAX_ITEMS_TO_SHOW;
-                }
-                if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                    LogUtil.v(TAG, "getViewAt position: " + originalPosition +
-                            " computed position: " + position +
-                            " scrollToPosition: " + scrollToPosition +
-                            " cursorCount: " + cursorCount +
-                            " MAX_ITEMS_TO_SHOW: " + MAX_ITEMS_TO_SHOW);
-                }
+            final int scrollToPosition = getScrollToPosition(originalPosition);
+            final int cursorCount = mCursor.getCount();
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "buildViewAt position: " + originalPosition +
+                        " computed position: " + position +
+                        " scrollToPosition: " + scrollToPosition +
+                        " cursorCount: " + cursorCount +
+                        " MAX_ITEMS_TO_SHOW: " + MAX_ITEMS_TO_SHOW);
+            }
 
-                intent.putExtra(UIIntents.UI_INTENT_EXTRA_MESSAGE_POSITION, scrollToPosition);
-                if (message.hasAttachments()) {
-                    final List<MessagePartData> attachments = message.getAttachments();
-                    for (MessagePartData part : attachments) {
-                        final boolean videoWithThumbnail = part.isVideo()
-                                && (VideoThumbnailRequest.shouldShowIncomingVideoThumbnails()
-                                || !message.getIsIncoming());
-                        if (part.isImage() || videoWithThumbnail) {
-                            final Uri uri = part.getContentUri();
-                            remoteViews.setViewVisibility(R.id.attachmentFrame, View.VISIBLE);
-                            remoteViews.setViewVisibility(R.id.playButton, part.isVideo() ?
-                                    View.VISIBLE : View.GONE);
-                            remoteViews.setImageViewBitmap(R.id.attachment,
-                                    getAttachmentBitmap(part));
-                            intent.putExtra(UIIntents.UI_INTENT_EXTRA_ATTACHMENT_URI ,
-                                    uri.toString());
-                            intent.putExtra(UIIntents.UI_INTENT_EXTRA_ATTACHMENT_TYPE ,
-                                    part.getContentType());
-                            break;
-                        } else if (part.isVideo()) {
-                            attachmentStringId = R.string.conversation_list_snippet_video;
-                            break;
-                        }
-                        if (part.isAudio()) {
-                            attachmentStringId = R.string.conversation_list_snippet_audio_clip;
-                            break;
-                        }
-                        if (part.isVCard()) {
-                            attachmentStringId = R.string.conversation_list_snippet_vcard;
-                            break;
-                        }
+            intent.putExtra(UIIntents.UI_INTENT_EXTRA_MESSAGE_POSITION, scrollToPosition);
+            if (message.hasAttachments()) {
+                final List<MessagePartData> attachments = message.getAttachments();
+                for (MessagePartData part : attachments) {
+                    final boolean videoWithThumbnail = part.isVideo()
+                            && (VideoThumbnailRequest.shouldShowIncomingVideoThumbnails()
+                            || !message.getIsIncoming());
+                    if (part.isImage() || videoWithThumbnail) {
+                        final Uri uri = part.getContentUri();
+                        remoteViews.setViewVisibility(R.id.attachmentFrame, View.VISIBLE);
+                        remoteViews.setViewVisibility(R.id.playButton, part.isVideo() ?
+                                View.VISIBLE : View.GONE);
+                        remoteViews.setImageViewBitmap(R.id.attachment,
+                                getAttachmentBitmap(part));
+                        intent.putExtra(UIIntents.UI_INTENT_EXTRA_ATTACHMENT_URI ,
+                                uri.toString());
+                        intent.putExtra(UIIntents.UI_INTENT_EXTRA_ATTACHMENT_TYPE ,
+                                part.getContentType());
+                        break;
+                    } else if (part.isVideo()) {
+                        attachmentStringId = R.string.conversation_list_snippet_video;
+                        break;
                     }
-                }
-
-                remoteViews.setOnClickFillInIntent(message.getIsIncoming() ?
-                        R.id.widget_message_item_incoming :
-                            R.id.widget_message_item_outgoing,
-                        intent);
-
-                // Avatar
-                boolean includeAvatar;
-                if (OsUtil.isAtLeastJB()) {
-                    final Bundle options = mAppWidgetManager.getAppWidgetOptions(mAppWidgetId);
-                    if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                        LogUtil.v(TAG, "getViewAt BugleWidgetProvider.WIDGET_SIZE_KEY: " +
-                                options.getInt(BugleWidgetProvider.WIDGET_SIZE_KEY));
+                    if (part.isAudio()) {
+                        attachmentStringId = R.string.conversation_list_snippet_audio_clip;
+                        break;
+                    }
+                    if (part.isVCard()) {
+                        attachmentStringId = R.string.conversation_list_snippet_vcard;
+                        break;
                     }
-
-                    includeAvatar = options.getInt(BugleWidgetProvider.WIDGET_SIZE_KEY)
-                            == BugleWidgetProvider.SIZE_LARGE;
-                } else {
-                    includeAvatar = true;
                 }
+            }
 
-                // Show the avatar (and shadow) when grande size, otherwise hide it.
-                remoteViews.setViewVisibility(R.id.avatarView, includeAvatar ?
-                        View.VISIBLE : View.GONE);
-                remoteViews.setViewVisibility(R.id.avatarShadow, includeAvatar ?
-                        View.VISIBLE : View.GONE);
-
-                final Uri avatarUri = AvatarUriUtil.createAvatarUri(
-                        message.getSenderProfilePhotoUri(),
-                        message.getSenderFullName(),
-                        message.getSenderNormalizedDestination(),
-                        message.getSenderContactLookupKey());
-
-                remoteViews.setImageViewBitmap(R.id.avatarView, includeAvatar ?
-                        getAvatarBitmap(avatarUri) : null);
-
-                String text = message.getText();
-                if (attachmentStringId != 0) {
-                    final String attachment = mContext.getString(attachmentStringId);
-                    if (!TextUtils.isEmpty(text)) {
-                        text += '\n' + attachment;
-                    } else {
-                        text = attachment;
-                    }
+            remoteViews.setOnClickFillInIntent(message.getIsIncoming() ?
+                    R.id.widget_message_item_incoming :
+                        R.id.widget_message_item_outgoing,
+                    intent);
+
+            // Avatar
+            final boolean includeAvatar = mIncludeAvatar;
+
+            // Show the avatar (and shadow) when grande size, otherwise hide it.
+            remoteViews.setViewVisibility(R.id.avatarView, includeAvatar ?
+                    View.VISIBLE : View.GONE);
+            remoteViews.setViewVisibility(R.id.avatarShadow, includeAvatar ?
+                    View.VISIBLE : View.GONE);
+
+            final Uri avatarUri = AvatarUriUtil.createAvatarUri(
+                    message.getSenderProfilePhotoUri(),
+                    message.getSenderFullName(),
+                    message.getSenderNormalizedDestination(),
+                    message.getSenderContactLookupKey());
+
+            remoteViews.setImageViewBitmap(R.id.avatarView, includeAvatar ?
+                    getAvatarBitmap(avatarUri) : null);
+
+            String text = message.getText();
+            if (attachmentStringId != 0) {
+                final String attachment = mContext.getString(attachmentStringId);
+                if (!TextUtils.isEmpty(text)) {
+                    text += '\n' + attachment;
+                } else {
+                    text = attachment;
                 }
+            }
 
-                remoteViews.setViewVisibility(R.id.message, View.VISIBLE);
-                updateViewContent(text, message, remoteViews);
+            remoteViews.setViewVisibility(R.id.message, View.VISIBLE);
+            updateViewContent(text, message, remoteViews);
 
-                return remoteViews;
-            }
+            return remoteViews;
         }
 
         // updateViewContent figures out what to show in the message and date fields based on
@@ -451,13 +459,22 @@ public class WidgetConversationService extends RemoteViewsService {
                     descriptor.buildSyncMediaRequest(mContext);
             final ImageResource imageResource =
                     MediaResourceManager.get().requestMediaResourceSync(imageRequest);
-            if (imageResource != null && imageResource.getBitmap() != null) {
-                setImageResource(imageResource);
-                return Bitmap.createBitmap(imageResource.getBitmap());
-            } else {
-                releaseImageResource();
+            if (imageResource == null) {
                 return null;
             }
+            try {
+                final Bitmap bitmap = imageResource.getBitmap();
+                if (bitmap == null) {
+                    return null;
+                }
+                // The views are kept in the snapshot, so they need a copy that doesn't get
+                // recycled along with the resource.
+                final Bitmap.Config config = bitmap.getConfig();
+                return bitmap.copy(config != null ? config : Bitmap.Config.ARGB_8888,
+                        false /* isMutable */);
+            } finally {
+                imageResource.release();
+            }
         }
 
         /**
@@ -502,21 +519,6 @@ public class WidgetConversationService extends RemoteViewsService {
         protected int getMainLayoutId() {
             return R.layout.widget_conversation;
         }
-
-        private void setImageResource(final ImageResource resource) {
-            if (mImageResource != resource) {
-                // Clear out any information for what is currently used
-                releaseImageResource();
-                mImageResource = resource;
-            }
-        }
-
-        private void releaseImageResource() {
-            if (mImageResource != null) {
-                mImageResource.release();
-            }
-            mImageResource = null;
-        }
     }
 
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeContext;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.util.ConversationIdSet;
+
+import java.util.Arrays;
+
+@SmallTest
+public class BugleNotificationsTest extends BugleTestCase {
+    private FakeDataModel mDataModel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final FakeContext context = new FakeContext(getTestContext());
+        mDataModel = new FakeDataModel(context);
+        FakeFactory.registerWithFakeContext(getTestContext(), context)
+                .withDataModel(mDataModel);
+    }
+
+    public void testMergesUpdatesOfAllConversations() {
+        final BugleNotifications.PendingUpdate update = new BugleNotifications.PendingUpdate();
+        assertFalse(update.isPending());
+
+        update.add(true /* silent */, "1");
+        update.add(false /* silent */, "2");
+        update.add(true /* silent */, null);
+        update.add(true /* silent */, "1");
+        assertTrue(update.isPending());
+        assertFalse(update.isSilent());
+        assertEquals(new ConversationIdSet(Arrays.asList("1", "2")),
+                update.takeConversationIds());
+
+        update.clear();
+        assertFalse(update.isPending());
+        update.add(true /* silent */, null);
+        assertTrue(update.isSilent());
+        assertTrue(update.takeConversationIds().isEmpty());
+    }
+
+    public void testSoftSoundOnlyIfEveryConversationIsObservable() {
+        mDataModel.setFocusedConversation("1");
+        assertTrue(BugleNotifications.isNewMessageObservable(
+                new ConversationIdSet(Arrays.asList("1"))));
+        // A message in another conversation than the one on screen still notifies
+        assertFalse(BugleNotifications.isNewMessageObservable(
+                new ConversationIdSet(Arrays.asList("1", "2"))));
+        assertFalse(BugleNotifications.isNewMessageObservable(new ConversationIdSet()));
+
+        mDataModel.setConversationListScrolledToNewestConversation(true);
+        assertTrue(BugleNotifications.isNewMessageObservable(
+                new ConversationIdSet(Arrays.asList("1", "2"))));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+public class ContentChangeDispatcherTest extends AndroidTestCase {
+    private static class RecordingSink implements ContentChangeDispatcher.ChangeSink {
+        final List<Uri> mUris = new ArrayList<Uri>();
+        final List<String> mWidgetConversationIds = new ArrayList<String>();
+        int mConversationListWidgetCount;
+
+        @Override
+        public void notifyChange(final Uri uri) {
+            mUris.add(uri);
+        }
+
+        @Override
+        public void notifyConversationListWidgets() {
+            mConversationListWidgetCount++;
+        }
+
+        @Override
+        public void notifyConversationWidgets(final String conversationId) {
+            mWidgetConversationIds.add(conversationId);
+        }
+    }
+
+    private RecordingSink mSink;
+    private ContentChangeDispatcher mDispatcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSink = new RecordingSink();
+        mDispatcher = new ContentChangeDispatcher(mSink);
+    }
+
+    public void testDuplicateChangesAreNotifiedOnce() {
+        final Uri messagesUri = MessagingContentProvider.buildConversationMessagesUri("1");
+        mDispatcher.notifyChange(messagesUri);
+        mDispatcher.notifyChange(MessagingContentProvider.CONVERSATIONS_URI);
+        mDispatcher.notifyChange(messagesUri);
+        mDispatcher.notifyConversationListWidgets();
+        mDispatcher.notifyConversationListWidgets();
+        mDispatcher.notifyConversationWidgets("1");
+        mDispatcher.notifyConversationWidgets("1");
+        assertTrue(mSink.mUris.isEmpty());
+
+        mDispatcher.flush();
+        assertEquals(Arrays.asList(messagesUri, MessagingContentProvider.CONVERSATIONS_URI),
+                mSink.mUris);
+        assertEquals(1, mSink.mConversationListWidgetCount);
+        assertEquals(Arrays.asList("1"), mSink.mWidgetConversationIds);
+
+        mDispatcher.flush();
+        assertEquals(2, mSink.mUris.size());
+    }
+
+    public void testManyChangesEscalateToEverything() {
+        for (int i = 0; i <= ContentChangeDispatcher.ESCALATION_THRESHOLD; i++) {
+            mDispatcher.notifyChange(
+                    MessagingContentProvider.buildConversationMessagesUri(Integer.toString(i)));
+        }
+        mDispatcher.flush();
+        assertEquals(Arrays.asList(MessagingContentProvider.EVERYTHING_URI), mSink.mUris);
+        assertEquals(1, mSink.mConversationListWidgetCount);
+        assertEquals(Arrays.asList((String) null), mSink.mWidgetConversationIds);
+    }
+
+    public void testChangesInTransactionWaitForItsEnd() {
+        mDispatcher.onTransactionStarted();
+        mDispatcher.notifyChange(MessagingContentProvider.PARTS_URI);
+        mDispatcher.flush();
+        assertTrue(mSink.mUris.isEmpty());
+
+        mDispatcher.onTransactionEnded();
+        assertEquals(Arrays.asList(MessagingContentProvider.PARTS_URI), mSink.mUris);
+    }
+
+    public void testChangesInRolledBackTransactionAreDropped() {
+        mDispatcher.onTransactionStarted();
+        mDispatcher.notifyChange(MessagingContentProvider.PARTS_URI);
+        mDispatcher.notifyConversationWidgets("1");
+        // A nested transaction failing rolls back the outermost one
+        mDispatcher.onTransactionRolledBack();
+        mDispatcher.onTransactionEnded();
+        assertTrue(mSink.mUris.isEmpty());
+        assertTrue(mSink.mWidgetConversationIds.isEmpty());
+
+        // The next transaction starts over
+        mDispatcher.onTransactionStarted();
+        mDispatcher.notifyChange(MessagingContentProvider.PARTS_URI);
+        mDispatcher.onTransactionEnded();
+        assertEquals(Arrays.asList(MessagingContentProvider.PARTS_URI), mSink.mUris);
+    }
+}
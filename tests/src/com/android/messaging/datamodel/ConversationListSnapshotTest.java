@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeContext;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
+import com.android.messaging.datamodel.data.ConversationListData;
+import com.android.messaging.datamodel.data.ConversationListItemData;
+import com.android.messaging.util.LogUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Verifies that the conversation list snapshot table stays in sync with the conversation list
+ * view, and compares the cost of listing conversations from either.
+ */
+@SmallTest
+public class ConversationListSnapshotTest extends BugleTestCase {
+    private static final String TAG = LogUtil.BUGLE_DATABASE_TAG;
+
+    private static final int BENCHMARK_CONVERSATION_COUNT = 5000;
+    private static final int BENCHMARK_QUERY_COUNT = 10;
+
+    private static final String CONVERSATION_LIST_SELECTION =
+            ConversationColumns.SORT_TIMESTAMP + " > 0 AND "
+            + ConversationListData.WHERE_NOT_ARCHIVED;
+
+    private DatabaseWrapper mDb;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        final FakeContext context = new FakeContext(getTestContext());
+        final ContentProvider provider = new MessagingContentProvider();
+        provider.attachInfo(context, null);
+        context.addContentProvider(MessagingContentProvider.AUTHORITY, provider);
+        FakeFactory.registerWithFakeContext(getTestContext(), context)
+                .withDataModel(new FakeDataModel(context));
+        mDb = DataModel.get().getDatabase();
+    }
+
+    public void testSnapshotTracksConversationChanges() {
+        final long participantId = insertParticipant("5551234567", "Alice");
+        final long conversationId = insertConversation("Conversation", 1000L);
+        final long messageId = insertMessage(conversationId, participantId, 1000L);
+        setLatestMessage(conversationId, messageId, "Hello", 1000L);
+        assertSnapshotMatchesView();
+
+        final ContentValues messageValues = new ContentValues();
+        messageValues.put(MessageColumns.READ, 1);
+        mDb.update(DatabaseHelper.MESSAGES_TABLE, messageValues,
+                MessageColumns._ID + "=" + messageId, null);
+        assertSnapshotMatchesView();
+
+        final ContentValues participantValues = new ContentValues();
+        participantValues.put(ParticipantColumns.FIRST_NAME, "Bob");
+        mDb.update(DatabaseHelper.PARTICIPANTS_TABLE, participantValues,
+                ParticipantColumns._ID + "=" + participantId, null);
+        assertSnapshotMatchesView();
+
+        final ContentValues conversationValues = new ContentValues();
+        conversationValues.put(ConversationColumns.ARCHIVE_STATUS, 1);
+        mDb.update(DatabaseHelper.CONVERSATIONS_TABLE, conversationValues,
+                ConversationColumns._ID + "=" + conversationId, null);
+        assertSnapshotMatchesView();
+
+        mDb.delete(DatabaseHelper.CONVERSATIONS_TABLE,
+                ConversationColumns._ID + "=" + conversationId, null);
+        assertSnapshotMatchesView();
+        assertEquals(0, readRows(ConversationListItemData.getConversationListSnapshotTable(),
+                null).size());
+    }
+
+    @LargeTest
+    public void testBenchmarkConversationListWith5000Conversations() {
+        final long participantId = insertParticipant("5551234567", "Alice");
+        mDb.beginTransaction();
+        try {
+            for (int i = 1; i <= BENCHMARK_CONVERSATION_COUNT; i++) {
+                final long conversationId = insertConversation("Conversation " + i, i);
+                final long messageId = insertMessage(conversationId, participantId, i);
+                setLatestMessage(conversationId, messageId, "Message " + i, i);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        final long viewMillis = timeConversationListQueries(
+                ConversationListItemData.getConversationListView());
+        final long snapshotMillis = timeConversationListQueries(
+                ConversationListItemData.getConversationListSnapshotTable());
+        LogUtil.i(TAG, "Listing " + BENCHMARK_CONVERSATION_COUNT + " conversations "
+                + BENCHMARK_QUERY_COUNT + " times took " + viewMillis + "ms from the view and "
+                + snapshotMillis + "ms from the snapshot table");
+        assertSnapshotMatchesView();
+    }
+
+    private long timeConversationListQueries(final String table) {
+        final long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < BENCHMARK_QUERY_COUNT; i++) {
+            final Cursor cursor = mDb.query(table, ConversationListItemData.PROJECTION,
+                    CONVERSATION_LIST_SELECTION, null, null, null, ConversationListData.SORT_ORDER);
+            try {
+                assertEquals(BENCHMARK_CONVERSATION_COUNT, cursor.getCount());
+                while (cursor.moveToNext()) {
+                    cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private void assertSnapshotMatchesView() {
+        final String orderBy = ConversationColumns._ID;
+        assertEquals(readRows(ConversationListItemData.getConversationListView(), orderBy),
+                readRows(ConversationListItemData.getConversationListSnapshotTable(), orderBy));
+    }
+
+    private List<List<String>> readRows(final String table, final String orderBy) {
+        final List<List<String>> rows = new ArrayList<List<String>>();
+        final Cursor cursor = mDb.query(table, ConversationListItemData.PROJECTION, null, null,
+                null, null, orderBy);
+        try {
+            while (cursor.moveToNext()) {
+                final List<String> row = new ArrayList<String>();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.add(cursor.getString(i));
+                }
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private long insertParticipant(final String destination, final String firstName) {
+        final ContentValues values = new ContentValues();
+        values.put(ParticipantColumns.NORMALIZED_DESTINATION, destination);
+        values.put(ParticipantColumns.DISPLAY_DESTINATION, destination);
+        values.put(ParticipantColumns.FIRST_NAME, firstName);
+        return mDb.insert(DatabaseHelper.PARTICIPANTS_TABLE, null, values);
+    }
+
+    private long insertConversation(final String name, final long sortTimestamp) {
+        final ContentValues values = new ContentValues();
+        values.put(ConversationColumns.NAME, name);
+        values.put(ConversationColumns.SORT_TIMESTAMP, sortTimestamp);
+        return mDb.insert(DatabaseHelper.CONVERSATIONS_TABLE, null, values);
+    }
+
+    private long insertMessage(final long conversationId, final long senderId,
+            final long timestamp) {
+        final ContentValues values = new ContentValues();
+        values.put(MessageColumns.CONVERSATION_ID, conversationId);
+        values.put(MessageColumns.SENDER_PARTICIPANT_ID, senderId);
+        values.put(MessageColumns.RECEIVED_TIMESTAMP, timestamp);
+        return mDb.insert(DatabaseHelper.MESSAGES_TABLE, null, values);
+    }
+
+    private void setLatestMessage(final long conversationId, final long messageId,
+            final String snippet, final long sortTimestamp) {
+        final ContentValues values = new ContentValues();
+        values.put(ConversationColumns.LATEST_MESSAGE_ID, messageId);
+        values.put(ConversationColumns.SNIPPET_TEXT, snippet);
+        values.put(ConversationColumns.SORT_TIMESTAMP, sortTimestamp);
+        mDb.update(DatabaseHelper.CONVERSATIONS_TABLE, values,
+                ConversationColumns._ID + "=" + conversationId, null);
+    }
+}
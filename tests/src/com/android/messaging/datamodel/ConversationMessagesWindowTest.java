@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeContext;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
+import com.android.messaging.datamodel.data.ConversationMessageData;
+import com.android.messaging.datamodel.data.ConversationMessageData.SideLoadedParts;
+import com.android.messaging.datamodel.data.ConversationMessageData.SideLoadedPartsCursor;
+import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.data.MessagePartData;
+import com.android.messaging.util.ContentType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pages through a conversation's messages the way ConversationData does: the newest page first,
+ * then anchored at the oldest loaded message, extended by a page at a time when scrolling up.
+ */
+@SmallTest
+public class ConversationMessagesWindowTest extends BugleTestCase {
+    private static final int PAGE_SIZE = 3;
+
+    private FakeContext mContext;
+    private DatabaseWrapper mDb;
+    private String mConversationId;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        mContext = new FakeContext(getTestContext());
+        final ContentProvider provider = new MessagingContentProvider();
+        provider.attachInfo(mContext, null);
+        mContext.addContentProvider(MessagingContentProvider.AUTHORITY, provider);
+        FakeFactory.registerWithFakeContext(getTestContext(), mContext)
+                .withDataModel(new FakeDataModel(mContext));
+        mDb = DataModel.get().getDatabase();
+
+        final ContentValues values = new ContentValues();
+        values.put(ConversationColumns.NAME, "Conversation");
+        mConversationId = Long.toString(mDb.insert(DatabaseHelper.CONVERSATIONS_TABLE, null,
+                values));
+    }
+
+    public void testWindowAnchorsGrowsAndHoldsPosition() {
+        // Two messages share a timestamp so the window boundary has to fall back on the id
+        final List<Long> ids = new ArrayList<Long>();
+        for (final long timestamp : new long[] { 1000L, 2000L, 3000L, 3000L, 4000L, 5000L,
+                6000L }) {
+            ids.add(insertMessage(timestamp));
+        }
+
+        // Opening the conversation loads the newest page
+        final Uri initialUri = MessagingContentProvider.buildConversationMessagesUri(
+                mConversationId, -1 /* windowStartTimestamp */, -1 /* windowStartMessageId */,
+                PAGE_SIZE);
+        List<ConversationMessageData> window = queryWindow(initialUri);
+        assertEquals(ids.subList(4, 7), getMessageIds(window));
+        ConversationMessageData windowStart = window.get(window.size() - 1);
+
+        // A new message arriving doesn't push the oldest loaded message out of the window
+        ids.add(insertMessage(7000L));
+        window = queryWindow(buildAnchoredUri(windowStart, 0));
+        assertEquals(ids.subList(4, 8), getMessageIds(window));
+        assertEquals(windowStart.getMessageId(), window.get(window.size() - 1).getMessageId());
+
+        // Scrolling up pages in older messages, down to the ones sharing a timestamp
+        window = queryWindow(buildAnchoredUri(windowStart, PAGE_SIZE));
+        assertEquals(ids.subList(1, 8), getMessageIds(window));
+        windowStart = window.get(window.size() - 1);
+
+        window = queryWindow(buildAnchoredUri(windowStart, PAGE_SIZE));
+        assertEquals(ids, getMessageIds(window));
+
+        // Drafts aren't part of the conversation's messages
+        final ContentValues values = new ContentValues();
+        values.put(MessageColumns.STATUS, MessageData.BUGLE_STATUS_OUTGOING_DRAFT);
+        mDb.update(DatabaseHelper.MESSAGES_TABLE, values,
+                MessageColumns._ID + "=" + ids.get(0), null);
+        window = queryWindow(buildAnchoredUri(windowStart, PAGE_SIZE));
+        assertEquals(ids.subList(1, 8), getMessageIds(window));
+    }
+
+    public void testWindowReportsConversationMessageCount() {
+        for (int i = 1; i <= 5; i++) {
+            insertMessage(i * 1000L);
+        }
+        final Cursor cursor = mContext.getContentResolver().query(
+                MessagingContentProvider.buildConversationMessagesUri(mConversationId, -1, -1,
+                        PAGE_SIZE),
+                ConversationMessageData.getProjection(), null, null, null);
+        try {
+            assertEquals(PAGE_SIZE, cursor.getCount());
+            assertEquals(5, cursor.getExtras().getInt(
+                    MessagingContentProvider.EXTRA_CONVERSATION_MESSAGE_COUNT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testPartChangesChangeTheMessageRow() {
+        final long messageId = insertMessage(1000L);
+        final long partId = insertPart(messageId, ContentType.IMAGE_JPEG, null, null);
+        insertMessage(2000L);
+
+        final Uri uri = MessagingContentProvider.buildConversationMessagesUri(mConversationId,
+                -1 /* windowStartTimestamp */, -1 /* windowStartMessageId */, PAGE_SIZE);
+        final CursorSnapshot loaded = querySnapshot(uri, null);
+        assertFalse(hasChanges(querySnapshot(uri, loaded), loaded));
+
+        // Only the part changes, e.g. once its download completes
+        final ContentValues values = new ContentValues();
+        values.put(PartColumns.CONTENT_URI, "content://mms/part/1");
+        values.put(PartColumns.WIDTH, 640);
+        values.put(PartColumns.HEIGHT, 480);
+        mDb.update(DatabaseHelper.PARTS_TABLE, values, PartColumns._ID + "=" + partId, null);
+        final CursorSnapshot updated = querySnapshot(uri, loaded);
+        assertTrue(hasChanges(updated, loaded));
+
+        mDb.delete(DatabaseHelper.PARTS_TABLE, PartColumns._ID + "=" + partId, null);
+        assertTrue(hasChanges(querySnapshot(uri, updated), updated));
+    }
+
+    public void testSideLoadedPartsMatchJoinedQuery() {
+        final long textMessageId = insertMessage(1000L);
+        insertPart(textMessageId, ContentType.TEXT_PLAIN, null, "I can't|won't 'quote'");
+        final long mediaMessageId = insertMessage(2000L);
+        insertPart(mediaMessageId, ContentType.IMAGE_JPEG, "content://mms/part/1", null);
+        insertPart(mediaMessageId, ContentType.TEXT_PLAIN, null, "Caption");
+        final long emptyMessageId = insertMessage(3000L);
+
+        final List<ConversationMessageData> joined = queryWindow(
+                MessagingContentProvider.buildConversationMessagesUri(mConversationId));
+        final Uri windowUri = MessagingContentProvider.buildConversationMessagesUri(
+                mConversationId, -1 /* windowStartTimestamp */, -1 /* windowStartMessageId */,
+                PAGE_SIZE);
+        final SideLoadedParts parts = loadParts(windowUri, null);
+        final List<ConversationMessageData> sideLoaded = queryWindow(windowUri, parts);
+
+        assertEquals(Arrays.asList(textMessageId, mediaMessageId, emptyMessageId),
+                getMessageIds(sideLoaded));
+        assertEquals(getMessageIds(joined), getMessageIds(sideLoaded));
+        for (int i = 0; i < joined.size(); i++) {
+            assertEquals(describeParts(joined.get(i)), describeParts(sideLoaded.get(i)));
+        }
+        assertTrue(sideLoaded.get(0).getParts().isEmpty());
+        assertEquals(2, sideLoaded.get(1).getParts().size());
+
+        // Reloading reuses the parts of messages whose parts didn't change
+        final ContentValues values = new ContentValues();
+        values.put(PartColumns.TEXT, "Edited");
+        mDb.update(DatabaseHelper.PARTS_TABLE, values,
+                PartColumns.MESSAGE_ID + "=" + textMessageId, null);
+        final SideLoadedParts reloaded = loadParts(windowUri, parts);
+        assertSame(parts.getMessageParts(Long.toString(mediaMessageId)),
+                reloaded.getMessageParts(Long.toString(mediaMessageId)));
+        assertEquals("Edited",
+                reloaded.getMessageParts(Long.toString(textMessageId)).get(0).getText());
+    }
+
+    private SideLoadedParts loadParts(final Uri uri, final SideLoadedParts previous) {
+        final Cursor cursor = mContext.getContentResolver().query(uri,
+                ConversationMessageData.getProjection(), null, null, null);
+        try {
+            return ConversationMessageData.loadParts(mDb, cursor, previous);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> describeParts(final ConversationMessageData message) {
+        final List<String> descriptions = new ArrayList<String>();
+        for (final MessagePartData part : message.getParts()) {
+            descriptions.add(part.getPartId() + "," + part.getContentType() + ","
+                    + part.getContentUri() + "," + part.getWidth() + "x" + part.getHeight() + ","
+                    + part.getText());
+        }
+        return descriptions;
+    }
+
+    private CursorSnapshot querySnapshot(final Uri uri, final CursorSnapshot previous) {
+        final Cursor cursor = mContext.getContentResolver().query(uri,
+                ConversationMessageData.getProjection(), null, null, null);
+        try {
+            return CursorSnapshot.create(cursor, true /* reverseOrder */, previous);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasChanges(final CursorSnapshot snapshot,
+            final CursorSnapshot previous) {
+        final boolean[] changed = new boolean[1];
+        snapshot.getDiffFrom(previous).dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(final int position, final int count) {
+                changed[0] = true;
+            }
+
+            @Override
+            public void onRemoved(final int position, final int count) {
+                changed[0] = true;
+            }
+
+            @Override
+            public void onMoved(final int fromPosition, final int toPosition) {
+                changed[0] = true;
+            }
+
+            @Override
+            public void onChanged(final int position, final int count, final Object payload) {
+                changed[0] = true;
+            }
+        });
+        return changed[0];
+    }
+
+    private Uri buildAnchoredUri(final ConversationMessageData windowStart, final int pageSize) {
+        return MessagingContentProvider.buildConversationMessagesUri(mConversationId,
+                windowStart.getReceivedTimeStamp(), Long.parseLong(windowStart.getMessageId()),
+                pageSize);
+    }
+
+    /**
+     * @return the messages of the window, newest first like the provider returns them
+     */
+    private List<ConversationMessageData> queryWindow(final Uri uri) {
+        return queryWindow(uri, null);
+    }
+
+    private List<ConversationMessageData> queryWindow(final Uri uri,
+            final SideLoadedParts parts) {
+        final List<ConversationMessageData> messages = new ArrayList<ConversationMessageData>();
+        final Cursor queried = mContext.getContentResolver().query(uri,
+                ConversationMessageData.getProjection(), null, null, null);
+        final Cursor cursor = parts == null ? queried : new SideLoadedPartsCursor(queried, parts);
+        try {
+            while (cursor.moveToNext()) {
+                final ConversationMessageData message = new ConversationMessageData();
+                message.bind(cursor);
+                messages.add(message);
+            }
+        } finally {
+            cursor.close();
+        }
+        return messages;
+    }
+
+    /**
+     * @return the ids of the messages, oldest first
+     */
+    private static List<Long> getMessageIds(final List<ConversationMessageData> messages) {
+        final Long[] ids = new Long[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            ids[ids.length - 1 - i] = Long.parseLong(messages.get(i).getMessageId());
+        }
+        return Arrays.asList(ids);
+    }
+
+    private long insertPart(final long messageId, final String contentType,
+            final String contentUri, final String text) {
+        final ContentValues values = new ContentValues();
+        values.put(PartColumns.MESSAGE_ID, messageId);
+        values.put(PartColumns.CONVERSATION_ID, mConversationId);
+        values.put(PartColumns.CONTENT_TYPE, contentType);
+        values.put(PartColumns.CONTENT_URI, contentUri);
+        values.put(PartColumns.TEXT, text);
+        return mDb.insert(DatabaseHelper.PARTS_TABLE, null, values);
+    }
+
+    private long insertMessage(final long timestamp) {
+        final ContentValues values = new ContentValues();
+        values.put(MessageColumns.CONVERSATION_ID, mConversationId);
+        values.put(MessageColumns.STATUS, MessageData.BUGLE_STATUS_INCOMING_COMPLETE);
+        values.put(MessageColumns.RECEIVED_TIMESTAMP, timestamp);
+        return mDb.insert(DatabaseHelper.MESSAGES_TABLE, null, values);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.test.filters.SmallTest;
+
+import java.util.HashSet;
+import java.util.Set;
+
+@SmallTest
+public class CursorSnapshotTest extends AndroidTestCase {
+    private static class RecordingCallback implements ListUpdateCallback {
+        int mInserted;
+        int mRemoved;
+        int mMoved;
+        final Set<Integer> mChangedPositions = new HashSet<Integer>();
+
+        @Override
+        public void onInserted(final int position, final int count) {
+            mInserted += count;
+        }
+
+        @Override
+        public void onRemoved(final int position, final int count) {
+            mRemoved += count;
+        }
+
+        @Override
+        public void onMoved(final int fromPosition, final int toPosition) {
+            mMoved++;
+        }
+
+        @Override
+        public void onChanged(final int position, final int count, final Object payload) {
+            for (int i = position; i < position + count; i++) {
+                mChangedPositions.add(i);
+            }
+        }
+    }
+
+    private static MatrixCursor makeCursor(final Object[][] rows) {
+        final MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "text" });
+        for (final Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    public void testNoDiffWithoutPreviousSnapshot() {
+        final CursorSnapshot snapshot = CursorSnapshot.create(
+                makeCursor(new Object[][] { { 1L, "a" } }), false /* reverseOrder */, null);
+        assertEquals(1, snapshot.getCount());
+        assertNull(snapshot.getDiffFrom(null));
+    }
+
+    public void testDiffOnlyAppliesToPreviousSnapshot() {
+        final Object[][] rows = new Object[][] { { 1L, "a" }, { 2L, "b" } };
+        final CursorSnapshot first = CursorSnapshot.create(makeCursor(rows), false, null);
+        final CursorSnapshot second = CursorSnapshot.create(makeCursor(rows), false, first);
+        final CursorSnapshot third = CursorSnapshot.create(makeCursor(rows), false, second);
+
+        assertNotNull(second.getDiffFrom(first));
+        assertNull(third.getDiffFrom(first));
+
+        final RecordingCallback callback = new RecordingCallback();
+        third.getDiffFrom(second).dispatchUpdatesTo(callback);
+        assertEquals(0, callback.mInserted);
+        assertEquals(0, callback.mRemoved);
+        assertTrue(callback.mChangedPositions.isEmpty());
+    }
+
+    public void testAppendedRowOnlyChangesNeighbor() {
+        final CursorSnapshot previous = CursorSnapshot.create(makeCursor(new Object[][] {
+                { 1L, "a" }, { 2L, "b" }, { 3L, "c" } }), false, null);
+        final CursorSnapshot snapshot = CursorSnapshot.create(makeCursor(new Object[][] {
+                { 1L, "a" }, { 2L, "b" }, { 3L, "c" }, { 4L, "d" } }), false, previous);
+
+        final RecordingCallback callback = new RecordingCallback();
+        snapshot.getDiffFrom(previous).dispatchUpdatesTo(callback);
+        assertEquals(1, callback.mInserted);
+        assertEquals(0, callback.mRemoved);
+        assertFalse(callback.mChangedPositions.contains(0));
+        assertFalse(callback.mChangedPositions.contains(1));
+        assertTrue(callback.mChangedPositions.contains(2));
+    }
+
+    public void testChangedContentInReverseOrder() {
+        // Rows are loaded newest first but presented oldest first
+        final CursorSnapshot previous = CursorSnapshot.create(makeCursor(new Object[][] {
+                { 3L, "c" }, { 2L, "b" }, { 1L, "a" } }), true /* reverseOrder */, null);
+        final CursorSnapshot snapshot = CursorSnapshot.create(makeCursor(new Object[][] {
+                { 3L, "c" }, { 2L, "b" }, { 1L, "edited" } }), true /* reverseOrder */, previous);
+
+        final RecordingCallback callback = new RecordingCallback();
+        snapshot.getDiffFrom(previous).dispatchUpdatesTo(callback);
+        assertEquals(0, callback.mInserted);
+        assertEquals(0, callback.mRemoved);
+        assertEquals(0, callback.mMoved);
+        assertTrue(callback.mChangedPositions.contains(0));
+        assertTrue(callback.mChangedPositions.contains(1));
+        assertFalse(callback.mChangedPositions.contains(2));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.datamodel.DataModelChangeStream.DataModelChangeListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@SmallTest
+public class DataModelChangeStreamTest extends AndroidTestCase {
+    private static class RecordingListener implements DataModelChangeListener {
+        final List<List<DataModelChange>> mBatches = new ArrayList<List<DataModelChange>>();
+
+        @Override
+        public void onDataModelChanged(final List<DataModelChange> changes) {
+            mBatches.add(changes);
+        }
+    }
+
+    private RecordingListener mListener;
+    private DataModelChangeStream mStream;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mListener = new RecordingListener();
+        mStream = new DataModelChangeStream(new Executor() {
+            @Override
+            public void execute(final Runnable runnable) {
+                runnable.run();
+            }
+        });
+        mStream.addListener(mListener);
+    }
+
+    public void testChangesOutsideTransactionAreDeliveredRightAway() {
+        mStream.post(DataModelChange.messageInserted("1", "10"));
+        assertEquals(1, mListener.mBatches.size());
+        assertEquals(Arrays.asList(DataModelChange.messageInserted("1", "10")),
+                mListener.mBatches.get(0));
+    }
+
+    public void testChangesInTransactionAreDeliveredOnceCommitted() {
+        mStream.onTransactionStarted();
+        mStream.post(DataModelChange.messageInserted("1", "10"));
+        mStream.post(DataModelChange.conversationChanged("1"));
+        mStream.post(DataModelChange.conversationChanged("1"));
+        assertTrue(mListener.mBatches.isEmpty());
+
+        mStream.onTransactionEnded();
+        assertEquals(1, mListener.mBatches.size());
+        assertEquals(Arrays.asList(DataModelChange.messageInserted("1", "10"),
+                DataModelChange.conversationChanged("1")), mListener.mBatches.get(0));
+    }
+
+    public void testChangesInRolledBackTransactionAreDropped() {
+        mStream.onTransactionStarted();
+        mStream.post(DataModelChange.messageDeleted("1", "10"));
+        mStream.onTransactionRolledBack();
+        mStream.onTransactionEnded();
+        assertTrue(mListener.mBatches.isEmpty());
+    }
+
+    public void testNothingIsDeliveredWithoutListeners() {
+        mStream.removeListener(mListener);
+        mStream.post(DataModelChange.participantChanged("5"));
+        assertTrue(mListener.mBatches.isEmpty());
+    }
+}
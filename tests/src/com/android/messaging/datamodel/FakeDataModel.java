@@ -226,6 +226,7 @@ public class FakeDataModel extends DataModel {
 
     @Override
     void onCreateTables(final SQLiteDatabase db) {
+        BugleDatabaseOperations.clearPersistedDraftHashes();
         TestDataFactory.createTestData(db);
     }
 
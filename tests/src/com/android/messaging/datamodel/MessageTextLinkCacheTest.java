@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.test.AndroidTestCase;
+import android.text.Spanned;
+import android.text.style.URLSpan;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.datamodel.MessageTextLinkCache.LinkifiedText;
+
+@SmallTest
+public class MessageTextLinkCacheTest extends AndroidTestCase {
+    private static final String TEXT_WITH_LINK = "See http://www.android.com for details";
+
+    public void testLinksAreAdded() {
+        final MessageTextLinkCache cache = new MessageTextLinkCache();
+        final LinkifiedText linkified = cache.getOrCompute("1", TEXT_WITH_LINK);
+        assertTrue(linkified.hasLinks());
+        assertEquals(TEXT_WITH_LINK, linkified.getText().toString());
+        final URLSpan[] spans = ((Spanned) linkified.getText()).getSpans(0,
+                TEXT_WITH_LINK.length(), URLSpan.class);
+        assertEquals(1, spans.length);
+
+        final LinkifiedText plain = cache.getOrCompute("2", "No links here");
+        assertFalse(plain.hasLinks());
+        assertEquals("No links here", plain.getText());
+    }
+
+    public void testCachedUntilTextChanges() {
+        final MessageTextLinkCache cache = new MessageTextLinkCache();
+        final LinkifiedText linkified = cache.getOrCompute("1", TEXT_WITH_LINK);
+        assertSame(linkified, cache.getOrCompute("1", TEXT_WITH_LINK));
+
+        // Same message id with different text, e.g. after the message got edited or its id reused
+        final LinkifiedText changed = cache.getOrCompute("1", "No links anymore");
+        assertNotSame(linkified, changed);
+        assertFalse(changed.hasLinks());
+        assertSame(changed, cache.getOrCompute("1", "No links anymore"));
+    }
+
+    public void testReclaimDropsCachedText() {
+        final MessageTextLinkCache cache = new MessageTextLinkCache();
+        final LinkifiedText linkified = cache.getOrCompute("1", TEXT_WITH_LINK);
+        cache.reclaim();
+        final LinkifiedText recomputed = cache.getOrCompute("1", TEXT_WITH_LINK);
+        assertNotSame(linkified, recomputed);
+        assertTrue(recomputed.hasLinks());
+    }
+}
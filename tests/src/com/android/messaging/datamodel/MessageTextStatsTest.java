@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.data.ParticipantData;
+
+import java.util.Random;
+
+/**
+ * Checks that counting the edits of a live text, the way the compose box reports them, ends up
+ * with the same stats as counting the whole text.
+ */
+@SmallTest
+public class MessageTextStatsTest extends BugleTestCase {
+    private static final String CHARS = "abcXYZ019 \n.,!?^{}\u20ac\u00e7\u0414\u4e2d";
+    private static final int SUB_ID = ParticipantData.DEFAULT_SELF_SUB_ID;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FakeFactory.register(getTestContext());
+    }
+
+    public void testEditsMatchWholeText() {
+        final Random random = new Random(42);
+        final SpannableStringBuilder text = new SpannableStringBuilder();
+        final MessageTextStats stats = new MessageTextStats();
+        stats.updateMessageTextStats(SUB_ID, text);
+        for (int i = 0; i < 500; i++) {
+            final int start = random.nextInt(text.length() + 1);
+            final int before = random.nextInt(Math.min(3, text.length() - start) + 1);
+            final StringBuilder inserted = new StringBuilder();
+            for (int count = random.nextInt(5); count > 0; count--) {
+                inserted.append(CHARS.charAt(random.nextInt(CHARS.length())));
+            }
+            stats.beforeMessageTextChanged(text, start, before);
+            text.replace(start, start + before, inserted);
+            stats.updateMessageTextStats(SUB_ID, text, start, before, inserted.length());
+            assertSameStats(text, stats);
+        }
+    }
+
+    public void testRecountsEditsItMissed() {
+        final SpannableStringBuilder text = new SpannableStringBuilder("hello");
+        final MessageTextStats stats = new MessageTextStats();
+        stats.updateMessageTextStats(SUB_ID, text);
+
+        // Not told before the edit, so the replaced chars are unknown
+        text.replace(0, 5, "\u4e2d\u4e2d");
+        stats.updateMessageTextStats(SUB_ID, text, 0, 5, 2);
+        assertSameStats(text, stats);
+
+        // Told about a different edit than the one made
+        stats.beforeMessageTextChanged(text, 0, 1);
+        text.append("abc");
+        stats.updateMessageTextStats(SUB_ID, text, 2, 0, 3);
+        assertSameStats(text, stats);
+    }
+
+    private static void assertSameStats(final CharSequence text, final MessageTextStats stats) {
+        final MessageTextStats expected = new MessageTextStats();
+        expected.updateMessageTextStats(SUB_ID, text.toString());
+        assertEquals(expected.getNumMessagesToBeSent(), stats.getNumMessagesToBeSent());
+        assertEquals(expected.getCodePointsRemainingInCurrentMessage(),
+                stats.getCodePointsRemainingInCurrentMessage());
+        assertEquals(expected.getMessageLengthRequiresMms(),
+                stats.getMessageLengthRequiresMms());
+        assertEquals(TextUtils.getTrimmedLength(text) > 0, stats.hasNonWhitespaceText());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class NotificationAvatarCacheTest extends BugleTestCase {
+    private static final Uri FIRST_AVATAR = Uri.parse("messaging://avatar/l?n=First");
+    private static final Uri SECOND_AVATAR = Uri.parse("messaging://avatar/l?n=Second");
+    private static final Uri THIRD_AVATAR = Uri.parse("messaging://avatar/l?n=Third");
+    // Size of the 4x4 ARGB_8888 icons the CountingLoader loads
+    private static final int AVATAR_BYTES = 4 * 4 * 4;
+
+    private static class CountingLoader implements NotificationAvatarCache.AvatarLoader {
+        final AtomicInteger mLoadCount = new AtomicInteger();
+
+        @Override
+        public NotificationAvatarCache.Avatar load(final Uri avatarUri) {
+            mLoadCount.incrementAndGet();
+            return new NotificationAvatarCache.Avatar(
+                    Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888), null);
+        }
+    }
+
+    public void testPrefetchedAvatarsAreReused() {
+        final NotificationAvatarCache cache = new NotificationAvatarCache();
+        final CountingLoader loader = new CountingLoader();
+
+        cache.prefetch(Arrays.asList(FIRST_AVATAR, SECOND_AVATAR), loader);
+        final NotificationAvatarCache.Avatar first = cache.get(FIRST_AVATAR, loader);
+        assertNotNull(first);
+        assertNotNull(cache.get(SECOND_AVATAR, loader));
+        assertSame(first, cache.get(FIRST_AVATAR, loader));
+
+        // Notifying about the same conversations again does not load anything
+        cache.prefetch(Arrays.asList(FIRST_AVATAR, SECOND_AVATAR), loader);
+        assertSame(first, cache.get(FIRST_AVATAR, loader));
+        assertEquals(2, loader.mLoadCount.get());
+    }
+
+    public void testAvatarsNoLongerNotifiedAreDropped() {
+        final NotificationAvatarCache cache = new NotificationAvatarCache();
+        final CountingLoader loader = new CountingLoader();
+
+        final NotificationAvatarCache.Avatar first = cache.get(FIRST_AVATAR, loader);
+        cache.prefetch(Collections.singletonList(SECOND_AVATAR), loader);
+        assertNotSame(first, cache.get(FIRST_AVATAR, loader));
+        assertEquals(3, loader.mLoadCount.get());
+    }
+
+    public void testLeastRecentlyUsedAvatarsAreEvictedOverSizeLimit() {
+        final NotificationAvatarCache cache = new NotificationAvatarCache(2 * AVATAR_BYTES);
+        final CountingLoader loader = new CountingLoader();
+
+        final NotificationAvatarCache.Avatar first = cache.get(FIRST_AVATAR, loader);
+        final NotificationAvatarCache.Avatar second = cache.get(SECOND_AVATAR, loader);
+        assertSame(first, cache.get(FIRST_AVATAR, loader));
+        cache.get(THIRD_AVATAR, loader);
+        assertSame(first, cache.get(FIRST_AVATAR, loader));
+        assertNotSame(second, cache.get(SECOND_AVATAR, loader));
+        assertEquals(4, loader.mLoadCount.get());
+    }
+}
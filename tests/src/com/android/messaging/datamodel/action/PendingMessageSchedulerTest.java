@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeContext;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.DatabaseHelper;
+import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
+import com.android.messaging.datamodel.DatabaseWrapper;
+import com.android.messaging.datamodel.FakeDataModel;
+import com.android.messaging.datamodel.MessagingContentProvider;
+import com.android.messaging.datamodel.data.MessageData;
+
+import java.util.Arrays;
+
+@SmallTest
+public class PendingMessageSchedulerTest extends BugleTestCase {
+    private static final long NOW = 1000000L;
+
+    private DatabaseWrapper mDb;
+    private PendingMessageScheduler mScheduler;
+    private String mSelfId;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        final FakeContext context = new FakeContext(getTestContext());
+        final ContentProvider provider = new MessagingContentProvider();
+        provider.attachInfo(context, null);
+        context.addContentProvider(MessagingContentProvider.AUTHORITY, provider);
+        FakeFactory.registerWithFakeContext(getTestContext(), context)
+                .withDataModel(new FakeDataModel(context));
+        mDb = DataModel.get().getDatabase();
+        mScheduler = new PendingMessageScheduler();
+
+        final ContentValues values = new ContentValues();
+        values.put(ParticipantColumns.NORMALIZED_DESTINATION, "self");
+        mSelfId = Long.toString(mDb.insert(DatabaseHelper.PARTICIPANTS_TABLE, null, values));
+    }
+
+    public void testTakesOldestMessageOfEachConversation() {
+        final long first = insertConversation();
+        final long second = insertConversation();
+        final String firstOldest = insertMessage(first,
+                MessageData.BUGLE_STATUS_OUTGOING_YET_TO_SEND, NOW - 20);
+        insertMessage(first, MessageData.BUGLE_STATUS_OUTGOING_YET_TO_SEND, NOW - 10);
+        final String secondOldest = insertMessage(second,
+                MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY, NOW - 15);
+
+        final PendingMessageScheduler.Batch batch = takeDueMessages(NOW);
+        assertEquals(2, batch.mToSendMessageIds.size());
+        assertTrue(batch.mToSendMessageIds.containsAll(Arrays.asList(firstOldest, secondOldest)));
+        assertTrue(batch.mToDownloadMessageIds.isEmpty());
+    }
+
+    public void testSkipsConversationsAlreadySending() {
+        final long conversationId = insertConversation();
+        insertMessage(conversationId, MessageData.BUGLE_STATUS_OUTGOING_SENDING, NOW - 20);
+        insertMessage(conversationId, MessageData.BUGLE_STATUS_OUTGOING_YET_TO_SEND, NOW - 10);
+
+        final PendingMessageScheduler.Batch batch = takeDueMessages(NOW);
+        assertTrue(batch.isEmpty());
+        assertEquals(PendingMessageScheduler.NOT_DUE, batch.mNextDueTime);
+    }
+
+    public void testBacksOffFailedMessageOnly() {
+        final String failing = insertMessage(insertConversation(),
+                MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY, NOW - 20);
+        assertEquals(Arrays.asList(failing), takeDueMessages(NOW).mToSendMessageIds);
+
+        // The message is still pending, as if sending it failed, while another one comes in
+        final String other = insertMessage(insertConversation(),
+                MessageData.BUGLE_STATUS_OUTGOING_YET_TO_SEND, NOW - 10);
+        PendingMessageScheduler.Batch batch = takeDueMessages(NOW + 1);
+        assertEquals(Arrays.asList(other), batch.mToSendMessageIds);
+        final long dueTime = NOW + PendingMessageScheduler.getBackoffDelay(1);
+        assertEquals(dueTime, batch.mNextDueTime);
+
+        markSending(other);
+        assertTrue(takeDueMessages(dueTime - 1).isEmpty());
+        batch = takeDueMessages(dueTime);
+        assertEquals(Arrays.asList(failing), batch.mToSendMessageIds);
+        assertEquals(dueTime + PendingMessageScheduler.getBackoffDelay(2), batch.mRetryTime);
+    }
+
+    public void testManualResendRestartsBackoff() {
+        final String messageId = insertMessage(insertConversation(),
+                MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY, NOW - 20);
+        assertFalse(takeDueMessages(NOW).isEmpty());
+        assertTrue(takeDueMessages(NOW + 1).isEmpty());
+
+        final ContentValues values = new ContentValues();
+        values.put(MessageColumns.RETRY_START_TIMESTAMP, NOW + 2);
+        PendingMessageScheduler.putAttemptsReset(values);
+        mDb.update(DatabaseHelper.MESSAGES_TABLE, values, MessageColumns._ID + "=" + messageId,
+                null);
+        assertEquals(Arrays.asList(messageId), takeDueMessages(NOW + 3).mToSendMessageIds);
+    }
+
+    public void testBackoffSurvivesRestart() {
+        final String messageId = insertMessage(insertConversation(),
+                MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY, NOW - 20);
+        assertFalse(takeDueMessages(NOW).isEmpty());
+        assertFalse(takeDueMessages(NOW + PendingMessageScheduler.getBackoffDelay(1)).isEmpty());
+
+        // A new scheduler, as after the process restarted, picks up where the old one left off
+        mScheduler = new PendingMessageScheduler();
+        final long dueTime = NOW + PendingMessageScheduler.getBackoffDelay(1)
+                + PendingMessageScheduler.getBackoffDelay(2);
+        final PendingMessageScheduler.Batch batch = takeDueMessages(dueTime - 1);
+        assertTrue(batch.isEmpty());
+        assertEquals(dueTime, batch.mNextDueTime);
+        assertEquals(Arrays.asList(messageId), takeDueMessages(dueTime).mToSendMessageIds);
+    }
+
+    public void testExpediteKeepsAttempts() {
+        final String messageId = insertMessage(insertConversation(),
+                MessageData.BUGLE_STATUS_OUTGOING_AWAITING_RETRY, NOW - 20);
+        assertFalse(takeDueMessages(NOW).isEmpty());
+        assertTrue(takeDueMessages(NOW + 1).isEmpty());
+
+        mScheduler.expedite(mSelfId);
+        final PendingMessageScheduler.Batch batch = takeDueMessages(NOW + 2);
+        assertEquals(Arrays.asList(messageId), batch.mToSendMessageIds);
+        assertEquals(NOW + 2 + PendingMessageScheduler.getBackoffDelay(2), batch.mRetryTime);
+    }
+
+    public void testBackoffDelayDoubles() {
+        final long initialDelay = PendingMessageScheduler.getBackoffDelay(1);
+        assertEquals(initialDelay * 2, PendingMessageScheduler.getBackoffDelay(2));
+        assertEquals(initialDelay * 4, PendingMessageScheduler.getBackoffDelay(3));
+        assertTrue(PendingMessageScheduler.getBackoffDelay(100) >=
+                PendingMessageScheduler.getBackoffDelay(99));
+    }
+
+    private PendingMessageScheduler.Batch takeDueMessages(final long now) {
+        return mScheduler.takeDueMessages(mDb, mSelfId, true /* isActiveSubscription */, now);
+    }
+
+    private long insertConversation() {
+        final ContentValues values = new ContentValues();
+        values.put(ConversationColumns.CURRENT_SELF_ID, mSelfId);
+        return mDb.insert(DatabaseHelper.CONVERSATIONS_TABLE, null, values);
+    }
+
+    private String insertMessage(final long conversationId, final int status,
+            final long receivedTimestamp) {
+        final ContentValues values = new ContentValues();
+        values.put(MessageColumns.CONVERSATION_ID, conversationId);
+        values.put(MessageColumns.SELF_PARTICIPANT_ID, mSelfId);
+        values.put(MessageColumns.STATUS, status);
+        values.put(MessageColumns.PROTOCOL, MessageData.PROTOCOL_SMS);
+        values.put(MessageColumns.RECEIVED_TIMESTAMP, receivedTimestamp);
+        values.put(MessageColumns.RETRY_START_TIMESTAMP, receivedTimestamp);
+        return Long.toString(mDb.insert(DatabaseHelper.MESSAGES_TABLE, null, values));
+    }
+
+    private void markSending(final String messageId) {
+        final ContentValues values = new ContentValues();
+        values.put(MessageColumns.STATUS, MessageData.BUGLE_STATUS_OUTGOING_SENDING);
+        mDb.update(DatabaseHelper.MESSAGES_TABLE, values, MessageColumns._ID + "=" + messageId,
+                null);
+    }
+}
@@ -452,6 +452,91 @@ public class ReadWriteDraftMessageActionTest extends BugleTestCase {
 
     }
 
+    public void testUnchangedDraftIsNotRewritten() {
+        final long threadId = 1234601;
+        final String participantNumber = "5553456701";
+
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final String conversationId = getOrCreateConversation(db, participantNumber, threadId,
+                false /* senderBlocked */);
+        final String selfId = getOrCreateSelfId(db);
+        final ArrayList<StubActionServiceCallLog> calls = mService.getCalls();
+
+        WriteDraftMessageAction.writeDraftMessage(conversationId,
+                MessageData.createDraftSmsMessage(conversationId, selfId, "draftMessage"));
+        assertEquals(1, calls.size());
+        assertTrue(calls.get(0).action.executeAction() instanceof String);
+
+        // Saving the same content again does not start another write
+        WriteDraftMessageAction.writeDraftMessage(conversationId,
+                MessageData.createDraftSmsMessage(conversationId, selfId, "draftMessage"));
+        assertEquals(1, calls.size());
+
+        WriteDraftMessageAction.writeDraftMessage(conversationId,
+                MessageData.createDraftSmsMessage(conversationId, selfId, "otherMessage"));
+        assertEquals(2, calls.size());
+    }
+
+    public void testSupersededDraftIsNotWritten() {
+        final long threadId = 1234602;
+        final String participantNumber = "5553456702";
+
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final String conversationId = getOrCreateConversation(db, participantNumber, threadId,
+                false /* senderBlocked */);
+        final String selfId = getOrCreateSelfId(db);
+        final ArrayList<StubActionServiceCallLog> calls = mService.getCalls();
+
+        WriteDraftMessageAction.writeDraftMessage(conversationId,
+                MessageData.createDraftSmsMessage(conversationId, selfId, "first"));
+        WriteDraftMessageAction.writeDraftMessage(conversationId,
+                MessageData.createDraftSmsMessage(conversationId, selfId, "second"));
+        assertEquals(2, calls.size());
+
+        assertNull(calls.get(0).action.executeAction());
+        assertTrue(calls.get(1).action.executeAction() instanceof String);
+        final MessageData actual =
+                BugleDatabaseOperations.readDraftMessageData(db, conversationId, selfId);
+        assertEquals("second", actual.getMessageText());
+    }
+
+    public void testDraftAttachmentKeptWhenTextChanges() {
+        final long threadId = 1234603;
+        final String participantNumber = "5553456703";
+        final Uri attachmentUri = MediaScratchFileProvider.buildMediaScratchSpaceUri("txt");
+
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final String conversationId = getOrCreateConversation(db, participantNumber, threadId,
+                false /* senderBlocked */);
+        final String selfId = getOrCreateSelfId(db);
+
+        final MessageData initial =
+                MessageData.createDraftMmsMessage(conversationId, selfId, "initial", null);
+        initial.addPart(MessagePartData.createMediaMessagePart(ContentType.MULTIPART_MIXED,
+                attachmentUri, 0, 0));
+        final String initialMessageId = BugleDatabaseOperations.updateDraftMessageData(db,
+                conversationId, initial, BugleDatabaseOperations.UPDATE_MODE_ADD_DRAFT);
+        final String initialAttachmentId = BugleDatabaseOperations.readMessage(db,
+                initialMessageId).getFirstAttachment().getPartId();
+
+        final MessageData updated =
+                MessageData.createDraftMmsMessage(conversationId, selfId, "updated", null);
+        updated.addPart(MessagePartData.createMediaMessagePart(ContentType.MULTIPART_MIXED,
+                attachmentUri, 0, 0));
+        final String updatedMessageId = BugleDatabaseOperations.updateDraftMessageData(db,
+                conversationId, updated, BugleDatabaseOperations.UPDATE_MODE_ADD_DRAFT);
+
+        assertEquals(initialMessageId, updatedMessageId);
+        final MessageData actual = BugleDatabaseOperations.readMessage(db, updatedMessageId);
+        assertEquals("updated", actual.getMessageText());
+        int partCount = 0;
+        for (final MessagePartData part : actual.getParts()) {
+            partCount++;
+        }
+        assertEquals(2, partCount);
+        assertEquals(initialAttachmentId, actual.getFirstAttachment().getPartId());
+    }
+
     private StubActionService mService;
 
     @Override
@@ -94,4 +94,25 @@ public class ConversationMessageDataTest extends BugleTestCase {
         assertTrue(data.getCanClusterWithPreviousMessage());  // 2 and 3 can be clustered
         assertFalse(data.getCanClusterWithNextMessage());
     }
+
+    public void testWindowQueryArgsMatchPlaceholders() {
+        assertWindowQueryArgsMatchPlaceholders(false /* hasWindowStart */, 50);
+        assertWindowQueryArgsMatchPlaceholders(true /* hasWindowStart */, 0);
+        assertWindowQueryArgsMatchPlaceholders(true /* hasWindowStart */, 50);
+    }
+
+    private static void assertWindowQueryArgsMatchPlaceholders(final boolean hasWindowStart,
+            final int pageSize) {
+        final String sql = ConversationMessageData.getConversationMessagesWindowQuerySql(
+                hasWindowStart, pageSize);
+        final String[] args = ConversationMessageData.getConversationMessagesWindowQueryArgs(
+                "1", hasWindowStart, 1000L, 5L, pageSize);
+        int placeholders = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                placeholders++;
+            }
+        }
+        assertEquals(placeholders, args.length);
+    }
 }
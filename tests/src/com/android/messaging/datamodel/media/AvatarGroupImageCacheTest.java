@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.MemoryCacheManager;
+import com.android.messaging.util.AvatarUriUtil;
+import com.android.messaging.util.exif.ExifInterface;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@SmallTest
+public class AvatarGroupImageCacheTest extends BugleTestCase {
+    private static final Uri ALICE = AvatarUriUtil.createAvatarUri(null /* profilePhotoUri */,
+            "Alice", "+15550001", null /* contactLookupKey */);
+    private static final Uri BOB = AvatarUriUtil.createAvatarUri(null /* profilePhotoUri */,
+            "Bob", "+15550002", null /* contactLookupKey */);
+    private static final Uri CAROL = AvatarUriUtil.createAvatarUri(null /* profilePhotoUri */,
+            "Carol", "+15550003", null /* contactLookupKey */);
+    private static final Uri DAVE = AvatarUriUtil.createAvatarUri(null /* profilePhotoUri */,
+            "Dave", "+15550004", null /* contactLookupKey */);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FakeFactory.register(getTestContext())
+                .withMemoryCacheManager(new MemoryCacheManager())
+                .withMediaCacheManager(new BugleMediaCacheManager());
+    }
+
+    private static AvatarGroupRequestDescriptor newDescriptor(final int size,
+            final Uri... participants) {
+        return new AvatarGroupRequestDescriptor(
+                AvatarUriUtil.joinAvatarUriToGroup(Arrays.asList(participants)), size, size);
+    }
+
+    public void testKeyIsHashOfParticipantsAndSize() {
+        final String key = newDescriptor(100, ALICE, BOB).getKey();
+        assertEquals(key, newDescriptor(100, ALICE, BOB).getKey());
+        assertTrue(key.startsWith("group|"));
+        assertFalse(key.contains(ALICE.toString()));
+        assertFalse(key.equals(newDescriptor(50, ALICE, BOB).getKey()));
+        assertFalse(key.equals(newDescriptor(100, BOB, ALICE).getKey()));
+        assertFalse(key.equals(newDescriptor(100, ALICE, CAROL).getKey()));
+    }
+
+    public void testParticipantsAreRequestedAtTheirSizeInTheGroup() {
+        final AvatarGroupRequestDescriptor descriptor =
+                newDescriptor(100, ALICE, BOB, CAROL, DAVE);
+        assertEquals(Arrays.asList(ALICE.toString(), BOB.toString(), CAROL.toString(),
+                DAVE.toString()), descriptor.getParticipantUris());
+        for (final ImageRequestDescriptor child : descriptor.getChildRequestDescriptors()) {
+            assertEquals(50, child.desiredWidth);
+            assertEquals(50, child.desiredHeight);
+            assertTrue(child.cropToCircle);
+        }
+    }
+
+    public void testInvalidateParticipantsDropsGroupsShowingThem() {
+        final AvatarGroupImageCache cache = (AvatarGroupImageCache) MediaCacheManager.get()
+                .getOrCreateMediaCacheById(BugleMediaCacheManager.AVATAR_GROUP_CACHE);
+        final AvatarGroupRequestDescriptor aliceAndBob = newDescriptor(100, ALICE, BOB);
+        final AvatarGroupRequestDescriptor carolAndDave = newDescriptor(100, CAROL, DAVE);
+        addGroup(cache, aliceAndBob);
+        addGroup(cache, carolAndDave);
+
+        AvatarGroupImageCache.invalidateParticipants(Collections.singletonList(ALICE.toString()));
+        assertNull(cache.get(aliceAndBob.getKey()));
+        assertNotNull(cache.get(carolAndDave.getKey()));
+
+        // Evicted groups are forgotten along with their participants
+        cache.evictAll();
+        addGroup(cache, aliceAndBob);
+        AvatarGroupImageCache.invalidateParticipants(Collections.singletonList(DAVE.toString()));
+        assertNotNull(cache.get(aliceAndBob.getKey()));
+    }
+
+    private static void addGroup(final AvatarGroupImageCache cache,
+            final AvatarGroupRequestDescriptor descriptor) {
+        final String key = descriptor.getKey();
+        cache.onGroupLoaded(key, descriptor.getParticipantUris());
+        cache.addResourceToCache(key, new DecodedImageResource(key,
+                Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888),
+                ExifInterface.Orientation.TOP_LEFT));
+    }
+}
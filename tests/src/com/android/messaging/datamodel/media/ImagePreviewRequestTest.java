@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.MemoryCacheManager;
+import com.android.messaging.util.exif.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+@SmallTest
+public class ImagePreviewRequestTest extends BugleTestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FakeFactory.register(getTestContext())
+                   .withMemoryCacheManager(new MemoryCacheManager())
+                   .withMediaCacheManager(new BugleMediaCacheManager());
+        mFile = new File(getContext().getCacheDir(), "image_preview_request_test.jpg");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private void writeJpeg(final int width, final int height, final Bitmap thumbnail)
+            throws IOException {
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final ExifInterface exifInterface = new ExifInterface();
+        if (thumbnail != null) {
+            exifInterface.setCompressedThumbnail(thumbnail);
+            thumbnail.recycle();
+        }
+        final OutputStream outputStream = new FileOutputStream(mFile);
+        try {
+            exifInterface.writeExif(bitmap, outputStream);
+        } finally {
+            outputStream.close();
+            bitmap.recycle();
+        }
+    }
+
+    private Bitmap loadPreview(final int sourceWidth, final int sourceHeight) throws Exception {
+        final ImagePreviewRequestDescriptor descriptor = new ImagePreviewRequestDescriptor(
+                Uri.fromFile(mFile), sourceWidth, sourceHeight);
+        final ImageResource resource =
+                descriptor.buildSyncMediaRequest(getContext()).loadMediaBlocking(null);
+        assertNotNull(resource);
+        return resource.getBitmap();
+    }
+
+    public void testUsesExifThumbnail() throws Exception {
+        writeJpeg(1600, 1200, Bitmap.createBitmap(160, 120, Bitmap.Config.ARGB_8888));
+        final Bitmap preview = loadPreview(1600, 1200);
+        assertEquals(160, preview.getWidth());
+        assertEquals(120, preview.getHeight());
+    }
+
+    public void testDecodesWhenThumbnailIsLetterboxed() throws Exception {
+        writeJpeg(1600, 900, Bitmap.createBitmap(160, 120, Bitmap.Config.ARGB_8888));
+        final Bitmap preview = loadPreview(1600, 900);
+        assertTrue(preview.getWidth() < 1600);
+        assertEquals(16f / 9, (float) preview.getWidth() / preview.getHeight(), 0.05f);
+    }
+
+    public void testDecodesWithoutExifThumbnail() throws Exception {
+        writeJpeg(1600, 1200, null);
+        final Bitmap preview = loadPreview(1600, 1200);
+        assertTrue(preview.getWidth() >= ImagePreviewRequestDescriptor.MICRO_THUMBNAIL_SIZE);
+        assertTrue(preview.getWidth() < 1600);
+    }
+}
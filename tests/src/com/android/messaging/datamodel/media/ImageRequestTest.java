@@ -16,7 +16,9 @@
 package com.android.messaging.datamodel.media;
 
 import android.content.ContentResolver;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Color;
 import android.net.Uri;
 
 import androidx.test.filters.SmallTest;
@@ -32,6 +34,8 @@ import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.Spy;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
 @SmallTest
@@ -109,4 +113,51 @@ public class ImageRequestTest extends BugleTestCase {
             fail("IO exception while trying to load image resource");
         }
     }
+
+    public void testLoadOpaqueImageAsRgb565() throws IOException {
+        final File file = new File(getContext().getCacheDir(), "image_request_test.jpg");
+        final Bitmap source = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+        source.eraseColor(Color.RED);
+        try (final FileOutputStream outputStream = new FileOutputStream(file)) {
+            source.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        }
+        source.recycle();
+        try {
+            final UriImageRequest imageRequest = new UriImageRequest(getContext(),
+                    new UriImageRequestDescriptor(Uri.fromFile(file), 64, 48,
+                            ImageRequest.UNSPECIFIED_SIZE, ImageRequest.UNSPECIFIED_SIZE,
+                            false /* allowCompression */, true /* isStatic */,
+                            false /* cropToCircle */, 0 /* circleBackgroundColor */,
+                            0 /* circleStrokeColor */,
+                            ImageRequestDescriptor.DECODE_MODE_RGB_565));
+            final ImageResource imageResource = imageRequest.loadMediaBlocking(null);
+            final Bitmap bitmap = imageResource.getBitmap();
+            assertEquals(Bitmap.Config.RGB_565, bitmap.getConfig());
+            assertFalse(bitmap.isMutable());
+            assertEquals(64 * 48 * 2, imageResource.getMediaSize());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testHardwareDecodeModeFallsBackWhenCompressed() {
+        final Uri uri = Uri.parse("content://test/image");
+        final UriImageRequest compressedRequest = new UriImageRequest(getContext(),
+                new UriImageRequestDescriptor(uri, 64, 64, ImageRequest.UNSPECIFIED_SIZE,
+                        ImageRequest.UNSPECIFIED_SIZE, true /* allowCompression */,
+                        false /* isStatic */, false /* cropToCircle */,
+                        0 /* circleBackgroundColor */, 0 /* circleStrokeColor */,
+                        ImageRequestDescriptor.DECODE_MODE_HARDWARE));
+        assertEquals(ImageRequestDescriptor.DECODE_MODE_POOLED,
+                compressedRequest.getDecodeMode());
+
+        final UriImageRequestDescriptor pooledDescriptor = new UriImageRequestDescriptor(uri);
+        final UriImageRequestDescriptor hardwareDescriptor = new UriImageRequestDescriptor(uri,
+                ImageRequest.UNSPECIFIED_SIZE, ImageRequest.UNSPECIFIED_SIZE,
+                ImageRequest.UNSPECIFIED_SIZE, ImageRequest.UNSPECIFIED_SIZE,
+                false /* allowCompression */, false /* isStatic */, false /* cropToCircle */,
+                0 /* circleBackgroundColor */, 0 /* circleStrokeColor */,
+                ImageRequestDescriptor.DECODE_MODE_HARDWARE);
+        assertFalse(pooledDescriptor.getKey().equals(hardwareDescriptor.getKey()));
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+@SmallTest
+public class ImageTileRequestTest extends AndroidTestCase {
+    private static final Uri IMAGE_URI = Uri.parse("content://test/image");
+
+    private BitmapRegionDecoder mDecoder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Bitmap bitmap = Bitmap.createBitmap(600, 400, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.RED);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        bitmap.recycle();
+        final byte[] jpeg = outputStream.toByteArray();
+        mDecoder = BitmapRegionDecoder.newInstance(jpeg, 0, jpeg.length, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDecoder.recycle();
+        super.tearDown();
+    }
+
+    private ImageResource loadTile(final Rect region, final int sampleSize) throws Exception {
+        final ImageTileRequestDescriptor descriptor =
+                new ImageTileRequestDescriptor(IMAGE_URI, mDecoder, region, sampleSize);
+        return descriptor.buildSyncMediaRequest(getContext()).loadMediaBlocking(null);
+    }
+
+    public void testDecodesSubsampledRegion() throws Exception {
+        final ImageResource tile = loadTile(new Rect(0, 0, 512, 256), 2);
+        assertEquals(256, tile.getBitmap().getWidth());
+        assertEquals(128, tile.getBitmap().getHeight());
+    }
+
+    public void testDecodesEdgeTile() throws Exception {
+        final ImageResource tile = loadTile(new Rect(512, 256, 600, 400), 1);
+        assertEquals(88, tile.getBitmap().getWidth());
+        assertEquals(144, tile.getBitmap().getHeight());
+    }
+
+    public void testKeyDependsOnRegionAndSampleSize() {
+        final Rect region = new Rect(256, 0, 512, 256);
+        final String key = new ImageTileRequestDescriptor(IMAGE_URI, mDecoder, region, 1)
+                .getKey();
+        assertEquals(key, ImageTileRequestDescriptor.getKey(IMAGE_URI, new Rect(region), 1));
+        assertFalse(key.equals(ImageTileRequestDescriptor.getKey(IMAGE_URI, region, 2)));
+        assertFalse(key.equals(ImageTileRequestDescriptor.getKey(IMAGE_URI,
+                new Rect(0, 256, 256, 512), 1)));
+    }
+
+    public void testRecycledDecoderFails() {
+        mDecoder.recycle();
+        try {
+            loadTile(new Rect(0, 0, 256, 256), 1);
+            fail("Expected an IOException");
+        } catch (final IOException e) {
+            // Expected
+        } catch (final Exception e) {
+            fail("Unexpected " + e);
+        }
+    }
+}
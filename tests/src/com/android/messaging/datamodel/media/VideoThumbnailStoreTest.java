@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.media;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@SmallTest
+public class VideoThumbnailStoreTest extends AndroidTestCase {
+    private File mDirectory;
+    private File mVideo;
+    private Uri mVideoUri;
+    private VideoThumbnailStore mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "video_thumbnail_store_test");
+        mVideo = new File(getContext().getCacheDir(), "video_thumbnail_store_test.mp4");
+        Files.write(new byte[] { 1, 2, 3, 4 }, mVideo);
+        mVideoUri = Uri.fromFile(mVideo);
+        mStore = new VideoThumbnailStore(getContext(), mDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.removeThumbnail(mVideoUri);
+        mDirectory.delete();
+        mVideo.delete();
+        super.tearDown();
+    }
+
+    public void testStoredThumbnailIsScaledAndKeepsSourceSize() {
+        assertNull(mStore.getThumbnail(mVideoUri));
+
+        final Bitmap frame = Bitmap.createBitmap(1920, 1080, Bitmap.Config.ARGB_8888);
+        mStore.putThumbnail(mVideoUri, frame);
+        final VideoThumbnailStore.Thumbnail thumbnail = mStore.getThumbnail(mVideoUri);
+        assertNotNull(thumbnail);
+        assertEquals(1920, thumbnail.sourceWidth);
+        assertEquals(1080, thumbnail.sourceHeight);
+        assertEquals(1024, thumbnail.bitmap.getWidth());
+        assertEquals(576, thumbnail.bitmap.getHeight());
+        assertFalse(frame.isRecycled());
+    }
+
+    public void testChangedVideoIsNotServed() throws IOException {
+        mStore.putThumbnail(mVideoUri, Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888));
+        assertNotNull(mStore.getThumbnail(mVideoUri));
+
+        try (final FileOutputStream outputStream = new FileOutputStream(mVideo, true)) {
+            outputStream.write(5);
+        }
+        assertNull(mStore.getThumbnail(mVideoUri));
+    }
+
+    public void testRemovedThumbnailIsGone() {
+        mStore.putThumbnail(mVideoUri, Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888));
+        mStore.removeThumbnail(mVideoUri);
+        assertNull(mStore.getThumbnail(mVideoUri));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.content.ContentProvider;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeContext;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.MediaScratchFileProvider;
+import com.android.messaging.util.ContentType;
+import com.android.messaging.util.GifTranscoderTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class MmsAttachmentPreprocessorTest extends BugleTestCase {
+    private static final Uri IMAGE_URI = Uri.parse("content://test/image/1");
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // ImageResizer transcodes GIFs into the media scratch space
+        final FakeContext context = new FakeContext(getTestContext());
+        final ContentProvider mediaProvider = new MediaScratchFileProvider();
+        final ProviderInfo mediaProviderInfo = new ProviderInfo();
+        mediaProviderInfo.authority = MediaScratchFileProvider.AUTHORITY;
+        mediaProvider.attachInfo(context, mediaProviderInfo);
+        context.addContentProvider(MediaScratchFileProvider.AUTHORITY, mediaProvider);
+        FakeFactory.registerWithFakeContext(getTestContext(), context);
+    }
+
+    private static class CountingResizer implements MmsAttachmentPreprocessor.Resizer {
+        final AtomicInteger mResizeCount = new AtomicInteger();
+
+        @Override
+        public byte[] resize(final Context context,
+                final MmsAttachmentPreprocessor.ResizeRequest request,
+                final CancellationSignal cancellationSignal) {
+            mResizeCount.incrementAndGet();
+            return new byte[request.mByteLimit / 2];
+        }
+    }
+
+    /**
+     * Holds every resize until released.
+     */
+    private static class BlockingResizer implements MmsAttachmentPreprocessor.Resizer {
+        final AtomicInteger mResizeCount = new AtomicInteger();
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        volatile Thread mLastThread;
+
+        @Override
+        public byte[] resize(final Context context,
+                final MmsAttachmentPreprocessor.ResizeRequest request,
+                final CancellationSignal cancellationSignal) {
+            mResizeCount.incrementAndGet();
+            mLastThread = Thread.currentThread();
+            mStarted.countDown();
+            try {
+                mRelease.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new byte[request.mByteLimit / 2];
+        }
+    }
+
+    private static MmsAttachmentPreprocessor.ResizeRequest newRequest(final int byteLimit) {
+        return new MmsAttachmentPreprocessor.ResizeRequest(IMAGE_URI, ContentType.IMAGE_JPEG,
+                4000, 3000, 0 /* orientation */, 640, 480, byteLimit);
+    }
+
+    public void testStartedResizeIsReused() {
+        final CountingResizer resizer = new CountingResizer();
+        final MmsAttachmentPreprocessor preprocessor = new MmsAttachmentPreprocessor(resizer);
+
+        preprocessor.start(getContext(), newRequest(100 * 1024));
+        final byte[] data = preprocessor.getResizedImageData(getContext(), newRequest(100 * 1024));
+        assertNotNull(data);
+        assertSame(data, preprocessor.getResizedImageData(getContext(), newRequest(100 * 1024)));
+        assertEquals(1, resizer.mResizeCount.get());
+    }
+
+    public void testDifferentLimitsAreResizedAgain() {
+        final CountingResizer resizer = new CountingResizer();
+        final MmsAttachmentPreprocessor preprocessor = new MmsAttachmentPreprocessor(resizer);
+
+        final byte[] large = preprocessor.getResizedImageData(getContext(),
+                newRequest(100 * 1024));
+        final byte[] small = preprocessor.getResizedImageData(getContext(),
+                newRequest(50 * 1024));
+        assertEquals(50 * 1024, large.length);
+        assertEquals(25 * 1024, small.length);
+        assertEquals(2, resizer.mResizeCount.get());
+
+        preprocessor.reclaim();
+        preprocessor.getResizedImageData(getContext(), newRequest(100 * 1024));
+        assertEquals(3, resizer.mResizeCount.get());
+    }
+
+    public void testSpeculativeResizeIsCancelledWhenDraftChanges() throws InterruptedException {
+        final BlockingResizer resizer = new BlockingResizer();
+        final MmsAttachmentPreprocessor preprocessor = new MmsAttachmentPreprocessor(resizer);
+
+        preprocessor.startSpeculative(getContext(), preprocessor.newSpeculativeGeneration(),
+                Collections.singletonList(newRequest(100 * 1024)));
+        assertTrue(resizer.mStarted.await(10, TimeUnit.SECONDS));
+        // The image is removed from the draft
+        preprocessor.startSpeculative(getContext(), preprocessor.newSpeculativeGeneration(),
+                Collections.<MmsAttachmentPreprocessor.ResizeRequest>emptyList());
+        resizer.mRelease.countDown();
+
+        assertNotNull(preprocessor.getResizedImageData(getContext(), newRequest(100 * 1024)));
+        assertEquals(2, resizer.mResizeCount.get());
+        assertSame(Thread.currentThread(), resizer.mLastThread);
+    }
+
+    public void testSpeculativeResizeIsKeptForSending() throws InterruptedException {
+        final BlockingResizer resizer = new BlockingResizer();
+        final MmsAttachmentPreprocessor preprocessor = new MmsAttachmentPreprocessor(resizer);
+
+        preprocessor.startSpeculative(getContext(), preprocessor.newSpeculativeGeneration(),
+                Collections.singletonList(newRequest(100 * 1024)));
+        assertTrue(resizer.mStarted.await(10, TimeUnit.SECONDS));
+        // The draft is sent, then emptied
+        preprocessor.keepSpeculative();
+        preprocessor.startSpeculative(getContext(), preprocessor.newSpeculativeGeneration(),
+                Collections.<MmsAttachmentPreprocessor.ResizeRequest>emptyList());
+        resizer.mRelease.countDown();
+
+        assertNotNull(preprocessor.getResizedImageData(getContext(), newRequest(100 * 1024)));
+        assertEquals(1, resizer.mResizeCount.get());
+    }
+
+    public void testCancelStopsGifTranscodeUnderWay() throws IOException, InterruptedException {
+        final File gif = new File(getTestContext().getCacheDir(), "preprocessor_cancel.gif");
+        try {
+            GifTranscoderTest.writeGif(gif, 800, 600, 40, GifTranscoderTest.DISPOSE_BACKGROUND,
+                    false /* partial */);
+            final MmsAttachmentPreprocessor.ResizeRequest request =
+                    new MmsAttachmentPreprocessor.ResizeRequest(Uri.fromFile(gif),
+                            ContentType.IMAGE_GIF, 800, 600, 0 /* orientation */, 640, 480,
+                            300 * 1024);
+            // The whole transcode goes through
+            assertNotNull(MmsAttachmentPreprocessor.IMAGE_RESIZER.resize(getContext(), request,
+                    new CancellationSignal()));
+
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch finished = new CountDownLatch(1);
+            final byte[][] result = new byte[1][];
+            final MmsAttachmentPreprocessor preprocessor =
+                    new MmsAttachmentPreprocessor(new MmsAttachmentPreprocessor.Resizer() {
+                        @Override
+                        public byte[] resize(final Context context,
+                                final MmsAttachmentPreprocessor.ResizeRequest request,
+                                final CancellationSignal cancellationSignal) {
+                            started.countDown();
+                            result[0] = MmsAttachmentPreprocessor.IMAGE_RESIZER.resize(context,
+                                    request, cancellationSignal);
+                            finished.countDown();
+                            return result[0];
+                        }
+                    });
+            preprocessor.startSpeculative(getContext(), preprocessor.newSpeculativeGeneration(),
+                    Collections.singletonList(request));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            // The GIF is removed from the draft while it is being transcoded
+            preprocessor.startSpeculative(getContext(), preprocessor.newSpeculativeGeneration(),
+                    Collections.<MmsAttachmentPreprocessor.ResizeRequest>emptyList());
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+            assertNull(result[0]);
+        } finally {
+            gif.delete();
+        }
+    }
+}
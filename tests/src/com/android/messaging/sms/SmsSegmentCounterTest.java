@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.telephony.SmsMessage;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.util.LogUtil;
+
+import java.util.Random;
+
+/**
+ * Checks SmsSegmentCounter against SmsMessage.calculateLength as random edits are applied, and
+ * compares the cost of both while typing a long message.
+ */
+@SmallTest
+public class SmsSegmentCounterTest extends AndroidTestCase {
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    private static final String GSM_CHARS = "abcXYZ019 .,!?@\u00a3\u00e9\u00c7\u0394\n";
+    private static final String GSM_EXTENSION_CHARS = "^{}\\[~]|\u20ac";
+    // Outside of the GSM alphabet, all in the basic multilingual plane
+    private static final String NON_GSM_CHARS = "\u00e7\u00e2\u0414\u4e2d\uac00";
+
+    private static final int EDIT_COUNT = 2000;
+    private static final int BENCHMARK_MESSAGE_LENGTH = 2000;
+
+    public void testMatchesPlatformForGsmText() {
+        runRandomEdits(GSM_CHARS + GSM_EXTENSION_CHARS, 1);
+    }
+
+    public void testMatchesPlatformForUcs2Text() {
+        if (SmsSegmentCounter.platformUsesAlternateEncodings()) {
+            // The carrier configuration lets the platform encode these in 7 bit
+            return;
+        }
+        runRandomEdits(GSM_CHARS + GSM_EXTENSION_CHARS + NON_GSM_CHARS, 2);
+    }
+
+    public void testSegmentBoundaries() {
+        final SmsSegmentCounter counter = new SmsSegmentCounter();
+        assertCounts(counter, repeat('a', 160));
+        assertCounts(counter, repeat('a', 161));
+        assertCounts(counter, repeat('{', 80));
+        assertCounts(counter, repeat('{', 81));
+        if (!SmsSegmentCounter.platformUsesAlternateEncodings()) {
+            assertCounts(counter, repeat('\u4e2d', 70));
+            assertCounts(counter, repeat('\u4e2d', 71));
+        }
+    }
+
+    @LargeTest
+    public void testBenchmarkTypingLongMessage() {
+        final StringBuilder builder = new StringBuilder();
+        final Random random = new Random(0);
+        final SmsSegmentCounter counter = new SmsSegmentCounter();
+        counter.reset("");
+
+        long platformNanos = 0;
+        long counterNanos = 0;
+        for (int i = 0; i < BENCHMARK_MESSAGE_LENGTH; i++) {
+            final int start = builder.length();
+            builder.append(GSM_CHARS.charAt(random.nextInt(GSM_CHARS.length())));
+            final String text = builder.toString();
+
+            long startNanos = System.nanoTime();
+            final int[] params = SmsMessage.calculateLength(text, false);
+            platformNanos += System.nanoTime() - startNanos;
+
+            startNanos = System.nanoTime();
+            counter.add(text, start, start + 1);
+            final int segmentCount = counter.getSegmentCount();
+            counterNanos += System.nanoTime() - startNanos;
+
+            assertEquals(params[0], segmentCount);
+        }
+        LogUtil.i(TAG, "Typing " + BENCHMARK_MESSAGE_LENGTH + " characters took "
+                + (platformNanos / 1000) + "us with SmsMessage.calculateLength and "
+                + (counterNanos / 1000) + "us with SmsSegmentCounter");
+        assertTrue(counterNanos < platformNanos);
+    }
+
+    private void runRandomEdits(final String alphabet, final long seed) {
+        final Random random = new Random(seed);
+        final SmsSegmentCounter counter = new SmsSegmentCounter();
+        String text = "";
+        counter.reset(text);
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            final int start = random.nextInt(text.length() + 1);
+            final int before = random.nextInt(Math.min(text.length() - start, 20) + 1);
+            // Grow the text more often than not so that it spans several segments
+            final int count = random.nextInt(30);
+            final StringBuilder inserted = new StringBuilder();
+            for (int j = 0; j < count; j++) {
+                inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            final String edited = text.substring(0, start) + inserted
+                    + text.substring(start + before);
+
+            counter.remove(text, start, start + before);
+            counter.add(edited, start, start + count);
+            text = edited;
+            assertEquals(text.length(), counter.getLength());
+
+            final int[] params = SmsMessage.calculateLength(text, false);
+            assertEquals(text, params[0], counter.getSegmentCount());
+            assertEquals(text, params[1], counter.getCodeUnitCount());
+            assertEquals(text, params[2], counter.getCodeUnitsRemainingInCurrentSegment());
+            if (text.length() > 1000) {
+                text = "";
+                counter.reset(text);
+            }
+        }
+    }
+
+    private static void assertCounts(final SmsSegmentCounter counter, final String text) {
+        counter.reset(text);
+        final int[] params = SmsMessage.calculateLength(text, false);
+        assertEquals(params[0], counter.getSegmentCount());
+        assertEquals(params[2], counter.getCodeUnitsRemainingInCurrentSegment());
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.sms;
+
+import android.app.Activity;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.MediumTest;
+
+import com.android.messaging.sms.SmsSender.SendResult;
+import com.android.messaging.sms.SmsSender.SendResultListener;
+import com.android.messaging.util.LogUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exercises SmsSendEngine against a fake radio which reports the sent status of each part after
+ * a fixed delay.
+ */
+@MediumTest
+public class SmsSendEngineTest extends AndroidTestCase {
+    private static final String TAG = LogUtil.BUGLE_TAG;
+
+    private static final int SUB_ID = 1;
+    private static final long RADIO_DELAY_MILLIS = 10;
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final int BENCHMARK_MESSAGE_COUNT = 300;
+    private static final int BENCHMARK_CONVERSATION_COUNT = 10;
+    private static final String RADIO_THREAD_NAME = "FakeRadio";
+
+    /**
+     * Reports every part as sent after RADIO_DELAY_MILLIS, recording what was sent.
+     */
+    private static class FakeTransport implements SmsSendEngine.Transport {
+        private final ScheduledExecutorService mRadio = Executors.newScheduledThreadPool(4,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(runnable, RADIO_THREAD_NAME);
+                    }
+                });
+        private final int mPartsPerMessage;
+        private final Map<String, List<String>> mSentPerConversation =
+                new HashMap<String, List<String>>();
+        private int mInFlight;
+        private int mMaxInFlight;
+        private boolean mSentFromRadioThread;
+
+        FakeTransport(final int partsPerMessage) {
+            mPartsPerMessage = partsPerMessage;
+        }
+
+        @Override
+        public void send(final SmsSendEngine.Request request, final SendResultListener listener) {
+            final SendResult result = new SendResult(mPartsPerMessage);
+            synchronized (this) {
+                List<String> sent = mSentPerConversation.get(request.mConversationId);
+                if (sent == null) {
+                    sent = new ArrayList<String>();
+                    mSentPerConversation.put(request.mConversationId, sent);
+                }
+                sent.add(request.mMessageText);
+                if (RADIO_THREAD_NAME.equals(Thread.currentThread().getName())) {
+                    mSentFromRadioThread = true;
+                }
+                mInFlight++;
+                mMaxInFlight = Math.max(mMaxInFlight, mInFlight);
+            }
+            for (int part = 0; part < mPartsPerMessage; part++) {
+                mRadio.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        final boolean done;
+                        synchronized (FakeTransport.this) {
+                            result.setPartResult(Activity.RESULT_OK);
+                            done = !result.hasPending();
+                            if (done) {
+                                mInFlight--;
+                            }
+                        }
+                        if (done) {
+                            listener.onSendCompleted(request.mMessageUri, result);
+                        }
+                    }
+                }, RADIO_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public SendResult abandon(final SmsSendEngine.Request request) {
+            return null;
+        }
+
+        synchronized List<String> getSent(final String conversationId) {
+            return mSentPerConversation.get(conversationId);
+        }
+
+        synchronized int getMaxInFlight() {
+            return mMaxInFlight;
+        }
+
+        synchronized boolean getSentFromRadioThread() {
+            return mSentFromRadioThread;
+        }
+
+        void shutdown() {
+            mRadio.shutdownNow();
+        }
+    }
+
+    /**
+     * A radio which never reports back.
+     */
+    private static class SilentTransport implements SmsSendEngine.Transport {
+        private int mAbandoned;
+
+        @Override
+        public void send(final SmsSendEngine.Request request, final SendResultListener listener) {
+        }
+
+        @Override
+        public synchronized SendResult abandon(final SmsSendEngine.Request request) {
+            mAbandoned++;
+            return null;
+        }
+
+        synchronized int getAbandoned() {
+            return mAbandoned;
+        }
+    }
+
+    /**
+     * Records the scheduled timeout check and whether the engine holds the device awake.
+     */
+    private static class FakeHost implements SmsSendEngine.Host {
+        private long mTimeoutCheckDelay = Long.MAX_VALUE;
+        private boolean mBusy;
+
+        @Override
+        public synchronized void scheduleTimeoutCheck(final long delayMillis) {
+            mTimeoutCheckDelay = delayMillis;
+        }
+
+        @Override
+        public synchronized void setBusy(final boolean busy) {
+            assertTrue(busy != mBusy);
+            mBusy = busy;
+        }
+
+        synchronized long getTimeoutCheckDelay() {
+            return mTimeoutCheckDelay;
+        }
+
+        synchronized boolean isBusy() {
+            return mBusy;
+        }
+    }
+
+    private static class CountingCallback implements SmsSendEngine.SendCallback {
+        final CountDownLatch mLatch;
+        int mFailed;
+
+        CountingCallback(final int count) {
+            mLatch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onSendCompleted(final SendResult result) {
+            if (result == null || result.hasPending() ||
+                    result.getHighestFailureLevel() != SendResult.FAILURE_LEVEL_NONE) {
+                synchronized (this) {
+                    mFailed++;
+                }
+            }
+            mLatch.countDown();
+        }
+    }
+
+    private ExecutorService mDispatchExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDispatchExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDispatchExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    private static SmsSendEngine.Request makeRequest(final int conversation, final int message) {
+        return new SmsSendEngine.Request(SUB_ID, Integer.toString(conversation), "5551234567",
+                Integer.toString(message), null, false,
+                Uri.parse("content://sms/" + conversation + "/" + message));
+    }
+
+    /**
+     * Sends messageCount messages round robin over conversationCount conversations, returning
+     * the time it took for all of them to complete.
+     */
+    private long sendAll(final SmsSendEngine engine, final int messageCount,
+            final int conversationCount) throws InterruptedException {
+        final CountingCallback callback = new CountingCallback(messageCount);
+        final long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < messageCount; i++) {
+            engine.send(makeRequest(i % conversationCount, i), callback);
+        }
+        assertTrue(callback.mLatch.await(TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS));
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals(0, callback.mFailed);
+        assertEquals(0, engine.getInFlightCount(SUB_ID));
+        return elapsed;
+    }
+
+    public void testKeepsConversationOrderWithinWindow() throws InterruptedException {
+        final FakeTransport transport = new FakeTransport(2 /* partsPerMessage */);
+        try {
+            final FakeHost host = new FakeHost();
+            final SmsSendEngine engine =
+                    new SmsSendEngine(transport, host, mDispatchExecutor, 3, TIMEOUT_MILLIS);
+            sendAll(engine, 60, 5);
+            assertFalse(host.isBusy());
+            assertEquals(Long.MAX_VALUE, host.getTimeoutCheckDelay());
+
+            assertTrue(transport.getMaxInFlight() <= 3);
+            // The sends freed up by a sent status are made off the thread reporting it
+            assertFalse(transport.getSentFromRadioThread());
+            for (int conversation = 0; conversation < 5; conversation++) {
+                final List<String> sent = transport.getSent(Integer.toString(conversation));
+                assertEquals(12, sent.size());
+                for (int i = 0; i < sent.size(); i++) {
+                    assertEquals(Integer.toString(i * 5 + conversation), sent.get(i));
+                }
+            }
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    public void testSendsOneAtATimeWithinConversation() throws InterruptedException {
+        final FakeTransport transport = new FakeTransport(1 /* partsPerMessage */);
+        try {
+            final FakeHost host = new FakeHost();
+            final SmsSendEngine engine =
+                    new SmsSendEngine(transport, host, mDispatchExecutor, 4, TIMEOUT_MILLIS);
+            sendAll(engine, 10, 1);
+            assertFalse(host.isBusy());
+            assertEquals(1, transport.getMaxInFlight());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    public void testTimesOutWhileHoldingDeviceAwake() throws InterruptedException {
+        final SilentTransport transport = new SilentTransport();
+        final FakeHost host = new FakeHost();
+        final long timeoutMillis = 50;
+        final SmsSendEngine engine =
+                new SmsSendEngine(transport, host, mDispatchExecutor, 1, timeoutMillis);
+        final CountingCallback callback = new CountingCallback(2);
+        engine.send(makeRequest(0, 0), callback);
+        engine.send(makeRequest(1, 1), callback);
+        assertTrue(host.isBusy());
+        assertEquals(1, engine.getInFlightCount(SUB_ID));
+        assertTrue(host.getTimeoutCheckDelay() <= timeoutMillis);
+
+        // Checking early times nothing out
+        engine.checkTimeouts();
+        assertEquals(0, transport.getAbandoned());
+        assertTrue(host.getTimeoutCheckDelay() != Long.MAX_VALUE);
+
+        // The first message times out and the second one takes its place
+        SystemClock.sleep(timeoutMillis);
+        engine.checkTimeouts();
+        assertEquals(1, transport.getAbandoned());
+        assertEquals(1, engine.getInFlightCount(SUB_ID));
+        assertTrue(host.isBusy());
+        assertTrue(host.getTimeoutCheckDelay() <= timeoutMillis);
+
+        SystemClock.sleep(timeoutMillis);
+        engine.checkTimeouts();
+        assertTrue(callback.mLatch.await(0, TimeUnit.MILLISECONDS));
+        assertEquals(2, callback.mFailed);
+        assertEquals(0, engine.getInFlightCount(SUB_ID));
+        assertFalse(host.isBusy());
+        assertEquals(Long.MAX_VALUE, host.getTimeoutCheckDelay());
+    }
+
+    @LargeTest
+    public void testBenchmarkWindowedThroughput() throws InterruptedException {
+        final FakeTransport serialTransport = new FakeTransport(1 /* partsPerMessage */);
+        final FakeTransport windowedTransport = new FakeTransport(1 /* partsPerMessage */);
+        try {
+            final long serialMillis = sendAll(
+                    new SmsSendEngine(serialTransport, new FakeHost(), mDispatchExecutor, 1,
+                            TIMEOUT_MILLIS),
+                    BENCHMARK_MESSAGE_COUNT, BENCHMARK_CONVERSATION_COUNT);
+            final long windowedMillis = sendAll(
+                    new SmsSendEngine(windowedTransport, new FakeHost(), mDispatchExecutor, 4,
+                            TIMEOUT_MILLIS),
+                    BENCHMARK_MESSAGE_COUNT, BENCHMARK_CONVERSATION_COUNT);
+            LogUtil.i(TAG, "Sending " + BENCHMARK_MESSAGE_COUNT + " messages with a "
+                    + RADIO_DELAY_MILLIS + "ms radio delay took " + serialMillis
+                    + "ms one at a time and " + windowedMillis + "ms with a window of 4");
+            assertTrue(windowedMillis < serialMillis);
+        } finally {
+            serialTransport.shutdown();
+            windowedTransport.shutdown();
+        }
+    }
+}
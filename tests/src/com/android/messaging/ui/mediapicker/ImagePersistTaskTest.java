@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.ui.mediapicker;
+
+import android.content.ContentProvider;
+import android.content.pm.ProviderInfo;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.BugleTestCase;
+import com.android.messaging.FakeContext;
+import com.android.messaging.FakeFactory;
+import com.android.messaging.datamodel.MediaScratchFileProvider;
+import com.android.messaging.util.exif.ExifInterface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+@SmallTest
+public class ImagePersistTaskTest extends BugleTestCase {
+    private FakeContext mContext;
+
+    private static class RecordingCallback implements CameraManager.MediaCallback {
+        Uri mUri;
+        int mWidth;
+        int mHeight;
+
+        @Override
+        public void onMediaReady(final Uri uriToMedia, final String contentType, final int width,
+                final int height) {
+            mUri = uriToMedia;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void onMediaFailed(final Exception exception) {
+            fail("Persisting the image failed: " + exception);
+        }
+
+        @Override
+        public void onMediaInfo(final int what) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new FakeContext(getTestContext());
+        final ContentProvider mediaProvider = new MediaScratchFileProvider();
+        final ProviderInfo mediaProviderInfo = new ProviderInfo();
+        mediaProviderInfo.authority = MediaScratchFileProvider.AUTHORITY;
+        mediaProvider.attachInfo(mContext, mediaProviderInfo);
+        mContext.addContentProvider(MediaScratchFileProvider.AUTHORITY, mediaProvider);
+        FakeFactory.registerWithFakeContext(getTestContext(), mContext);
+    }
+
+    public void testUncroppedCaptureIsPersistedAsIs() throws IOException {
+        final byte[] capture = createCapture(64, 48);
+        final RecordingCallback callback = new RecordingCallback();
+        final ImagePersistTask task = new ImagePersistTask(64, 48, 1.0f /* heightPercent */,
+                capture, mContext, callback);
+        task.doInBackgroundTimed();
+        task.onPostExecute(null);
+
+        assertNotNull(callback.mUri);
+        assertEquals(64, callback.mWidth);
+        assertEquals(48, callback.mHeight);
+        assertTrue(Arrays.equals(capture, readFile(
+                MediaScratchFileProvider.getFileFromUri(callback.mUri))));
+    }
+
+    /**
+     * @return a JPEG with an EXIF segment, as a camera would capture it
+     */
+    private static byte[] createCapture(final int width, final int height) throws IOException {
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        final ExifInterface exifInterface = new ExifInterface();
+        exifInterface.setTag(exifInterface.buildTag(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.Orientation.TOP_LEFT));
+        exifInterface.setTag(exifInterface.buildTag(ExifInterface.TAG_MAKE, "Camera"));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        exifInterface.writeExif(bitmap, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
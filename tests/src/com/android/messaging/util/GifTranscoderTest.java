@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.util;
+
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.LargeTest;
+
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Transcodes a corpus of generated GIFs, checking that threads don't change the output and
+ * reporting the time taken with one thread and with several to logcat.
+ */
+@LargeTest
+public class GifTranscoderTest extends AndroidTestCase {
+    private static final String TAG = "GifTranscoderTest";
+    private static final int THREAD_COUNT = 4;
+
+    public static final int DISPOSE_DO_NOT = 1;
+    public static final int DISPOSE_BACKGROUND = 2;
+
+    private static final int CLEAR_CODE = 256;
+    private static final int END_CODE = 257;
+    private static final int LITERALS_PER_CLEAR = 250;
+
+    private final List<File> mFiles = new ArrayList<File>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File file : mFiles) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testCancelStopsAfterFirstImage() throws IOException {
+        final File gif = writeGif("cancel", 320, 240, 10, DISPOSE_BACKGROUND, false);
+        final File out = newFile("cancel_out");
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        final List<Float> progress = new ArrayList<Float>();
+        final boolean success = GifTranscoder.transcode(gif.getPath(), out.getPath(),
+                THREAD_COUNT, cancellationSignal, new GifTranscoder.ProgressListener() {
+                    @Override
+                    public void onProgress(final float fraction) {
+                        progress.add(fraction);
+                        cancellationSignal.cancel();
+                    }
+                });
+        assertFalse(success);
+        assertFalse(out.exists());
+        assertEquals(1, progress.size());
+        assertTrue(progress.get(0) > 0 && progress.get(0) < 1);
+    }
+
+    public void testProgressReachesEnd() throws IOException {
+        final File gif = writeGif("progress", 320, 240, 5, DISPOSE_DO_NOT, true);
+        final File out = newFile("progress_out");
+        final List<Float> progress = new ArrayList<Float>();
+        assertTrue(GifTranscoder.transcode(gif.getPath(), out.getPath(), THREAD_COUNT,
+                null /* cancellationSignal */, new GifTranscoder.ProgressListener() {
+                    @Override
+                    public void onProgress(final float fraction) {
+                        progress.add(fraction);
+                    }
+                }));
+        assertEquals(5, progress.size());
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) >= progress.get(i - 1));
+        }
+        assertTrue(progress.get(progress.size() - 1) > 0.9f);
+    }
+
+    public void testBenchmarkCorpus() throws IOException {
+        final File[] corpus = {
+                writeGif("clip", 480, 360, 30, DISPOSE_BACKGROUND, false),
+                writeGif("sticker", 400, 400, 20, DISPOSE_DO_NOT, true),
+                writeGif("large", 800, 600, 10, DISPOSE_BACKGROUND, false),
+        };
+        for (final File gif : corpus) {
+            final File singleOut = newFile(gif.getName() + "_1");
+            final File parallelOut = newFile(gif.getName() + "_" + THREAD_COUNT);
+
+            long start = SystemClock.elapsedRealtime();
+            assertTrue(GifTranscoder.transcode(gif.getPath(), singleOut.getPath(), 1,
+                    null /* cancellationSignal */, null /* listener */));
+            final long singleMs = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            assertTrue(GifTranscoder.transcode(gif.getPath(), parallelOut.getPath(),
+                    THREAD_COUNT, null /* cancellationSignal */, null /* listener */));
+            final long parallelMs = SystemClock.elapsedRealtime() - start;
+
+            assertTrue(gif.getName(), Arrays.equals(Files.toByteArray(singleOut),
+                    Files.toByteArray(parallelOut)));
+            LogUtil.i(TAG, gif.getName() + " (" + gif.length() + " bytes): 1 thread " + singleMs
+                    + " ms, " + THREAD_COUNT + " threads " + parallelMs + " ms");
+        }
+    }
+
+    private File newFile(final String name) {
+        final File file = new File(getContext().getCacheDir(), "transcoder_" + name + ".gif");
+        mFiles.add(file);
+        return file;
+    }
+
+    private File writeGif(final String name, final int width, final int height,
+            final int imageCount, final int disposalMode, final boolean partial)
+            throws IOException {
+        final File file = newFile(name);
+        writeGif(file, width, height, imageCount, disposalMode, partial);
+        return file;
+    }
+
+    /**
+     * Writes an animated GIF with a 256 color palette, moving bands of color and, if partial,
+     * images covering only part of the screen. The image data is stored with LZW codes that are
+     * all literals, which keeps the writer simple.
+     */
+    public static void writeGif(final File file, final int width, final int height,
+            final int imageCount, final int disposalMode, final boolean partial)
+            throws IOException {
+        final ByteArrayOutputStream gif = new ByteArrayOutputStream();
+        gif.write("GIF89a".getBytes("US-ASCII"));
+        writeShort(gif, width);
+        writeShort(gif, height);
+        gif.write(0xF7); // Global color table of 256 colors
+        gif.write(0); // Background color
+        gif.write(0); // Aspect ratio
+        for (int i = 0; i < 256; i++) {
+            // 6x6x6 color cube followed by grays
+            if (i < 216) {
+                gif.write(i / 36 * 51);
+                gif.write(i / 6 % 6 * 51);
+                gif.write(i % 6 * 51);
+            } else {
+                final int gray = (i - 216) * 255 / 39;
+                gif.write(gray);
+                gif.write(gray);
+                gif.write(gray);
+            }
+        }
+        for (int image = 0; image < imageCount; image++) {
+            // Graphics control extension
+            gif.write(0x21);
+            gif.write(0xF9);
+            gif.write(4);
+            gif.write((disposalMode << 2) | (partial ? 1 : 0));
+            writeShort(gif, 4); // Delay
+            gif.write(0); // Transparent color
+            gif.write(0);
+
+            final int left = partial && image > 0 ? (image * 37) % (width / 2) : 0;
+            final int top = partial && image > 0 ? (image * 23) % (height / 2) : 0;
+            final int imageWidth = partial && image > 0 ? width / 2 : width;
+            final int imageHeight = partial && image > 0 ? height / 2 : height;
+            gif.write(0x2C);
+            writeShort(gif, left);
+            writeShort(gif, top);
+            writeShort(gif, imageWidth);
+            writeShort(gif, imageHeight);
+            gif.write(0); // No local color table, not interlaced
+
+            final byte[] pixels = new byte[imageWidth * imageHeight];
+            for (int y = 0; y < imageHeight; y++) {
+                for (int x = 0; x < imageWidth; x++) {
+                    pixels[y * imageWidth + x] =
+                            (byte) (((x + left + image * 7) / 6 + (y + top) / 10 * 3) % 256);
+                }
+            }
+            writeImageData(gif, pixels);
+        }
+        gif.write(0x3B);
+        Files.write(gif.toByteArray(), file);
+    }
+
+    private static void writeImageData(final ByteArrayOutputStream gif, final byte[] pixels) {
+        final LiteralCodeWriter writer = new LiteralCodeWriter();
+        gif.write(8); // LZW minimum code size
+        for (int i = 0; i < pixels.length; i++) {
+            if (i % LITERALS_PER_CLEAR == 0) {
+                // Reset the table before it grows past 9 bit codes
+                writer.write(CLEAR_CODE);
+            }
+            writer.write(pixels[i] & 0xFF);
+        }
+        writer.write(END_CODE);
+        final byte[] bytes = writer.toByteArray();
+        for (int offset = 0; offset < bytes.length; offset += 255) {
+            final int length = Math.min(255, bytes.length - offset);
+            gif.write(length);
+            gif.write(bytes, offset, length);
+        }
+        gif.write(0);
+    }
+
+    /**
+     * Packs 9 bit codes, least significant bit first.
+     */
+    private static class LiteralCodeWriter {
+        private final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        private int mBits;
+        private int mBitCount;
+
+        void write(final int code) {
+            mBits |= code << mBitCount;
+            mBitCount += 9;
+            while (mBitCount >= 8) {
+                mData.write(mBits & 0xFF);
+                mBits >>= 8;
+                mBitCount -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (mBitCount > 0) {
+                mData.write(mBits & 0xFF);
+                mBits = 0;
+                mBitCount = 0;
+            }
+            return mData.toByteArray();
+        }
+    }
+
+    private static void writeShort(final ByteArrayOutputStream gif, final int value) {
+        gif.write(value & 0xFF);
+        gif.write((value >> 8) & 0xFF);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.LargeTest;
+
+import com.android.messaging.util.ImageUtils.ImageResizer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Benchmark of shrinking camera sized images to MMS limits, with and without predicting the
+ * quality and scale. Reports the encodes and probes per image and the wall time to logcat.
+ */
+@LargeTest
+public class ImageResizerBenchmarkTest extends AndroidTestCase {
+    private static final String TAG = "ImageResizerBenchmark";
+
+    private static final int FIXTURE_WIDTH = 3264;
+    private static final int FIXTURE_HEIGHT = 2448;
+    private static final int WIDTH_LIMIT = 1600;
+    private static final int HEIGHT_LIMIT = 1600;
+    private static final int[] BYTE_LIMITS = { 300 * 1024, 100 * 1024 };
+    // A probe and a single encode of the whole image
+    private static final int MAX_PREDICTED_ENCODES_PER_IMAGE = 2;
+
+    private final List<File> mFixtures = new ArrayList<File>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A smooth image, a detailed one and one in between, as the corpus
+        mFixtures.add(writeFixture("gradient", 0 /* noise */, 0 /* lines */));
+        mFixtures.add(writeFixture("scene", 24, 40));
+        mFixtures.add(writeFixture("noise", 96, 200));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File fixture : mFixtures) {
+            fixture.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testPredictedResize() {
+        final int[] predicted = runCorpus(true /* probe */, "predicted");
+        final int[] stepwise = runCorpus(false /* probe */, "stepwise");
+        final int predictedTotal = predicted[0] + predicted[1];
+        assertTrue("predicted encodes and probes " + predictedTotal + " > stepwise encodes "
+                + stepwise[0], predictedTotal <= stepwise[0]);
+        final int images = BYTE_LIMITS.length * mFixtures.size();
+        assertTrue("predicted encodes and probes " + predictedTotal + " over " + images
+                + " images", predictedTotal <= MAX_PREDICTED_ENCODES_PER_IMAGE * images);
+    }
+
+    /**
+     * @return total encodes and probes over the corpus
+     */
+    private int[] runCorpus(final boolean probe, final String name) {
+        int encodes = 0;
+        int probes = 0;
+        int images = 0;
+        final long start = SystemClock.elapsedRealtime();
+        for (final int byteLimit : BYTE_LIMITS) {
+            for (final File fixture : mFixtures) {
+                final ImageResizer resizer = new ImageResizer(FIXTURE_WIDTH, FIXTURE_HEIGHT,
+                        0 /* orientation */, WIDTH_LIMIT, HEIGHT_LIMIT, byteLimit,
+                        Uri.fromFile(fixture), getContext(), ContentType.IMAGE_JPEG);
+                if (!probe) {
+                    resizer.disableProbe();
+                }
+                final byte[] data = resizer.resize();
+                assertNotNull(fixture.getName() + " not resized to " + byteLimit, data);
+                assertTrue(fixture.getName() + " resized to " + data.length + " > " + byteLimit,
+                        data.length <= byteLimit);
+                LogUtil.i(TAG, name + " " + fixture.getName() + "@" + byteLimit + ": "
+                        + resizer.getEncodeCount() + " encodes, " + resizer.getProbeCount()
+                        + " probes, " + data.length + " bytes");
+                encodes += resizer.getEncodeCount();
+                probes += resizer.getProbeCount();
+                images++;
+            }
+        }
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        LogUtil.i(TAG, name + ": " + ((float) encodes / images) + " encodes/image, "
+                + ((float) probes / images) + " probes/image, " + (elapsed / images)
+                + " ms/image");
+        return new int[] { encodes, probes };
+    }
+
+    private File writeFixture(final String name, final int noise, final int lines)
+            throws IOException {
+        final Bitmap bitmap =
+                Bitmap.createBitmap(FIXTURE_WIDTH, FIXTURE_HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, FIXTURE_WIDTH, FIXTURE_HEIGHT,
+                Color.rgb(20, 60, 160), Color.rgb(240, 200, 90), Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, FIXTURE_WIDTH, FIXTURE_HEIGHT, paint);
+        paint.setShader(null);
+
+        final Random random = new Random(name.hashCode());
+        for (int i = 0; i < lines; i++) {
+            paint.setColor(random.nextInt() | 0xff000000);
+            paint.setStrokeWidth(1 + random.nextInt(12));
+            canvas.drawLine(random.nextInt(FIXTURE_WIDTH), random.nextInt(FIXTURE_HEIGHT),
+                    random.nextInt(FIXTURE_WIDTH), random.nextInt(FIXTURE_HEIGHT), paint);
+        }
+        if (noise > 0) {
+            final int[] row = new int[FIXTURE_WIDTH];
+            for (int y = 0; y < FIXTURE_HEIGHT; y++) {
+                bitmap.getPixels(row, 0, FIXTURE_WIDTH, 0, y, FIXTURE_WIDTH, 1);
+                for (int x = 0; x < FIXTURE_WIDTH; x++) {
+                    final int delta = random.nextInt(2 * noise + 1) - noise;
+                    final int pixel = row[x];
+                    row[x] = Color.rgb(clamp(Color.red(pixel) + delta),
+                            clamp(Color.green(pixel) + delta), clamp(Color.blue(pixel) + delta));
+                }
+                bitmap.setPixels(row, 0, FIXTURE_WIDTH, 0, y, FIXTURE_WIDTH, 1);
+            }
+        }
+
+        final File file = new File(getContext().getCacheDir(), "resizer_" + name + ".jpg");
+        try (final FileOutputStream outputStream = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 95, outputStream);
+        } finally {
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static int clamp(final int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.util.exif;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.messaging.util.LogUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+@SmallTest
+public class ExifOrientationReaderTest extends AndroidTestCase {
+    private static final String TAG = "ExifOrientationReader";
+    private static final int BENCHMARK_ITERATIONS = 500;
+
+    // SOI, APP1 with a little endian TIFF header and an IFD 0 holding image width and
+    // orientation 6, then EOI
+    private static final byte[] LITTLE_ENDIAN_JPEG = {
+            (byte) 0xFF, (byte) 0xD8,
+            (byte) 0xFF, (byte) 0xE1, 0x00, 0x2E,
+            'E', 'x', 'i', 'f', 0x00, 0x00,
+            'I', 'I', 0x2A, 0x00, 0x08, 0x00, 0x00, 0x00,
+            0x02, 0x00,
+            0x00, 0x01, 0x04, 0x00, 0x01, 0x00, 0x00, 0x00, 0x40, 0x00, 0x00, 0x00,
+            0x12, 0x01, 0x03, 0x00, 0x01, 0x00, 0x00, 0x00, 0x06, 0x00, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0x00,
+            (byte) 0xFF, (byte) 0xD9
+    };
+
+    private static byte[] writeJpeg(final Integer orientation) throws IOException {
+        final Bitmap bitmap = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+        final ExifInterface exifInterface = new ExifInterface();
+        exifInterface.setTag(exifInterface.buildTag(ExifInterface.TAG_MAKE, "Bugle"));
+        exifInterface.setTag(exifInterface.buildTag(ExifInterface.TAG_MODEL, "Test"));
+        if (orientation != null) {
+            exifInterface.setTag(exifInterface.buildTag(ExifInterface.TAG_ORIENTATION,
+                    orientation.shortValue()));
+        }
+        exifInterface.setTag(exifInterface.buildTag(ExifInterface.TAG_SOFTWARE, "Bugle"));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        exifInterface.writeExif(bitmap, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+
+    private static int readWithExifInterface(final byte[] jpeg) throws IOException {
+        final ExifInterface exifInterface = new ExifInterface();
+        exifInterface.readExif(new ByteArrayInputStream(jpeg));
+        final Integer orientation = exifInterface.getTagIntValue(ExifInterface.TAG_ORIENTATION);
+        return orientation == null ? ExifOrientationReader.ORIENTATION_UNDEFINED : orientation;
+    }
+
+    public void testReadsBigEndianOrientation() throws IOException {
+        assertEquals(ExifInterface.Orientation.RIGHT_TOP, ExifOrientationReader.readOrientation(
+                new ByteArrayInputStream(writeJpeg((int) ExifInterface.Orientation.RIGHT_TOP))));
+    }
+
+    public void testReadsLittleEndianOrientation() throws IOException {
+        assertEquals(6, ExifOrientationReader.readOrientation(
+                new ByteArrayInputStream(LITTLE_ENDIAN_JPEG)));
+    }
+
+    public void testMissingOrientationIsUndefined() throws IOException {
+        assertEquals(ExifOrientationReader.ORIENTATION_UNDEFINED,
+                ExifOrientationReader.readOrientation(new ByteArrayInputStream(writeJpeg(null))));
+        assertEquals(ExifOrientationReader.ORIENTATION_UNDEFINED,
+                ExifOrientationReader.readOrientation(new ByteArrayInputStream(
+                        new byte[] { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A })));
+        assertEquals(ExifOrientationReader.ORIENTATION_UNDEFINED,
+                ExifOrientationReader.readOrientation(new ByteArrayInputStream(
+                        new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF })));
+    }
+
+    public void testBenchmarkAgainstExifInterface() throws IOException {
+        final byte[] jpeg = writeJpeg((int) ExifInterface.Orientation.BOTTOM_LEFT);
+        assertEquals(readWithExifInterface(jpeg),
+                ExifOrientationReader.readOrientation(new ByteArrayInputStream(jpeg)));
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            readWithExifInterface(jpeg);
+        }
+        final long exifInterfaceNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            ExifOrientationReader.readOrientation(new ByteArrayInputStream(jpeg));
+        }
+        final long readerNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        LogUtil.i(TAG, "orientation of " + jpeg.length + " byte jpeg: ExifInterface "
+                + (exifInterfaceNanos / BENCHMARK_ITERATIONS) + " ns, ExifOrientationReader "
+                + (readerNanos / BENCHMARK_ITERATIONS) + " ns");
+    }
+}